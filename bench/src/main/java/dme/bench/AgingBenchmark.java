@@ -0,0 +1,62 @@
+package dme.bench;
+
+import dme.AgingPolicy;
+import dme.C_buffer;
+import dme.Request;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * AgingBenchmark measures the cost of aging as the queue grows, from 10 to 100k waiting requests.
+ * The buffer is kept at a steady depth: each operation queues one request and retrieves the best one,
+ * which runs ageRequests (moving requests that reached the cap to the capped heap) and the heap operations.
+ * Aging is capped at a quarter of the depth in arrivals, so requests keep crossing the cap during the run;
+ * "NONE" is the same queue without aging, for comparison.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AgingBenchmark {
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int depth;
+
+    @Param({"ARRIVAL", "NONE"})
+    public AgingPolicy.Mode mode;
+
+    private C_buffer buffer;
+    private int next;
+
+    @Setup
+    public void setup() {
+        buffer = new C_buffer(new AgingPolicy(mode, 1, Math.max(1, depth / 4)));
+        for (int i = 0; i < depth; i++) {
+            buffer.saveRequest(request());
+        }
+    }
+
+    private Request request() {
+        next++;
+        return new Request("127.0.0.1", 9101, (next * 7) % 10);
+    }
+
+    @Benchmark
+    public Request saveAndGet() {
+        buffer.saveRequest(request());
+        return buffer.get();
+    }
+}
@@ -0,0 +1,69 @@
+package dme.bench;
+
+import dme.AgingPolicy;
+import dme.C_buffer;
+import dme.Request;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * C_bufferBenchmark measures C_buffer.saveRequest followed by get under contention, from 1 to 64 threads
+ * sharing one buffer (as request handler threads share a resource queue).
+ * Each thread saves before it gets, so get never waits for an empty buffer.
+ * Reported time is per save/get pair on each thread; throughput is threads / time.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class C_bufferBenchmark {
+
+    private final C_buffer buffer = new C_buffer(new AgingPolicy(AgingPolicy.Mode.ARRIVAL, 1, 10));
+
+    @State(Scope.Thread)
+    public static class Node {
+        int priority;
+    }
+
+    private Request saveAndGet(Node node) {
+        node.priority = (node.priority + 1) % 10;
+        buffer.saveRequest(new Request("127.0.0.1", 9101, node.priority));
+        return buffer.get();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Request threads01(Node node) {
+        return saveAndGet(node);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Request threads04(Node node) {
+        return saveAndGet(node);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Request threads16(Node node) {
+        return saveAndGet(node);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Request threads64(Node node) {
+        return saveAndGet(node);
+    }
+}
@@ -0,0 +1,57 @@
+package dme.bench;
+
+import dme.Logger;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * LoggerBenchmark measures Logger.logEvent throughput on the caller's side, in the default asynchronous mode
+ * and with -Ddme.log.mode=sync. The log is written to system_log.txt in the working directory.
+ * An asynchronous logger offered events faster than its writer drains them drops the excess;
+ * the number dropped is printed after each fork.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LoggerBenchmark {
+
+    private final Logger logger = Logger.getInstance();
+
+    @TearDown(Level.Trial)
+    public void dropped() {
+        System.out.println("(dropped " + logger.getDropped() + " events)");
+    }
+
+    @Benchmark
+    @Fork(1)
+    public void async() {
+        logger.logEvent("Request Received", "127.0.0.1:9101", 3);
+    }
+
+    @Benchmark
+    @Fork(1)
+    @Threads(4)
+    public void async4Threads() {
+        logger.logEvent("Request Received", "127.0.0.1:9101", 3);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Ddme.log.mode=sync")
+    public void sync() {
+        logger.logEvent("Request Received", "127.0.0.1:9101", 3);
+    }
+}
@@ -0,0 +1,142 @@
+package dme.bench;
+
+import dme.AgingPolicy;
+import dme.C_nioLoop;
+import dme.C_scheduler;
+import dme.DmeClient;
+import dme.DmeLock;
+import dme.PeerMutex;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PeerBenchmark compares the peer-to-peer mode (PeerMutex, token passed between the nodes) with the coordinator
+ * (DmeClient sessions to an NIO coordinator) for groups of 10, 100 and 1,000 nodes on loopback, all in this JVM.
+ * Nodes lock and unlock with nothing in between; the nodes not entering are idle members of the group, which
+ * in peer mode still receive every request. "handoff" is one thread entering as a different node each time,
+ * so every entry moves the token; "contended4" is 4 nodes entering at once, each on its own thread.
+ * Reported time is per lock/unlock on each thread. The messages sent per entry in peer mode are printed at
+ * the end of each trial.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xss256k"})
+public class PeerBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int nodes;
+
+    @Param({"peer", "coordinator"})
+    public String mode;
+
+    private final List<PeerMutex> peers = new ArrayList<>();
+    private final List<DmeClient> clients = new ArrayList<>();
+    private final List<DmeLock> locks = new ArrayList<>();
+    private final AtomicInteger nextNode = new AtomicInteger();
+    private final LongAdder entries = new LongAdder();
+    private C_scheduler scheduler;
+    private PrintStream console;
+
+    /**
+     * The node a benchmark thread acts as
+     */
+    @State(Scope.Thread)
+    public static class Node {
+        int index = -1;
+    }
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        console = System.out;
+        System.setOut(new PrintStream(new OutputStream() { // Both modes log every grant
+            public void write(int b) {}
+            public void write(byte[] b, int off, int len) {}
+        }));
+        if ("peer".equals(mode)) {
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            for (int i = 0; i < nodes; i++) {
+                PeerMutex m = new PeerMutex(0, 1, new AgingPolicy(AgingPolicy.Mode.NONE, 0, 0));
+                peers.add(m);
+                addresses.add(new InetSocketAddress("127.0.0.1", m.getPort()));
+            }
+            for (int i = 0; i < nodes; i++) peers.get(i).start(addresses, i);
+        } else {
+            C_nioLoop loop = new C_nioLoop(17503, 17504, 17505);
+            scheduler = new C_scheduler(new AgingPolicy(AgingPolicy.Mode.NONE, 0, 0), loop, 60000);
+            scheduler.start();
+            for (int i = 0; i < nodes; i++) {
+                DmeClient c = new DmeClient("127.0.0.1:17505", i + 1, 1);
+                clients.add(c);
+                locks.add(c.getLock("bench"));
+            }
+            for (DmeClient c : clients) {
+                while (!c.isConnected()) Thread.sleep(1);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        long sent = 0;
+        for (PeerMutex m : peers) {
+            sent += m.getMessagesSent();
+            m.close();
+        }
+        for (DmeClient c : clients) c.close();
+        if (scheduler != null) scheduler.shutdown();
+        System.setOut(console);
+        if (!peers.isEmpty()) {
+            System.out.printf("%n%d peers: %.1f messages per entry%n", nodes, sent / (double) Math.max(1, entries.sum()));
+        }
+    }
+
+    private void enter(int index) throws InterruptedException {
+        if (peers.isEmpty()) {
+            DmeLock l = locks.get(index);
+            l.lock();
+            l.unlock();
+        } else {
+            PeerMutex m = peers.get(index);
+            m.lock();
+            m.unlock();
+        }
+        entries.increment();
+    }
+
+    @Benchmark
+    public void handoff(Node node) throws InterruptedException {
+        node.index = (node.index + 1) % nodes;
+        enter(node.index);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void contended4(Node node) throws InterruptedException {
+        if (node.index < 0) node.index = nextNode.getAndIncrement() % nodes;
+        enter(node.index);
+    }
+}
@@ -0,0 +1,42 @@
+package dme.bench;
+
+import dme.Request;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * RequestBenchmark measures Request.compareTo, decided on priority and, between equal priorities,
+ * on timestamp and creation order.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+    private final Request low = new Request("127.0.0.1", 9101, 1);
+    private final Request high = new Request("127.0.0.1", 9102, 5);
+    private final Request older = new Request("127.0.0.1", 9103, 3);
+    private final Request newer = new Request("127.0.0.1", 9104, 3);
+
+    @Benchmark
+    public int differentPriority() {
+        return low.compareTo(high);
+    }
+
+    @Benchmark
+    public int equalPriority() {
+        return newer.compareTo(older);
+    }
+}
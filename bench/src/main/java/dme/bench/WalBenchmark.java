@@ -0,0 +1,94 @@
+package dme.bench;
+
+import dme.AgingPolicy;
+import dme.C_scheduler;
+import dme.C_wal;
+import dme.GrantStrategy;
+import dme.Journal;
+import dme.Lease;
+import dme.Request;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * WalBenchmark measures the throughput cost of each write-ahead log fsync policy: the work the scheduler does
+ * for every change, appending it to C_wal and committing it, with one thread and with 8 threads committing
+ * together (where "always" shares each force between the threads waiting). The log is written to a temporary
+ * directory, so the result depends on the disk behind it; it starts a new file every 100k changes.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WalBenchmark {
+
+    @Param({"ALWAYS", "BATCH", "NONE"})
+    public C_wal.Fsync fsync;
+
+    private Path dir;
+    private C_wal wal;
+    private final Request request = request();
+
+    @Setup(Level.Trial)
+    public void open() throws Exception {
+        dir = Files.createTempDirectory("dme-wal-bench");
+        C_scheduler scheduler = new C_scheduler(new AgingPolicy(AgingPolicy.Mode.NONE, 0, 0), new GrantStrategy() {
+            public void open(C_scheduler s) {}
+            public boolean grant(Lease lease) { return true; }
+            public void close() {}
+        }, 60000);
+        wal = new C_wal(scheduler, dir, fsync, 5, 100_000);
+        wal.open();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception {
+        wal.close();
+        File[] files = dir.toFile().listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    private static Request request() {
+        Request r = new Request("127.0.0.1", 9101, 5);
+        r.setResource("bench");
+        r.setRequestId(1);
+        return r;
+    }
+
+    @Benchmark
+    public long change() {
+        long position = wal.event(Journal.REQUEST, request, 0);
+        wal.commit(position);
+        return position;
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long change8Threads() {
+        long position = wal.event(Journal.REQUEST, request, 0);
+        wal.commit(position);
+        return position;
+    }
+}
@@ -0,0 +1,82 @@
+package dme.bench;
+
+import dme.C_frameHandler;
+import dme.Request;
+import dme.WireCodec;
+import dme.WireMessage;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * WireCodecBenchmark measures single-core encode and decode cost of the binary protocol,
+ * compared with parsing the text request line read by C_Connection_r (C_frameHandler.parseRequest).
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireCodecBenchmark {
+
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(WireCodec.MAX_FRAME_LENGTH);
+    private final ByteBuffer frame = ByteBuffer.allocateDirect(WireCodec.FRAME_LENGTH);
+    private final ByteBuffer named = ByteBuffer.allocateDirect(WireCodec.MAX_FRAME_LENGTH);
+    private final WireMessage m = new WireMessage();
+    private long requestId;
+
+    @Setup
+    public void setup() {
+        WireCodec.encode(frame, WireCodec.REQUEST, 9101, 3, 1, 0, 0);
+        frame.flip();
+        WireCodec.encode(named, WireCodec.REQUEST, WireCodec.FLAG_SHARED, 9101, 3, 1, 0, 0, 0, "accounts");
+        named.flip();
+    }
+
+    @Benchmark
+    public boolean encode() {
+        buf.clear();
+        return WireCodec.encode(buf, WireCodec.REQUEST, 9101, 3, requestId++, 0, 0);
+    }
+
+    @Benchmark
+    public long decode() {
+        frame.position(0);
+        WireCodec.decode(frame, m);
+        return m.requestId;
+    }
+
+    @Benchmark
+    public boolean encodeResourceMode() {
+        buf.clear();
+        return WireCodec.encode(buf, WireCodec.REQUEST, WireCodec.FLAG_SHARED, 9101, 3, requestId++, 0, 0, 0, "accounts");
+    }
+
+    @Benchmark
+    public String decodeResourceMode() {
+        named.position(0);
+        WireCodec.decode(named, m);
+        return m.resource;
+    }
+
+    @Benchmark
+    public Request parseText() {
+        return C_frameHandler.parseRequest("127.0.0.1 9101 3", "127.0.0.1");
+    }
+
+    @Benchmark
+    public Request parseTextResourceMode() {
+        return C_frameHandler.parseRequest("127.0.0.1 9101 3 accounts shared", "127.0.0.1");
+    }
+}
@@ -0,0 +1,259 @@
+package dme;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AdmissionControl bounds the number of requests the coordinator keeps queued, so a spike is turned away
+ * at the door instead of growing every queue and every wait without limit.
+ *
+ * There is an overall capacity, over every resource's queue, and optionally a capacity per priority band. A band
+ * "p:n" holds the requests of priority p and below, down to the previous band, and at most n of them are queued;
+ * priorities above the highest band are only bounded by the overall capacity. So giving the low priorities a band
+ * smaller than the overall capacity keeps room for the high priorities in a spike.
+ *
+ * A request over capacity is refused with a retry-after hint: the time the limit it hit takes to drain at the
+ * rate requests have been leaving it lately (granted, cancelled or expired), between a minimum and a maximum.
+ * A node that asks again after the hint finds the requests that were ahead of it gone, so waits stay about as
+ * long as the queue takes to drain, and rejected nodes back off as far as the coordinator is behind rather
+ * than by a fixed schedule.
+ *
+ * Counting is lock-free (a compare-and-set per limit), so it can be done under a resource's lock. Nothing is
+ * counted while no capacity is set.
+ *
+ * Settings: "dme.admission.capacity" (default 0, unbounded), "dme.admission.bands" as "priority:capacity,..."
+ * (default none), and the hint's bounds "dme.admission.retry.min.ms" (default 10) and
+ * "dme.admission.retry.max.ms" (default 5000).
+ *
+ */
+public class AdmissionControl {
+
+    private static final long SAMPLE_NANOS = 100_000_000L; // Drain rate sampling interval
+
+    /**
+     * A capacity and the requests queued against it
+     */
+    private static final class Limit {
+        final int capacity; // 0 for none
+        final AtomicInteger queued = new AtomicInteger();
+        final AtomicLong departures = new AtomicLong(); // Requests that have left, for the drain rate
+        volatile long sampledNanos = System.nanoTime();
+        long sampledDepartures; // Guarded by this
+        volatile double drainPerMilli = -1; // Requests leaving per millisecond, -1 until measured
+
+        Limit(int capacity) {
+            this.capacity = capacity;
+        }
+
+        /**
+         * Counts a request in if there is room
+         */
+        boolean reserve() {
+            while (true) {
+                int n = queued.get();
+                if (capacity > 0 && n >= capacity) return false;
+                if (queued.compareAndSet(n, n + 1)) return true;
+            }
+        }
+
+        void left() {
+            queued.decrementAndGet();
+            departures.incrementAndGet();
+            sample(System.nanoTime());
+        }
+
+        /**
+         * Updates the drain rate once per interval, as an average weighted towards recent intervals.
+         * An interval much longer than usual had no departures to sample it and is dropped, being mostly idle
+         * (the first one runs from startup).
+         */
+        void sample(long now) {
+            if (now - sampledNanos < SAMPLE_NANOS) return;
+            synchronized (this) {
+                long elapsed = now - sampledNanos;
+                if (elapsed < SAMPLE_NANOS) return;
+                long d = departures.get();
+                if (elapsed < 10 * SAMPLE_NANOS) {
+                    double rate = (d - sampledDepartures) * 1e6 / elapsed;
+                    drainPerMilli = drainPerMilli < 0 ? rate : drainPerMilli + 0.5 * (rate - drainPerMilli);
+                }
+                sampledDepartures = d;
+                sampledNanos = now;
+            }
+        }
+    }
+
+    private final Limit overall;
+    private final TreeMap<Integer, Limit> bands = new TreeMap<>(); // By highest priority of the band
+    private final long minRetryMillis;
+    private final long maxRetryMillis;
+    private final boolean bounded;
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Constructs admission control without limits, every request is admitted
+     */
+    public AdmissionControl() {
+        this(0, new TreeMap<>(), 10, 5000);
+    }
+
+    /**
+     * Constructs admission control
+     * @param capacity Most requests queued over every resource, 0 for no limit
+     * @param bands Capacity of each priority band by the band's highest priority, may be empty
+     * @param minRetryMillis Shortest retry-after hint
+     * @param maxRetryMillis Longest retry-after hint, given while the drain rate is 0
+     */
+    public AdmissionControl(int capacity, Map<Integer, Integer> bands, long minRetryMillis, long maxRetryMillis) {
+        if (capacity < 0 || minRetryMillis < 0 || maxRetryMillis < minRetryMillis) {
+            throw new IllegalArgumentException("Capacity and retry bounds must not be negative, nor the maximum below the minimum");
+        }
+        this.overall = new Limit(capacity);
+        for (Map.Entry<Integer, Integer> e : bands.entrySet()) {
+            if (e.getValue() <= 0) throw new IllegalArgumentException("Band capacities must be positive");
+            this.bands.put(e.getKey(), new Limit(e.getValue()));
+        }
+        this.minRetryMillis = minRetryMillis;
+        this.maxRetryMillis = maxRetryMillis;
+        this.bounded = capacity > 0 || !bands.isEmpty();
+    }
+
+    /**
+     * Builds admission control from the "dme.admission.*" settings. Malformed bands are ignored.
+     * @return The configured admission control
+     */
+    public static AdmissionControl fromConfig() {
+        TreeMap<Integer, Integer> bands = new TreeMap<>();
+        String spec = Config.getString("admission.bands", "");
+        try {
+            for (String part : spec.split(",")) {
+                if (part.trim().isEmpty()) continue;
+                String[] pc = part.trim().split(":");
+                int capacity = Integer.parseInt(pc[1]);
+                if (capacity > 0) bands.put(Integer.parseInt(pc[0]), capacity);
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.out.println("AdmissionControl - malformed dme.admission.bands, using none");
+            bands.clear();
+        }
+        long min = Math.max(0, Config.getLong("admission.retry.min.ms", 10));
+        long max = Math.max(min, Config.getLong("admission.retry.max.ms", 5000));
+        return new AdmissionControl(Math.max(0, Config.getInt("admission.capacity", 0)), bands, min, max);
+    }
+
+    /**
+     * Admits a request into a queue if its band and the coordinator have room, counting it in
+     * @param priority Priority of the request
+     * @return 0 if admitted, otherwise the milliseconds the node should wait before asking again
+     */
+    public long admit(int priority) {
+        if (!bounded) return 0;
+        if (!overall.reserve()) return reject(overall);
+        Limit band = band(priority);
+        if (band != null && !band.reserve()) {
+            overall.queued.decrementAndGet();
+            return reject(band);
+        }
+        return 0;
+    }
+
+    /**
+     * Counts in a request queued whatever the capacity, one taken over or handed over from another coordinator
+     * @param priority Priority of the request
+     */
+    public void queued(int priority) {
+        if (!bounded) return;
+        overall.queued.incrementAndGet();
+        Limit band = band(priority);
+        if (band != null) band.queued.incrementAndGet();
+    }
+
+    /**
+     * Counts out a request that has left its queue: granted, cancelled, expired or handed over
+     * @param priority Priority of the request
+     */
+    public void left(int priority) {
+        if (!bounded) return;
+        overall.left();
+        Limit band = band(priority);
+        if (band != null) band.left();
+    }
+
+    /**
+     * Moves a queued request to the band of its new priority, over capacity if need be (it was already admitted)
+     * @param from Priority it was queued with
+     * @param to New priority
+     */
+    public void reprioritised(int from, int to) {
+        if (!bounded) return;
+        Limit a = band(from), b = band(to);
+        if (a == b) return;
+        if (a != null) a.queued.decrementAndGet();
+        if (b != null) b.queued.incrementAndGet();
+    }
+
+    /**
+     * Gets the band of a priority
+     */
+    private Limit band(int priority) {
+        Map.Entry<Integer, Limit> e = bands.ceilingEntry(priority);
+        return e != null ? e.getValue() : null;
+    }
+
+    /**
+     * Counts a rejection and computes its retry-after hint
+     */
+    private long reject(Limit limit) {
+        rejected.incrementAndGet();
+        limit.sample(System.nanoTime());
+        double rate = limit.drainPerMilli;
+        if (rate < 0) return minRetryMillis; // Not measured yet, it has only just filled
+        if (rate == 0) return maxRetryMillis;
+        return Math.max(minRetryMillis, Math.min(maxRetryMillis, (long) Math.ceil(limit.queued.get() / rate)));
+    }
+
+    /**
+     * Checks whether any capacity is set
+     * @return false if every request is admitted
+     */
+    public boolean isBounded() {
+        return bounded;
+    }
+
+    /**
+     * Gets the number of requests queued, as counted (0 while unbounded)
+     * @return requests queued over every resource
+     */
+    public int getQueued() {
+        return overall.queued.get();
+    }
+
+    /**
+     * Gets the number of requests refused so far
+     * @return rejection count
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Gets the rate requests have been leaving the queues lately
+     * @return requests per second, -1 until measured
+     */
+    public double getDrainRate() {
+        double rate = overall.drainPerMilli;
+        return rate < 0 ? -1 : rate * 1000;
+    }
+
+    @Override
+    public String toString() {
+        if (!bounded) return "unbounded";
+        StringBuilder sb = new StringBuilder(overall.capacity > 0 ? "capacity " + overall.capacity : "no overall capacity");
+        for (Map.Entry<Integer, Limit> e : bands.entrySet()) {
+            sb.append(", priority <= ").append(e.getKey()).append(" ").append(e.getValue().capacity);
+        }
+        return sb.toString();
+    }
+}
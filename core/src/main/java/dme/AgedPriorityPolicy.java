@@ -0,0 +1,168 @@
+package dme;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * AgedPriorityPolicy grants the request with the highest aged priority (see AgingPolicy); on ties, requests with
+ * a deadline first, earliest deadline first, then older requests. This is the default scheduling policy.
+ *
+ * Aging is done with a global clock rather than by rewriting queued requests:
+ * a request queued at clock c0 with priority p has effective priority p + rate * (now - c0),
+ * so ordering uncapped requests by the fixed key (p - rate * c0) gives the same order at any time.
+ * Requests that reach the aging cap move to a second heap ordered by (p + cap), in the order they were queued.
+ * Adding and polling requests are therefore O(log n) (amortised) with no per-insert rebuild.
+ *
+ */
+public class AgedPriorityPolicy implements SchedulingPolicy {
+
+    // Uncapped requests, highest effective priority first (fixed key p - rate * c0)
+    private final RequestHeap data = new RequestHeap(AgedPriorityPolicy::compareAging);
+    // Requests that have reached the aging cap, effective priority p + cap
+    private final RequestHeap capped = new RequestHeap(AgedPriorityPolicy::compareCapped);
+    // Requests in the order they were queued, used to move requests to the capped heap once they reach the cap
+    private final ArrayDeque<Request> arrivals = new ArrayDeque<>();
+
+    private final AgingPolicy aging; // How waiting requests gain priority
+    private final long startNanos = System.nanoTime(); // Time origin for TIME aging
+    private long arrivalClock; // Number of requests added so far, clock for ARRIVAL aging
+
+    /**
+     * Constructs the policy
+     * @param aging How waiting requests gain priority
+     */
+    public AgedPriorityPolicy(AgingPolicy aging) {
+        this.aging = aging;
+    }
+
+    /**
+     * Gets the aging policy
+     * @return aging policy
+     */
+    public AgingPolicy getAgingPolicy() {
+        return aging;
+    }
+
+    @Override
+    public void add(Request r) {
+        arrivalClock++; // Every arrival ages the requests already waiting (ARRIVAL aging)
+        double clock = clock();
+        r.markQueued(clock, r.getPriority() - aging.getRate() * clock);
+        data.add(r);
+        if (aging.isCapped()) {
+            arrivals.addLast(r);
+        }
+    }
+
+    @Override
+    public Request peek() {
+        ageRequests();
+        Request best = data.peek();
+        Request top = capped.peek();
+        return best == null || (top != null && compareEffective(top, best) < 0) ? top : best;
+    }
+
+    @Override
+    public Request poll() {
+        Request best = peek();
+        if (best == null) return null;
+        if (best == capped.peek()) {
+            capped.poll();
+        } else {
+            data.poll();
+        }
+        return best; // Left in the arrivals queue, dropped once C_buffer marks it NOT_QUEUED
+    }
+
+    @Override
+    public boolean remove(Request r) {
+        return (r.getQueueState() == Request.CAPPED ? capped : data).remove(r);
+    }
+
+    @Override
+    public void reprioritise(Request r, int priority) {
+        r.reprioritise(priority, priority - aging.getRate() * r.getAgingClock());
+        (r.getQueueState() == Request.CAPPED ? capped : data).update(r);
+    }
+
+    @Override
+    public double effectivePriority(Request r) {
+        return effectivePriority(r, clock());
+    }
+
+    @Override
+    public void collect(List<Request> into) {
+        for (int i = 0; i < data.size(); i++) into.add(data.get(i));
+        for (int i = 0; i < capped.size(); i++) into.add(capped.get(i));
+    }
+
+    /**
+     * Current value of the aging clock
+     */
+    private double clock() {
+        switch (aging.getMode()) {
+            case ARRIVAL:
+                return arrivalClock;
+            case TIME:
+                return (System.nanoTime() - startNanos) / 1e9;
+            default:
+                return 0;
+        }
+    }
+
+    private double effectivePriority(Request r, double clock) {
+        return aging.effectivePriority(r.getPriority(), clock - r.getAgingClock());
+    }
+
+    /**
+     * Ages requests by moving those that have reached the aging cap to the capped heap.
+     * Requests reach the cap in the order they were queued, so only the head of the arrivals queue is checked.
+     */
+    private void ageRequests() {
+        if (!aging.isCapped()) return;
+        double limit = clock() - aging.ticksToCap();
+        while (!arrivals.isEmpty()) {
+            Request r = arrivals.peekFirst();
+            if (r.getQueueState() != Request.AGING) {
+                arrivals.pollFirst(); // Already retrieved, drop it
+            } else if (r.getAgingClock() <= limit) {
+                arrivals.pollFirst();
+                data.remove(r);
+                r.setQueueState(Request.CAPPED);
+                capped.add(r);
+            } else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Orders a capped and an uncapped request by effective priority, then deadline and age
+     */
+    private int compareEffective(Request a, Request b) {
+        double clock = clock();
+        int c = Double.compare(effectivePriority(b, clock), effectivePriority(a, clock));
+        return c != 0 ? c : compareTies(a, b);
+    }
+
+    private static int compareAging(Request a, Request b) {
+        int c = Double.compare(b.getAgingKey(), a.getAgingKey());
+        return c != 0 ? c : compareTies(a, b);
+    }
+
+    private static int compareCapped(Request a, Request b) {
+        int c = Integer.compare(b.getPriority(), a.getPriority());
+        return c != 0 ? c : compareTies(a, b);
+    }
+
+    private static int compareTies(Request a, Request b) {
+        int c = Request.compareDeadlines(a, b);
+        if (c == 0) c = Double.compare(a.getAgingClock(), b.getAgingClock());
+        return c != 0 ? c : Long.compare(a.getSequence(), b.getSequence());
+    }
+
+    @Override
+    public String toString() {
+        return "aged " + aging;
+    }
+}
@@ -0,0 +1,116 @@
+package dme;
+
+/**
+ * AgingPolicy describes how waiting requests gain priority over time (starvation prevention).
+ *
+ * The effective priority of a waiting request is
+ * 		base priority + min(cap, rate * (clock now - clock at enqueue))
+ * where the clock either counts arrivals (ARRIVAL) or elapsed seconds (TIME).
+ * Because every uncapped request ages at the same rate, their relative order never changes
+ * while they wait, which lets C_buffer age requests without rebuilding its heap.
+ *
+ */
+public class AgingPolicy {
+
+    /**
+     * Clock used to measure how long a request has been waiting
+     */
+    public enum Mode {
+        NONE,    // no aging, strict priority
+        ARRIVAL, // clock advances by one for every request saved to the buffer
+        TIME     // clock advances by one for every second of waiting
+    }
+
+    private final Mode mode;   // clock used for aging
+    private final double rate; // priority gained per clock tick
+    private final double cap;  // maximum priority a request can gain by aging
+
+    /**
+     * Constructs a new aging policy
+     * @param mode Clock used to measure waiting
+     * @param rate Priority gained per clock tick (arrival or second)
+     * @param cap Maximum priority gained by aging, Double.POSITIVE_INFINITY for no cap
+     */
+    public AgingPolicy(Mode mode, double rate, double cap) {
+        if (rate < 0 || cap < 0) {
+            throw new IllegalArgumentException("Aging rate and cap must not be negative");
+        }
+        this.mode = (rate == 0 || cap == 0) ? Mode.NONE : mode;
+        this.rate = this.mode == Mode.NONE ? 0 : rate;
+        this.cap = cap;
+    }
+
+    /**
+     * Builds the policy from the "dme.aging.*" settings.
+     * Defaults to +1 priority per arrival without a cap (the original aging behaviour).
+     * A negative cap setting means no cap.
+     * @return The configured aging policy
+     */
+    public static AgingPolicy fromConfig() {
+        Mode mode;
+        try {
+            mode = Mode.valueOf(Config.getString("aging.mode", "ARRIVAL").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("AgingPolicy - unknown aging mode, using ARRIVAL");
+            mode = Mode.ARRIVAL;
+        }
+        double rate = Config.getDouble("aging.rate", 1.0);
+        double cap = Config.getDouble("aging.cap", -1);
+        return new AgingPolicy(mode, rate, cap < 0 ? Double.POSITIVE_INFINITY : cap);
+    }
+
+    /**
+     * Gets the clock used for aging
+     * @return clock mode
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Gets the priority gained per clock tick
+     * @return aging rate
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * Gets the maximum priority gained by aging
+     * @return aging cap
+     */
+    public double getCap() {
+        return cap;
+    }
+
+    /**
+     * Checks whether aging is limited by a cap
+     * @return true if requests stop aging after a bounded number of ticks
+     */
+    public boolean isCapped() {
+        return mode != Mode.NONE && cap != Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Number of clock ticks after which a request reaches the cap
+     * @return ticks until capped
+     */
+    public double ticksToCap() {
+        return cap / rate;
+    }
+
+    /**
+     * Effective priority of a request after waiting a number of clock ticks
+     * @param priority Base priority
+     * @param ticks Clock ticks waited
+     * @return base priority plus priority gained by aging, at most the cap
+     */
+    public double effectivePriority(int priority, double ticks) {
+        return priority + Math.min(rate * ticks, cap);
+    }
+
+    @Override
+    public String toString() {
+        return mode + " (rate " + rate + ", cap " + (isCapped() ? String.valueOf(cap) : "none") + ")";
+    }
+}
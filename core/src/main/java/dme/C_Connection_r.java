@@ -1,15 +1,18 @@
+package dme;
+
 import java.net.*;
 import java.io.*;
 
 /**
- * Represents a connection handler thread that reacts to a node request
- * Recieves and records the node request in the buffer
+ * Represents a connection handler task that reacts to a node request
+ * Recieves the node request and queues it on its resource in the scheduler
+ * Run by the C_receiver's executor (platform or virtual threads).
  * 
  */
-public class C_Connection_r extends Thread{
+public class C_Connection_r implements Runnable{
 	
     // Instance variables
-	private C_buffer buffer;
+	private C_scheduler scheduler;
     private Socket s;
     private InputStream in;
     private BufferedReader bin;
@@ -17,11 +20,11 @@ public class C_Connection_r extends Thread{
     /**
      * Constructor for creating a new connection handler
      * @param s Socket associated with connection
-     * @param b	Buffer where requests are recorded
+     * @param scheduler	Scheduler where requests are queued
      */
-    public C_Connection_r(Socket s, C_buffer b){
+    public C_Connection_r(Socket s, C_scheduler scheduler){
     	this.s = s;
-    	this.buffer = b;
+    	this.scheduler = scheduler;
     }
     
     // Method to initiate the shutdown process
@@ -32,7 +35,7 @@ public class C_Connection_r extends Thread{
     }
     
     /**
-     * Exectutes thread's task of processing the node request
+     * Exectutes task of processing the node request
      */
     public void run() {
         try {
@@ -47,7 +50,7 @@ public class C_Connection_r extends Thread{
             }
 
             // Check for shutdown request
-            if ("SHUTDOWN_REQUEST".equals(requestLine.trim())) {
+            if (Protocol.SHUTDOWN_REQUEST.equals(requestLine.trim())) {
                 System.out.println("Shutdown request received. Initiating shutdown...");
                 initiateShutdown();
                 return; // Stop processing further as we're shutting down
@@ -57,13 +60,24 @@ public class C_Connection_r extends Thread{
             System.out.println("C:connection IN - dealing with request from socket " + s);
 
             // Proceed to handle the request since it's not a shutdown request
-            String[] out_request = requestLine.trim().split(" ");
-            int priority = Integer.parseInt(out_request[2]); // Extract priority
-            Request request = new Request(out_request[0], Integer.parseInt(out_request[1]), priority);
-            buffer.saveRequest(request);
-
+            Request request = C_frameHandler.parseRequest(requestLine, s.getInetAddress().getHostAddress());
+            if (request == null) {
+                System.out.println("C:connection OUT - malformed request ignored: " + requestLine);
+                return;
+            }
             // Log token request with the provided Logger instance
             Logger.getInstance().logEvent("Token Request", request.getNode() + ":" + request.getPort(), -1);
+            String owner = scheduler.getShard() != null ? scheduler.getShard().ownerIfMoved(request.getResource()) : null;
+            if (owner != null) { // One-off requests cannot be told MOVED, the node must ask the owner
+                System.out.println("C:connection OUT - " + request.getResource() + " belongs to shard " + owner + ", request ignored.");
+                return;
+            }
+            long retryAfter = scheduler.offer(request);
+            if (retryAfter > 0) { // Queues full, the node asks again later
+                new PrintWriter(s.getOutputStream(), true).println(Protocol.REJECT + " " + retryAfter);
+                System.out.println("C:connection OUT - rejected request from " + request.getNode() + ":" + request.getPort() + ", retry after " + retryAfter + "ms (socket closed)");
+                return;
+            }
 
             System.out.println("C:connection OUT - received and recorded request from " + request.getNode() + ":" + request.getPort() + " (socket closed)");
 
@@ -81,6 +95,6 @@ public class C_Connection_r extends Thread{
             }
         }
 
-        buffer.show(); // Display current requests in buffer
+        scheduler.show(); // Display current requests of every resource
     }
 }
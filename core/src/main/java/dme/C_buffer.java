@@ -0,0 +1,311 @@
+package dme;
+
+import java.util.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class represents a buffer for storing requests within the DME
+ * Requests are granted in the order kept by the buffer's SchedulingPolicy, by default their aged priority
+ * (AgedPriorityPolicy); every policy adds and retrieves requests in O(log n).
+ *
+ * Requests the node gave an id are indexed by key (host, port and request id, see Request.getKey()), and the
+ * policies keep requests in RequestHeaps, which know where each request sits. So a request can be cancelled or
+ * re-prioritised in O(log n), and saving a request that is already waiting (a node retrying) queues nothing.
+ *
+ * The buffer is guarded by a ReentrantLock and Condition rather than synchronized/wait,
+ * so callers running on virtual threads are not pinned while waiting. The policy is only called with it held.
+ *
+ */
+public class C_buffer {
+
+	private final SchedulingPolicy policy; // Order in which waiting requests are retrieved
+	// Waiting requests that have a request id, by key
+	private final HashMap<String, Request> index = new HashMap<>();
+
+	private int count; // Number of requests waiting
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition(); // Signalled when a request is saved
+
+
+	/**
+	 * Constructor for creating a new C_buffer object
+	 * Initalises the buffer with the configured scheduling policy ("dme.scheduling").
+	 */
+    public C_buffer (){
+    	this(SchedulingPolicy.fromConfig().get());
+    }
+
+    /**
+     * Constructor for creating a new C_buffer object ordered by aged priority, with a specific aging policy
+     * @param aging Policy describing how waiting requests gain priority
+     */
+    public C_buffer (AgingPolicy aging){
+    	this(new AgedPriorityPolicy(aging));
+    }
+
+    /**
+     * Constructor for creating a new C_buffer object with a specific scheduling policy
+     * @param policy Order in which waiting requests are retrieved, used by this buffer only
+     */
+    public C_buffer (SchedulingPolicy policy){
+    	this.policy = policy;
+    }
+
+    /**
+     * Saves a request to the buffer, unless a request with the same key is already waiting
+     * @param r Request to be saved
+     * @return r, or the request with the same key already waiting (r is then not saved)
+     */
+    public Request saveRequest(Request r) {
+    	lock.lock();
+    	try {
+    		if (r.getRequestId() != 0) {
+    			Request waiting = index.putIfAbsent(r.getKey(), r);
+    			if (waiting != null) return waiting;
+    		}
+    		policy.add(r);
+    		count++;
+    		notEmpty.signalAll(); // Notify any waiting threads that an item has been added
+    		return r;
+    	} finally {
+    		lock.unlock();
+    	}
+    }
+
+    /**
+     * Finds a waiting request by key
+     * @param key Key of the request (Request.getKey())
+     * @return the request, or null if no request with that key is waiting
+     */
+    public Request find(String key) {
+        lock.lock();
+        try {
+            return index.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a waiting request
+     * @param key Key of the request (Request.getKey())
+     * @return the request removed, or null if no request with that key is waiting
+     */
+    public Request cancel(String key) {
+        lock.lock();
+        try {
+            Request r = index.remove(key);
+            if (r == null) return null;
+            policy.remove(r);
+            r.setQueueState(Request.NOT_QUEUED);
+            count--;
+            return r;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Changes the base priority of a waiting request, keeping the priority it has gained by aging (if any)
+     * @param key Key of the request (Request.getKey())
+     * @param priority New priority
+     * @return false if no request with that key is waiting
+     */
+    public boolean updatePriority(String key, int priority) {
+        lock.lock();
+        try {
+            Request r = index.get(key);
+            if (r == null) return false;
+            policy.reprioritise(r, priority);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Changes the deadline of a waiting request (a node asking again with a longer wait, or none)
+     * @param key Key of the request (Request.getKey())
+     * @param deadlineNanos New deadline, System.nanoTime() value, 0 for none
+     * @return false if no request with that key is waiting
+     */
+    public boolean updateDeadline(String key, long deadlineNanos) {
+        lock.lock();
+        try {
+            Request r = index.get(key);
+            if (r == null) return false;
+            r.setDeadlineNanos(deadlineNanos);
+            policy.reprioritise(r, r.getPriority()); // Moves it to its new place among requests with deadlines
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a request if it is still waiting, whether or not it has a request id (e.g. its deadline passed)
+     * @param r Request
+     * @return false if the request is not waiting in this buffer
+     */
+    public boolean remove(Request r) {
+        lock.lock();
+        try {
+            if (r.getQueueState() == Request.NOT_QUEUED || !policy.remove(r)) return false;
+            r.setQueueState(Request.NOT_QUEUED);
+            if (r.getRequestId() != 0) index.remove(r.getKey());
+            count--;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves and removes highest priority request from buffer
+     * Waits if the buffer is empty until an item is available
+     * @return The highest priority request, or null (if interrupted)
+     */
+    public Request get() {
+        lock.lock();
+        try {
+            while (count == 0) {
+                try {
+                    notEmpty.await(); // Wait until the buffer is not empty
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt(); // Restore interrupted status
+                    return null;
+                }
+            }
+            return poll(); // Retrieve and remove the highest priority request
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Retrieves and removes highest priority request from buffer without waiting
+     * @return The highest priority request, or null if the buffer is empty
+     */
+    public Request tryGet() {
+        lock.lock();
+        try {
+            return count == 0 ? null : poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves, without removing, the highest priority request in the buffer
+     * @return The highest priority request, or null if the buffer is empty
+     */
+    public Request peek() {
+        lock.lock();
+        try {
+            return count == 0 ? null : policy.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests currently stored in buffer
+     * @return The size of the buffer
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tells the scheduling policy how long a request retrieved from this buffer held its resource
+     * @param r Request that was granted
+     * @param heldNanos Time from the grant to the return (or revocation) of its lease
+     */
+    public void released(Request r, long heldNanos) {
+        lock.lock();
+        try {
+            policy.released(r, heldNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the scheduling policy used by the buffer
+     * @return scheduling policy
+     */
+    public SchedulingPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Gets the effective priority of a waiting request, as given by the scheduling policy
+     * @param r Request waiting in this buffer
+     * @return base priority plus priority gained by aging (for the aged policy)
+     */
+    public double effectivePriority(Request r) {
+        lock.lock();
+        try {
+            return policy.effectivePriority(r);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the request the policy gives out next, assumes the buffer is not empty
+     */
+    private Request poll() {
+        Request best = policy.poll();
+        best.setQueueState(Request.NOT_QUEUED);
+        if (best.getRequestId() != 0) index.remove(best.getKey());
+        count--;
+        return best;
+    }
+
+
+    /**
+     * Copies the requests waiting in the buffer, in no particular order
+     * @return list of waiting requests
+     */
+    public List<Request> snapshot() {
+        lock.lock();
+        try {
+            List<Request> waiting = new ArrayList<>(count);
+            policy.collect(waiting);
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Displays current requeusts in buffer along with their details
+     * Used for debugging
+     */
+    public void show() {
+        lock.lock();
+        try {
+            System.out.println("Current Request Queue (" + policy + "): ");
+            List<Request> waiting = new ArrayList<>(count);
+            policy.collect(waiting);
+            for (Request r : waiting) {
+            	System.out.println("Node: " + r.getNode() + ", Port: " + r.getPort() + ", Priority: " + r.getPriority()
+            			+ " (effective " + policy.effectivePriority(r)
+            			+ (r.getQueueState() == Request.CAPPED ? ", capped)" : ")"));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+}
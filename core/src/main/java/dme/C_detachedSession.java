@@ -0,0 +1,147 @@
+package dme;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * C_detachedSession stands in for the session of a request taken over from a failed primary coordinator,
+ * until the node reconnects to this coordinator and reattaches to its request.
+ *
+ * A node reattaches by sending its REQUEST again with the same request id (or RENEW for a lease it holds).
+ * Until then grants and standby notices are kept and delivered on reattachment, so the request keeps its place
+ * in the queue. A node that has not reattached within "dme.replication.reattach.ms" (default 2000) counts
+ * as gone: its session is closed, grants to it fail and the resource moves on.
+ *
+ */
+public class C_detachedSession implements NodeSession {
+
+    private final Request request;
+    private final long deadlineNanos; // Reattachment deadline
+    private final ReentrantLock lock = new ReentrantLock(); // Guards every field below
+    private NodeSession live; // Session the node reattached on, null until then
+    private Lease granted; // Lease granted or restored while detached
+    private boolean standby; // A standby notice is waiting for the node
+
+    /**
+     * Constructor for a detached session, attached to its request
+     * @param request Request taken over from the previous primary
+     * @param reattachMillis Time the node has to reattach
+     */
+    C_detachedSession(Request request, long reattachMillis) {
+        this.request = request;
+        this.deadlineNanos = System.nanoTime() + reattachMillis * 1_000_000L;
+        request.setSession(this);
+    }
+
+    /**
+     * Gets the key a reattaching request is matched on
+     * @param r Request
+     * @return "host:port:requestId"
+     */
+    static String key(Request r) {
+        return r.getKey();
+    }
+
+    /**
+     * Records a lease restored from the previous primary, resent if the node reattaches with its request
+     * @param lease Restored lease
+     */
+    void restored(Lease lease) {
+        lock.lock();
+        try {
+            granted = lease;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the request onto the node's new session and delivers what it missed
+     * @param session Session the node reconnected on
+     * @param resendGrant true if the node asked again for the request, so a grant it may not have seen is resent
+     * @return false if the node had already reattached
+     */
+    boolean attach(NodeSession session, boolean resendGrant) {
+        lock.lock();
+        try {
+            if (live != null) return false;
+            live = session;
+            request.setSession(session);
+            if (granted != null) {
+                if (resendGrant) session.sendGrant(granted);
+            } else if (standby) {
+                session.sendStandby(request);
+            }
+        } finally {
+            lock.unlock();
+        }
+        System.out.println("C:detachedSession - " + key(request) + " reattached on " + session.describe() + ".");
+        return true;
+    }
+
+    public boolean sendGrant(Lease lease) {
+        lock.lock();
+        try {
+            if (live != null) return live.sendGrant(lease);
+            granted = lease;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean sendStandby(Request r) {
+        lock.lock();
+        try {
+            if (live != null) return live.sendStandby(r);
+            standby = true;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean sendRecall(Lease lease) {
+        lock.lock();
+        try {
+            return live != null && live.sendRecall(lease); // Not reattached, the node gives it back when idle
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean sendMoved(Request r, String owner) {
+        lock.lock();
+        try {
+            return live != null && live.sendMoved(r, owner); // Not reattached, the node finds the new shard itself
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isOpen() {
+        lock.lock();
+        try {
+            return live != null ? live.isOpen() : System.nanoTime() - deadlineNanos < 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getHost() {
+        lock.lock();
+        try {
+            return live != null ? live.getHost() : request.getNode();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String describe() {
+        lock.lock();
+        try {
+            return live != null ? live.describe() : "detached session of " + request.getNode() + ":" + request.getPort();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package dme;
+
+/**
+ * C_frameHandler holds the message handling shared by the blocking and NIO coordinators.
+ * Each method takes a message already split into parts and returns the reply to send, if any.
+ *
+ */
+public final class C_frameHandler {
+
+    /**
+     * Constructor made private, C_frameHandler only exposes static helpers.
+     */
+    private C_frameHandler() {}
+
+    /**
+     * Parses a one-off token request line of the form "host port priority [resource [mode [requestId [maxWaitMs]]]]".
+     * The request is identified by the address of the connection it arrived on, the host field is ignored.
+     * @param line Request line
+     * @param host Address of the connection the line arrived on
+     * @return the request, or null if the line is malformed
+     */
+    public static Request parseRequest(String line, String host) {
+        return parseRequest(line.trim().split(" "), 0, host);
+    }
+
+    /**
+     * Parses the "host port priority [resource [mode [requestId [maxWaitMs]]]]" fields of a request, mode is SHARED
+     * or EXCLUSIVE (default), and maxWaitMs the longest the node will wait for the grant (0 or absent for no limit)
+     * @param parts Message split on spaces
+     * @param from Index of the host field
+     * @param host Host of the node to use instead of the host field, null to take the field's
+     * @return the request, or null if the fields are malformed
+     */
+    private static Request parseRequest(String[] parts, int from, String host) {
+        if (parts.length < from + 3) return null;
+        try {
+            Request request = new Request(host != null ? host : parts[from], Integer.parseInt(parts[from + 1]), Integer.parseInt(parts[from + 2]));
+            if (parts.length > from + 3) request.setResource(parts[from + 3]);
+            if (parts.length > from + 4) {
+                LockMode mode = LockMode.parse(parts[from + 4]);
+                if (mode == null) return null;
+                request.setMode(mode);
+            }
+            if (parts.length > from + 5) request.setRequestId(Long.parseLong(parts[from + 5]));
+            if (parts.length > from + 6) request.setMaxWait(Long.parseLong(parts[from + 6]));
+            if (parts.length > from + 7) request.setSticky(Protocol.STICKY.equals(parts[from + 7]));
+            return request;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Handles a message received on the token return port, "TOKEN_RETURNED epoch port" or "RENEW epoch port".
+     * Only the node holding the lease is answered with success: from the host of its request, naming its port.
+     * @param parts Message split on spaces
+     * @param from Address the message came from
+     * @param scheduler Scheduler handling returns and renewals
+     * @return reply to send to the node
+     */
+    public static String handleReturn(String[] parts, String from, C_scheduler scheduler) {
+        long epoch = Protocol.parseEpoch(parts);
+        int nodeId = (int) Protocol.parseLong(parts, 2);
+        if (Protocol.TOKEN_RETURNED.equals(parts[0])) {
+            return scheduler.tokenReturned(epoch, from, nodeId) ? Protocol.TOKEN_RETURNED : Protocol.REJECTED;
+        } else if (Protocol.RENEW.equals(parts[0])) {
+            return scheduler.renew(epoch, from, nodeId) ? Protocol.RENEWED + " " + scheduler.getLeaseMillis() : Protocol.REJECTED;
+        }
+        System.out.println("C:frameHandler - ignoring unknown message on return port from " + from + ": " + parts[0]);
+        return Protocol.REJECTED;
+    }
+
+    /**
+     * Handles one frame received on a node session. A sharded coordinator also takes handovers from other shards
+     * and changes to the list of shards on sessions, and answers requests for resources it does not own with MOVED.
+     * Requests are identified by the host the session comes from, the host field of REQUEST and CANCEL is ignored.
+     * RELEASE and RENEW are only accepted for a lease granted over this session, or reattached to it (see
+     * C_scheduler.renew()).
+     * @param frame Frame split on spaces
+     * @param session Session the frame arrived on
+     * @param scheduler Scheduler queuing requests and handling releases and renewals
+     * @return reply frame, or null if the frame needs no reply
+     */
+    public static String handleSessionFrame(String[] frame, NodeSession session, C_scheduler scheduler) {
+        long epoch = Protocol.parseEpoch(frame);
+        switch (frame[0]) {
+            case Protocol.REQUEST:
+                Request request = parseRequest(frame, 1, session.getHost());
+                if (request == null) {
+                    System.out.println("C:frameHandler - malformed request from " + session.describe());
+                    return null;
+                }
+                request.setSession(session);
+                Logger.getInstance().logEvent("Token Request", request.getNode() + ":" + request.getPort(), -1);
+                if (scheduler.getShard() == null || !scheduler.getShard().route(request)) {
+                    long retryAfter = scheduler.offer(request);
+                    if (retryAfter > 0) return Protocol.reject(request, retryAfter);
+                }
+                return null;
+            case Protocol.RELEASE:
+                return scheduler.tokenReturned(epoch, session, (int) Protocol.parseLong(frame, 2))
+                        ? Protocol.RELEASED + " " + epoch : Protocol.REJECTED;
+            case Protocol.RENEW:
+                return scheduler.renew(epoch, session, (int) Protocol.parseLong(frame, 2))
+                        ? Protocol.RENEWED + " " + scheduler.getLeaseMillis() : Protocol.REJECTED;
+            case Protocol.CANCEL:
+                if (frame.length < 5) {
+                    System.out.println("C:frameHandler - malformed cancel from " + session.describe());
+                    return null;
+                }
+                try {
+                    scheduler.cancel(frame[3], Request.key(session.getHost(), Integer.parseInt(frame[2]), Long.parseLong(frame[4])), session);
+                } catch (NumberFormatException e) {
+                    System.out.println("C:frameHandler - malformed cancel from " + session.describe());
+                }
+                return null;
+            case Protocol.HEARTBEAT:
+                return null; // Receiving the frame is enough to keep the session alive
+            case Protocol.HANDOVER:
+            case Protocol.HANDOVER_END:
+            case Protocol.SHARDS:
+                if (scheduler.getShard() == null) {
+                    System.out.println("C:frameHandler - " + frame[0] + " from " + session.describe() + " but not sharded");
+                    return Protocol.REJECTED;
+                }
+                return scheduler.getShard().handleFrame(frame, session);
+            default:
+                System.out.println("C:frameHandler - ignoring unknown frame from " + session.describe() + ": " + frame[0]);
+                return null;
+        }
+    }
+
+    /**
+     * Handles one binary frame received on a node session.
+     * Requests are identified by the node id (used as the port) and the host the session comes from,
+     * name their resource in the resource field (empty for the default resource), set FLAG_SHARED for shared locks,
+     * FLAG_STICKY for tokens kept until recalled, and give the longest they will wait for the grant in maxWait, in
+     * milliseconds (0 for no limit). A request refused by admission control is answered with REJECT, carrying the
+     * time to wait before asking again in arg.
+     * @param m Decoded frame
+     * @param session Session the frame arrived on
+     * @param scheduler Scheduler queuing requests and handling releases and renewals
+     * @param reply Message the reply is written into
+     * @return true if reply was filled in and should be sent
+     */
+    public static boolean handleBinary(WireMessage m, NodeSession session, C_scheduler scheduler, WireMessage reply) {
+        String host = session.getHost();
+        boolean ok;
+        switch (m.type) {
+            case WireCodec.REQUEST:
+                Request request = new Request(host, m.nodeId, m.priority);
+                request.setRequestId(m.requestId);
+                request.setSession(session);
+                if (m.resource != null) request.setResource(m.resource);
+                if ((m.flags & WireCodec.FLAG_SHARED) != 0) request.setMode(LockMode.SHARED);
+                request.setSticky((m.flags & WireCodec.FLAG_STICKY) != 0);
+                request.setMaxWait(m.maxWait);
+                Logger.getInstance().logEvent("Token Request", host + ":" + m.nodeId, -1);
+                if (scheduler.getShard() != null && scheduler.getShard().route(request)) return false;
+                long retryAfter = scheduler.offer(request);
+                if (retryAfter == 0) return false;
+                reply.set(WireCodec.REJECT, 0, m.nodeId, 0, m.requestId, 0, retryAfter);
+                return true;
+            case WireCodec.RELEASE:
+                ok = scheduler.tokenReturned(m.epoch, session, m.nodeId);
+                reply.set(ok ? WireCodec.RELEASED : WireCodec.REJECTED, 0, m.nodeId, 0, m.requestId, m.epoch, 0);
+                return true;
+            case WireCodec.RENEW:
+                ok = scheduler.renew(m.epoch, session, m.nodeId);
+                reply.set(ok ? WireCodec.RENEWED : WireCodec.REJECTED, 0, m.nodeId, 0, m.requestId, m.epoch,
+                        ok ? scheduler.getLeaseMillis() : 0);
+                return true;
+            case WireCodec.CANCEL:
+                scheduler.cancel(m.resource != null ? m.resource : Request.DEFAULT_RESOURCE, Request.key(host, m.nodeId, m.requestId), session);
+                return false;
+            case WireCodec.HEARTBEAT:
+                return false;
+            default:
+                System.out.println("C:frameHandler - ignoring unknown binary frame from " + session.describe() + ": " + m.type);
+                return false;
+        }
+    }
+}
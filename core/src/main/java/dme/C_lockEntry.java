@@ -0,0 +1,128 @@
+package dme;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * C_lockEntry is the state the coordinator keeps for one named resource:
+ * its queue of waiting requests and the leases currently holding it.
+ * A resource is held by one EXCLUSIVE lease, or by any number of SHARED leases.
+ * Entries are created on first request and evicted by the C_scheduler once idle.
+ *
+ */
+public class C_lockEntry {
+
+    final String name; // Resource name
+    final C_buffer queue; // Requests waiting for this resource
+    final ReentrantLock lock = new ReentrantLock(); // Guards every field below
+    final ArrayList<Lease> holders = new ArrayList<>(); // Leases holding the resource, empty if free
+    int waitingExclusive; // EXCLUSIVE requests in the queue, shared holders stop admitting readers while non-zero
+    Request standby; // Request last sent a standby notice (pipelined handoff), null if none
+    boolean scheduled; // Entry is waiting in the scheduler's ready queue
+    boolean evicted; // Entry was removed from the table, requests must go to a new entry
+    long freeSinceNanos = System.nanoTime(); // When the resource last became free
+
+    /**
+     * Constructs a new entry for a resource
+     * @param name Resource name
+     * @param policy Scheduling policy of the resource's queue, used by this entry only
+     */
+    C_lockEntry(String name, SchedulingPolicy policy) {
+        this.name = name;
+        this.queue = new C_buffer(policy);
+    }
+
+    /**
+     * Checks whether the head of the queue can be granted now, called with the lock held.
+     * A free resource can always be granted. A resource held in SHARED mode admits a shared head,
+     * unless an EXCLUSIVE request is waiting (so writers are not starved by a stream of readers)
+     * or the head is being granted as part of the batch that started from free.
+     * @param batch true while granting the consecutive shared requests of one batch
+     * @return true if the head request can be granted
+     */
+    boolean canGrantHead(boolean batch) {
+        Request head = queue.peek();
+        if (head == null) return false;
+        if (holders.isEmpty()) return true;
+        return isShared() && head.isShared() && (batch || waitingExclusive == 0);
+    }
+
+    /**
+     * Checks whether the head of the queue is waiting for a held resource and has not had a standby notice,
+     * called with the lock held
+     * @return true if a standby notice should be sent to the head request
+     */
+    boolean needsStandby() {
+        if (holders.isEmpty()) return false;
+        Request head = queue.peek();
+        return head != null && head != standby;
+    }
+
+    /**
+     * Marks for recall the sticky holders that the head of the queue is waiting for, called with the lock held.
+     * Each lease is recalled once, after its grant was sent.
+     * @param nowNanos Current System.nanoTime()
+     * @return leases whose holders should be sent a recall, empty if none
+     */
+    List<Lease> recallSticky(long nowNanos) {
+        if (holders.isEmpty() || queue.peek() == null || canGrantHead(false)) return Collections.emptyList();
+        List<Lease> recalls = null;
+        for (Lease l : holders) {
+            Request r = l.getRequest();
+            if (!r.isSticky() || r.getSession() == null || !l.recall(nowNanos)) continue;
+            if (recalls == null) recalls = new ArrayList<>();
+            recalls.add(l);
+        }
+        return recalls != null ? recalls : Collections.emptyList();
+    }
+
+    /**
+     * Checks whether the resource is held in SHARED mode, called with the lock held
+     * @return true if held by shared leases
+     */
+    boolean isShared() {
+        return !holders.isEmpty() && holders.get(0).getRequest().isShared();
+    }
+
+    /**
+     * Finds the holder with the given epoch, called with the lock held
+     * @param epoch Fencing epoch
+     * @return lease, or null if no holder has that epoch
+     */
+    Lease holder(long epoch) {
+        for (Lease l : holders) {
+            if (l.getEpoch() == epoch) return l;
+        }
+        return null;
+    }
+
+    /**
+     * Finds the holder granted the request with the given key, called with the lock held
+     * @param key Key of the request (Request.getKey())
+     * @return lease, or null if no holder was granted that request
+     */
+    Lease holder(String key) {
+        for (Lease l : holders) {
+            if (l.getRequest().getRequestId() != 0 && l.getRequest().getKey().equals(key)) return l;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the resource name
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the queue of requests waiting for this resource
+     * @return queue
+     */
+    public C_buffer getQueue() {
+        return queue;
+    }
+}
@@ -0,0 +1,177 @@
+package dme;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Represents a mutex thread responsible for granting and receiving tokens.
+ * Grants are made by connecting to the node's port and sending "GRANT epoch leaseMillis" (called by the C_scheduler),
+ * the thread itself listens for token returns and lease renewals, handing each connection to an executor
+ * (platform or virtual threads) that reports it to the scheduler.
+ * With pipelined handoff, the connection to the next node in line is opened while the token is still held
+ * and a "STANDBY" notice is sent on it, so the grant itself is a single line on an open connection.
+ *
+ *
+ */
+public class C_mutex extends Thread implements GrantStrategy {
+
+	// Instance variables
+    private int port;
+    private ServerSocket ss_back = null;
+    private C_scheduler scheduler;
+    private ExecutorService handlers = DmeThreads.newExecutor("C_mutex-return"); // Handles each return connection
+    private final ConcurrentHashMap<Request, Socket> warm = new ConcurrentHashMap<>(); // Open connections to nodes on standby
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000; // Limit on connecting to a node on standby
+
+	/**
+	 * Constructor for creating a new mutex thread
+	 * @param p port number for listening for token return
+	 */
+    public C_mutex (int p){
+		super("C_mutex");
+		port = p;
+    }
+
+    /**
+     * Binds the token return socket and starts listening for returns
+     * @param scheduler Scheduler notified when the token comes back
+     */
+    public void open(C_scheduler scheduler) throws IOException {
+		this.scheduler = scheduler;
+		// Listening from server socket on specified port
+		ss_back = new ServerSocket(port);
+		start();
+    }
+
+    /**
+     * Grants the token by connecting to the node and sending the lease,
+     * or over the node's session if the request arrived on one
+     * @param lease Lease being granted
+     * @return true if the grant was delivered
+     */
+    public boolean grant(Lease lease) {
+		NodeSession session = lease.getRequest().getSession();
+		if (session != null) {
+			boolean sent = session.isOpen() && session.sendGrant(lease);
+			if (!sent) System.out.println("ERROR: Mutex granting the TOKEN, " + session.describe() + " is closed.");
+			return sent;
+		}
+		String n_host = lease.getRequest().getNode();
+		int n_port = lease.getRequest().getPort();
+		String grant = Protocol.GRANT + " " + lease.getEpoch() + " " + lease.getDurationMillis();
+		Socket standby = warm.remove(lease.getRequest());
+		if (standby != null) {
+			try (Socket s = standby) {
+				PrintWriter pout = new PrintWriter(s.getOutputStream(), true);
+				pout.println(grant);
+				if (!pout.checkError()) {
+					if (C_scheduler.VERBOSE) System.out.println("C:mutex - TOKEN given to " + n_host + ":" + n_port + " on standby connection.");
+					return true;
+				}
+			} catch (IOException e) {
+				// Fall through to a new connection
+			}
+		}
+		try (Socket s = new Socket(n_host, n_port);
+			 PrintWriter pout = new PrintWriter(s.getOutputStream(), true)) {
+			pout.println(grant);
+			if (C_scheduler.VERBOSE) System.out.println("C:mutex - TOKEN given to " + n_host + ":" + n_port + ".");
+			return true;
+		} catch (IOException e) {
+			System.out.println("ERROR: Mutex connecting to the node for granting the TOKEN - " + e);
+			return false;
+		}
+    }
+
+    /**
+     * Sends a standby notice to the next node in line: over its session if it has one,
+     * otherwise on a new connection to its port that is kept open for the grant
+     * @param next Request that is next in line
+     */
+    public void standby(Request next) {
+		NodeSession session = next.getSession();
+		if (session != null) {
+			if (session.isOpen()) session.sendStandby(next);
+			return;
+		}
+		if (warm.containsKey(next)) return;
+		Socket s = new Socket();
+		try {
+			s.connect(new InetSocketAddress(next.getNode(), next.getPort()), CONNECT_TIMEOUT_MILLIS);
+			s.setTcpNoDelay(true);
+			PrintWriter pout = new PrintWriter(s.getOutputStream(), true);
+			pout.println(Protocol.STANDBY);
+			if (warm.putIfAbsent(next, s) != null) s.close();
+		} catch (IOException e) {
+			System.out.println("C:mutex - could not open standby connection to " + next.getNode() + ":" + next.getPort() + " - " + e);
+			try {
+				s.close();
+			} catch (IOException ignored) {
+			}
+		}
+    }
+
+    /**
+     * Exectures mutex thread's task of receiving tokens back and renewing leases
+     */
+    public void run(){
+	try {
+	    while (!ss_back.isClosed()){
+		// Getting the token back
+		try {
+			Socket tokenReturnSocket = ss_back.accept();
+			handlers.execute(() -> handleReturn(tokenReturnSocket));
+		} catch (IOException e) {
+			if (!ss_back.isClosed()) {
+				System.out.println("ERROR: Mutex waiting for the TOKEN back - " + e);
+			}
+		}
+	    } // endwhile
+	} finally {
+	    close();
+	}
+    }
+
+    /**
+     * Reads one return or renewal message and replies to it
+     * @param tokenReturnSocket Connection from the node
+     */
+    private void handleReturn(Socket tokenReturnSocket) {
+	try (Socket socket = tokenReturnSocket) {
+		BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+		PrintWriter reply = new PrintWriter(socket.getOutputStream(), true);
+		String message = br.readLine();
+		if (message == null) return;
+		String[] parts = message.trim().split(" ");
+		reply.println(C_frameHandler.handleReturn(parts, socket.getInetAddress().getHostAddress(), scheduler));
+	} catch (IOException e) {
+		System.out.println("ERROR: Mutex reading the TOKEN return - " + e);
+	}
+    }
+
+    /**
+     * Closes the ServerSocket, which also stops the return listener
+     */
+    public void close() {
+	    for (Socket s : warm.values()) {
+	        try {
+	            s.close();
+	        } catch (IOException e) {
+	            // Node will see the connection drop
+	        }
+	    }
+	    warm.clear();
+	    if (ss_back != null && !ss_back.isClosed()) {
+	        try {
+	            ss_back.close();
+	        } catch (IOException e) {
+	            System.out.println("Error closing ServerSocket: " + e);
+	        }
+	    }
+    }
+}
@@ -0,0 +1,507 @@
+package dme;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Represents the non-blocking coordinator core, a single event-loop thread built on a java.nio Selector.
+ * The loop accepts one-off requests (port 7003), token returns (port 7004) and node sessions (port 7005),
+ * parses their messages, pushes grants and collects returns, so the coordinator's thread count stays flat
+ * no matter how many nodes are connected. Reads and writes use direct ByteBuffers recycled through a pool.
+ * Sessions speak either the text protocol or binary WireCodec frames, which are decoded from
+ * and encoded into those buffers without allocating.
+ *
+ * The loop is also the GrantStrategy of the C_scheduler: grants are handed to the loop as tasks
+ * and written out by it, either over the node's session or on a non-blocking connection to the node's port.
+ *
+ */
+public class C_nioLoop extends Thread implements GrantStrategy {
+
+	// Kinds of connection handled by the loop
+	private static final int REQUEST = 0; // one-off "host port priority" request
+	private static final int RETURN = 1; // one-off token return or renewal, answered then closed
+	private static final int SESSION = 2; // persistent node session
+	private static final int GRANT = 3; // outgoing connection delivering a grant to a node's port
+
+	private static final int BUFFER_SIZE = 1024; // Size of each direct buffer, frames are far smaller
+	private static final long IDLE_CHECK_MILLIS = 500; // How often silent sessions are checked for
+
+	// Instance variables
+	private final int requestPort;
+	private final int returnPort;
+	private final int sessionPort;
+	private final long sessionTimeoutNanos;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>(); // Work handed over by other threads
+	private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<>(); // Recycled direct buffers, loop thread only
+	private final Set<Connection> sessions = new HashSet<>(); // Open sessions, loop thread only
+	private final StringBuilder line = new StringBuilder(); // Reused while decoding a message
+	private final WireMessage message = new WireMessage(); // Reused while decoding a binary frame
+	private final WireMessage reply = new WireMessage(); // Reused while answering a binary frame
+	private Selector selector;
+	private C_scheduler scheduler;
+
+	/**
+	 * Constructor for creating a new event loop
+	 * @param requestPort Port for one-off token requests
+	 * @param returnPort Port for one-off token returns and renewals
+	 * @param sessionPort Port for persistent node sessions
+	 */
+	public C_nioLoop(int requestPort, int returnPort, int sessionPort) {
+		super("C_nioLoop");
+		this.requestPort = requestPort;
+		this.returnPort = returnPort;
+		this.sessionPort = sessionPort;
+		this.sessionTimeoutNanos = Config.getLong("session.timeout.ms", 3000) * 1_000_000L;
+	}
+
+	/**
+	 * Binds the listening channels and starts the event loop
+	 * @param scheduler Scheduler queuing requests and handling returns and renewals
+	 */
+	public void open(C_scheduler scheduler) throws IOException {
+		this.scheduler = scheduler;
+		selector = Selector.open();
+		listen(requestPort, REQUEST);
+		listen(returnPort, RETURN);
+		listen(sessionPort, SESSION);
+		System.out.println("[----- C_nioLoop listening on ports " + requestPort + ", " + returnPort + ", " + sessionPort + " -----]\n");
+		start();
+	}
+
+	private void listen(int port, int kind) throws IOException {
+		ServerSocketChannel server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(port));
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT, kind);
+	}
+
+	/**
+	 * Hands a grant to the event loop. Session grants are written to the session,
+	 * other grants open a non-blocking connection to the node's port.
+	 * @param lease Lease being granted
+	 * @return true if the grant was handed over, failures to connect are reported through C_scheduler.grantFailed()
+	 */
+	public boolean grant(Lease lease) {
+		NodeSession session = lease.getRequest().getSession();
+		if (session != null) {
+			return session.isOpen() && session.sendGrant(lease);
+		}
+		execute(() -> connectForGrant(lease));
+		return true;
+	}
+
+	/**
+	 * Sends a standby notice to the next holder if it has a session.
+	 * Nodes granted through their own port get no notice in this mode, their grant still connects when it is made.
+	 * @param next Request that is next in line
+	 */
+	public void standby(Request next) {
+		NodeSession session = next.getSession();
+		if (session != null && session.isOpen()) session.sendStandby(next);
+	}
+
+	/**
+	 * Runs a task on the event loop thread
+	 */
+	private void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * Executes the event loop
+	 */
+	public void run() {
+		long nextIdleCheck = System.nanoTime();
+		try {
+			while (selector.isOpen()) {
+				selector.select(IDLE_CHECK_MILLIS);
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					task.run();
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					handle(key);
+				}
+				if (System.nanoTime() - nextIdleCheck >= 0) {
+					closeSilentSessions();
+					nextIdleCheck = System.nanoTime() + IDLE_CHECK_MILLIS * 1_000_000L;
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			if (selector.isOpen()) System.out.println("ERROR: C_nioLoop stopped - " + e);
+		}
+	}
+
+	/**
+	 * Dispatches one ready key
+	 */
+	private void handle(SelectionKey key) {
+		if (!key.isValid()) return;
+		if (key.isAcceptable()) {
+			accept(key);
+			return;
+		}
+		Connection c = (Connection) key.attachment();
+		try {
+			if (key.isConnectable()) c.finishConnect();
+			if (key.isValid() && key.isReadable()) c.read();
+			if (key.isValid() && key.isWritable()) c.flush();
+		} catch (IOException e) {
+			if (c.kind == GRANT && c.grant != null) {
+				System.out.println("ERROR: C_nioLoop connecting to the node for granting the TOKEN - " + e);
+				scheduler.grantFailed(c.grant);
+			}
+			c.close();
+		}
+	}
+
+	private void accept(SelectionKey key) {
+		try {
+			SocketChannel ch = ((ServerSocketChannel) key.channel()).accept();
+			if (ch == null) return;
+			ch.configureBlocking(false);
+			ch.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+			Connection c = new Connection(ch, (Integer) key.attachment(), String.valueOf(ch.getRemoteAddress()));
+			c.key = ch.register(selector, SelectionKey.OP_READ, c);
+			if (c.kind == SESSION) sessions.add(c);
+		} catch (IOException e) {
+			System.out.println("Exception when accepting a connection " + e);
+		}
+	}
+
+	private void connectForGrant(Lease lease) {
+		Request r = lease.getRequest();
+		try {
+			SocketChannel ch = SocketChannel.open();
+			ch.configureBlocking(false);
+			Connection c = new Connection(ch, GRANT, r.getNode() + ":" + r.getPort());
+			c.grant = lease;
+			c.write(Protocol.GRANT + " " + lease.getEpoch() + " " + lease.getDurationMillis());
+			c.closeAfterWrite = true;
+			if (ch.connect(new InetSocketAddress(r.getNode(), r.getPort()))) {
+				c.key = ch.register(selector, SelectionKey.OP_WRITE, c);
+			} else {
+				c.key = ch.register(selector, SelectionKey.OP_CONNECT, c);
+			}
+		} catch (IOException e) {
+			System.out.println("ERROR: C_nioLoop connecting to the node for granting the TOKEN - " + e);
+			scheduler.grantFailed(lease);
+		}
+	}
+
+	private void closeSilentSessions() {
+		long now = System.nanoTime();
+		for (Connection c : new ArrayList<>(sessions)) {
+			if (now - c.lastReadNanos > sessionTimeoutNanos) {
+				System.out.println("C:nioLoop - no heartbeat from " + c.describe() + ", session dead.");
+				c.close();
+			}
+		}
+	}
+
+	private ByteBuffer takeBuffer() {
+		ByteBuffer b = pool.poll();
+		return b != null ? b : ByteBuffer.allocateDirect(BUFFER_SIZE);
+	}
+
+	private void giveBuffer(ByteBuffer b) {
+		if (b != null) {
+			b.clear();
+			pool.push(b);
+		}
+	}
+
+	/**
+	 * Closes the listening channels, which also stops the loop
+	 */
+	public void close() {
+		try {
+			for (SelectionKey key : selector.keys()) {
+				key.channel().close();
+			}
+			selector.close();
+		} catch (IOException e) {
+			System.out.println("Error closing C_nioLoop: " + e);
+		}
+	}
+
+	/**
+	 * One connection handled by the loop. Sessions also act as the NodeSession grants are sent over.
+	 */
+	private class Connection implements NodeSession {
+		final SocketChannel ch;
+		final int kind;
+		final String name; // Remote address, kept for logging after the channel closes
+		SelectionKey key;
+		ByteBuffer in; // Bytes read but not yet parsed
+		ByteBuffer out; // Bytes waiting to be written
+		Lease grant; // Grant being delivered, GRANT connections only
+		boolean closeAfterWrite;
+		boolean binary; // Session speaks WireCodec frames, decided by its first byte
+		final String host; // Host address of the remote end, null for outgoing connections not yet connected
+		long lastReadNanos = System.nanoTime();
+		volatile boolean open = true;
+
+		Connection(SocketChannel ch, int kind, String name) {
+			this.ch = ch;
+			this.kind = kind;
+			this.name = (kind == SESSION ? "session " : "connection ") + name;
+			InetAddress remote = ch.socket().getInetAddress();
+			this.host = remote != null ? remote.getHostAddress() : null;
+		}
+
+		void finishConnect() throws IOException {
+			ch.finishConnect();
+			key.interestOps(SelectionKey.OP_WRITE);
+		}
+
+		/**
+		 * Reads available bytes and handles every complete line
+		 */
+		void read() throws IOException {
+			if (in == null) in = takeBuffer();
+			int n = ch.read(in);
+			if (n < 0) {
+				if (kind == SESSION) System.out.println("C:nioLoop - " + describe() + " closed by node.");
+				close();
+				return;
+			}
+			lastReadNanos = System.nanoTime();
+			in.flip();
+			if (kind == SESSION && (binary || (in.hasRemaining() && WireCodec.isBinary(in.get(0))))) {
+				readBinary();
+				return;
+			}
+			int start = in.position();
+			for (int i = start; i < in.limit(); i++) {
+				if (in.get(i) == '\n') {
+					line.setLength(0);
+					for (int j = start; j < i; j++) {
+						char c = (char) (in.get(j) & 0xff);
+						if (c != '\r') line.append(c);
+					}
+					start = i + 1;
+					onLine(line.toString().trim());
+					if (!open) return;
+				}
+			}
+			in.position(start);
+			in.compact();
+			if (!in.hasRemaining()) {
+				System.out.println("C:nioLoop - oversized message from " + describe() + ", closing.");
+				close();
+			}
+		}
+
+		/**
+		 * Decodes and handles every complete binary frame in the read buffer
+		 */
+		void readBinary() throws IOException {
+			binary = true;
+			int result;
+			while ((result = WireCodec.decode(in, message)) == WireCodec.OK) {
+				if (C_frameHandler.handleBinary(message, this, scheduler, reply)) {
+					writeFrame(reply.type, reply.nodeId, reply.requestId, reply.epoch, reply.arg, null);
+				}
+				if (!open) return;
+			}
+			if (result == WireCodec.MALFORMED) {
+				System.out.println("C:nioLoop - malformed binary frame from " + describe() + ", closing.");
+				close();
+				return;
+			}
+			in.compact();
+		}
+
+		/**
+		 * Handles one complete line according to the connection kind
+		 */
+		void onLine(String message) {
+			if (message.isEmpty()) return;
+			switch (kind) {
+				case REQUEST:
+					if (Protocol.SHUTDOWN_REQUEST.equals(message)) {
+						System.out.println("Shutdown request received. Initiating shutdown...");
+						System.exit(0);
+					}
+					Request request = C_frameHandler.parseRequest(message, host);
+					if (request == null) {
+						System.out.println("C:nioLoop - malformed request ignored: " + message);
+					} else if (scheduler.getShard() != null && scheduler.getShard().ownerIfMoved(request.getResource()) != null) {
+						System.out.println("C:nioLoop - " + request.getResource() + " belongs to shard "
+								+ scheduler.getShard().ownerIfMoved(request.getResource()) + ", one-off request ignored.");
+					} else {
+						Logger.getInstance().logEvent("Token Request", request.getNode() + ":" + request.getPort(), -1);
+						long retryAfter = scheduler.offer(request);
+						if (retryAfter > 0) { // Queues full, the node asks again later
+							closeAfterWrite = true;
+							write(Protocol.REJECT + " " + retryAfter);
+							break;
+						}
+					}
+					close();
+					break;
+				case RETURN:
+					write(C_frameHandler.handleReturn(message.split(" "), host, scheduler));
+					closeAfterWrite = true;
+					break;
+				case SESSION:
+					String reply = C_frameHandler.handleSessionFrame(message.split(" "), this, scheduler);
+					if (reply != null) write(reply);
+					break;
+				default:
+					break;
+			}
+		}
+
+		/**
+		 * Queues a message for writing, loop thread only
+		 */
+		void write(String message) {
+			if (!open) return;
+			if (out == null) out = takeBuffer();
+			byte[] bytes = (message + "\n").getBytes(StandardCharsets.US_ASCII);
+			if (bytes.length > out.remaining()) {
+				System.out.println("C:nioLoop - write backlog full for " + describe() + ", closing.");
+				close();
+				return;
+			}
+			out.put(bytes);
+			if (key != null) {
+				try {
+					flush();
+				} catch (IOException e) {
+					close();
+				}
+			}
+		}
+
+		/**
+		 * Queues a binary frame for writing, encoded straight into the write buffer, loop thread only
+		 * @param resource Resource named in the frame, null for none
+		 */
+		void writeFrame(int type, int nodeId, long requestId, long epoch, long arg, String resource) {
+			if (!open) return;
+			if (out == null) out = takeBuffer();
+			if (!WireCodec.encode(out, type, 0, nodeId, 0, requestId, epoch, arg, 0, resource)) {
+				System.out.println("C:nioLoop - write backlog full for " + describe() + ", closing.");
+				close();
+				return;
+			}
+			try {
+				flush();
+			} catch (IOException e) {
+				close();
+			}
+		}
+
+		/**
+		 * Writes queued bytes, waiting for OP_WRITE if the socket is full
+		 */
+		void flush() throws IOException {
+			if (out == null || key == null || !ch.isConnected()) return;
+			out.flip();
+			ch.write(out);
+			out.compact();
+			if (out.position() > 0) {
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			} else if (closeAfterWrite) {
+				if (kind == GRANT && C_scheduler.VERBOSE) System.out.println("C:nioLoop - TOKEN given to " + grant + ".");
+				close();
+			} else {
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+
+		public boolean sendGrant(Lease lease) {
+			if (!open) return false;
+			Request r = lease.getRequest();
+			execute(() -> {
+				if (binary) {
+					writeFrame(WireCodec.GRANT, r.getPort(), r.getRequestId(), lease.getEpoch(), lease.getDurationMillis(), null);
+				} else {
+					write(Protocol.grant(lease));
+				}
+			});
+			return true;
+		}
+
+		public boolean sendStandby(Request r) {
+			if (!open) return false;
+			execute(() -> {
+				if (binary) {
+					writeFrame(WireCodec.STANDBY, r.getPort(), r.getRequestId(), 0, 0, null);
+				} else {
+					write(Protocol.standby(r));
+				}
+			});
+			return true;
+		}
+
+		public boolean sendRecall(Lease lease) {
+			if (!open) return false;
+			Request r = lease.getRequest();
+			execute(() -> {
+				if (binary) {
+					writeFrame(WireCodec.RECALL, r.getPort(), r.getRequestId(), lease.getEpoch(), 0, null);
+				} else {
+					write(Protocol.recall(lease));
+				}
+			});
+			return true;
+		}
+
+		public boolean sendMoved(Request r, String owner) {
+			if (!open) return false;
+			execute(() -> {
+				if (binary) {
+					writeFrame(WireCodec.MOVED, r.getPort(), r.getRequestId(), 0, WireCodec.packAddress(owner), r.getResource());
+				} else {
+					write(Protocol.MOVED + " " + r.getResource() + " " + owner);
+				}
+			});
+			return true;
+		}
+
+		public boolean isOpen() {
+			return open;
+		}
+
+		public String getHost() {
+			return host;
+		}
+
+		public String describe() {
+			return name;
+		}
+
+		void close() {
+			if (!open) return;
+			open = false;
+			if (key != null) key.cancel();
+			try {
+				ch.close();
+			} catch (IOException e) {
+				System.out.println("Error closing connection: " + e.getMessage());
+			}
+			giveBuffer(in);
+			giveBuffer(out);
+			in = null;
+			out = null;
+			if (kind == SESSION) {
+				sessions.remove(this);
+				scheduler.sessionClosed(this);
+			}
+		}
+	}
+}
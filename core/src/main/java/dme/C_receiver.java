@@ -1,4 +1,7 @@
+package dme;
+
 import java.net.*;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Represents a receiver thread responsible for listening to token requests from nodes
@@ -8,19 +11,21 @@ import java.net.*;
 public class C_receiver extends Thread{
     
 	// Instance variables
-    private C_buffer buffer; 
+    private C_scheduler scheduler; 
     private int port;
     private ServerSocket s_socket; 
     private Socket socketFromNode;
+    private ExecutorService handlers; // Runs a C_Connection_r for each connection
     
     /**
      * Constructor for creating a new receiver thread.
-     * @param b Buffer where requests are stored.
+     * @param scheduler Scheduler where requests are queued.
      * @param p Port number the server listens to for token requests
      */
-    public C_receiver (C_buffer b, int p){
-		buffer = b;
+    public C_receiver (C_scheduler scheduler, int p){
+		this.scheduler = scheduler;
 		port = p;
+		handlers = DmeThreads.newExecutor("C_Connection_r");
     }
     
     
@@ -41,7 +46,7 @@ public class C_receiver extends Thread{
 		while (true) {
 		    try{
 		       // Get a new connection
-		    	// Create a separate thread to service the request, a C_Connection_r thread
+		    	// Service the request on a separate thread, a C_Connection_r task
 		    	socketFromNode = s_socket.accept();
 		    	System.out.println("\n\n---------------------------------------------------------------------");
 		    	System.out.println("                    NEW CONNECTION");
@@ -50,8 +55,8 @@ public class C_receiver extends Thread{
 		    	System.out.println ("C:receiver - Coordinator has received a request ...");
 		    	
 		    	// Starting new connection
-		    	// Create a new thread for each connection to handle the request
-		    	new C_Connection_r(socketFromNode, buffer).start();
+		    	// Hand each connection to the executor to handle the request
+		    	handlers.execute(new C_Connection_r(socketFromNode, scheduler));
 		    	
 		    } catch (java.io.IOException e) {
 		    	System.out.println("Exception when creating a connection "+ e);
@@ -0,0 +1,261 @@
+package dme;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * C_replica is a copy of a coordinator's queues and leases, rebuilt from its change lines.
+ * A C_standby fills one from the replication stream, C_wal from the write-ahead log after a restart,
+ * and either hands it to the scheduler of the coordinator that carries on with restore(). A C_shard fills one
+ * with the resources another shard hands over, and adds them to its running scheduler with adopt().
+ *
+ * Change lines are text, one change per line:
+ *   E epoch                                                  highest fencing epoch granted so far
+ *   S resource                                               snapshot of a resource follows, forget its state
+ *   Q seq host port priority resource mode requestId session request queued (session 1 if it came over one),
+ *                                                            or its priority changed
+ *   C seq                                                    queued request cancelled, or dropped at its deadline
+ *   G seq epoch                                              queued request granted
+ *   X epoch                                                  lease returned or revoked
+ *   H                                                        heartbeat (replication only)
+ * Requests are identified by their sequence number in the coordinator that queued them.
+ * Applying the lines of a snapshot on top of older changes gives the snapshot's state, so a log can be
+ * replayed from any point before its latest snapshot.
+ *
+ * Fencing epochs restart "dme.replication.epoch.gap" (default 1048576) above the highest epoch seen, so grants
+ * made just before the copy stopped, and never copied, are not granted again.
+ *
+ */
+public class C_replica {
+
+	// Change lines
+	public static final String EPOCH = "E";
+	public static final String SNAPSHOT = "S";
+	public static final String QUEUED = "Q";
+	public static final String CANCELLED = "C";
+	public static final String GRANTED = "G";
+	public static final String RELEASED = "X";
+	public static final String HEARTBEAT = "H";
+
+	// Instance variables
+	private final long epochGap = Config.getLong("replication.epoch.gap", 1 << 20);
+	private final TreeMap<Long, Copy> queued = new TreeMap<>(); // Waiting requests by sequence number
+	private final Map<Long, Copy> held = new HashMap<>(); // Leases by epoch
+	private long lastEpoch; // Highest epoch seen
+	private final Map<String, String> names = new HashMap<>(); // Host and resource names, shared between the copies
+	private final int[] fields = new int[10]; // Start of each field of the line being applied
+
+	/**
+	 * A request as copied
+	 */
+	private static final class Copy {
+		final Request request;
+		final boolean session; // Came over a session, its node will reattach
+
+		Copy(Request request, boolean session) {
+			this.request = request;
+			this.session = session;
+		}
+	}
+
+	/**
+	 * Gets the change line of a scheduler change
+	 * @param type Journal record type of the change
+	 * @param request Request the change is about
+	 * @param epoch Fencing epoch, 0 if none
+	 * @return line, or null for changes that are not copied (renewals and standby notices, restored leases start afresh)
+	 */
+	static String line(int type, Request request, long epoch) {
+		switch (type) {
+			case Journal.REQUEST:
+			case Journal.PRIORITY:
+				return queued(request);
+			case Journal.CANCEL:
+			case Journal.EXPIRE:
+				return CANCELLED + " " + request.getSequence();
+			case Journal.GRANT:
+				return granted(request, epoch);
+			case Journal.RETURN:
+			case Journal.REVOKE:
+				return RELEASED + " " + epoch;
+			case Journal.HANDOVER:
+				return epoch > 0 ? RELEASED + " " + epoch : CANCELLED + " " + request.getSequence();
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Gets the line of a queued request
+	 * @param r Request
+	 * @return Q line
+	 */
+	static String queued(Request r) {
+		return QUEUED + " " + r.getSequence() + " " + r.getNode() + " " + r.getPort() + " " + r.getPriority() + " "
+				+ r.getResource() + " " + r.getMode() + " " + r.getRequestId() + " " + (r.getSession() != null ? 1 : 0);
+	}
+
+	/**
+	 * Gets the line of a grant
+	 * @param r Request granted
+	 * @param epoch Fencing epoch of the grant
+	 * @return G line
+	 */
+	static String granted(Request r, long epoch) {
+		return GRANTED + " " + r.getSequence() + " " + epoch;
+	}
+
+	/**
+	 * Applies one change line. Lines are split by hand, a recovering coordinator applies hundreds of thousands.
+	 * @param line Line, without its line terminator
+	 * @throws NumberFormatException If the line is malformed
+	 */
+	public void apply(CharSequence line) {
+		int n = split(line);
+		if (n == 0) return;
+		switch (line.charAt(0)) {
+			case 'E':
+				lastEpoch = Math.max(lastEpoch, number(line, 1));
+				break;
+			case 'S':
+				String resource = text(line, 1);
+				forget(queued.values().iterator(), resource);
+				forget(held.values().iterator(), resource);
+				break;
+			case 'Q':
+				if (n < 9) throw new NumberFormatException("Truncated line: " + line);
+				Request r = new Request(name(line, 2), (int) number(line, 3), (int) number(line, 4));
+				r.setResource(name(line, 5));
+				r.setMode(Character.toUpperCase(line.charAt(fields[6])) == 'S' ? LockMode.SHARED : LockMode.EXCLUSIVE);
+				r.setRequestId(number(line, 7));
+				queued.put(number(line, 1), new Copy(r, number(line, 8) == 1));
+				break;
+			case 'C':
+				queued.remove(number(line, 1));
+				break;
+			case 'G':
+				long epoch = number(line, 2);
+				Copy granted = queued.remove(number(line, 1));
+				if (granted != null) held.put(epoch, granted);
+				lastEpoch = Math.max(lastEpoch, epoch);
+				break;
+			case 'X':
+				held.remove(number(line, 1));
+				break;
+			default:
+				break; // Heartbeat
+		}
+	}
+
+	/**
+	 * Finds the start of each space separated field of a line
+	 * @return number of fields
+	 */
+	private int split(CharSequence line) {
+		if (line.length() == 0) return 0;
+		int n = 1;
+		fields[0] = 0;
+		for (int i = 0; i < line.length() && n < fields.length; i++) {
+			if (line.charAt(i) == ' ') fields[n++] = i + 1;
+		}
+		for (int i = n; i < fields.length; i++) fields[i] = line.length() + 1; // Missing fields are empty
+		return n;
+	}
+
+	private int end(CharSequence line, int field) {
+		return field + 1 < fields.length ? Math.min(fields[field + 1] - 1, line.length()) : line.length();
+	}
+
+	private String text(CharSequence line, int field) {
+		if (fields[field] > line.length()) throw new NumberFormatException("Truncated line: " + line);
+		return line.subSequence(fields[field], end(line, field)).toString();
+	}
+
+	private String name(CharSequence line, int field) {
+		String s = text(line, field);
+		String shared = names.putIfAbsent(s, s);
+		return shared != null ? shared : s;
+	}
+
+	private long number(CharSequence line, int field) {
+		int i = fields[field];
+		int end = end(line, field);
+		if (i >= end) throw new NumberFormatException("Truncated line: " + line);
+		boolean negative = line.charAt(i) == '-';
+		if (negative) i++;
+		long value = 0;
+		for (; i < end; i++) {
+			char c = line.charAt(i);
+			if (c < '0' || c > '9') throw new NumberFormatException("Bad number in line: " + line);
+			value = value * 10 + (c - '0');
+		}
+		return negative ? -value : value;
+	}
+
+	private static void forget(Iterator<Copy> copies, String resource) {
+		while (copies.hasNext()) {
+			if (copies.next().request.getResource().equals(resource)) copies.remove();
+		}
+	}
+
+	/**
+	 * Hands the copied state to a scheduler, before it starts
+	 * @param scheduler Scheduler of the coordinator carrying on
+	 */
+	public void restore(C_scheduler scheduler) {
+		scheduler.restoreEpoch(lastEpoch + epochGap);
+		for (Map.Entry<Long, Copy> e : held.entrySet()) {
+			scheduler.restoreLease(e.getValue().request, e.getKey(), e.getValue().session);
+		}
+		for (Copy c : queued.values()) {
+			scheduler.restoreRequest(c.request, c.session);
+		}
+		System.out.println("C:replica - restored " + held.size() + " leases and " + queued.size()
+				+ " queued requests, epochs continue after " + (lastEpoch + epochGap) + ".");
+	}
+
+	/**
+	 * Hands state given up by another shard (C_scheduler.handOff()) to this shard's running scheduler.
+	 * Epochs carry on above the other shard's, there is no gap as nothing was granted after the copy.
+	 * @param scheduler Scheduler of this shard
+	 */
+	public void adopt(C_scheduler scheduler) {
+		scheduler.restoreEpoch(lastEpoch);
+		for (Map.Entry<Long, Copy> e : held.entrySet()) {
+			scheduler.restoreLease(e.getValue().request, e.getKey(), e.getValue().session);
+		}
+		for (Copy c : queued.values()) {
+			scheduler.restoreRequest(c.request, c.session);
+		}
+	}
+
+	/**
+	 * Gets the copied requests that are waiting, in their original order
+	 * @return copy of the waiting requests
+	 */
+	public List<Request> getQueued() {
+		List<Request> list = new ArrayList<>();
+		for (Copy c : queued.values()) list.add(c.request);
+		return list;
+	}
+
+	/**
+	 * Gets the number of copied leases
+	 * @return number of live leases
+	 */
+	public int getLeaseCount() {
+		return held.size();
+	}
+
+	/**
+	 * Gets the highest fencing epoch seen
+	 * @return epoch
+	 */
+	public long getLastEpoch() {
+		return lastEpoch;
+	}
+}
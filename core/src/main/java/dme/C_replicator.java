@@ -0,0 +1,175 @@
+package dme;
+
+import java.io.*;
+import java.net.*;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Represents the replication thread of a primary coordinator, streaming its state to a hot standby (C_standby).
+ *
+ * The standby connects to the replication port ("dme.replication.port", default 7006). It is first sent a
+ * snapshot of every resource, then every queue and lease change as the scheduler makes it, as C_replica
+ * change lines, with a heartbeat line at least every "dme.replication.heartbeat.ms" (default 100).
+ *
+ * Changes are queued in memory by the scheduler and written by this thread, so a slow standby never holds up
+ * a grant. A standby that falls more than "dme.replication.backlog" changes behind (default 100000) is dropped,
+ * and gets a fresh snapshot when it reconnects. One standby is served at a time.
+ *
+ */
+public class C_replicator extends Thread implements ChangeLog {
+
+	// Instance variables
+	private final C_scheduler scheduler;
+	private final int port;
+	private final long heartbeatMillis = Config.getLong("replication.heartbeat.ms", 100);
+	private final int maxBacklog = Config.getInt("replication.backlog", 100000);
+	private volatile ServerSocket server;
+
+	// Guarded by lock
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition pending = lock.newCondition(); // Signalled when lines are queued
+	private ArrayDeque<String> backlog = new ArrayDeque<>(); // Lines not yet written to the standby
+	private boolean attached; // A standby is connected and being streamed to
+
+	/**
+	 * Constructor for creating a new replication thread
+	 * @param scheduler Scheduler whose changes are replicated
+	 * @param p Port number the standby connects to
+	 */
+	public C_replicator(C_scheduler scheduler, int p) {
+		super("C_replicator");
+		setDaemon(true);
+		this.scheduler = scheduler;
+		this.port = p;
+	}
+
+	/**
+	 * Executes the replicator's task of accepting a standby and streaming to it until it disconnects
+	 */
+	public void run() {
+		try {
+			server = new ServerSocket(port);
+			System.out.println("[----- C_replicator Waiting for a standby on port " + port + " -----]\n");
+		} catch (IOException e) {
+			System.out.println("Exception whilst creating replication socket " + e);
+			return;
+		}
+		scheduler.addChangeLog(this);
+		while (!server.isClosed()) {
+			try (Socket standby = server.accept()) {
+				standby.setTcpNoDelay(true);
+				System.out.println("C:replicator - standby connected from " + standby.getRemoteSocketAddress());
+				stream(new BufferedWriter(new OutputStreamWriter(standby.getOutputStream(), "US-ASCII")));
+			} catch (IOException e) {
+				if (!server.isClosed()) System.out.println("C:replicator - standby lost: " + e.getMessage());
+			} catch (InterruptedException e) {
+				return;
+			} finally {
+				detach();
+			}
+		}
+	}
+
+	/**
+	 * Sends the snapshot, then queued changes and heartbeats, until the standby is dropped or disconnects
+	 */
+	private void stream(Writer out) throws IOException, InterruptedException {
+		lock.lock();
+		try {
+			backlog.clear();
+			attached = true;
+		} finally {
+			lock.unlock();
+		}
+		scheduler.snapshot(this);
+		ArrayDeque<String> lines = new ArrayDeque<>();
+		while (true) {
+			lock.lock();
+			try {
+				if (backlog.isEmpty()) pending.await(heartbeatMillis, TimeUnit.MILLISECONDS);
+				if (!attached) throw new IOException("standby fell more than " + maxBacklog + " changes behind");
+				ArrayDeque<String> full = backlog; // Swap the queues, the scheduler keeps appending to the empty one
+				backlog = lines;
+				lines = full;
+			} finally {
+				lock.unlock();
+			}
+			if (lines.isEmpty()) lines.add(C_replica.HEARTBEAT);
+			for (String line : lines) {
+				out.write(line);
+				out.write('\n');
+			}
+			out.flush();
+			lines.clear();
+		}
+	}
+
+	private void detach() {
+		lock.lock();
+		try {
+			attached = false;
+			backlog.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Queues one line for the standby, dropping the standby if it is too far behind
+	 * @param snapshot true for snapshot lines, which are not limited (the streaming thread is busy taking the snapshot)
+	 */
+	private void send(String line, boolean snapshot) {
+		lock.lock();
+		try {
+			if (!attached) return;
+			if (!snapshot && backlog.size() >= maxBacklog) {
+				attached = false; // The streaming thread disconnects, the standby resyncs from a snapshot
+				backlog.clear();
+			} else {
+				backlog.add(line);
+			}
+			pending.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long event(int type, Request request, long epoch) {
+		String line = C_replica.line(type, request, epoch);
+		if (line != null) send(line, false);
+		return 0;
+	}
+
+	public void epoch(long epoch) {
+		send(C_replica.EPOCH + " " + epoch, true);
+	}
+
+	public void snapshot(String resource, List<Lease> holders, List<Request> queued) {
+		send(C_replica.SNAPSHOT + " " + resource, true);
+		for (Lease l : holders) {
+			send(C_replica.queued(l.getRequest()), true);
+			send(C_replica.granted(l.getRequest(), l.getEpoch()), true);
+		}
+		for (Request r : queued) {
+			send(C_replica.queued(r), true);
+		}
+	}
+
+	/**
+	 * Stops accepting standbys and disconnects the current one
+	 */
+	public void close() {
+		scheduler.removeChangeLog(this);
+		try {
+			if (server != null) server.close();
+		} catch (IOException e) {
+			// Already closed
+		}
+		detach();
+		interrupt();
+	}
+}
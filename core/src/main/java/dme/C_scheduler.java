@@ -0,0 +1,1149 @@
+package dme;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Represents the scheduler thread of the coordinator, the single dispatcher of every resource's token.
+ *
+ * The coordinator keeps one C_lockEntry per named resource, each with its own queue and holders,
+ * so requests for unrelated resources are granted independently. Entries are created on the first request
+ * for a resource and evicted once the resource is free with nothing queued, so memory stays bounded
+ * by the number of resources in use. The scheduler parks until a resource becomes grantable
+ * (a request arrives while it is free, or its token comes back) or a lease expires.
+ * How the token is delivered and collected is delegated to a GrantStrategy.
+ *
+ * Every grant is a Lease with a fencing epoch, unique across all resources. Holders may renew their lease,
+ * expired leases are revoked and the resource moves on to its next request.
+ * Returns and renewals carrying an epoch that is not currently held are rejected.
+ *
+ * Requests are EXCLUSIVE or SHARED (LockMode). When a resource is granted, the shared requests at the head
+ * of its queue are granted together as one batch; each holder has its own lease and returns it separately,
+ * and the resource is free once the last one is back. Further readers join a shared batch only while no
+ * exclusive request is waiting, so writers are not starved and the queue's policy still decides the order.
+ *
+ * A request may carry a deadline (Request.setMaxWait()), after which its node no longer wants the grant. Deadlines
+ * are kept in a TimerWheel ("dme.deadline.tick.ms", default 10) that the scheduler advances as it parks, and a
+ * request whose deadline passes is dropped from its queue without a grant (a deadline miss, Journal.EXPIRE);
+ * one found expired at the head of its queue when the resource is granted is skipped the same way.
+ *
+ * Requests from nodes go through admission control (offer(), see AdmissionControl): with a queue capacity set,
+ * overall or per priority band, a request that does not fit is refused with a retry-after hint computed from the
+ * rate the queues are draining, so under overload waits stay bounded and nodes back off as far as the
+ * coordinator is behind. Requests restored or handed over (submit()) are always queued.
+ *
+ * A sticky request (Request.setSticky()) is one whose node keeps the token after its critical section, to take it
+ * again without asking, until the coordinator recalls it: once a request is queued behind a sticky holder, the
+ * holder is sent a recall (NodeSession.sendRecall(), Journal.RECALL) and gives the token back as soon as its
+ * critical section is over. Recalls are sent once per lease, only after its grant went out, and the time from
+ * recall to return is measured (Metrics). The node gives an idle token back by itself after a while (DmeLock).
+ *
+ * Each resource's queue is ordered by its own SchedulingPolicy (strict priority, FIFO, aged priority or
+ * weighted fair queueing, see SchedulingPolicy), which is told how long every lease it gave out was held.
+ *
+ * With pipelined handoff ("dme.pipeline=true") the request at the head of a held resource's queue is
+ * sent a standby notice through GrantStrategy.standby(), so its strategy can warm the grant path while the
+ * current holder is in its critical section. Handoffs to a request on standby are counted separately,
+ * giving the handoff gap with and without the notice. Standby notices are sent from the scheduler thread only,
+ * so they never race with the grant to the same request.
+ *
+ * The resource table is a ConcurrentHashMap and each entry has its own ReentrantLock, so handlers for
+ * different resources never contend. An entry's lock is never held while taking the scheduler's lock.
+ *
+ * Every queue and lease change is also passed to the attached ChangeLogs (in the same order, under the entry's
+ * lock): a C_replicator streams them to a standby coordinator, a C_wal writes them ahead to disk. A standby that
+ * takes over, or a coordinator recovering from its log, restores the queues and leases with restoreRequest()
+ * and restoreLease() before starting. With a log that promises durability, requests are queued, grants sent
+ * and returns acknowledged only once the log has committed them. Requests and leases restored for session nodes
+ * wait on a C_detachedSession until their node reconnects and reattaches, keeping their place in the queue.
+ *
+ * A sharded coordinator (C_shard) owns only part of the resources. Its epochs are kept apart from those of the
+ * other shards (each shard grants epochs of its own residue modulo C_shard.EPOCH_STRIDE), and handOff() gives up
+ * a resource with its holders and queue when the resource moves to another shard.
+ *
+ * Every grant, return and request is logged through the asynchronous Logger and the Journal. The console only
+ * shows them with "dme.log.verbose=true", printing is synchronized on stdout and would serialise the handlers;
+ * anomalies (revocations, rejected returns and renewals) are always printed.
+ *
+ */
+public class C_scheduler extends Thread {
+
+	static final boolean VERBOSE = Config.getBoolean("log.verbose", false); // Print every event on the console
+
+	// Instance variables
+	private final Supplier<SchedulingPolicy> policies; // Scheduling policy of each resource queue
+	private final GrantStrategy strategy;
+	private final long leaseMillis; // Duration of each grant
+	private final HandoffStats handoffs = new HandoffStats(); // Every handoff
+	private final HandoffStats standbyHandoffs = new HandoffStats(); // Handoffs to a request that had a standby notice
+	private volatile boolean pipelined = Config.getBoolean("pipeline", false); // Send standby notices
+	private final ConcurrentHashMap<String, C_lockEntry> entries = new ConcurrentHashMap<>(); // Resource name to entry
+	private final ConcurrentHashMap<Long, C_lockEntry> held = new ConcurrentHashMap<>(); // Epoch of each live lease to its entry
+	private final AtomicLong lastEpoch = new AtomicLong(); // Highest fencing epoch granted so far
+	private volatile int epochStride = 1; // Epochs granted step by this, so every epoch is epochOffset modulo it
+	private volatile int epochOffset;
+	private volatile C_shard shard; // Part of the keyspace this coordinator owns, null if it owns every resource
+	private final AtomicLong revocations = new AtomicLong(); // Leases revoked (expired, or holder's session lost)
+	private final ConcurrentHashMap<String, C_detachedSession> detached = new ConcurrentHashMap<>(); // Restored session requests by key
+	private final long reattachMillis = Config.getLong("replication.reattach.ms", 2000); // Time restored nodes have to reattach
+	private volatile AdmissionControl admission = AdmissionControl.fromConfig(); // Queue capacity ("dme.admission.*")
+	private final CopyOnWriteArrayList<ChangeLog> changeLogs = new CopyOnWriteArrayList<>(); // Receive every queue and lease change
+	private volatile boolean running = true;
+
+	// Guarded by lock
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition wake = lock.newCondition(); // Signalled when an entry becomes ready
+	private final ArrayDeque<C_lockEntry> ready = new ArrayDeque<>(); // Free entries with requests waiting
+	private final PriorityQueue<Expiry> expiries = new PriorityQueue<>(); // Live leases, earliest deadline first
+	private final TimerWheel<Request> deadlines = new TimerWheel<>( // Queued requests with a deadline
+			Math.max(1, Config.getLong("deadline.tick.ms", 10)) * 1_000_000L, 512);
+
+	/**
+	 * Constructor for creating a new scheduler thread, with the configured scheduling policy ("dme.scheduling")
+	 * and the lease duration from "dme.lease.ms" (default 10 s)
+	 * @param s strategy used to deliver and collect the token
+	 */
+	public C_scheduler(GrantStrategy s) {
+		this(SchedulingPolicy.fromConfig(), s, Config.getLong("lease.ms", 10000));
+	}
+
+	/**
+	 * Constructor for creating a new scheduler thread ordering each resource's queue by aged priority
+	 * @param aging aging policy of each resource's queue
+	 * @param s strategy used to deliver and collect the token
+	 * @param leaseMillis duration of each grant in milliseconds
+	 */
+	public C_scheduler(AgingPolicy aging, GrantStrategy s, long leaseMillis) {
+		this(() -> new AgedPriorityPolicy(aging), s, leaseMillis);
+	}
+
+	/**
+	 * Constructor for creating a new scheduler thread
+	 * @param policies source of the scheduling policy of each resource's queue, one new policy per resource
+	 * @param s strategy used to deliver and collect the token
+	 * @param leaseMillis duration of each grant in milliseconds
+	 */
+	public C_scheduler(Supplier<SchedulingPolicy> policies, GrantStrategy s, long leaseMillis) {
+		super("C_scheduler");
+		this.policies = policies;
+		strategy = s;
+		this.leaseMillis = leaseMillis;
+	}
+
+	/**
+	 * Queues a request on its resource, creating the resource's entry if needed, whatever the queue capacity.
+	 * A request the node already made (same key, see Request.getKey()) is not queued again: a waiting one moves
+	 * to the new request's session and takes its priority and deadline, a granted one has its grant sent again.
+	 * A request whose key is in use over another node's open session is not queued either (see sameNode()).
+	 * @param request Request to queue
+	 * @return true if the request was queued, false if it is one the node already made or its key is in use
+	 */
+	public boolean submit(Request request) {
+		return enqueue(request, false) == QUEUED;
+	}
+
+	/**
+	 * Queues a request from a node if admission control lets it in, otherwise refuses it. A request the node
+	 * already made is handled as by submit(), never refused. A request whose key another node's open session is
+	 * using is refused until that node's request is done.
+	 * @param request Request to queue
+	 * @return 0 if the request was queued or is one the node already made, otherwise the milliseconds the node
+	 * should wait before asking again
+	 */
+	public long offer(Request request) {
+		long result = enqueue(request, true);
+		return result == TAKEN ? TAKEN_RETRY_MILLIS : Math.max(0, result);
+	}
+
+	// Results of enqueue(), a rejection being its retry-after
+	private static final long QUEUED = 0, MERGED = -1, TAKEN = -2;
+	private static final long TAKEN_RETRY_MILLIS = 1000; // Retry-after of a request whose key another session uses
+
+	/**
+	 * Queues a request, see submit() and offer()
+	 * @param admit true to refuse the request if its queue is full
+	 * @return QUEUED, MERGED into a request the node already made, TAKEN if another node's session uses its key,
+	 * or the retry-after in milliseconds if refused
+	 */
+	private long enqueue(Request request, boolean admit) {
+		if (request.getSession() != null && !(request.getSession() instanceof C_detachedSession)
+				&& request.getRequestId() != 0 && !detached.isEmpty()) {
+			C_detachedSession d = detached.remove(C_detachedSession.key(request));
+			if (d != null && d.attach(request.getSession(), true)) return MERGED; // Taken over from the previous primary
+		}
+		long retryAfter;
+		while (true) {
+			C_lockEntry entry = entries.computeIfAbsent(request.getResource(), name -> new C_lockEntry(name, policies.get()));
+			boolean becameReady;
+			long position;
+			Lease holding;
+			Request waiting;
+			List<Lease> recalls = Collections.emptyList();
+			entry.lock.lock();
+			try {
+				if (entry.evicted) continue; // Lost a race with eviction, the next lookup creates a fresh entry
+				holding = request.getRequestId() != 0 ? entry.holder(request.getKey()) : null;
+				waiting = holding == null && request.getRequestId() != 0 ? entry.queue.find(request.getKey()) : null;
+				if (!sameNode(holding != null ? holding.getRequest() : waiting, request.getSession())) {
+					retryAfter = TAKEN;
+					break;
+				}
+				if (holding == null && waiting == null) {
+					if (!admit) {
+						admission.queued(request.getPriority());
+					} else if ((retryAfter = admission.admit(request.getPriority())) > 0) {
+						evictIfIdle(entry); // In case it was created for this request
+						break;
+					}
+					waiting = entry.queue.saveRequest(request);
+				}
+				if (waiting == request) {
+					position = record(Journal.REQUEST, request, 0, entry.queue.size());
+					Metrics.getInstance().requestQueued();
+					if (!request.isShared()) entry.waitingExclusive++;
+					recalls = entry.recallSticky(System.nanoTime());
+				} else {
+					position = resubmitted(entry, holding != null ? holding.getRequest() : waiting, request);
+				}
+				becameReady = !entry.scheduled && (entry.canGrantHead(false) || (pipelined && entry.needsStandby()));
+				if (becameReady) entry.scheduled = true;
+			} finally {
+				entry.lock.unlock();
+			}
+			commit(position);
+			if (becameReady) schedule(entry);
+			recall(entry, recalls);
+			if (waiting != null && waiting.getDeadlineNanos() != 0) watchDeadline(waiting);
+			if (holding != null) {
+				if (VERBOSE) System.out.println("C:scheduler - " + holding + " asked again for " + entry.name + ", resending its grant.");
+				strategy.grant(holding);
+			}
+			return waiting == request ? QUEUED : MERGED;
+		}
+		if (retryAfter == TAKEN) {
+			if (VERBOSE) System.out.println("C:scheduler - request " + request.getKey() + " refused, another session is using its key.");
+			return TAKEN;
+		}
+		rejected(request, retryAfter); // Left the loop refused
+		return retryAfter;
+	}
+
+	/**
+	 * Checks whether a request or cancel arriving over a session comes from the node that made the request known
+	 * by its key: over the same session, or over a new one once the node has lost the session it used (closed,
+	 * or detached by a takeover and not reattached). Nodes choose their node and request ids, so two nodes on
+	 * one host can make the same key, the second must not take over the first one's request.
+	 * @param known Request already queued or granted with the key, null if none
+	 * @param from Session the new request or cancel arrived on, null if none
+	 */
+	private static boolean sameNode(Request known, NodeSession from) {
+		NodeSession session = known != null ? known.getSession() : null;
+		return session == null || session == from || session instanceof C_detachedSession || !session.isOpen();
+	}
+
+	/**
+	 * Counts and logs a request refused by admission control, called without locks held
+	 */
+	private void rejected(Request request, long retryAfter) {
+		Journal.event(Journal.REJECT, request, 0, -1);
+		Metrics.getInstance().requestRejected();
+		if (VERBOSE) System.out.println("C:scheduler - request of " + request.getNode() + ":" + request.getPort() + " for "
+				+ request.getResource() + " rejected, queues full, retry after " + retryAfter + "ms.");
+	}
+
+	/**
+	 * Handles a node asking again for a request that is already queued or granted (a retry), called with the
+	 * entry's lock held. The original keeps its place, and is answered on the session the retry came over.
+	 * @param original Request already queued or granted
+	 * @param retry Request made again
+	 * @return position to commit
+	 */
+	private long resubmitted(C_lockEntry entry, Request original, Request retry) {
+		Metrics.getInstance().requestResubmitted();
+		if (retry.getSession() != null && !(retry.getSession() instanceof C_detachedSession)) {
+			original.setSession(retry.getSession());
+		}
+		if (retry.getDeadlineNanos() != original.getDeadlineNanos()) { // Asked again with a new wait, or none
+			entry.queue.updateDeadline(original.getKey(), retry.getDeadlineNanos());
+		}
+		int priority = original.getPriority();
+		if (priority == retry.getPriority() || !entry.queue.updatePriority(original.getKey(), retry.getPriority())) {
+			return 0;
+		}
+		admission.reprioritised(priority, retry.getPriority());
+		return record(Journal.PRIORITY, original, 0, entry.queue.size());
+	}
+
+	/**
+	 * Cancels a waiting request, when its node gives up waiting
+	 * @param resource Resource requested
+	 * @param key Key of the request (Request.key())
+	 * @param from Session the cancel arrived on, only the request's own node can cancel it (see sameNode())
+	 * @return true if the request was waiting and is removed, false if it is not queued (or was granted already)
+	 */
+	public boolean cancel(String resource, String key, NodeSession from) {
+		C_lockEntry entry = entries.get(resource);
+		if (entry == null) return false;
+		Request cancelled;
+		boolean reschedule;
+		long position;
+		entry.lock.lock();
+		try {
+			if (!sameNode(entry.queue.find(key), from)) {
+				System.out.println("C:scheduler - cancel of " + key + " ignored, the request was made over another session.");
+				return false;
+			}
+			cancelled = entry.queue.cancel(key);
+			if (cancelled == null) return false;
+			admission.left(cancelled.getPriority());
+			if (!cancelled.isShared()) entry.waitingExclusive--; // May let readers join a shared batch
+			if (cancelled == entry.standby) entry.standby = null;
+			position = record(Journal.CANCEL, cancelled, 0, entry.queue.size());
+			reschedule = !entry.scheduled && (entry.canGrantHead(false) || (pipelined && entry.needsStandby()));
+			if (reschedule) {
+				entry.scheduled = true;
+			} else {
+				evictIfIdle(entry);
+			}
+		} finally {
+			entry.lock.unlock();
+		}
+		NodeSession session = cancelled.getSession();
+		if (session instanceof C_detachedSession) detached.remove(key, session);
+		Metrics.getInstance().requestCancelled();
+		commit(position);
+		if (reschedule) schedule(entry);
+		if (VERBOSE) System.out.println("C:scheduler - request " + key + " for " + resource + " cancelled.");
+		return true;
+	}
+
+	/**
+	 * Watches the deadline of a queued request, called without locks held
+	 */
+	private void watchDeadline(Request r) {
+		lock.lock();
+		try {
+			if (deadlines.size() == 0) wake.signal(); // Parked past it, it wakes every tick once the wheel has deadlines
+			deadlines.add(r, r.getDeadlineNanos());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Drops a request whose deadline has passed, if it is still waiting and its deadline was not put back
+	 */
+	private void expire(Request r) {
+		C_lockEntry entry = entries.get(r.getResource());
+		if (entry == null) return;
+		boolean reschedule;
+		long position;
+		entry.lock.lock();
+		try {
+			if (!r.isExpired(System.nanoTime()) || !entry.queue.remove(r)) return; // Granted, cancelled or given longer
+			position = missed(entry, r);
+			reschedule = !entry.scheduled && (entry.canGrantHead(false) || (pipelined && entry.needsStandby()));
+			if (reschedule) {
+				entry.scheduled = true;
+			} else {
+				evictIfIdle(entry);
+			}
+		} finally {
+			entry.lock.unlock();
+		}
+		commit(position);
+		if (reschedule) schedule(entry);
+		expired(r);
+	}
+
+	/**
+	 * Accounts for a request removed from its queue because its deadline passed, called with the entry's lock held
+	 * @return position to commit
+	 */
+	private long missed(C_lockEntry entry, Request r) {
+		admission.left(r.getPriority());
+		if (!r.isShared()) entry.waitingExclusive--;
+		if (r == entry.standby) entry.standby = null;
+		return record(Journal.EXPIRE, r, 0, entry.queue.size());
+	}
+
+	/**
+	 * Counts and logs a deadline miss, called without locks held
+	 */
+	private void expired(Request r) {
+		NodeSession session = r.getSession();
+		if (session instanceof C_detachedSession && r.getRequestId() != 0) detached.remove(r.getKey(), session);
+		Metrics.getInstance().deadlineMissed();
+		if (VERBOSE) System.out.println("C:scheduler - request of " + r.getNode() + ":" + r.getPort() + " for " + r.getResource()
+				+ " dropped, its deadline passed.");
+	}
+
+	/**
+	 * Records a queue or lease change in the journal and the change logs, called with the entry's lock held
+	 * @return position to pass to commit() once the lock is released
+	 */
+	private long record(int type, Request request, long epoch, int queueLength) {
+		Journal.event(type, request, epoch, queueLength);
+		long position = 0;
+		for (ChangeLog log : changeLogs) {
+			position = Math.max(position, log.event(type, request, epoch));
+		}
+		return position;
+	}
+
+	/**
+	 * Waits until the change logs have committed the changes up to a position, called without locks held
+	 */
+	private void commit(long position) {
+		if (position == 0) return;
+		for (ChangeLog log : changeLogs) {
+			log.commit(position);
+		}
+	}
+
+	/**
+	 * Adds an entry to the ready queue and wakes the scheduler
+	 */
+	private void schedule(C_lockEntry entry) {
+		lock.lock();
+		try {
+			ready.add(entry);
+			wake.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Executes the scheduler's task: wait for a grantable resource or an expired lease, then act on it.
+	 */
+	public void run() {
+		try {
+			strategy.open(this);
+		} catch (java.io.IOException e) {
+			System.out.println("ERROR: Scheduler could not open grant strategy - " + e);
+			return;
+		}
+		System.out.println("C:scheduler - scheduling policy " + policies.get() + ", admission " + admission + ".");
+		try {
+			List<Lease> expired = new ArrayList<>();
+			List<Request> late = new ArrayList<>();
+			while (running) {
+				C_lockEntry entry = awaitWork(expired, late);
+				for (Lease l : expired) {
+					revoke(l, "expired");
+				}
+				expired.clear();
+				for (Request r : late) {
+					expire(r);
+				}
+				late.clear();
+				if (entry != null) dispatch(entry);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			strategy.close();
+		}
+	}
+
+	/**
+	 * Parks until an entry is ready, a lease has expired or a queued request's deadline has passed
+	 * @param expired List the expired leases are added to
+	 * @param late List the requests whose deadline passed are added to
+	 * @return the next ready entry, or null if there are only expiries to handle
+	 */
+	private C_lockEntry awaitWork(List<Lease> expired, List<Request> late) throws InterruptedException {
+		lock.lock();
+		try {
+			while (running) {
+				long now = System.nanoTime();
+				while (!expiries.isEmpty() && expiries.peek().deadlineNanos - now <= 0) {
+					Lease l = expiries.poll().lease;
+					if (!held.containsKey(l.getEpoch())) continue; // Already returned or revoked
+					long remaining = l.remainingNanos();
+					if (remaining > 0) {
+						expiries.add(new Expiry(l, now + remaining)); // Renewed since it was queued
+					} else {
+						expired.add(l);
+					}
+				}
+				deadlines.advance(now, late);
+				if (!expired.isEmpty() || !late.isEmpty() || !ready.isEmpty()) {
+					return ready.poll();
+				}
+				long next = deadlines.size() > 0 ? deadlines.nextTickNanos() - now : Long.MAX_VALUE;
+				if (!expiries.isEmpty()) next = Math.min(next, expiries.peek().deadlineNanos - now);
+				if (next == Long.MAX_VALUE) {
+					wake.await();
+				} else {
+					wake.awaitNanos(next);
+				}
+			}
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Grants a ready resource to its highest priority request, together with the shared requests
+	 * queued behind it if that request is shared, and records the handoff gaps.
+	 * With pipelined handoff, then sends a standby notice to the next request in line.
+	 */
+	private void dispatch(C_lockEntry entry) {
+		List<Lease> batch = new ArrayList<>();
+		List<Request> late = new ArrayList<>();
+		Request onStandby;
+		long freeSinceNanos;
+		long position = 0;
+		entry.lock.lock();
+		try {
+			if (entry.evicted) return; // Handed over to another shard while it waited
+			entry.scheduled = false;
+			freeSinceNanos = entry.holders.isEmpty() ? entry.freeSinceNanos : 0;
+			onStandby = entry.standby;
+			boolean fromFree = entry.holders.isEmpty();
+			long now = System.nanoTime();
+			while (entry.canGrantHead(fromFree)) {
+				Request request = entry.queue.tryGet();
+				if (request.isExpired(now)) { // The wheel has not got to it yet, its node no longer wants it
+					position = missed(entry, request);
+					late.add(request);
+					continue;
+				}
+				admission.left(request.getPriority());
+				if (!request.isShared()) entry.waitingExclusive--;
+				Lease granted = new Lease(request, lastEpoch.addAndGet(epochStride), leaseMillis);
+				entry.holders.add(granted);
+				held.put(granted.getEpoch(), entry);
+				position = record(Journal.GRANT, request, granted.getEpoch(), entry.queue.size());
+				batch.add(granted);
+				if (request == entry.standby) entry.standby = null;
+				if (!request.isShared()) break;
+			}
+			if (batch.isEmpty()) {
+				evictIfIdle(entry);
+			}
+		} finally {
+			entry.lock.unlock();
+		}
+		commit(position);
+		for (Request r : late) {
+			expired(r);
+		}
+		if (batch.isEmpty()) {
+			if (pipelined) sendStandby(entry);
+			return;
+		}
+		lock.lock();
+		try {
+			long now = System.nanoTime();
+			for (Lease granted : batch) {
+				expiries.add(new Expiry(granted, now + granted.remainingNanos()));
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		boolean sticky = false;
+		for (Lease granted : batch) {
+			// Log before issuing token
+			Request request = granted.getRequest();
+			Logger.getInstance().logEvent("Token Issued", request.getNode() + ":" + request.getPort(), entry.queue.size());
+			if (VERBOSE) {
+				System.out.println("\n[----------- Token Granting Process -----------]");
+				System.out.println("C:scheduler - Giving " + entry.name + " token (" + request.getMode() + ") to " + granted
+						+ ", lease " + leaseMillis + "ms.");
+			}
+
+			if (strategy.grant(granted)) {
+				long gap = System.nanoTime() - Math.max(freeSinceNanos, request.getEnqueuedNanos());
+				handoffs.record(gap);
+				Metrics.getInstance().granted(request.getPriority(), granted.getGrantedNanos() - request.getEnqueuedNanos(), gap);
+				if (request == onStandby) standbyHandoffs.record(gap);
+				if (VERBOSE) System.out.println("C:scheduler - " + handoffs + (pipelined ? " | on standby: " + standbyHandoffs : ""));
+				sticky |= request.isSticky();
+			} else {
+				// Node unreachable, its share of the resource is free again straight away
+				release(granted, Journal.REVOKE);
+			}
+		}
+		if (sticky) grantsSent(entry, batch);
+		if (pipelined) sendStandby(entry);
+	}
+
+	/**
+	 * Marks a batch's grants sent, so their holders can be recalled, and recalls the sticky ones at once
+	 * if requests were queued behind them meanwhile
+	 */
+	private void grantsSent(C_lockEntry entry, List<Lease> batch) {
+		List<Lease> recalls;
+		entry.lock.lock();
+		try {
+			for (Lease granted : batch) granted.markSent();
+			recalls = entry.evicted ? Collections.emptyList() : entry.recallSticky(System.nanoTime());
+		} finally {
+			entry.lock.unlock();
+		}
+		recall(entry, recalls);
+	}
+
+	/**
+	 * Asks sticky holders to give a resource's token back, a request waiting for it. Called without locks held
+	 */
+	private void recall(C_lockEntry entry, List<Lease> leases) {
+		for (Lease l : leases) {
+			if (VERBOSE) System.out.println("C:scheduler - recalling " + entry.name + " token from " + l + ", a request is waiting.");
+			Journal.event(Journal.RECALL, l.getRequest(), l.getEpoch(), -1);
+			Metrics.getInstance().recallSent();
+			NodeSession session = l.getRequest().getSession();
+			if (session.isOpen()) session.sendRecall(l);
+		}
+	}
+
+	/**
+	 * Sends a standby notice to the request at the head of a held resource's queue, if it has not had one
+	 */
+	private void sendStandby(C_lockEntry entry) {
+		Request next;
+		entry.lock.lock();
+		try {
+			if (entry.evicted || !entry.needsStandby()) return;
+			next = entry.queue.peek();
+			entry.standby = next;
+		} finally {
+			entry.lock.unlock();
+		}
+		if (VERBOSE) System.out.println("C:scheduler - " + next.getNode() + ":" + next.getPort() + " on standby for " + entry.name + ".");
+		Journal.event(Journal.STANDBY, next, 0, -1);
+		strategy.standby(next);
+	}
+
+	/**
+	 * Removes an entry from the table if it is free with nothing queued, called with the entry's lock held
+	 */
+	private void evictIfIdle(C_lockEntry entry) {
+		if (entry.holders.isEmpty() && !entry.scheduled && entry.queue.size() == 0) {
+			entry.evicted = true;
+			entries.remove(entry.name, entry);
+		}
+	}
+
+	/**
+	 * Revokes a lease after it has expired or its holder has gone
+	 */
+	private void revoke(Lease l, String reason) {
+		C_lockEntry entry = held.get(l.getEpoch());
+		if (entry == null || !release(l, Journal.REVOKE)) return;
+		System.out.println("C:scheduler - lease of " + l + " on " + entry.name + " " + reason + ", TOKEN revoked.");
+		Logger.getInstance().logEvent("Token Revoked", l.getRequest().getNode() + ":" + l.getRequest().getPort(), entry.queue.size());
+		revocations.incrementAndGet();
+	}
+
+	/**
+	 * Called when a node returns its token over a session. Only the session the lease was granted over can
+	 * return it, or the node's new session while a lease taken over from the previous primary waits for it
+	 * (see heldBy()).
+	 * @param epoch Fencing epoch the node was granted
+	 * @param from Session the return arrived on
+	 * @param nodeId Node id (port) the node gave with the return
+	 * @return true if the return was accepted, false if it was stale or not from the holder
+	 */
+	public boolean tokenReturned(long epoch, NodeSession from, int nodeId) {
+		return tokenReturned(epoch, r -> heldBy(r, from, nodeId), from.describe());
+	}
+
+	/**
+	 * Called when a node returns its token over the return port. Only a lease granted over a one-off connection
+	 * is returned there, and only by its node: from the node's host, naming its port.
+	 * @param epoch Fencing epoch the node was granted
+	 * @param host Address the return came from
+	 * @param nodeId Port the node named in the return
+	 * @return true if the return was accepted, false if it was stale or not from the holder
+	 */
+	public boolean tokenReturned(long epoch, String host, int nodeId) {
+		return tokenReturned(epoch, r -> r.getSession() == null && r.getPort() == nodeId && sameHost(r, host), host);
+	}
+
+	/**
+	 * Releases a returned lease if the return comes from its holder
+	 * @param isHolder Whether the lease's request is the sender's
+	 */
+	private boolean tokenReturned(long epoch, Predicate<Request> isHolder, String from) {
+		C_lockEntry entry = held.get(epoch);
+		Lease returned = entry != null ? holder(entry, epoch) : null;
+		if (returned != null && !isHolder.test(returned.getRequest())) {
+			System.out.println("C:scheduler - rejected token return (epoch " + epoch + ") from " + from + ", not its holder.");
+			return false;
+		}
+		if (returned == null || !release(returned, Journal.RETURN)) {
+			System.out.println("C:scheduler - rejected stale token return (epoch " + epoch + ") from " + from);
+			return false;
+		}
+		Request r = returned.getRequest();
+		if (VERBOSE) {
+			System.out.println("\n--------------------------------------------------------------------");
+			System.out.println("C:scheduler - " + entry.name + " TOKEN returned to coordinator from " + r.getNode() + ":" + r.getPort() + " (" + r.getMode() + ")");
+			System.out.println("--------------------------------------------------------------------\n");
+		}
+		// Log token return
+		Logger.getInstance().logEvent("Token Returned", r.getNode() + ":" + r.getPort(), entry.queue.size());
+		return true;
+	}
+
+	/**
+	 * Called when a node asks to extend its lease over the return port. Only a lease granted over a one-off
+	 * connection is renewed there, and only by its node: from the node's host, naming its port.
+	 * @param epoch Fencing epoch the node was granted
+	 * @param host Address the renewal came from
+	 * @param nodeId Port the node named in the renewal
+	 * @return true if the lease was renewed, false if the epoch is not currently held or not by the sender
+	 */
+	public boolean renew(long epoch, String host, int nodeId) {
+		return renew(epoch, r -> r.getSession() == null && r.getPort() == nodeId && sameHost(r, host), null);
+	}
+
+	/**
+	 * Called when a holder asks to extend its lease over a session. Only the session the lease was granted over
+	 * can renew it, except that a holder whose lease was taken over from the previous primary reattaches to it
+	 * this way from its new session (see heldBy()).
+	 * @param epoch Fencing epoch the node was granted
+	 * @param from Session the renewal arrived on
+	 * @param nodeId Node id (port) the node gave with the renewal
+	 * @return true if the lease was renewed, false if the epoch is not currently held or not by the sender
+	 */
+	public boolean renew(long epoch, NodeSession from, int nodeId) {
+		return renew(epoch, r -> heldBy(r, from, nodeId), from);
+	}
+
+	/**
+	 * Checks whether a lease's request is held by the node sending a frame over a session: the session it was
+	 * granted over, or, for a lease taken over from the previous primary and not reattached yet, a session from
+	 * the request's host with the request's node id
+	 */
+	private static boolean heldBy(Request r, NodeSession from, int nodeId) {
+		NodeSession session = r.getSession();
+		return session == from || (session instanceof C_detachedSession && r.getPort() == nodeId
+				&& r.getNode().equals(from.getHost()));
+	}
+
+	/**
+	 * Renews a lease if the renewal comes from its holder
+	 * @param isHolder Whether the lease's request is the sender's
+	 * @param from Session the renewal arrived on, null if none
+	 */
+	private boolean renew(long epoch, Predicate<Request> isHolder, NodeSession from) {
+		C_lockEntry entry = held.get(epoch);
+		if (entry != null) {
+			entry.lock.lock();
+			try {
+				Lease l = entry.holder(epoch);
+				if (l != null && l.remainingNanos() > 0 && isHolder.test(l.getRequest())) {
+					l.renew();
+					Journal.event(Journal.RENEW, l.getRequest(), epoch, -1);
+					NodeSession session = l.getRequest().getSession();
+					if (from != null && session instanceof C_detachedSession
+							&& detached.remove(C_detachedSession.key(l.getRequest()), session)) {
+						((C_detachedSession) session).attach(from, false);
+					}
+					return true;
+				}
+			} finally {
+				entry.lock.unlock();
+			}
+		}
+		System.out.println("C:scheduler - rejected lease renewal for epoch " + epoch);
+		return false;
+	}
+
+	/**
+	 * Checks whether a message came from the host of a request, the address of the connection the request arrived
+	 * on. Only stored strings are compared, nothing is resolved on the scheduler or selector thread.
+	 */
+	private static boolean sameHost(Request r, String address) {
+		return address.equals(r.getNode());
+	}
+
+	/**
+	 * Called when a node session closes. Leases held through that session are revoked immediately,
+	 * without waiting for them to expire.
+	 * @param session Session that closed
+	 */
+	public void sessionClosed(NodeSession session) {
+		for (Map.Entry<Long, C_lockEntry> e : held.entrySet()) {
+			C_lockEntry entry = e.getValue();
+			Lease l = holder(entry, e.getKey());
+			if (l != null && l.getRequest().getSession() == session) {
+				System.out.println("C:scheduler - " + session.describe() + " closed while holding " + entry.name + ".");
+				revoke(l, "ended");
+			}
+		}
+	}
+
+	/**
+	 * Called by asynchronous grant strategies when a grant they accepted could not be delivered.
+	 * The resource is freed straight away instead of waiting for the lease to expire.
+	 * @param l Lease that could not be delivered
+	 */
+	public void grantFailed(Lease l) {
+		release(l, Journal.REVOKE);
+	}
+
+	/**
+	 * Finds a holder of an entry by epoch, taking the entry's lock
+	 */
+	private Lease holder(C_lockEntry entry, long epoch) {
+		entry.lock.lock();
+		try {
+			return entry.holder(epoch);
+		} finally {
+			entry.lock.unlock();
+		}
+	}
+
+	/**
+	 * Releases a lease if it still holds its resource and schedules the resource's next requests
+	 * @param journalType Journal record of the release (Journal.RETURN or REVOKE)
+	 * @return true if the lease was still held
+	 */
+	private boolean release(Lease l, int journalType) {
+		C_lockEntry entry = held.get(l.getEpoch());
+		if (entry == null) return false;
+		boolean reschedule;
+		long position;
+		entry.lock.lock();
+		try {
+			if (!entry.holders.remove(l)) return false;
+			held.remove(l.getEpoch());
+			NodeSession session = l.getRequest().getSession();
+			if (session instanceof C_detachedSession) detached.remove(C_detachedSession.key(l.getRequest()), session);
+			position = record(journalType, l.getRequest(), l.getEpoch(), entry.queue.size());
+			long now = System.nanoTime();
+			long heldNanos = now - l.getGrantedNanos();
+			Metrics.getInstance().released(heldNanos, journalType == Journal.REVOKE);
+			if (l.getRecalledNanos() != 0 && journalType == Journal.RETURN) {
+				Metrics.getInstance().recallAnswered(now - l.getRecalledNanos());
+			}
+			entry.queue.released(l.getRequest(), heldNanos); // Fair queueing charges the node for the time it held
+			if (entry.holders.isEmpty()) entry.freeSinceNanos = System.nanoTime();
+			reschedule = !entry.scheduled && entry.canGrantHead(false);
+			if (reschedule) {
+				entry.scheduled = true;
+			} else {
+				evictIfIdle(entry);
+			}
+		} finally {
+			entry.lock.unlock();
+		}
+		commit(position);
+		if (reschedule) schedule(entry);
+		return true;
+	}
+
+	/**
+	 * Attaches a change log, which receives every change made from now on
+	 * @param log Change log
+	 */
+	public void addChangeLog(ChangeLog log) {
+		changeLogs.addIfAbsent(log);
+	}
+
+	/**
+	 * Detaches a change log
+	 * @param log Change log
+	 */
+	public void removeChangeLog(ChangeLog log) {
+		changeLogs.remove(log);
+	}
+
+	/**
+	 * Sends a change log a snapshot of every resource, each taken under the entry's lock so it is ordered
+	 * with the changes recorded for that resource
+	 * @param log Attached change log, of a standby that has just connected or a log starting a new file
+	 */
+	public void snapshot(ChangeLog log) {
+		log.epoch(lastEpoch.get());
+		for (C_lockEntry entry : entries.values()) {
+			entry.lock.lock();
+			try {
+				if (!entry.evicted) log.snapshot(entry.name, entry.holders, entry.queue.snapshot());
+			} finally {
+				entry.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Starts the fencing epochs after a value, so epochs granted by a previous primary are never reused.
+	 * Called before the scheduler starts.
+	 * @param epoch Epoch the next grant must be above
+	 */
+	public void restoreEpoch(long epoch) {
+		int stride = epochStride;
+		long aligned = epoch + Math.floorMod(epochOffset - epoch, stride); // Lowest epoch of this shard's residue from epoch
+		lastEpoch.accumulateAndGet(aligned, Math::max);
+	}
+
+	/**
+	 * Installs a lease taken over from a previous primary, before the scheduler starts, or handed over by another
+	 * shard. The lease starts afresh so its holder has a whole lease to reattach or return it.
+	 * Call restoreEpoch() first with an epoch at least as high.
+	 * @param request Request holding the lease
+	 * @param epoch Fencing epoch it was granted
+	 * @param session true if the request came over a session the node will reattach to
+	 */
+	public void restoreLease(Request request, long epoch, boolean session) {
+		C_lockEntry entry = entries.computeIfAbsent(request.getResource(), name -> new C_lockEntry(name, policies.get()));
+		Lease l = new Lease(request, epoch, leaseMillis);
+		if (session) {
+			C_detachedSession d = new C_detachedSession(request, reattachMillis);
+			d.restored(l);
+			if (request.getRequestId() != 0) detached.put(C_detachedSession.key(request), d);
+		}
+		entry.lock.lock();
+		try {
+			entry.holders.add(l);
+			held.put(epoch, entry);
+			record(Journal.GRANT, request, epoch, entry.queue.size());
+		} finally {
+			entry.lock.unlock();
+		}
+		lock.lock();
+		try {
+			expiries.add(new Expiry(l, System.nanoTime() + l.remainingNanos()));
+			wake.signal(); // The scheduler may already be parked, when a shard adopts a lease handed over
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Queues a request taken over from a previous primary, before the scheduler starts, or handed over by another
+	 * shard. Restore requests in their original order, after the leases.
+	 * @param request Request to queue
+	 * @param session true if the request came over a session the node will reattach to
+	 */
+	public void restoreRequest(Request request, boolean session) {
+		C_detachedSession d = session ? new C_detachedSession(request, reattachMillis) : null;
+		if (submit(request) && d != null && request.getRequestId() != 0) { // Not merged into a request already here
+			detached.put(C_detachedSession.key(request), d);
+		}
+	}
+
+	/**
+	 * Gives up a resource that has moved to another shard: its state is passed to a change log as a snapshot,
+	 * then its holders and queue are dropped here, each recorded as a Journal.HANDOVER.
+	 * @param resource Resource name
+	 * @param log Change log receiving the epoch and the resource's snapshot
+	 * @return requests of the holders and the waiting requests, whose nodes are to be told where the resource went
+	 */
+	public List<Request> handOff(String resource, ChangeLog log) {
+		List<Request> moved = new ArrayList<>();
+		C_lockEntry entry = entries.get(resource);
+		if (entry == null) return moved;
+		long position = 0;
+		entry.lock.lock();
+		try {
+			if (entry.evicted) return moved;
+			List<Request> queued = entry.queue.snapshot();
+			log.epoch(lastEpoch.get()); // Epochs on the new shard carry on above every epoch granted here
+			log.snapshot(entry.name, entry.holders, queued);
+			for (Lease l : entry.holders) {
+				held.remove(l.getEpoch());
+				forget(l.getRequest(), moved);
+				position = record(Journal.HANDOVER, l.getRequest(), l.getEpoch(), queued.size());
+			}
+			for (Request r : queued) {
+				admission.left(r.getPriority());
+				forget(r, moved);
+				position = record(Journal.HANDOVER, r, 0, queued.size());
+			}
+			entry.holders.clear();
+			entry.standby = null;
+			entry.evicted = true; // Leases, requests and the ready queue let go of the entry when they next see it
+			entries.remove(entry.name, entry);
+		} finally {
+			entry.lock.unlock();
+		}
+		commit(position);
+		return moved;
+	}
+
+	/**
+	 * Drops the reattachment of a request handed over, and adds it to the requests moved
+	 */
+	private void forget(Request r, List<Request> moved) {
+		NodeSession session = r.getSession();
+		if (session instanceof C_detachedSession) detached.remove(C_detachedSession.key(r), session);
+		moved.add(r);
+	}
+
+	/**
+	 * Gets the names of the resources currently held or with requests waiting
+	 * @return copy of the names
+	 */
+	public List<String> getResources() {
+		return new ArrayList<>(entries.keySet());
+	}
+
+	/**
+	 * Makes this coordinator one shard of a sharded keyspace, before the scheduler starts or restores anything.
+	 * Its epochs are then id modulo C_shard.EPOCH_STRIDE, so they never collide with the epochs of other shards.
+	 * @param shard Shard, its id unique among the shards
+	 */
+	public void setShard(C_shard shard) {
+		this.shard = shard;
+		epochOffset = shard.getId();
+		epochStride = C_shard.EPOCH_STRIDE;
+		restoreEpoch(lastEpoch.get());
+	}
+
+	/**
+	 * Gets the shard this coordinator is
+	 * @return shard, or null if this coordinator owns every resource
+	 */
+	public C_shard getShard() {
+		return shard;
+	}
+
+	/**
+	 * Gets the leases currently holding a resource
+	 * @param resource Resource name
+	 * @return copy of the holders, empty if the resource is free
+	 */
+	public List<Lease> getHolders(String resource) {
+		C_lockEntry entry = entries.get(resource);
+		if (entry == null) return new ArrayList<>();
+		entry.lock.lock();
+		try {
+			return new ArrayList<>(entry.holders);
+		} finally {
+			entry.lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of resources currently held or with requests waiting
+	 * @return number of entries in the resource table
+	 */
+	public int getResourceCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Gets the number of requests waiting across all resources
+	 * @return total queue length
+	 */
+	public int getQueuedCount() {
+		int total = 0;
+		for (C_lockEntry entry : entries.values()) {
+			total += entry.queue.size();
+		}
+		return total;
+	}
+
+	/**
+	 * Displays the holder and queue of every resource, used for debugging
+	 */
+	public void show() {
+		for (C_lockEntry entry : entries.values()) {
+			List<Lease> holders = getHolders(entry.name);
+			System.out.println("Resource " + entry.name + (holders.isEmpty() ? " free" : " held by " + holders) + ":");
+			entry.queue.show();
+		}
+	}
+
+	/**
+	 * Gets the lease duration
+	 * @return lease duration in milliseconds
+	 */
+	public long getLeaseMillis() {
+		return leaseMillis;
+	}
+
+	/**
+	 * Gets the number of leases revoked before being returned
+	 * @return revocation count
+	 */
+	public long getRevocations() {
+		return revocations.get();
+	}
+
+	/**
+	 * Gets the handoff latency statistics
+	 * @return handoff statistics
+	 */
+	public HandoffStats getHandoffStats() {
+		return handoffs;
+	}
+
+	/**
+	 * Gets the handoff latency statistics of grants to requests that had a standby notice
+	 * @return standby handoff statistics
+	 */
+	public HandoffStats getStandbyHandoffStats() {
+		return standbyHandoffs;
+	}
+
+	/**
+	 * Replaces the admission control set from "dme.admission.*", while no requests are queued
+	 * @param admission Admission control of requests from nodes
+	 */
+	public void setAdmission(AdmissionControl admission) {
+		this.admission = admission;
+	}
+
+	/**
+	 * Gets the admission control of requests from nodes
+	 * @return admission control
+	 */
+	public AdmissionControl getAdmission() {
+		return admission;
+	}
+
+	/**
+	 * Turns pipelined handoff (standby notices) on or off, overriding "dme.pipeline"
+	 * @param pipelined true to send standby notices
+	 */
+	public void setPipelined(boolean pipelined) {
+		this.pipelined = pipelined;
+	}
+
+	/**
+	 * Stops the scheduler after the current grant
+	 */
+	public void shutdown() {
+		running = false;
+		interrupt();
+	}
+
+	/**
+	 * A live lease in the expiry queue, ordered by the deadline it had when queued.
+	 * Renewals don't reorder the queue; a renewed lease is put back when its old deadline comes up.
+	 */
+	private static final class Expiry implements Comparable<Expiry> {
+		final Lease lease;
+		final long deadlineNanos;
+
+		Expiry(Lease lease, long deadlineNanos) {
+			this.lease = lease;
+			this.deadlineNanos = deadlineNanos;
+		}
+
+		public int compareTo(Expiry other) {
+			return Long.compare(deadlineNanos - other.deadlineNanos, 0);
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package dme;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Represents a persistent session with one node, run by the C_sessionReceiver's executor.
+ * All frames for the node travel over this single connection:
+ * REQUEST, RELEASE, RENEW and HEARTBEAT from the node, GRANT, RELEASED, RENEWED, REJECTED and MOVED from the coordinator.
+ * Frames are text lines or binary WireCodec frames, chosen by the node's first byte.
+ * A session that closes or stays silent for longer than the session timeout is treated as dead,
+ * and any lease it holds is revoked straight away.
+ *
+ */
+public class C_session implements Runnable, NodeSession {
+
+	// Instance variables
+	private final Socket s;
+	private final C_scheduler scheduler;
+	private final int timeoutMillis; // Silence after which the node is considered dead
+	private PrintWriter out; // Text frames to the node
+	private OutputStream binOut; // Binary frames to the node, null for text sessions
+	private final ByteBuffer frameOut = ByteBuffer.allocate(WireCodec.MAX_FRAME_LENGTH); // Reused for binary writes
+	private final ReentrantLock sendLock = new ReentrantLock(); // Lock rather than monitor, so virtual threads don't pin while writing
+	private volatile boolean open = true;
+
+	/**
+	 * Constructor for creating a new session thread
+	 * @param s Socket of the session
+	 * @param scheduler Scheduler queuing requests and handling releases and renewals
+	 * @param timeoutMillis Silence after which the node is considered dead
+	 */
+	public C_session(Socket s, C_scheduler scheduler, int timeoutMillis) {
+		this.s = s;
+		this.scheduler = scheduler;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Executes the session's task of reading frames from the node until it disconnects
+	 */
+	public void run() {
+		try {
+			s.setSoTimeout(timeoutMillis);
+			s.setTcpNoDelay(true);
+			InputStream raw = new BufferedInputStream(s.getInputStream());
+			raw.mark(1);
+			int first = raw.read();
+			raw.reset();
+			if (first >= 0 && WireCodec.isBinary(first)) {
+				binOut = new BufferedOutputStream(s.getOutputStream());
+				readBinary(new DataInputStream(raw));
+			} else {
+				BufferedReader in = new BufferedReader(new InputStreamReader(raw));
+				out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(s.getOutputStream())));
+				String frame;
+				while ((frame = in.readLine()) != null) {
+					handle(frame.trim().split(" "));
+				}
+			}
+			System.out.println("C:session - " + describe() + " closed by node.");
+		} catch (SocketTimeoutException e) {
+			System.out.println("C:session - no heartbeat from " + describe() + " for " + timeoutMillis + "ms, session dead.");
+		} catch (IOException e) {
+			if (open) System.out.println("C:session - " + describe() + " failed: " + e.getMessage());
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Handles one frame received from the node
+	 */
+	private void handle(String[] frame) {
+		String reply = C_frameHandler.handleSessionFrame(frame, this, scheduler);
+		if (reply != null) send(reply);
+	}
+
+	/**
+	 * Reads binary frames until the node disconnects, reusing the same buffers for every frame
+	 */
+	private void readBinary(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[WireCodec.MAX_FRAME_LENGTH];
+		ByteBuffer frame = ByteBuffer.wrap(bytes);
+		WireMessage message = new WireMessage();
+		WireMessage reply = new WireMessage();
+		while (true) {
+			int length;
+			try {
+				length = WireCodec.read(in, bytes);
+			} catch (EOFException e) {
+				return;
+			}
+			frame.clear();
+			frame.limit(length);
+			if (WireCodec.decode(frame, message) != WireCodec.OK) {
+				System.out.println("C:session - malformed binary frame from " + describe() + ", closing.");
+				return;
+			}
+			if (C_frameHandler.handleBinary(message, this, scheduler, reply)) {
+				sendBinary(reply.type, reply.nodeId, reply.requestId, reply.epoch, reply.arg, null);
+			}
+		}
+	}
+
+	/**
+	 * Sends one binary frame to the node
+	 * @param resource Resource named in the frame, null for none
+	 * @return true if the frame was written
+	 */
+	private boolean sendBinary(int type, int nodeId, long requestId, long epoch, long arg, String resource) {
+		if (!open) return false;
+		sendLock.lock();
+		try {
+			frameOut.clear();
+			WireCodec.encode(frameOut, type, 0, nodeId, 0, requestId, epoch, arg, 0, resource);
+			binOut.write(frameOut.array(), 0, frameOut.position());
+			binOut.flush();
+			return true;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			sendLock.unlock();
+		}
+	}
+
+	/**
+	 * Sends one frame to the node
+	 * @param frame Frame to send
+	 * @return true if the frame was written
+	 */
+	private boolean send(String frame) {
+		if (!open || out == null) return false;
+		sendLock.lock();
+		try {
+			out.println(frame);
+			out.flush();
+			return !out.checkError();
+		} finally {
+			sendLock.unlock();
+		}
+	}
+
+	public boolean sendGrant(Lease lease) {
+		if (binOut != null) {
+			Request r = lease.getRequest();
+			return sendBinary(WireCodec.GRANT, r.getPort(), r.getRequestId(), lease.getEpoch(), lease.getDurationMillis(), null);
+		}
+		return send(Protocol.grant(lease));
+	}
+
+	public boolean sendStandby(Request request) {
+		if (binOut != null) {
+			return sendBinary(WireCodec.STANDBY, request.getPort(), request.getRequestId(), 0, 0, null);
+		}
+		return send(Protocol.standby(request));
+	}
+
+	public boolean sendRecall(Lease lease) {
+		if (binOut != null) {
+			Request r = lease.getRequest();
+			return sendBinary(WireCodec.RECALL, r.getPort(), r.getRequestId(), lease.getEpoch(), 0, null);
+		}
+		return send(Protocol.recall(lease));
+	}
+
+	public boolean sendMoved(Request request, String owner) {
+		if (binOut != null) {
+			return sendBinary(WireCodec.MOVED, request.getPort(), request.getRequestId(), 0, WireCodec.packAddress(owner), request.getResource());
+		}
+		return send(Protocol.MOVED + " " + request.getResource() + " " + owner);
+	}
+
+	public boolean isOpen() {
+		return open;
+	}
+
+	public String getHost() {
+		return s.getInetAddress().getHostAddress();
+	}
+
+	public String describe() {
+		return "session " + s.getRemoteSocketAddress();
+	}
+
+	/**
+	 * Closes the session and revokes any lease it holds
+	 */
+	public void close() {
+		if (!open) return;
+		open = false;
+		try {
+			s.close();
+		} catch (IOException e) {
+			System.out.println("Error closing session: " + e.getMessage());
+		}
+		scheduler.sessionClosed(this);
+	}
+}
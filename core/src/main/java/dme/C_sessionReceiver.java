@@ -0,0 +1,55 @@
+package dme;
+
+import java.net.*;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Represents a receiver thread accepting persistent node sessions.
+ * Each accepted connection is served by a C_session task on the executor for as long as the node stays connected.
+ *
+ */
+public class C_sessionReceiver extends Thread {
+
+	// Instance variables
+	private C_scheduler scheduler;
+	private int port;
+	private int timeoutMillis;
+	private ExecutorService sessions; // Runs one C_session per connected node
+
+	/**
+	 * Constructor for creating a new session receiver thread
+	 * @param scheduler Scheduler queuing requests and handling releases and renewals
+	 * @param p Port number the coordinator listens to for sessions
+	 */
+	public C_sessionReceiver(C_scheduler scheduler, int p) {
+		super("C_sessionReceiver");
+		this.scheduler = scheduler;
+		this.port = p;
+		this.timeoutMillis = Config.getInt("session.timeout.ms", 3000);
+		this.sessions = DmeThreads.newExecutor("C_session");
+	}
+
+	/**
+	 * Executes the receiver's task of accepting sessions
+	 */
+	public void run() {
+		ServerSocket s_socket;
+		try {
+			s_socket = new ServerSocket(port);
+			System.out.println("[----- C_sessionReceiver Waiting for Sessions on port " + port + " -----]\n");
+		} catch (java.io.IOException e) {
+			System.out.println("Exception whilst creating session socket " + e);
+			return;
+		}
+
+		while (true) {
+			try {
+				Socket socketFromNode = s_socket.accept();
+				System.out.println("C:sessionReceiver - new session from " + socketFromNode.getRemoteSocketAddress());
+				sessions.execute(new C_session(socketFromNode, scheduler, timeoutMillis));
+			} catch (java.io.IOException e) {
+				System.out.println("Exception when accepting a session " + e);
+			}
+		}
+	}
+}
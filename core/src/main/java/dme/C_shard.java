@@ -0,0 +1,339 @@
+package dme;
+
+import java.io.*;
+import java.net.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Represents one shard of a sharded coordinator: one of several coordinator processes, each owning the resources
+ * a HashRing assigns to it. The ring is built from the session addresses of the shards ("dme.shards"), and clients
+ * build the same ring to send each request straight to its owner. A request that reaches a shard not owning its
+ * resource is answered with MOVED and never queued.
+ *
+ * When the list of shards changes (SHARDS from the admin command, see Coordinator), every shard of the old list
+ * hands the resources that moved to their new owners: their leases and queued requests, as C_replica change lines
+ * over a connection to the new owner's session port. The new owner adopts them into its running scheduler, where
+ * they wait on a C_detachedSession for their node, and only then are the nodes told where their resource went.
+ * Only the resources whose owner changed move, about 1/N of them for a change of one shard in N.
+ * Meanwhile a new owner parks the requests for resources it is gaining, until the old owner's handover has arrived
+ * or "dme.shard.handover.ms" (default 5000) has passed, so a resource is never granted by both shards at once.
+ * Until every shard has the new list a client may be redirected more than once. A lease returned to the old owner
+ * while it is being moved is not found there, and is revoked on the new owner when it expires.
+ *
+ * Each shard grants fencing epochs of its own residue modulo EPOCH_STRIDE ("dme.shard.id" from 0, default its
+ * position in the list), so epochs handed over never collide with the new owner's, and the new owner carries on
+ * above the epochs granted by the old one.
+ *
+ */
+public class C_shard {
+
+	public static final int EPOCH_STRIDE = 1024; // Most shards a keyspace can have
+
+	// Instance variables
+	private final C_scheduler scheduler;
+	private final String self; // Session address of this shard, its name on the ring
+	private final int id;
+	private final long handoverMillis = Config.getLong("shard.handover.ms", 5000); // Longest wait for a handover
+	private volatile HashRing ring;
+	private final ReentrantLock reshardLock = new ReentrantLock(); // Serialises changes of the list of shards
+
+	// Guarded by lock, never held while calling the scheduler
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Map<NodeSession, C_replica> incoming = new HashMap<>(); // Handovers being received, by session
+	private final Set<String> ended = new HashSet<>(); // "shard shards" of handovers received before our list changed
+	private final Set<String> awaiting = new HashSet<>(); // Shards of the previous list still to hand over
+	private final List<Request> parked = new ArrayList<>(); // Requests for resources whose handover is awaited
+	private HashRing previous; // List of shards before the last change
+
+	/**
+	 * Constructor for creating a new shard, which the scheduler is attached to
+	 * @param scheduler Scheduler of this coordinator, not yet started
+	 * @param ring Ring of every shard
+	 * @param self Session address of this shard, "host:port" as named in the ring
+	 * @param id Id of this shard, unique among the shards and below EPOCH_STRIDE
+	 */
+	public C_shard(C_scheduler scheduler, HashRing ring, String self, int id) {
+		if (id < 0 || id >= EPOCH_STRIDE) throw new IllegalArgumentException("Shard id out of range: " + id);
+		this.scheduler = scheduler;
+		this.ring = ring;
+		this.self = self;
+		this.id = id;
+		scheduler.setShard(this);
+	}
+
+	/**
+	 * Creates the shard configured by "dme.shards", "dme.shard.self" (default 127.0.0.1:sessionPort)
+	 * and "dme.shard.id"
+	 * @param scheduler Scheduler of this coordinator, not yet started
+	 * @param sessionPort Session port of this coordinator
+	 * @return the shard, or null if "dme.shards" is not set
+	 * @throws IllegalArgumentException If this coordinator is not in the list and has no id
+	 */
+	public static C_shard fromConfig(C_scheduler scheduler, int sessionPort) {
+		String shards = Config.getString("shards", null);
+		if (shards == null) return null;
+		HashRing ring = HashRing.parse(shards);
+		String self = Config.getString("shard.self", "127.0.0.1:" + sessionPort);
+		int id = Config.getInt("shard.id", ring.getShards().indexOf(self));
+		if (id < 0) throw new IllegalArgumentException(self + " is not in dme.shards and has no dme.shard.id");
+		return new C_shard(scheduler, ring, self, id);
+	}
+
+	/**
+	 * Gets the shard owning a resource, if it is not this one
+	 * @param resource Resource name
+	 * @return session address of the owner, or null if this shard owns the resource
+	 */
+	public String ownerIfMoved(String resource) {
+		String owner = ring.owner(resource);
+		return owner.equals(self) ? null : owner;
+	}
+
+	/**
+	 * Routes a request made over a session: answers MOVED if another shard owns its resource,
+	 * or parks it while the resource's handover is awaited
+	 * @param request Request, with its session
+	 * @return true if the request was dealt with, false if the scheduler should queue it
+	 */
+	public boolean route(Request request) {
+		String owner = ownerIfMoved(request.getResource());
+		if (owner != null) {
+			request.getSession().sendMoved(request, owner);
+			return true;
+		}
+		lock.lock();
+		try {
+			if (awaiting.isEmpty() || !awaiting.contains(previous.owner(request.getResource()))) return false;
+			parked.add(request);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Changes the list of shards and hands the resources that no longer belong here to their new owners.
+	 * Every other shard of the new list is sent a handover, empty if nothing moved to it, so it stops waiting.
+	 * @param next Ring of the new list of shards
+	 * @return number of resources handed over
+	 */
+	public int reshard(HashRing next) {
+		reshardLock.lock();
+		try {
+			HashRing old = ring;
+			lock.lock();
+			try {
+				previous = old;
+				awaiting.clear();
+				for (String shard : old.getShards()) {
+					if (!shard.equals(self) && !ended.remove(shard + " " + next)) awaiting.add(shard);
+				}
+				ended.clear();
+				ring = next; // From now on requests for resources that moved are answered with MOVED
+			} finally {
+				lock.unlock();
+			}
+			if (!awaiting.isEmpty()) startHandoverTimer(next);
+			System.out.println("C:shard - shards are now " + next + ", waiting for handovers from " + awaiting + ".");
+
+			Map<String, List<String>> moving = new LinkedHashMap<>(); // Resources by new owner
+			for (String shard : next.getShards()) {
+				if (!shard.equals(self)) moving.put(shard, new ArrayList<>());
+			}
+			for (String resource : scheduler.getResources()) {
+				String owner = next.owner(resource);
+				if (!owner.equals(self)) moving.get(owner).add(resource);
+			}
+			int moved = 0;
+			for (Map.Entry<String, List<String>> e : moving.entrySet()) {
+				moved += handOver(e.getKey(), e.getValue(), next);
+			}
+			return moved;
+		} finally {
+			reshardLock.unlock();
+		}
+	}
+
+	/**
+	 * Hands resources to their new owner, then tells their nodes where they went.
+	 * If the new owner cannot be reached the resources are taken back, so no request or lease is lost.
+	 * @return number of resources handed over
+	 */
+	private int handOver(String target, List<String> resources, HashRing next) {
+		List<String> lines = new ArrayList<>();
+		ChangeLog collect = new ChangeLog() {
+			public long event(int type, Request request, long epoch) {
+				return 0;
+			}
+
+			public void epoch(long epoch) {
+				lines.add(C_replica.EPOCH + " " + epoch);
+			}
+
+			public void snapshot(String resource, List<Lease> holders, List<Request> queued) {
+				lines.add(C_replica.SNAPSHOT + " " + resource);
+				for (Lease l : holders) {
+					lines.add(C_replica.queued(l.getRequest()));
+					lines.add(C_replica.granted(l.getRequest(), l.getEpoch()));
+				}
+				for (Request r : queued) lines.add(C_replica.queued(r));
+			}
+		};
+		List<Request> moved = new ArrayList<>();
+		for (String resource : resources) {
+			moved.addAll(scheduler.handOff(resource, collect));
+		}
+		int colon = target.lastIndexOf(':');
+		try (Socket s = new Socket(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)))) {
+			s.setSoTimeout((int) handoverMillis);
+			Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), "US-ASCII"));
+			for (String line : lines) out.write(Protocol.HANDOVER + " " + line + "\n");
+			out.write(Protocol.HANDOVER_END + " " + self + " " + next + "\n");
+			out.flush();
+			String reply = new BufferedReader(new InputStreamReader(s.getInputStream(), "US-ASCII")).readLine();
+			if (reply == null || !reply.startsWith(Protocol.HANDOVER_DONE)) throw new IOException("no handover reply");
+		} catch (IOException | RuntimeException e) {
+			System.out.println("C:shard - handover of " + resources.size() + " resources to " + target + " failed, keeping them: " + e);
+			C_replica back = new C_replica();
+			for (String line : lines) back.apply(line);
+			back.adopt(scheduler);
+			return 0;
+		}
+		for (Request r : moved) {
+			if (r.getSession() != null) r.getSession().sendMoved(r, target);
+		}
+		if (!resources.isEmpty()) {
+			System.out.println("C:shard - handed " + resources.size() + " resources (" + moved.size() + " requests and leases) over to " + target + ".");
+		}
+		return resources.size();
+	}
+
+	/**
+	 * Stops waiting for the handovers still missing after "dme.shard.handover.ms", their shards are presumed gone
+	 */
+	private void startHandoverTimer(HashRing next) {
+		Thread timer = new Thread(() -> {
+			try {
+				Thread.sleep(handoverMillis);
+			} catch (InterruptedException e) {
+				return;
+			}
+			List<Request> released;
+			lock.lock();
+			try {
+				if (ring != next || awaiting.isEmpty()) return;
+				System.out.println("C:shard - no handover from " + awaiting + ", granting their resources afresh.");
+				awaiting.clear();
+				released = new ArrayList<>(parked);
+				parked.clear();
+			} finally {
+				lock.unlock();
+			}
+			for (Request r : released) scheduler.submit(r);
+		}, "C_shard-handover");
+		timer.setDaemon(true);
+		timer.start();
+	}
+
+	/**
+	 * Handles a shard to shard or admin frame received on a session
+	 * @param frame Frame split on spaces (HANDOVER, HANDOVER_END or SHARDS)
+	 * @param session Session the frame arrived on
+	 * @return reply frame, or null if the frame needs no reply
+	 */
+	public String handleFrame(String[] frame, NodeSession session) {
+		switch (frame[0]) {
+			case Protocol.HANDOVER:
+				StringBuilder line = new StringBuilder();
+				for (int i = 1; i < frame.length; i++) line.append(i > 1 ? " " : "").append(frame[i]);
+				C_replica replica;
+				lock.lock();
+				try {
+					replica = incoming.computeIfAbsent(session, s -> new C_replica());
+				} finally {
+					lock.unlock();
+				}
+				replica.apply(line); // Only this session's thread applies to its replica
+				return null;
+			case Protocol.HANDOVER_END:
+				if (frame.length < 3) return Protocol.REJECTED;
+				return Protocol.HANDOVER_DONE + " " + adopt(frame[1], frame[2], session);
+			case Protocol.SHARDS:
+				if (frame.length < 2) return Protocol.REJECTED;
+				return Protocol.SHARDS + " " + reshard(HashRing.parse(frame[1]));
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Adopts a handover once complete, then lets the requests parked for the sender's resources through
+	 * @return number of leases and requests adopted
+	 */
+	private int adopt(String from, String shards, NodeSession session) {
+		C_replica replica;
+		lock.lock();
+		try {
+			replica = incoming.remove(session);
+		} finally {
+			lock.unlock();
+		}
+		int count = 0;
+		if (replica != null) {
+			replica.adopt(scheduler);
+			count = replica.getLeaseCount() + replica.getQueued().size();
+			System.out.println("C:shard - adopted " + count + " leases and requests from " + from + ".");
+		}
+		List<Request> released = new ArrayList<>();
+		lock.lock();
+		try {
+			if (!shards.equals(ring.toString())) {
+				ended.add(from + " " + shards); // Our list has not changed yet, do not wait for it when it does
+			} else if (awaiting.remove(from)) {
+				for (Iterator<Request> it = parked.iterator(); it.hasNext();) {
+					Request r = it.next();
+					if (awaiting.isEmpty() || from.equals(previous.owner(r.getResource()))) {
+						released.add(r);
+						it.remove();
+					}
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		for (Request r : released) scheduler.submit(r);
+		return count;
+	}
+
+	/**
+	 * Gets the ring of the current list of shards
+	 * @return ring
+	 */
+	public HashRing getRing() {
+		return ring;
+	}
+
+	/**
+	 * Gets the session address this shard is named by on the ring
+	 * @return "host:port"
+	 */
+	public String getSelf() {
+		return self;
+	}
+
+	/**
+	 * Gets the id of this shard
+	 * @return id, its epochs are id modulo EPOCH_STRIDE
+	 */
+	public int getId() {
+		return id;
+	}
+}
@@ -0,0 +1,102 @@
+package dme;
+
+import java.io.*;
+import java.net.*;
+import java.util.List;
+
+/**
+ * C_standby follows a primary coordinator's replication stream (see C_replicator) and keeps a copy of its
+ * queues and leases (a C_replica), ready to take over.
+ *
+ * The primary is considered gone when nothing, not even a heartbeat, has arrived from it for
+ * "dme.replication.timeout.ms" (default 500) and it cannot be reached again within that time. follow() then
+ * returns and the standby starts as the new primary: restore() queues the copied requests in their original
+ * order and reinstates the copied leases, and nodes reconnecting to it reattach to their requests.
+ *
+ */
+public class C_standby {
+
+	// Instance variables
+	private final String host; // Primary's host
+	private final int port; // Primary's replication port
+	private final long timeoutMillis = Config.getLong("replication.timeout.ms", 500);
+	private final C_replica replica = new C_replica();
+	private volatile long lastHeardNanos; // When a line last arrived from the primary
+
+	/**
+	 * Constructor for a standby of a primary
+	 * @param primary Primary's replication address, "host:port"
+	 */
+	public C_standby(String primary) {
+		String[] hp = primary.trim().split(":");
+		this.host = hp[0];
+		this.port = Integer.parseInt(hp[1]);
+	}
+
+	/**
+	 * Follows the primary until it is gone, waiting for it to appear first
+	 * @throws InterruptedException If interrupted while following
+	 */
+	public void follow() throws InterruptedException {
+		boolean followed = false;
+		while (true) {
+			try (Socket s = new Socket()) {
+				s.connect(new InetSocketAddress(host, port), (int) timeoutMillis);
+				s.setSoTimeout((int) timeoutMillis);
+				BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), "US-ASCII"));
+				System.out.println("C:standby - following primary " + host + ":" + port);
+				followed = true;
+				lastHeardNanos = System.nanoTime();
+				try {
+					String line;
+					while ((line = in.readLine()) != null) {
+						lastHeardNanos = System.nanoTime();
+						replica.apply(line);
+					}
+					System.out.println("C:standby - primary closed the replication stream.");
+				} catch (SocketTimeoutException e) {
+					System.out.println("C:standby - no heartbeat from primary for " + timeoutMillis + "ms.");
+				}
+			} catch (IOException e) {
+				// Primary not reachable, yet or any more
+			}
+			if (followed && System.nanoTime() - lastHeardNanos >= timeoutMillis * 1_000_000L) {
+				System.out.println("C:standby - primary gone, taking over.");
+				return;
+			}
+			Thread.sleep(followed ? Math.max(1, timeoutMillis / 10) : timeoutMillis); // Retry until the timeout runs out
+		}
+	}
+
+	/**
+	 * Hands the copied state to the scheduler of the new primary, before it starts
+	 * @param scheduler Scheduler of this coordinator
+	 */
+	public void restore(C_scheduler scheduler) {
+		replica.restore(scheduler);
+	}
+
+	/**
+	 * Gets the requests copied from the primary that are waiting, in their original order
+	 * @return copy of the waiting requests
+	 */
+	public List<Request> getQueued() {
+		return replica.getQueued();
+	}
+
+	/**
+	 * Gets the number of leases copied from the primary
+	 * @return number of live leases
+	 */
+	public int getLeaseCount() {
+		return replica.getLeaseCount();
+	}
+
+	/**
+	 * Gets the highest fencing epoch seen
+	 * @return epoch
+	 */
+	public long getLastEpoch() {
+		return replica.getLastEpoch();
+	}
+}
@@ -0,0 +1,406 @@
+package dme;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Represents the coordinator's write-ahead log, from which a restarted coordinator recovers its queues and leases.
+ *
+ * Every queue and lease change (request queued, granted, returned or revoked) is appended as a C_replica change
+ * line to the current log file ("wal-000001.log", ...) in "dme.wal.dir" (default "wal"). The scheduler only
+ * appends to a buffer in memory; this thread writes the buffer to the file through a FileChannel and forces it
+ * to disk according to "dme.wal.fsync":
+ *   always  the scheduler waits for each change to be on disk before acting on it; changes waiting together
+ *           share one force (group commit)
+ *   batch   forced every "dme.wal.fsync.ms" milliseconds (default 5), a crash loses at most that much (default)
+ *   none    written every "dme.wal.fsync.ms" milliseconds, forced whenever the operating system decides
+ *
+ * Each file starts with a snapshot of every resource's holders and queue. After "dme.wal.snapshot.records"
+ * changes (default 100000) a new file is started with a fresh snapshot, and the older files are deleted once it
+ * is on disk, so recovery replays one snapshot and the changes after it. recover() replays the files on restart;
+ * grants made after the last force are fenced with the same epoch gap as a standby takeover.
+ *
+ */
+public class C_wal extends Thread implements ChangeLog {
+
+	/**
+	 * When the log is forced to disk
+	 */
+	public enum Fsync { ALWAYS, BATCH, NONE }
+
+	private static final String PREFIX = "wal-";
+	private static final String SUFFIX = ".log";
+
+	// Instance variables
+	private final C_scheduler scheduler;
+	private final Path dir;
+	private final Fsync fsync;
+	private final long fsyncNanos; // Time between writes, and forces in batch mode
+	private final long snapshotRecords; // Changes written before a new file is started
+	private FileChannel channel; // File being appended to, this thread only once started
+	private int generation; // Number of that file
+	private final ByteBuffer out = ByteBuffer.allocateDirect(256 * 1024); // Reused write buffer, this thread only
+	private StringBuilder spare = new StringBuilder(); // Buffer swapped in on the next write, this thread only
+
+	// Guarded by lock
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition pending = lock.newCondition(); // Signalled when a commit is waited for, or on close
+	private final Condition durable = lock.newCondition(); // Signalled when changes have been forced
+	private StringBuilder buffer = new StringBuilder(); // Lines not yet written
+	private long appended; // Lines appended so far, the position of the last one
+	private long forced; // Lines on disk so far
+	private long waiting; // Highest position a commit() is waiting for
+	private long sinceSnapshot; // Changes appended since the current file's snapshot
+	private boolean closed;
+
+	/**
+	 * Constructor for the configured write-ahead log of a scheduler
+	 * @param scheduler Scheduler whose changes are logged
+	 */
+	public C_wal(C_scheduler scheduler) {
+		this(scheduler, Paths.get(Config.getString("wal.dir", "wal")),
+				Fsync.valueOf(Config.getString("wal.fsync", "batch").toUpperCase()),
+				Config.getLong("wal.fsync.ms", 5), Config.getLong("wal.snapshot.records", 100000));
+	}
+
+	/**
+	 * Constructor for a write-ahead log of a scheduler
+	 * @param scheduler Scheduler whose changes are logged
+	 * @param dir Directory of the log files
+	 * @param fsync When the log is forced to disk
+	 * @param fsyncMillis Time between writes (and forces in batch mode)
+	 * @param snapshotRecords Changes written before a new file is started with a snapshot
+	 */
+	public C_wal(C_scheduler scheduler, Path dir, Fsync fsync, long fsyncMillis, long snapshotRecords) {
+		super("C_wal");
+		setDaemon(true);
+		this.scheduler = scheduler;
+		this.dir = dir;
+		this.fsync = fsync;
+		this.fsyncNanos = Math.max(1, fsyncMillis) * 1_000_000L;
+		this.snapshotRecords = Math.max(1, snapshotRecords);
+	}
+
+	/**
+	 * Replays the log files in a directory, if any, and hands the state to a scheduler, before it starts
+	 * @param dir Directory of the log files
+	 * @param scheduler Scheduler of the restarted coordinator
+	 * @return state that was restored
+	 * @throws IOException If a log file cannot be read
+	 */
+	public static C_replica recover(Path dir, C_scheduler scheduler) throws IOException {
+		C_replica replica = new C_replica();
+		List<Integer> found = Files.isDirectory(dir) ? generations(dir) : Collections.<Integer>emptyList();
+		for (int g : found) {
+			replay(Files.readAllBytes(dir.resolve(name(g))), replica);
+		}
+		if (!found.isEmpty()) replica.restore(scheduler); // A first start has nothing to fence
+		return replica;
+	}
+
+	/**
+	 * Applies the complete lines of a log file, ignoring a last line torn by a crash
+	 */
+	private static void replay(byte[] bytes, C_replica replica) {
+		Line line = new Line(bytes);
+		for (int i = 0; i < bytes.length; i++) {
+			if (bytes[i] != '\n') continue;
+			if (i > line.start) replica.apply(line.end(i));
+			line.start = i + 1;
+		}
+	}
+
+	/**
+	 * One ASCII line of a log file, read in place
+	 */
+	private static final class Line implements CharSequence {
+		final byte[] bytes;
+		int start;
+		int end;
+
+		Line(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		Line end(int end) {
+			this.end = end;
+			return this;
+		}
+
+		public int length() {
+			return end - start;
+		}
+
+		public char charAt(int index) {
+			return (char) bytes[start + index];
+		}
+
+		public CharSequence subSequence(int from, int to) {
+			return new String(bytes, start + from, to - from, StandardCharsets.US_ASCII);
+		}
+
+		public String toString() {
+			return new String(bytes, start, end - start, StandardCharsets.US_ASCII);
+		}
+	}
+
+	/**
+	 * Starts the log with a new file holding a snapshot of the scheduler, deletes the older files,
+	 * and starts writing. Called after recover(), before the scheduler starts.
+	 * @throws IOException If the log file cannot be created
+	 */
+	public void open() throws IOException {
+		Files.createDirectories(dir);
+		List<Integer> old = generations(dir);
+		generation = old.isEmpty() ? 1 : old.get(old.size() - 1) + 1;
+		// Written aside and renamed once complete, so a crash never leaves a partial snapshot next to the older files
+		Path partial = dir.resolve(name(generation) + ".tmp");
+		channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		scheduler.addChangeLog(this);
+		scheduler.snapshot(this);
+		flush(true);
+		Files.move(partial, dir.resolve(name(generation)), StandardCopyOption.ATOMIC_MOVE);
+		deleteBefore(generation);
+		System.out.println("[----- C_wal Logging to " + dir.resolve(name(generation)) + ", fsync " + fsync.name().toLowerCase() + " -----]\n");
+		start();
+	}
+
+	/**
+	 * Executes the log's task of writing and forcing the buffered lines, and starting new files
+	 */
+	public void run() {
+		try {
+			while (true) {
+				boolean rotate;
+				boolean done;
+				lock.lock();
+				try {
+					if (!closed && waiting <= forced) pending.awaitNanos(fsyncNanos);
+					rotate = sinceSnapshot >= snapshotRecords;
+					if (rotate) sinceSnapshot = 0;
+					done = closed;
+				} finally {
+					lock.unlock();
+				}
+				flush(fsync != Fsync.NONE || done);
+				if (done) {
+					channel.close();
+					return;
+				}
+				if (rotate) rotate();
+			}
+		} catch (InterruptedException e) {
+			// Closed
+		} catch (IOException e) {
+			System.out.println("C:wal - writing the log failed, changes are no longer logged: " + e);
+			scheduler.removeChangeLog(this);
+		} finally {
+			lock.lock();
+			try {
+				closed = true;
+				durable.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Writes the buffered lines to the current file
+	 * @param force Force them to disk, and release the commits waiting for them
+	 */
+	private void flush(boolean force) throws IOException {
+		StringBuilder lines;
+		long upTo;
+		lock.lock();
+		try {
+			lines = buffer; // Swap the buffers, the scheduler keeps appending to the empty one
+			buffer = spare;
+			upTo = appended;
+		} finally {
+			lock.unlock();
+		}
+		for (int i = 0; i < lines.length(); i++) {
+			if (!out.hasRemaining()) write();
+			out.put((byte) lines.charAt(i));
+		}
+		write();
+		lines.setLength(0);
+		spare = lines;
+		if (!force) return;
+		channel.force(false);
+		lock.lock();
+		try {
+			forced = upTo;
+			durable.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void write() throws IOException {
+		out.flip();
+		while (out.hasRemaining()) channel.write(out);
+		out.clear();
+	}
+
+	/**
+	 * Starts a new file with a snapshot, and deletes the older files once it is on disk.
+	 * Changes made meanwhile go to the new file, interleaved with the snapshot in the same order as the
+	 * scheduler made them.
+	 */
+	private void rotate() throws IOException {
+		channel.force(false);
+		channel.close();
+		generation++;
+		channel = FileChannel.open(dir.resolve(name(generation)), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		scheduler.snapshot(this);
+		flush(true);
+		deleteBefore(generation);
+	}
+
+	/**
+	 * Deletes the files before a generation, and leftovers of snapshots that were never completed
+	 */
+	private void deleteBefore(int g) throws IOException {
+		for (int old : generations(dir)) {
+			if (old < g) Files.deleteIfExists(dir.resolve(name(old)));
+		}
+		try (DirectoryStream<Path> partials = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX + ".tmp")) {
+			for (Path p : partials) {
+				if (!p.getFileName().toString().equals(name(g) + ".tmp")) Files.deleteIfExists(p);
+			}
+		}
+		try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) {
+			d.force(true); // Make the renames and deletions durable
+		} catch (IOException e) {
+			// Directories cannot be forced on every platform
+		}
+	}
+
+	/**
+	 * Gets the generations of the log files in a directory
+	 * @return generation numbers, oldest first
+	 */
+	static List<Integer> generations(Path dir) throws IOException {
+		List<Integer> found = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+			for (Path p : files) {
+				String f = p.getFileName().toString();
+				try {
+					found.add(Integer.parseInt(f.substring(PREFIX.length(), f.length() - SUFFIX.length())));
+				} catch (NumberFormatException e) {
+					// Not a log file
+				}
+			}
+		}
+		Collections.sort(found);
+		return found;
+	}
+
+	static String name(int generation) {
+		return String.format("%s%06d%s", PREFIX, generation, SUFFIX);
+	}
+
+	/**
+	 * Appends one line, called with the lock held
+	 */
+	private void append(String line) {
+		buffer.append(line).append('\n');
+		appended++;
+	}
+
+	public long event(int type, Request request, long epoch) {
+		String line = C_replica.line(type, request, epoch);
+		if (line == null) return 0;
+		lock.lock();
+		try {
+			if (closed) return 0;
+			append(line);
+			sinceSnapshot++;
+			return appended;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void epoch(long epoch) {
+		lock.lock();
+		try {
+			append(C_replica.EPOCH + " " + epoch);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void snapshot(String resource, List<Lease> holders, List<Request> queued) {
+		lock.lock();
+		try {
+			append(C_replica.SNAPSHOT + " " + resource);
+			for (Lease l : holders) {
+				append(C_replica.queued(l.getRequest()));
+				append(C_replica.granted(l.getRequest(), l.getEpoch()));
+			}
+			for (Request r : queued) {
+				append(C_replica.queued(r));
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until a change is on disk, with the "always" policy. Commits waiting together share one force.
+	 */
+	public void commit(long position) {
+		if (fsync != Fsync.ALWAYS) return;
+		lock.lock();
+		try {
+			if (position > waiting) {
+				waiting = position;
+				pending.signal();
+			}
+			while (forced < position && !closed) durable.awaitUninterruptibly();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the generation of the file being appended to
+	 * @return generation number
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Stops logging, writing and forcing the lines still buffered
+	 * @throws InterruptedException If interrupted while waiting for the last write
+	 */
+	public void close() throws InterruptedException {
+		scheduler.removeChangeLog(this);
+		lock.lock();
+		try {
+			closed = true;
+			pending.signal();
+		} finally {
+			lock.unlock();
+		}
+		join(TimeUnit.SECONDS.toMillis(5));
+	}
+}
@@ -0,0 +1,42 @@
+package dme;
+
+import java.util.List;
+
+/**
+ * ChangeLog receives every change the C_scheduler makes to its queues and leases, in order for each resource.
+ * C_replicator streams the changes to a standby coordinator, C_wal writes them ahead to disk.
+ * A log that attaches to a running scheduler first asks it for a snapshot (C_scheduler.snapshot()),
+ * which arrives interleaved with the changes in the same per-resource order.
+ *
+ */
+public interface ChangeLog {
+
+    /**
+     * Records a change, called with the resource's entry lock held
+     * @param type Journal record type of the change (REQUEST, GRANT, RETURN or REVOKE; others may be ignored)
+     * @param request Request the change is about
+     * @param epoch Fencing epoch, 0 if none
+     * @return position of the change in the log to pass to commit(), 0 if the log has none
+     */
+    long event(int type, Request request, long epoch);
+
+    /**
+     * Records the highest fencing epoch granted so far, at the start of a snapshot
+     * @param epoch Epoch
+     */
+    void epoch(long epoch);
+
+    /**
+     * Records the state of one resource as part of a snapshot, called with its entry lock held
+     * @param resource Resource name
+     * @param holders Leases holding the resource
+     * @param queued Requests waiting for it
+     */
+    void snapshot(String resource, List<Lease> holders, List<Request> queued);
+
+    /**
+     * Waits until the changes up to a position are durable, if the log promises that. Never called with a lock held.
+     * @param position Position returned by event()
+     */
+    default void commit(long position) {}
+}
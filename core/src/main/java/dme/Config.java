@@ -0,0 +1,90 @@
+package dme;
+
+/**
+ * Config provides access to the tunable settings of the DME system.
+ * Settings are read from Java system properties prefixed with "dme." (e.g. -Ddme.aging.rate=2),
+ * falling back to the supplied default when a property is absent or malformed.
+ *
+ */
+public final class Config {
+
+    private static final String PREFIX = "dme."; // prefix shared by all DME settings
+
+    /**
+     * Constructor made private, Config only exposes static helpers.
+     */
+    private Config() {}
+
+    /**
+     * Gets a string setting
+     * @param key Setting name (without the "dme." prefix)
+     * @param def Default value if the setting is absent
+     * @return Value of the setting
+     */
+    public static String getString(String key, String def) {
+        String value = System.getProperty(PREFIX + key);
+        return (value == null || value.trim().isEmpty()) ? def : value.trim();
+    }
+
+    /**
+     * Gets an integer setting
+     * @param key Setting name (without the "dme." prefix)
+     * @param def Default value if the setting is absent or malformed
+     * @return Value of the setting
+     */
+    public static int getInt(String key, int def) {
+        String value = getString(key, null);
+        if (value == null) return def;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.out.println("Config - ignoring malformed value for " + PREFIX + key + ": " + value);
+            return def;
+        }
+    }
+
+    /**
+     * Gets a long setting
+     * @param key Setting name (without the "dme." prefix)
+     * @param def Default value if the setting is absent or malformed
+     * @return Value of the setting
+     */
+    public static long getLong(String key, long def) {
+        String value = getString(key, null);
+        if (value == null) return def;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.out.println("Config - ignoring malformed value for " + PREFIX + key + ": " + value);
+            return def;
+        }
+    }
+
+    /**
+     * Gets a decimal setting
+     * @param key Setting name (without the "dme." prefix)
+     * @param def Default value if the setting is absent or malformed
+     * @return Value of the setting
+     */
+    public static double getDouble(String key, double def) {
+        String value = getString(key, null);
+        if (value == null) return def;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            System.out.println("Config - ignoring malformed value for " + PREFIX + key + ": " + value);
+            return def;
+        }
+    }
+
+    /**
+     * Gets a boolean setting
+     * @param key Setting name (without the "dme." prefix)
+     * @param def Default value if the setting is absent
+     * @return Value of the setting
+     */
+    public static boolean getBoolean(String key, boolean def) {
+        String value = getString(key, null);
+        return value == null ? def : Boolean.parseBoolean(value);
+    }
+}
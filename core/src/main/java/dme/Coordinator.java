@@ -0,0 +1,173 @@
+package dme;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Represents the Coordinator of the DME system
+ * Initalises and runs the components of the system, including receiver and mutex.
+ *
+ * The first argument is the request port (default 7003); returns use the next port, sessions the one after
+ * ("dme.session.port") and replication the one after that ("dme.replication.port"), so several coordinators
+ * can run side by side. With "dme.shards" the coordinator is one shard of a sharded keyspace (see C_shard).
+ * "Coordinator -shards host:port,... [removed host:port...]" changes the list of shards of running coordinators.
+ * 
+ */
+public class Coordinator {
+	
+    /**
+     * Main method to start Coordinator.
+     * @param args Command line arguments (if provided). port number specified.
+     */
+    public static void main (String args[]){
+    	
+		if (args.length > 0 && "-shards".equals(args[0])) {
+			reshard(args);
+			return;
+		}
+		int port = 7003; // Default port number
+		
+		// A hot standby follows the primary's replication stream, and takes over with its state once it is gone
+		C_standby standby = null;
+		String primary = Config.getString("standby.of", null);
+		if (primary != null) {
+			standby = new C_standby(primary);
+			try {
+				standby.follow();
+			} catch (InterruptedException e) {
+				return;
+			}
+		} else {
+			// Clear the log file at the start of the application
+			Logger.getInstance().clearLogFile();
+		}
+		
+		try {    
+		    InetAddress c_addr = InetAddress.getLocalHost();
+		    String c_name = c_addr.getHostName();
+		    System.out.println ("Coordinator address is "+c_addr);
+		    System.out.println ("Coordinator host name is "+c_name+"\n\n");    
+		} catch (Exception e) {
+		    System.err.println(e);
+		    System.err.println("Error in coordinator");
+		}
+				
+		// allows defining port at launch time
+		if (args.length == 1) 
+			port = Integer.parseInt(args[0]);
+		int sessionPort = Config.getInt("session.port", port + 2);
+	
+		// Blocking mode (default) uses a thread per connection, NIO mode a single event loop
+		if ("nio".equalsIgnoreCase(Config.getString("mode", "blocking"))) {
+			C_nioLoop loop = new C_nioLoop(port, port + 1, sessionPort);
+			C_scheduler scheduler = new C_scheduler(loop);
+			if (!shard(scheduler, sessionPort) || !restore(scheduler, standby, port)) return;
+			scheduler.start();
+			Metrics.getInstance().start(scheduler); // After starting, registering the MBean takes a few hundred ms
+			return;
+		}
+
+		// C_mutex delivers the token to nodes and collects it back on the return port (7004)
+		System.out.println("Coordinator handler threads: " + DmeThreads.mode() + "\n");
+		C_mutex mutex_c = new C_mutex(port + 1);
+		C_scheduler scheduler = new C_scheduler(mutex_c);
+		if (!shard(scheduler, sessionPort) || !restore(scheduler, standby, port)) return;
+
+		// Create and run a C_receiver queuing requests on the C_scheduler's resource queues
+		C_receiver receiver_c = new C_receiver(scheduler, port);
+		Thread receiverThread = new Thread(receiver_c);
+		
+		/*
+		 * Scheduler manages access to shared resources.
+		 * Parks until a resource with requests queued is free, ensures execution in orderly manner.
+		 */
+		receiverThread.start();
+		scheduler.start();
+		
+		// Persistent sessions: one connection per node carrying all frames
+		new C_sessionReceiver(scheduler, sessionPort).start();
+		Metrics.getInstance().start(scheduler); // After starting, registering the MBean takes a few hundred ms
+    }
+
+    /**
+     * Restores the state taken over from the primary, if this coordinator was its standby, or else recovers
+     * it from the write-ahead log with "dme.wal=true". Then logs this coordinator's own changes ahead with
+     * "dme.wal=true", and streams them to a standby of its own with "dme.replication=true".
+     * @param scheduler Scheduler, not yet started
+     * @param standby Standby that followed the primary, null if this coordinator started as primary
+     * @param port Request port of this coordinator
+     * @return false if the write-ahead log could not be recovered or opened
+     */
+    private static boolean restore(C_scheduler scheduler, C_standby standby, int port) {
+		boolean wal = Config.getBoolean("wal", false);
+		if (standby != null) {
+			standby.restore(scheduler);
+		}
+		try {
+			if (wal) {
+				C_wal log = new C_wal(scheduler);
+				if (standby == null) {
+					long start = System.nanoTime();
+					C_wal.recover(Paths.get(Config.getString("wal.dir", "wal")), scheduler);
+					System.out.println("C:wal - recovered in " + (System.nanoTime() - start) / 1_000_000L + "ms.");
+				}
+				log.open();
+			}
+		} catch (IOException e) {
+			System.out.println("Exception whilst recovering the write-ahead log " + e);
+			return false;
+		}
+		if (Config.getBoolean("replication", false)) {
+			new C_replicator(scheduler, Config.getInt("replication.port", port + 3)).start();
+		}
+		return true;
+    }
+
+    /**
+     * Makes the coordinator a shard if "dme.shards" is set, before anything is restored
+     * @param scheduler Scheduler, not yet started
+     * @param sessionPort Session port of this coordinator
+     * @return false if this coordinator is not one of the shards
+     */
+    private static boolean shard(C_scheduler scheduler, int sessionPort) {
+		try {
+			C_shard shard = C_shard.fromConfig(scheduler, sessionPort);
+			if (shard != null) System.out.println("Coordinator is shard " + shard.getId() + " of " + shard.getRing() + "\n");
+			return true;
+		} catch (IllegalArgumentException e) {
+			System.out.println("Error in shard configuration: " + e.getMessage());
+			return false;
+		}
+    }
+
+    /**
+     * Sends the new list of shards to every shard in it and to the shards removed, one at a time,
+     * each answering once it has handed over the resources that moved away from it
+     * @param args "-shards host:port,... [removed host:port...]"
+     */
+    private static void reshard(String[] args) {
+		if (args.length < 2) {
+			System.out.println("Usage: Coordinator -shards host:port,... [removed host:port...]");
+			return;
+		}
+		List<String> targets = new ArrayList<>(HashRing.parse(args[1]).getShards());
+		targets.addAll(Arrays.asList(args).subList(2, args.length));
+		for (String target : targets) {
+			int colon = target.lastIndexOf(':');
+			try (Socket s = new Socket(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)))) {
+				PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), "US-ASCII"), true);
+				out.println(Protocol.SHARDS + " " + args[1]);
+				String reply = new BufferedReader(new InputStreamReader(s.getInputStream(), "US-ASCII")).readLine();
+				System.out.println(target + ": " + (reply != null && reply.startsWith(Protocol.SHARDS)
+						? reply.substring(Protocol.SHARDS.length() + 1) + " resources handed over" : reply));
+			} catch (IOException e) {
+				System.out.println(target + ": unreachable, " + e.getMessage());
+			}
+		}
+    }
+    
+}
@@ -0,0 +1,746 @@
+package dme;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * DmeClient lets an application hold the distributed lock around its own code.
+ *
+ *   DmeClient client = new DmeClient(priority);
+ *   DmeLock lock = client.getLock("accounts");
+ *   lock.lock();
+ *   try { ... } finally { lock.unlock(); }
+ *
+ * One client keeps one session to the coordinator however many threads and locks use it: requests for the
+ * same resource from threads of this process are coalesced into one request to the coordinator, and the token
+ * is passed between local threads before it is given back (see DmeLock). The client sends heartbeats, renews
+ * the lease of every lock held, and when the session is lost it fails over to the next coordinator in
+ * "dme.client.coordinators" (host:port list, default the local session port), backing off between attempts.
+ * On reconnection it sends its outstanding requests again with the same request ids and node id, and renews
+ * the leases it held, so a standby coordinator that has taken over (C_standby) keeps them in place. Locks whose
+ * lease the coordinator no longer knows are revoked, and their holders see isHeld() turn false.
+ *
+ * With sharded coordinators (C_shard) the client keeps one session per shard, named in "dme.client.shards" (the
+ * list the shards were started with), and sends each request to the shard owning its resource on the same
+ * HashRing. When a shard answers MOVED, because the resource is owned elsewhere or has just been handed over,
+ * the client sends the request again, or reclaims the lease it holds, on the owner's session.
+ *
+ * A request the coordinator refuses because its queues are full (REJECT) stays outstanding and is sent again with
+ * the same request id after the coordinator's retry-after hint, spread by up to a quarter more so that nodes
+ * refused together do not all come back together; the threads waiting on the lock keep waiting meanwhile.
+ *
+ * In sticky mode ("dme.client.sticky.ms" above 0, or setStickyMillis()) a lock keeps its token after the last
+ * local holder unlocks, so taking it again costs no round trip, and gives it back when the coordinator sends
+ * RECALL for another node's request, or once it has been idle that long (see DmeLock).
+ *
+ * Frames are text, or binary WireCodec frames with -Ddme.wire=binary.
+ * Safe to share across threads: frames are queued under the client lock and written by a writer thread per session,
+ * so a coordinator that stops reading holds up only that session's writer, not the threads using the client.
+ *
+ */
+public class DmeClient implements AutoCloseable {
+
+    private static final long MIN_BACKOFF = 100; // Milliseconds before the first reconnection attempt
+    private static final long MAX_BACKOFF = 5000; // Longest wait between reconnection attempts
+    private static final int MAX_BACKLOG = 4096; // Frames queued for a session before it is taken as stalled and closed
+
+    private final int priority;
+    private final int nodeId; // Port field of requests, shared by every session and kept across reconnections
+    private final boolean binary = "binary".equalsIgnoreCase(Config.getString("wire", "text"));
+    private final long heartbeatMillis = Config.getLong("session.heartbeat.ms", 1000);
+    private volatile long stickyNanos = Math.max(0, Config.getLong("client.sticky.ms", 0)) * 1_000_000; // 0 if not sticky
+    private final HashRing ring; // Shards by resource, null if the coordinators are not sharded
+    private final Link primary; // Session failing over between the coordinators, null if sharded
+
+    // Session and lock state, guarded by lock
+    final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, DmeLock> locks = new HashMap<>();
+    private final Map<Long, DmeLock> requested = new LinkedHashMap<>(); // Outstanding requests by request id
+    private final Map<Long, Long> retries = new HashMap<>(); // Refused requests by request id, to when to send them again
+    private final Condition timerDue = lock.newCondition(); // Signalled when the timer thread has something due sooner
+    private final Map<String, Link> links = new LinkedHashMap<>(); // Shard sessions by shard address
+    private final Map<String, String> moved = new HashMap<>(); // Shard address of resources a MOVED sent elsewhere
+    private long nextRequestId;
+    private volatile boolean closed;
+
+    private final Thread timer;
+
+    /**
+     * A RELEASE or RENEW frame waiting for its reply
+     */
+    private static final class Pending {
+        final DmeLock lock; // Lock renewed, null for releases
+        final long epoch;
+
+        Pending(DmeLock lock, long epoch) {
+            this.lock = lock;
+            this.epoch = epoch;
+        }
+    }
+
+    /**
+     * A session with one coordinator, or with the first reachable of a list of coordinators
+     */
+    private final class Link {
+        final List<InetSocketAddress> coordinators = new ArrayList<>();
+        final ArrayDeque<Pending> replies = new ArrayDeque<>(); // Sent RELEASE/RENEW frames awaiting replies
+        final Condition queued = lock.newCondition(); // Signalled when frames are queued, or on close
+        ArrayDeque<byte[]> backlog = new ArrayDeque<>(); // Frames not yet written to the socket
+        int current; // Index of the coordinator in use
+        Socket socket;
+        OutputStream out;
+        Thread thread;
+        Thread writer;
+
+        Link(String coordinators) {
+            for (String c : coordinators.split(",")) {
+                String[] hp = c.trim().split(":");
+                this.coordinators.add(InetSocketAddress.createUnresolved(hp[0], Integer.parseInt(hp[1])));
+            }
+            thread = new Thread(() -> runSession(this), "DmeClient-session");
+            thread.setDaemon(true);
+            writer = new Thread(() -> runWriter(this), "DmeClient-writer");
+            writer.setDaemon(true);
+        }
+    }
+
+    /**
+     * Constructor for a client using the shards in "dme.client.shards" if set, else the coordinators in
+     * "dme.client.coordinators", and a random node id
+     * @param priority Priority of every request this client makes
+     */
+    public DmeClient(int priority) {
+        this(Config.getString("client.shards", null) != null ? HashRing.parse(Config.getString("client.shards", null)) : null,
+                Config.getString("client.coordinators", "127.0.0.1:" + Config.getInt("session.port", 7005)), 0, priority);
+    }
+
+    /**
+     * Constructor for creating a new DmeClient
+     * @param coordinators Comma separated host:port list of coordinator session ports, tried in order
+     * @param nodeId Node id sent with requests (the port field), unique among the nodes on this host, 0 for a random one
+     * @param priority Priority of every request this client makes
+     */
+    public DmeClient(String coordinators, int nodeId, int priority) {
+        this(null, coordinators, nodeId, priority);
+    }
+
+    /**
+     * Constructor for a client of sharded coordinators
+     * @param shards Ring of the shards' session addresses, as the shards were started with
+     * @param nodeId Node id sent with requests (the port field), unique among the nodes on this host, 0 for a random one
+     * @param priority Priority of every request this client makes
+     */
+    public DmeClient(HashRing shards, int nodeId, int priority) {
+        this(shards, null, nodeId, priority);
+    }
+
+    private DmeClient(HashRing ring, String coordinators, int nodeId, int priority) {
+        this.ring = ring;
+        this.nodeId = nodeId != 0 ? nodeId : ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
+        this.priority = priority;
+        lock.lock();
+        try {
+            primary = ring == null ? link(coordinators) : null;
+            if (ring != null) {
+                for (String shard : ring.getShards()) link(shard);
+            }
+        } finally {
+            lock.unlock();
+        }
+        timer = new Thread(this::runTimer, "DmeClient-timer");
+        timer.setDaemon(true);
+        timer.start();
+    }
+
+    /**
+     * Gets the session to a coordinator, opening it if there is none yet. Caller holds lock
+     */
+    private Link link(String coordinators) {
+        Link k = links.get(coordinators);
+        if (k == null) {
+            k = new Link(coordinators);
+            links.put(coordinators, k);
+            if (!closed) {
+                k.thread.start();
+                k.writer.start();
+            }
+        }
+        return k;
+    }
+
+    /**
+     * Gets the session a lock's frames go over, caller holds lock
+     */
+    private Link linkOf(DmeLock l) {
+        String shard = moved.get(l.getResource());
+        if (shard == null && ring != null) shard = ring.owner(l.getResource());
+        return shard != null ? link(shard) : primary;
+    }
+
+    /**
+     * Gets the exclusive lock of a resource
+     * @param resource Resource name
+     * @return the lock, the same instance for every call with this resource
+     */
+    public DmeLock getLock(String resource) {
+        return getLock(resource, LockMode.EXCLUSIVE);
+    }
+
+    /**
+     * Gets the lock of a resource in a mode
+     * @param resource Resource name, at most WireCodec.MAX_RESOURCE_LENGTH printable ASCII characters with binary frames
+     * @param mode SHARED for read locks, EXCLUSIVE otherwise
+     * @return the lock, the same instance for every call with this resource and mode
+     * @throws IllegalArgumentException If the resource name cannot be sent in a binary frame
+     */
+    public DmeLock getLock(String resource, LockMode mode) {
+        if (binary) WireCodec.checkResource(resource);
+        lock.lock();
+        try {
+            return locks.computeIfAbsent(resource + " " + mode, k -> new DmeLock(this, resource, mode));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets sticky mode: how long a lock may keep its token with no local holder before giving it back,
+     * unless recalled sooner. Applies to the requests sent from now on.
+     * @param idleMillis Longest idle time in milliseconds, 0 to give tokens back as soon as they are unlocked
+     */
+    public void setStickyMillis(long idleMillis) {
+        stickyNanos = Math.max(0, idleMillis) * 1_000_000;
+    }
+
+    /**
+     * Gets how long a lock may keep its token idle, the sticky mode setting
+     * @return nanoseconds, 0 if not sticky
+     */
+    long getStickyNanos() {
+        return stickyNanos;
+    }
+
+    /**
+     * Checks whether the client currently has a session with a coordinator, with every shard if sharded
+     * @return true if connected
+     */
+    public boolean isConnected() {
+        lock.lock();
+        try {
+            for (Link k : links.values()) {
+                if (k.out == null) return false;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the sessions; locks still held are revoked by the coordinators
+     */
+    @Override
+    public void close() {
+        closed = true;
+        timer.interrupt();
+        lock.lock();
+        try {
+            for (Link k : links.values()) {
+                k.thread.interrupt();
+                disconnect(k);
+                k.queued.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends a request for a lock, or keeps it for the next session if there is none. Caller holds lock
+     */
+    void sendRequest(DmeLock l) {
+        long requestId = ++nextRequestId;
+        requested.put(requestId, l);
+        Link k = linkOf(l);
+        if (k.out != null) writeRequest(k, requestId, l);
+    }
+
+    /**
+     * Sends a lock's outstanding request again with the same id, after its deadline changed. Caller holds lock
+     */
+    void resendRequest(DmeLock l) {
+        long requestId = requestIdOf(l);
+        Link k = linkOf(l);
+        if (requestId != 0 && k.out != null) writeRequest(k, requestId, l);
+    }
+
+    /**
+     * Withdraws a lock's outstanding request, caller holds lock. A grant that crosses the cancel is released on arrival
+     */
+    void sendCancel(DmeLock l) {
+        long requestId = requestIdOf(l);
+        if (requestId == 0) return;
+        requested.remove(requestId);
+        retries.remove(requestId);
+        Link k = linkOf(l);
+        if (k.out == null) return; // No session, and the next one does not send it again
+        if (binary) {
+            sendBinary(k, WireCodec.CANCEL, 0, requestId, 0, 0, l.getResource());
+        } else {
+            sendText(k, Protocol.CANCEL + " " + localHost(k) + " " + nodeId + " " + l.getResource() + " " + requestId);
+        }
+    }
+
+    /**
+     * Finds the id of a lock's outstanding request, caller holds lock
+     * @return request id, 0 if the lock has none
+     */
+    private long requestIdOf(DmeLock l) {
+        for (Map.Entry<Long, DmeLock> e : requested.entrySet()) {
+            if (e.getValue() == l) return e.getKey();
+        }
+        return 0;
+    }
+
+    private void writeRequest(Link k, long requestId, DmeLock l) {
+        long deadline = l.getRequestDeadline(); // Sent as the time left, at least 1ms
+        long maxWait = deadline == 0 ? 0 : Math.max(1, (deadline - System.nanoTime() + 999_999) / 1_000_000);
+        boolean sticky = stickyNanos > 0;
+        if (binary) {
+            int flags = (l.getMode() == LockMode.SHARED ? WireCodec.FLAG_SHARED : 0) | (sticky ? WireCodec.FLAG_STICKY : 0);
+            sendBinary(k, WireCodec.REQUEST, flags, requestId, 0, maxWait, l.getResource());
+        } else {
+            sendText(k, Protocol.REQUEST + " " + localHost(k) + " " + nodeId + " " + priority + " " + l.getResource() + " " + l.getMode()
+                    + " " + requestId + (sticky ? " " + maxWait + " " + Protocol.STICKY : maxWait > 0 ? " " + maxWait : ""));
+        }
+    }
+
+    /**
+     * Asks the coordinator whether it still knows a lease held when the session was lost, caller holds lock
+     */
+    void sendReclaim(DmeLock l, long epoch) {
+        Link k = linkOf(l);
+        if (k.out != null) sendRenew(k, l, epoch);
+    }
+
+    /**
+     * Returns a lock's token, caller holds lock
+     */
+    void sendRelease(DmeLock l, long epoch) {
+        sendRelease(linkOf(l), epoch);
+    }
+
+    private void sendRelease(Link k, long epoch) {
+        if (k.out == null) return;
+        k.replies.addLast(new Pending(null, epoch));
+        if (binary) sendBinary(k, WireCodec.RELEASE, 0, 0, epoch, 0, null); else sendText(k, Protocol.RELEASE + " " + epoch + " " + nodeId);
+    }
+
+    private void sendRenew(Link k, DmeLock l, long epoch) {
+        k.replies.addLast(new Pending(l, epoch));
+        if (binary) sendBinary(k, WireCodec.RENEW, 0, 0, epoch, 0, null); else sendText(k, Protocol.RENEW + " " + epoch + " " + nodeId);
+    }
+
+    /**
+     * Gets the host field of text frames, the session's local address. The coordinator identifies the node by the
+     * address it sees instead, the field is only kept for the frame format
+     */
+    private static String localHost(Link k) {
+        return k.socket.getLocalAddress().getHostAddress();
+    }
+
+    private void sendText(Link k, String frame) {
+        write(k, (frame + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Queues a binary frame, caller holds lock
+     * @param maxWait Longest wait for the grant of a REQUEST in milliseconds, 0 for no limit
+     * @param resource Resource named in the frame, null for none
+     */
+    private void sendBinary(Link k, int type, int flags, long requestId, long epoch, long maxWait, String resource) {
+        byte[] frame = new byte[WireCodec.frameLength(resource)];
+        WireCodec.encode(ByteBuffer.wrap(frame), type, flags, nodeId, priority, requestId, epoch, 0, maxWait, resource);
+        write(k, frame);
+    }
+
+    /**
+     * Queues a frame for the session's writer thread, caller holds lock
+     */
+    private void write(Link k, byte[] frame) {
+        if (k.out == null) return; // Lost earlier in this round of frames
+        if (k.backlog.size() >= MAX_BACKLOG) {
+            System.out.println("DmeClient - coordinator not reading, " + MAX_BACKLOG + " frames queued, closing the session.");
+            disconnect(k); // The session thread notices and reconnects
+            return;
+        }
+        k.backlog.add(frame);
+        k.queued.signal();
+    }
+
+    /**
+     * Writer thread: writes the frames queued for a session outside the client lock, in the order they were queued
+     */
+    private void runWriter(Link k) {
+        ArrayDeque<byte[]> frames = new ArrayDeque<>();
+        while (!closed) {
+            OutputStream out;
+            lock.lock();
+            try {
+                while (k.backlog.isEmpty() && !closed) k.queued.awaitUninterruptibly();
+                ArrayDeque<byte[]> full = k.backlog; // Swap the queues, callers keep appending to the empty one
+                k.backlog = frames;
+                frames = full;
+                out = k.out;
+            } finally {
+                lock.unlock();
+            }
+            if (frames.isEmpty()) continue; // Closed
+            try {
+                for (byte[] frame : frames) out.write(frame);
+                out.flush();
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    if (k.out == out) disconnect(k); // The session thread notices and reconnects
+                } finally {
+                    lock.unlock();
+                }
+            }
+            frames.clear();
+        }
+    }
+
+    /**
+     * Session thread: connects, reads frames until the session breaks, then fails over to the next coordinator
+     */
+    private void runSession(Link k) {
+        long backoff = MIN_BACKOFF;
+        while (!closed) {
+            InetSocketAddress address = k.coordinators.get(k.current);
+            String name = address.getHostString() + ":" + address.getPort();
+            try {
+                Socket s = new Socket(address.getHostString(), address.getPort());
+                s.setTcpNoDelay(true);
+                backoff = MIN_BACKOFF;
+                List<Runnable> completions = new ArrayList<>();
+                lock.lock();
+                try {
+                    k.socket = s;
+                    k.out = s.getOutputStream();
+                    if (binary) sendBinary(k, WireCodec.HEARTBEAT, 0, 0, 0, 0, null); // First byte tells the coordinator the protocol
+                    for (Map.Entry<Long, DmeLock> e : requested.entrySet()) {
+                        if (linkOf(e.getValue()) == k) writeRequest(k, e.getKey(), e.getValue());
+                    }
+                    for (DmeLock l : locks.values()) {
+                        if (linkOf(l) == k) l.sessionOpened(completions);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                completions.forEach(Runnable::run);
+                System.out.println("DmeClient - session opened with " + name + (binary ? " (binary)." : "."));
+                if (binary) readBinary(k, new DataInputStream(new BufferedInputStream(s.getInputStream())));
+                else readText(k, new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII)));
+            } catch (IOException e) {
+                if (!closed) System.out.println("DmeClient - session with " + name + " lost: " + e.getMessage());
+            }
+            lock.lock();
+            try {
+                disconnect(k);
+            } finally {
+                lock.unlock();
+            }
+            if (closed) return;
+            k.current = (k.current + 1) % k.coordinators.size(); // Fail over to the next coordinator
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        }
+    }
+
+    private void readText(Link k, BufferedReader in) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] f = line.trim().split(" ");
+            switch (f[0]) {
+                case Protocol.GRANT:
+                    granted(k, Protocol.parseLong(f, 3), Protocol.parseEpoch(f), Protocol.parseLong(f, 2));
+                    break;
+                case Protocol.RELEASED:
+                case Protocol.REJECTED:
+                    replied(k, false, -1);
+                    break;
+                case Protocol.RENEWED:
+                    replied(k, true, Protocol.parseLong(f, 1));
+                    break;
+                case Protocol.MOVED:
+                    if (f.length >= 3) moved(f[1], f[2]);
+                    break;
+                case Protocol.REJECT:
+                    rejected(k, Protocol.parseLong(f, 2), Math.max(0, Protocol.parseLong(f, 1)));
+                    break;
+                case Protocol.RECALL:
+                    recalled(Protocol.parseEpoch(f));
+                    break;
+                default:
+                    break; // STANDBY
+            }
+        }
+        throw new EOFException("session closed by coordinator");
+    }
+
+    private void readBinary(Link k, DataInputStream in) throws IOException {
+        byte[] bytes = new byte[WireCodec.MAX_FRAME_LENGTH];
+        WireMessage m = new WireMessage();
+        while (true) {
+            int length = WireCodec.read(in, bytes);
+            if (WireCodec.decode(ByteBuffer.wrap(bytes, 0, length), m) != WireCodec.OK) throw new IOException("malformed frame");
+            switch (m.type) {
+                case WireCodec.GRANT:
+                    granted(k, m.requestId, m.epoch, m.arg);
+                    break;
+                case WireCodec.RELEASED:
+                case WireCodec.REJECTED:
+                    replied(k, false, -1);
+                    break;
+                case WireCodec.RENEWED:
+                    replied(k, true, m.arg);
+                    break;
+                case WireCodec.MOVED:
+                    moved(m.resource != null ? m.resource : Request.DEFAULT_RESOURCE, WireCodec.unpackAddress(m.arg));
+                    break;
+                case WireCodec.REJECT:
+                    rejected(k, m.requestId, m.arg);
+                    break;
+                case WireCodec.RECALL:
+                    recalled(m.epoch);
+                    break;
+                default:
+                    break; // STANDBY
+            }
+        }
+    }
+
+    /**
+     * A GRANT arrived for one of the outstanding requests
+     * @param requestId Request id echoed by the coordinator, -1 if it echoes none (the oldest request is meant)
+     */
+    private void granted(Link k, long requestId, long epoch, long leaseMillis) {
+        List<Runnable> completions = new ArrayList<>();
+        lock.lock();
+        try {
+            DmeLock l = requestId > 0 ? requested.remove(requestId) : null;
+            if (l == null && requestId <= 0) {
+                for (Map.Entry<Long, DmeLock> e : requested.entrySet()) {
+                    if (linkOf(e.getValue()) == k) {
+                        l = requested.remove(e.getKey());
+                        break;
+                    }
+                }
+            }
+            if (l == null) {
+                sendRelease(k, epoch); // Not ours any more, give it straight back
+                return;
+            }
+            l.granted(epoch, leaseMillis, completions);
+        } finally {
+            lock.unlock();
+        }
+        completions.forEach(Runnable::run);
+    }
+
+    /**
+     * A REJECT arrived: the coordinator had no room for one of the outstanding requests, which is sent again
+     * by the timer thread after the retry-after hint
+     * @param requestId Request id echoed by the coordinator, -1 if it echoes none (the oldest request is meant)
+     */
+    private void rejected(Link k, long requestId, long retryAfterMillis) {
+        lock.lock();
+        try {
+            if (requestId <= 0) {
+                for (Map.Entry<Long, DmeLock> e : requested.entrySet()) {
+                    if (linkOf(e.getValue()) == k && !retries.containsKey(e.getKey())) {
+                        requestId = e.getKey();
+                        break;
+                    }
+                }
+            }
+            DmeLock l = requested.get(requestId);
+            if (l == null) return; // Cancelled meanwhile
+            long delay = retryAfterMillis + ThreadLocalRandom.current().nextLong(retryAfterMillis / 4 + 1);
+            retries.put(requestId, System.nanoTime() + delay * 1_000_000);
+            timerDue.signal();
+            System.out.println("DmeClient - request for " + l.getResource() + " rejected, coordinator busy, asking again in " + delay + "ms.");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A RECALL arrived: another node waits for a token kept by a sticky lock, which gives it back once unlocked
+     */
+    private void recalled(long epoch) {
+        lock.lock();
+        try {
+            for (DmeLock l : locks.values()) {
+                if (l.recall(epoch)) break;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wakes the timer thread to give back a token kept idle once it has been idle too long, caller holds lock
+     */
+    void tokenKept() {
+        timerDue.signal();
+    }
+
+    /**
+     * Sends again the refused requests that are due, caller holds lock
+     * @return System.nanoTime() the next one is due at, Long.MAX_VALUE if none is left
+     */
+    private long sendRetries(long now) {
+        long next = Long.MAX_VALUE;
+        for (Iterator<Map.Entry<Long, Long>> it = retries.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Long, Long> e = it.next();
+            if (e.getValue() - now > 0) {
+                if (next == Long.MAX_VALUE || e.getValue() - next < 0) next = e.getValue();
+                continue;
+            }
+            it.remove();
+            DmeLock l = requested.get(e.getKey());
+            if (l == null) continue;
+            Link k = linkOf(l);
+            if (k.out != null) writeRequest(k, e.getKey(), l); // Else sent when the session opens
+        }
+        return next;
+    }
+
+    /**
+     * A reply to the oldest RELEASE or RENEW sent over a session arrived
+     */
+    private void replied(Link k, boolean renewed, long leaseMillis) {
+        lock.lock();
+        try {
+            Pending p = k.replies.pollFirst();
+            if (p == null || p.lock == null) return;
+            if (renewed) p.lock.renewed(p.epoch, leaseMillis); else p.lock.revoked(p.epoch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A MOVED arrived: the resource belongs to another shard, which may have been handed the request or lease
+     * made here. The outstanding requests for it are sent again there with the same request ids, so they keep
+     * their place, and the leases held are reclaimed there.
+     */
+    private void moved(String resource, String shard) {
+        List<Runnable> completions = new ArrayList<>();
+        lock.lock();
+        try {
+            moved.put(resource, shard);
+            Link k = link(shard);
+            System.out.println("DmeClient - " + resource + " moved to " + shard + ".");
+            for (DmeLock l : locks.values()) {
+                if (!l.getResource().equals(resource)) continue;
+                l.sessionLost();
+                if (k.out == null) continue; // Sent when the session opens
+                for (Map.Entry<Long, DmeLock> e : requested.entrySet()) {
+                    if (e.getValue() == l) writeRequest(k, e.getKey(), l);
+                }
+                l.sessionOpened(completions);
+            }
+        } finally {
+            lock.unlock();
+        }
+        completions.forEach(Runnable::run);
+    }
+
+    /**
+     * Closes a session, caller holds lock. Held locks whose frames go over it are marked lost until the next
+     * session reclaims them, outstanding requests are kept to be sent again.
+     */
+    private void disconnect(Link k) {
+        if (k.socket == null) return;
+        try {
+            k.socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+        k.socket = null;
+        k.out = null;
+        k.replies.clear();
+        k.backlog.clear();
+        for (DmeLock l : locks.values()) {
+            if (linkOf(l) == k) l.sessionLost();
+        }
+    }
+
+    /**
+     * Timer thread: heartbeats, lease renewals, requests sent again after a REJECT and idle sticky tokens given back
+     */
+    private void runTimer() {
+        long period = Math.max(10, heartbeatMillis / 2) * 1_000_000;
+        long beat = System.nanoTime() + period;
+        lock.lock();
+        try {
+            while (!closed) {
+                long now = System.nanoTime();
+                if (now - beat >= 0) {
+                    beat = now + period;
+                    for (Link k : links.values()) {
+                        if (k.out == null) continue;
+                        if (binary) sendBinary(k, WireCodec.HEARTBEAT, 0, 0, 0, 0, null); else sendText(k, Protocol.HEARTBEAT);
+                    }
+                    for (DmeLock l : locks.values()) {
+                        Link k = linkOf(l);
+                        if (k.out == null) continue;
+                        long epoch = l.renewalDue(now);
+                        if (epoch > 0) sendRenew(k, l, epoch);
+                    }
+                }
+                long next = beat;
+                if (!retries.isEmpty()) next = earlier(next, sendRetries(now));
+                for (DmeLock l : locks.values()) next = earlier(next, l.idleDue(now));
+                timerDue.awaitNanos(next - now);
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the earlier of two System.nanoTime() values, b being Long.MAX_VALUE for none
+     */
+    private static long earlier(long a, long b) {
+        return b != Long.MAX_VALUE && b - a < 0 ? b : a;
+    }
+}
@@ -0,0 +1,377 @@
+package dme;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * DmeLock is the distributed lock of one resource, obtained from a DmeClient.
+ *
+ * The threads of a process using the same DmeLock share one request to the coordinator: the first waiter
+ * sends it, later ones queue locally. Once the token arrives it is passed from thread to thread in the order
+ * they asked (for a SHARED lock every waiting thread holds it at once), and only given back to the coordinator
+ * when no local thread is waiting or after "dme.client.batch" (default 16) local handoffs, so other nodes
+ * are not starved by a busy process.
+ *
+ * Unlike java.util.concurrent.locks.Lock, the lock is not owned by a thread: an acquireAsync() caller may
+ * unlock() from whichever thread finishes the work. Every hold carries the fencing epoch of the grant
+ * (getEpoch()), to pass to the protected resource so it can refuse writes from a holder whose lease was revoked.
+ *
+ * In sticky mode (DmeClient.setStickyMillis()) the token is kept when the last local holder unlocks, and the
+ * next lock() takes it straight away without asking the coordinator. It goes back when the coordinator recalls
+ * it for a request from another node (at once if idle, otherwise at the next unlock, without further local
+ * handoffs), or once it has been idle for the sticky time, so a process that has gone quiet does not sit on it.
+ *
+ * A request sent for tryLock() carries its timeout as the longest wait (Request.setMaxWait()), so the coordinator
+ * drops it rather than grant a token nobody waits for any more. A waiter prepared to wait longer that joins
+ * the request asks again with the same request id and its own wait, or none.
+ *
+ */
+public class DmeLock {
+
+    private static final int NONE = 0, REQUESTED = 1, HELD = 2; // State of the process's request with the coordinator
+
+    private final DmeClient client;
+    private final String resource;
+    private final LockMode mode;
+    private final int batch = Math.max(1, Config.getInt("client.batch", 16));
+
+    // Guarded by client.lock
+    private final ArrayDeque<CompletableFuture<DmeLock>> waiters = new ArrayDeque<>();
+    private int state = NONE;
+    private int holders; // Local holders of the token
+    private int handoffs; // Local grants under the current lease
+    private long epoch = -1; // Fencing epoch of the current grant
+    private long renewAtNanos; // When the lease of the current grant should be renewed
+    private long leaseNanos;
+    private boolean lost; // The lease was revoked while held locally
+    private boolean recalled; // The coordinator asked for the token back, another node is waiting
+    private long keptSinceNanos; // When the token was last kept with no local holder (sticky mode), 0 if not kept
+    private long requestDeadline; // System.nanoTime() deadline sent with the request, 0 if none
+
+    DmeLock(DmeClient client, String resource, LockMode mode) {
+        this.client = client;
+        this.resource = resource;
+        this.mode = mode;
+    }
+
+    /**
+     * Acquires the lock, waiting as long as it takes
+     */
+    public void lock() {
+        CompletableFuture<DmeLock> f = acquireAsync();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                f.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true; // Like Lock.lock(), not interruptible
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Acquires the lock if it can be acquired within a timeout
+     * @param timeout Longest time to wait
+     * @return true if the lock was acquired, false if the timeout elapsed first
+     * @throws InterruptedException If interrupted while waiting, the lock is not acquired
+     */
+    public boolean tryLock(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        CompletableFuture<DmeLock> f = acquire(deadline == 0 ? 1 : deadline);
+        try {
+            f.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            return true;
+        } catch (TimeoutException | InterruptedException e) {
+            if (!f.cancel(false)) return true; // Granted just in time
+            if (e instanceof InterruptedException) throw (InterruptedException) e;
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Acquires the lock without blocking the caller
+     * @return future completed with this lock once the caller holds it; cancelling it gives up the wait
+     */
+    public CompletableFuture<DmeLock> acquireAsync() {
+        return acquire(0);
+    }
+
+    /**
+     * Acquires the lock without blocking the caller
+     * @param deadlineNanos System.nanoTime() after which the caller no longer wants the lock, 0 for no limit
+     */
+    private CompletableFuture<DmeLock> acquire(long deadlineNanos) {
+        CompletableFuture<DmeLock> f = new CompletableFuture<>();
+        f.whenComplete((l, e) -> {
+            if (e instanceof CancellationException) cancelled(f);
+        });
+        boolean now = false;
+        client.lock.lock();
+        try {
+            if (state == HELD && !lost && !recalled && canJoin() && waiters.isEmpty() && handoffs < batch) {
+                holders++;
+                handoffs++;
+                keptSinceNanos = 0;
+                now = true;
+            } else {
+                waiters.addLast(f);
+                if (state == HELD && holders == 0) {
+                    giveBack(); // Kept but lost meanwhile, and asks again for the waiter
+                } else if (state == NONE) {
+                    request(deadlineNanos);
+                } else if (state == REQUESTED && requestDeadline != 0
+                        && (deadlineNanos == 0 || deadlineNanos - requestDeadline > 0)) {
+                    requestDeadline = deadlineNanos; // Would be dropped before this waiter gives up, ask again
+                    client.resendRequest(this);
+                }
+            }
+        } finally {
+            client.lock.unlock();
+        }
+        if (now && !f.complete(this)) unlock(); // Cancelled before it could be handed over
+        return f;
+    }
+
+    /**
+     * Releases the lock. The token goes to the next local waiter, or back to the coordinator.
+     * @throws IllegalMonitorStateException If the lock is not held by this process
+     */
+    public void unlock() {
+        List<CompletableFuture<DmeLock>> next = new ArrayList<>();
+        client.lock.lock();
+        try {
+            if (holders == 0) throw new IllegalMonitorStateException("DmeLock " + resource + " is not held");
+            holders--;
+            if (holders > 0) return;
+            if (state == HELD && !lost && !recalled && !waiters.isEmpty() && handoffs < batch) {
+                handOver(next);
+            } else if (state == HELD && !lost && !recalled && waiters.isEmpty() && client.getStickyNanos() > 0) {
+                keptSinceNanos = System.nanoTime(); // Sticky, kept for the next lock() until recalled or idle too long
+                handoffs = 0;
+                client.tokenKept();
+            } else {
+                giveBack();
+            }
+        } finally {
+            client.lock.unlock();
+        }
+        complete(next);
+    }
+
+    /**
+     * Checks whether this process holds the lock and its lease is still valid
+     * @return true if held
+     */
+    public boolean isHeld() {
+        client.lock.lock();
+        try {
+            return holders > 0 && state == HELD && !lost;
+        } finally {
+            client.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the fencing epoch of the current hold
+     * @return epoch, or -1 if the lock is not held
+     */
+    public long getEpoch() {
+        client.lock.lock();
+        try {
+            return holders > 0 && !lost ? epoch : -1;
+        } finally {
+            client.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the name of the resource
+     * @return resource name
+     */
+    public String getResource() {
+        return resource;
+    }
+
+    /**
+     * Gets the lock mode
+     * @return SHARED or EXCLUSIVE
+     */
+    public LockMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Gets the deadline of the outstanding request, caller holds client.lock
+     * @return System.nanoTime() deadline, 0 if none
+     */
+    long getRequestDeadline() {
+        return requestDeadline;
+    }
+
+    private boolean canJoin() {
+        return holders == 0 || mode == LockMode.SHARED;
+    }
+
+    /**
+     * Sends the process's request, caller holds client.lock
+     * @param deadlineNanos Deadline of the request, 0 for none
+     */
+    private void request(long deadlineNanos) {
+        requestDeadline = deadlineNanos;
+        client.sendRequest(this);
+        state = REQUESTED;
+    }
+
+    /**
+     * Gives the token back to the coordinator, and asks again if threads are still waiting. Caller holds client.lock
+     */
+    private void giveBack() {
+        if (state == HELD) client.sendRelease(this, epoch); // Even if lost, a coordinator that took over may hold it
+        state = NONE;
+        lost = false;
+        recalled = false;
+        keptSinceNanos = 0;
+        epoch = -1;
+        if (!waiters.isEmpty()) request(0); // Waiters' own deadlines are not kept, ask without one
+    }
+
+    /**
+     * Hands the token to the next waiting threads (every waiter for a shared lock). Caller holds client.lock
+     */
+    private void handOver(List<CompletableFuture<DmeLock>> next) {
+        while (!waiters.isEmpty() && canJoin() && handoffs < batch) {
+            CompletableFuture<DmeLock> f = waiters.pollFirst();
+            if (f.isDone()) continue; // Cancelled
+            holders++;
+            handoffs++;
+            next.add(f);
+        }
+        if (holders == 0) giveBack(); // Every waiter had given up
+    }
+
+    private void complete(List<CompletableFuture<DmeLock>> next) {
+        for (CompletableFuture<DmeLock> f : next) {
+            if (!f.complete(this)) unlock(); // Cancelled meanwhile, pass it on
+        }
+    }
+
+    private void cancelled(CompletableFuture<DmeLock> f) {
+        client.lock.lock();
+        try {
+            waiters.remove(f);
+            if (state == REQUESTED && waiters.isEmpty()) { // Nobody waits any more, withdraw the request
+                client.sendCancel(this);
+                state = NONE;
+            }
+        } finally {
+            client.lock.unlock();
+        }
+    }
+
+    /**
+     * The coordinator granted the process's request, caller holds client.lock
+     * @param completions Completions to run once client.lock is released
+     */
+    void granted(long epoch, long leaseMillis, List<Runnable> completions) {
+        this.state = HELD;
+        this.epoch = epoch;
+        this.lost = false;
+        this.recalled = false;
+        this.handoffs = 0;
+        this.leaseNanos = leaseMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(leaseMillis) : 0;
+        this.renewAtNanos = System.nanoTime() + leaseNanos / 2;
+        List<CompletableFuture<DmeLock>> next = new ArrayList<>();
+        handOver(next);
+        if (!next.isEmpty()) completions.add(() -> complete(next));
+    }
+
+    /**
+     * The coordinator recalled a token this process keeps, caller holds client.lock. It goes back now if idle,
+     * otherwise at the next unlock.
+     * @param epoch Epoch recalled
+     * @return true if this lock holds that epoch
+     */
+    boolean recall(long epoch) {
+        if (state != HELD || epoch != this.epoch) return false;
+        recalled = true;
+        if (holders == 0) giveBack();
+        return true;
+    }
+
+    /**
+     * Gives back a token kept idle for the sticky time, caller holds client.lock
+     * @param now System.nanoTime()
+     * @return when to check again, Long.MAX_VALUE if the token is not kept
+     */
+    long idleDue(long now) {
+        if (state != HELD || holders > 0 || keptSinceNanos == 0) return Long.MAX_VALUE;
+        long due = keptSinceNanos + client.getStickyNanos();
+        if (due - now > 0) return due;
+        giveBack();
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * The session (re)opened: reclaims a lease held when the last session was lost, caller holds client.lock.
+     * Outstanding requests are sent again by the client.
+     */
+    void sessionOpened(List<Runnable> completions) {
+        if (state == HELD && lost) client.sendReclaim(this, epoch);
+    }
+
+    /**
+     * The session was lost: the lease is lost unless the next session reclaims it. Caller holds client.lock
+     */
+    void sessionLost() {
+        if (state == HELD) {
+            lost = true;
+            System.out.println("DmeLock - session lost while holding " + resource + " (epoch " + epoch + ").");
+        }
+    }
+
+    /**
+     * Gets the epoch to renew if the lease of the current grant is due for renewal, caller holds client.lock
+     * @param now System.nanoTime()
+     * @return epoch, or -1 if no renewal is due
+     */
+    long renewalDue(long now) {
+        if (state != HELD || lost || leaseNanos == 0 || now - renewAtNanos < 0) return -1;
+        renewAtNanos = now + leaseNanos / 2; // Not again before the reply
+        return epoch;
+    }
+
+    /**
+     * The coordinator renewed the lease, or confirmed a lease held when the session was lost. Caller holds client.lock
+     */
+    void renewed(long epoch, long leaseMillis) {
+        if (epoch != this.epoch || state != HELD) return;
+        if (lost) System.out.println("DmeLock - lease of " + resource + " (epoch " + epoch + ") reclaimed.");
+        lost = false;
+        leaseNanos = TimeUnit.MILLISECONDS.toNanos(leaseMillis);
+        renewAtNanos = System.nanoTime() + leaseNanos / 2;
+    }
+
+    /**
+     * The coordinator refused to renew the lease, it has been revoked. Caller holds client.lock
+     */
+    void revoked(long epoch) {
+        if (epoch != this.epoch || state != HELD) return;
+        lost = true;
+        leaseNanos = 0; // No more renewals
+        System.out.println("DmeLock - lease of " + resource + " (epoch " + epoch + ") revoked.");
+        if (holders == 0) giveBack();
+    }
+}
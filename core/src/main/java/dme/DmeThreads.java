@@ -0,0 +1,87 @@
+package dme;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DmeThreads creates the executors used to run connection handlers, sessions and simulated nodes.
+ * With -Ddme.threads=virtual each task runs on its own virtual thread (Java 21 or later),
+ * otherwise tasks run on a cached pool of platform threads. When virtual threads are requested on an older JDK,
+ * the fallback to platform threads is printed once, and mode() reports it.
+ *
+ */
+public final class DmeThreads {
+
+    // Looked up reflectively so the system still builds and runs on older JDKs, null before Java 21
+    private static final Method VIRTUAL_EXECUTOR = virtualExecutorFactory();
+    private static final AtomicBoolean WARNED = new AtomicBoolean(); // The fallback to platform threads was printed
+
+    /**
+     * Constructor made private, DmeThreads only exposes static helpers.
+     */
+    private DmeThreads() {}
+
+    /**
+     * Checks whether virtual threads were requested
+     * @return true if "dme.threads" is "virtual"
+     */
+    public static boolean virtualRequested() {
+        return "virtual".equalsIgnoreCase(Config.getString("threads", "platform"));
+    }
+
+    /**
+     * Checks whether this JDK has virtual threads
+     * @return true on Java 21 or later
+     */
+    public static boolean virtualAvailable() {
+        return VIRTUAL_EXECUTOR != null;
+    }
+
+    /**
+     * Gets the kind of threads newExecutor() runs tasks on, for reporting at startup
+     * @return "virtual", "platform", or "platform" with the reason when virtual threads were requested
+     */
+    public static String mode() {
+        if (!virtualRequested()) return "platform";
+        return virtualAvailable() ? "virtual" : "platform (virtual threads requested, they need Java 21 or later)";
+    }
+
+    /**
+     * Creates an executor running each task on its own thread
+     * @param name Name prefix for platform threads
+     * @return virtual-thread-per-task executor if requested and supported, cached platform thread pool otherwise
+     */
+    public static ExecutorService newExecutor(String name) {
+        if (virtualRequested()) {
+            if (VIRTUAL_EXECUTOR != null) {
+                try {
+                    return (ExecutorService) VIRTUAL_EXECUTOR.invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    // Falls back to platform threads below
+                }
+            }
+            if (WARNED.compareAndSet(false, true)) {
+                System.out.println("DmeThreads - virtual threads need Java 21 or later, using platform threads.");
+            }
+        }
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        return Executors.newCachedThreadPool(factory);
+    }
+
+    private static Method virtualExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
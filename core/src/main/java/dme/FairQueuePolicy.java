@@ -0,0 +1,142 @@
+package dme;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * FairQueuePolicy shares token time between nodes by weighted fair queueing (self-clocked, SCFQ).
+ *
+ * Each node (host and port) is a flow with weight max(1, priority). A request is stamped with a virtual start
+ * time, the later of the queue's virtual time and the finish time of its node's previous request, and a
+ * finish time of start + cost / weight, and requests are granted in order of finish time. The queue's virtual
+ * time is the finish time of the last request granted. Cost is the node's expected hold time: an average of
+ * the hold times it was measured with (released()), starting from the resource's average. When a request is
+ * returned its node's finish time is corrected from the expected to the measured hold time, so a node that holds
+ * the token ten times as long as the others gets it a tenth as often, and over time each node's share of token
+ * time is in proportion to its weight. A node that was idle starts again from the virtual time, without credit.
+ *
+ * Requests are kept in one RequestHeap ordered by finish time: O(log n) add, poll and remove. Flows are kept
+ * while the resource has an entry; flows that are idle and have no credit left are dropped once they
+ * outnumber the waiting requests.
+ *
+ */
+public class FairQueuePolicy implements SchedulingPolicy {
+
+    private static final double ALPHA = 0.25; // Weight of the latest hold time in the averages
+    private static final double DEFAULT_COST_NANOS = 1_000_000; // Expected hold time before any is measured
+
+    /**
+     * A node's share of the resource
+     */
+    private static final class Flow {
+        double finish; // Virtual finish time of the node's last request
+        double cost; // Expected hold time in nanoseconds
+        int queued; // Requests of the node waiting
+
+        Flow(double cost) {
+            this.cost = cost;
+        }
+    }
+
+    private final RequestHeap heap = new RequestHeap(FairQueuePolicy::compare);
+    private final HashMap<String, Flow> flows = new HashMap<>(); // Nodes by "host:port"
+    private double virtualTime; // Finish time of the last request granted
+    private double meanCost = DEFAULT_COST_NANOS; // Average hold time of any node
+
+    @Override
+    public void add(Request r) {
+        if (flows.size() > 2 * heap.size() + 64) prune();
+        Flow flow = flows.computeIfAbsent(flowKey(r), k -> new Flow(meanCost));
+        double start = Math.max(virtualTime, flow.finish);
+        flow.finish = start + flow.cost / weight(r.getPriority());
+        flow.queued++;
+        r.markQueued(start, flow.finish);
+        heap.add(r);
+    }
+
+    @Override
+    public Request peek() {
+        return heap.peek();
+    }
+
+    @Override
+    public Request poll() {
+        Request r = heap.poll();
+        if (r == null) return null;
+        virtualTime = Math.max(virtualTime, r.getAgingKey());
+        Flow flow = flows.get(flowKey(r));
+        if (flow != null) flow.queued--;
+        return r;
+    }
+
+    @Override
+    public boolean remove(Request r) {
+        if (!heap.remove(r)) return false;
+        Flow flow = flows.get(flowKey(r));
+        if (flow == null) return true;
+        flow.queued--;
+        if (flow.finish == r.getAgingKey()) flow.finish = r.getAgingClock(); // Was the node's last, give its time back
+        return true;
+    }
+
+    @Override
+    public void reprioritise(Request r, int priority) {
+        double start = r.getAgingClock();
+        double finish = start + (r.getAgingKey() - start) * weight(r.getPriority()) / weight(priority);
+        Flow flow = flows.get(flowKey(r));
+        if (flow != null && flow.finish == r.getAgingKey()) flow.finish = finish;
+        r.reprioritise(priority, finish);
+        heap.update(r);
+    }
+
+    @Override
+    public void released(Request r, long heldNanos) {
+        meanCost += ALPHA * (heldNanos - meanCost);
+        Flow flow = flows.get(flowKey(r));
+        if (flow == null) return;
+        // The request was charged its expected hold time, charge what it used instead
+        flow.finish += heldNanos / weight(r.getPriority()) - (r.getAgingKey() - r.getAgingClock());
+        flow.cost += ALPHA * (heldNanos - flow.cost);
+    }
+
+    @Override
+    public double effectivePriority(Request r) {
+        return r.getPriority();
+    }
+
+    @Override
+    public void collect(List<Request> into) {
+        for (int i = 0; i < heap.size(); i++) into.add(heap.get(i));
+    }
+
+    /**
+     * Drops the flows of nodes with nothing waiting and no credit left
+     */
+    private void prune() {
+        Iterator<Flow> it = flows.values().iterator();
+        while (it.hasNext()) {
+            Flow flow = it.next();
+            if (flow.queued == 0 && flow.finish <= virtualTime) it.remove();
+        }
+    }
+
+    private static String flowKey(Request r) {
+        return r.getNode() + ":" + r.getPort();
+    }
+
+    private static double weight(int priority) {
+        return Math.max(1, priority);
+    }
+
+    private static int compare(Request a, Request b) {
+        int c = Double.compare(a.getAgingKey(), b.getAgingKey());
+        if (c == 0) c = Double.compare(a.getAgingClock(), b.getAgingClock());
+        return c != 0 ? c : Long.compare(a.getSequence(), b.getSequence());
+    }
+
+    @Override
+    public String toString() {
+        return "wfq";
+    }
+}
@@ -0,0 +1,56 @@
+package dme;
+
+import java.util.List;
+
+/**
+ * FifoPolicy grants requests in the order they arrived, ignoring their priority.
+ * The queue is still a RequestHeap (ordered by arrival) rather than a list, so a request anywhere in it can be
+ * cancelled in O(log n). Changing a request's priority does not move it.
+ *
+ */
+public class FifoPolicy implements SchedulingPolicy {
+
+    private final RequestHeap heap = new RequestHeap((a, b) -> Double.compare(a.getAgingClock(), b.getAgingClock()));
+    private long arrivals; // Requests added so far
+
+    @Override
+    public void add(Request r) {
+        r.markQueued(++arrivals, 0);
+        heap.add(r);
+    }
+
+    @Override
+    public Request peek() {
+        return heap.peek();
+    }
+
+    @Override
+    public Request poll() {
+        return heap.poll();
+    }
+
+    @Override
+    public boolean remove(Request r) {
+        return heap.remove(r);
+    }
+
+    @Override
+    public void reprioritise(Request r, int priority) {
+        r.reprioritise(priority, 0);
+    }
+
+    @Override
+    public double effectivePriority(Request r) {
+        return r.getPriority();
+    }
+
+    @Override
+    public void collect(List<Request> into) {
+        for (int i = 0; i < heap.size(); i++) into.add(heap.get(i));
+    }
+
+    @Override
+    public String toString() {
+        return "fifo";
+    }
+}
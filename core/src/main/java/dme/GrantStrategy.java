@@ -0,0 +1,36 @@
+package dme;
+
+/**
+ * GrantStrategy is the part of the coordinator that delivers the token to nodes and collects it back.
+ * The C_scheduler decides who gets the token next, the strategy decides how it gets there.
+ * Strategies report returned tokens with C_scheduler.tokenReturned() and renewals with C_scheduler.renew().
+ *
+ */
+public interface GrantStrategy {
+
+    /**
+     * Prepares the strategy for use (e.g. binds the socket tokens are returned to)
+     * @param scheduler Scheduler to notify when the token comes back
+     * @throws java.io.IOException If the strategy cannot be opened
+     */
+    void open(C_scheduler scheduler) throws java.io.IOException;
+
+    /**
+     * Delivers the token to the node that made the request, along with the lease epoch and duration
+     * @param lease Lease being granted
+     * @return true if the token was delivered, false if the node could not be reached
+     */
+    boolean grant(Lease lease);
+
+    /**
+     * Tells the node that made a request that it is next in line (pipelined handoff).
+     * Strategies may use the notice to warm up the path the grant will take. Does nothing by default.
+     * @param next Request that will be granted next unless a higher priority request arrives
+     */
+    default void standby(Request next) {}
+
+    /**
+     * Releases any resources held by the strategy
+     */
+    void close();
+}
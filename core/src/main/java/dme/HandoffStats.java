@@ -0,0 +1,64 @@
+package dme;
+
+/**
+ * HandoffStats records the token handoff latency of the scheduler.
+ * The handoff gap is measured from the moment the token could be granted
+ * (token returned, or request queued if the token was idle) to the grant being delivered.
+ *
+ */
+public class HandoffStats {
+    private long count; // Number of handoffs recorded
+    private long totalNanos; // Sum of all handoff gaps
+    private long maxNanos; // Largest handoff gap
+    private long lastNanos; // Most recent handoff gap
+
+    /**
+     * Records one handoff
+     * @param nanos Handoff gap in nanoseconds
+     */
+    public synchronized void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        count++;
+        totalNanos += nanos;
+        lastNanos = nanos;
+        if (nanos > maxNanos) maxNanos = nanos;
+    }
+
+    /**
+     * Gets the number of handoffs recorded
+     * @return handoff count
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the mean handoff gap
+     * @return mean gap in microseconds, 0 if nothing was recorded
+     */
+    public synchronized double getMeanMicros() {
+        return count == 0 ? 0 : totalNanos / 1000.0 / count;
+    }
+
+    /**
+     * Gets the largest handoff gap
+     * @return largest gap in microseconds
+     */
+    public synchronized double getMaxMicros() {
+        return maxNanos / 1000.0;
+    }
+
+    /**
+     * Gets the most recent handoff gap
+     * @return last gap in microseconds
+     */
+    public synchronized double getLastMicros() {
+        return lastNanos / 1000.0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("handoffs=%d last=%.1fus mean=%.1fus max=%.1fus",
+                count, getLastMicros(), getMeanMicros(), getMaxMicros());
+    }
+}
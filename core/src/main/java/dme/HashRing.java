@@ -0,0 +1,95 @@
+package dme;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * HashRing assigns resources to coordinator shards by consistent hashing.
+ *
+ * Each shard is placed on a 64-bit ring at "dme.shard.vnodes" (default 160) points, its virtual nodes, and a
+ * resource belongs to the shard of the first point at or after the resource's hash. Adding a shard only takes
+ * over the resources just before its points, and removing one only gives its resources to the shards after
+ * them, so a change of N shards moves about 1/N of the resources. Virtual nodes keep the shares even.
+ *
+ * Shards are named by the address clients connect to, "host:port" (their session port); every coordinator
+ * and client must build the ring from the same names. Immutable, safe to share.
+ *
+ */
+public final class HashRing {
+
+    private final List<String> shards;
+    private final TreeMap<Long, String> points = new TreeMap<>();
+
+    /**
+     * Constructs a ring of shards
+     * @param shards Shard names, "host:port"
+     * @param vnodes Points of each shard on the ring
+     * @throws IllegalArgumentException If there are no shards
+     */
+    public HashRing(List<String> shards, int vnodes) {
+        if (shards.isEmpty()) throw new IllegalArgumentException("A ring needs at least one shard");
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        for (String shard : shards) {
+            for (int v = 0; v < vnodes; v++) {
+                points.putIfAbsent(hash(shard + "#" + v), shard);
+            }
+        }
+    }
+
+    /**
+     * Builds a ring from a comma separated list of shards, with "dme.shard.vnodes" points each
+     * @param list "host:port,host:port,..."
+     * @return the ring
+     */
+    public static HashRing parse(String list) {
+        List<String> shards = new ArrayList<>();
+        for (String s : list.split(",")) {
+            if (!s.trim().isEmpty()) shards.add(s.trim());
+        }
+        return new HashRing(shards, Math.max(1, Config.getInt("shard.vnodes", 160)));
+    }
+
+    /**
+     * Gets the shard a resource belongs to
+     * @param resource Resource name
+     * @return shard name
+     */
+    public String owner(String resource) {
+        Map.Entry<Long, String> e = points.ceilingEntry(hash(resource));
+        return e != null ? e.getValue() : points.firstEntry().getValue();
+    }
+
+    /**
+     * Gets the shards of the ring
+     * @return shard names, in the order given
+     */
+    public List<String> getShards() {
+        return shards;
+    }
+
+    @Override
+    public String toString() {
+        return String.join(",", shards);
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a name, with the MurmurHash3 finaliser so that similar names spread over the ring
+     */
+    static long hash(String name) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,195 @@
+package dme;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Journal is a binary event sink kept alongside the text log, recording the coordinator's history at full fidelity.
+ *
+ * Events are appended as fixed-size records to memory-mapped segment files ("journal-000000.dmj", ...)
+ * in the journal directory. Appending is a handful of writes to mapped memory, so the journal can stay on
+ * in production; the operating system writes the pages back, and they survive the process being killed.
+ * A new segment is started when the current one is full, and on restart the journal continues after the last
+ * record of the last segment. JournalTool reads the segments back for statistics and replay.
+ *
+ * Segment layout (big endian): a header of u32 magic (0x444D454A, "DMEJ"), u16 version, u16 record size,
+ * then records of
+ *   u8 type, u8 reserved, u16 reserved, i32 nodeId, i32 queueLength, i32 resource (hash of the name),
+ *   i64 requestId, i64 epoch, i64 timestamp (nanoseconds since the Unix epoch)
+ * A record whose type is 0 marks the end of the segment's data.
+ *
+ * Enabled with "dme.journal=true", written to "dme.journal.dir" (default "journal") in segments of
+ * "dme.journal.segment.mb" megabytes (default 64).
+ *
+ */
+public class Journal {
+
+    public static final int MAGIC = 0x444D454A;
+    public static final int VERSION = 1;
+    public static final int HEADER_LENGTH = 8;
+    public static final int RECORD_LENGTH = 40;
+
+    // Record types
+    public static final int REQUEST = 1; // Request queued
+    public static final int GRANT = 2;   // Lease granted
+    public static final int RETURN = 3;  // Lease returned by its holder
+    public static final int REVOKE = 4;  // Lease revoked (expired or holder gone)
+    public static final int RENEW = 5;   // Lease renewed
+    public static final int STANDBY = 6; // Standby notice sent (pipelined handoff)
+    public static final int CANCEL = 7;  // Queued request cancelled by its node
+    public static final int PRIORITY = 8; // Queued request given a new priority
+    public static final int HANDOVER = 9; // Lease (epoch set) or queued request handed over to another shard
+    public static final int EXPIRE = 10; // Queued request dropped without a grant, its deadline passed
+    public static final int REJECT = 11; // Request refused by admission control, the queues being full
+    public static final int RECALL = 12; // Sticky holder asked to give the token back, a request is waiting
+
+    private static final Journal instance = Config.getBoolean("journal", false)
+            ? open(Paths.get(Config.getString("journal.dir", "journal")), Config.getLong("journal.segment.mb", 64) << 20)
+            : null;
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final ReentrantLock lock = new ReentrantLock(); // Serialises appends and segment rolls
+    private final long baseEpochNanos; // Wall clock at start, in nanoseconds since the Unix epoch
+    private final long baseNanoTime; // System.nanoTime() at start
+    private MappedByteBuffer segment; // Segment being appended to
+    private int segmentIndex;
+
+    /**
+     * Opens a journal, continuing after the last record already in the directory
+     * @param dir Directory of the segment files
+     * @param segmentBytes Size of each segment file
+     * @throws IOException If the directory or segment cannot be opened
+     */
+    public Journal(Path dir, long segmentBytes) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = Math.max(HEADER_LENGTH + RECORD_LENGTH, segmentBytes);
+        Instant now = Instant.now();
+        baseNanoTime = System.nanoTime();
+        baseEpochNanos = now.getEpochSecond() * 1_000_000_000L + now.getNano();
+        Files.createDirectories(dir);
+        int last = 0;
+        while (Files.exists(segmentPath(dir, last + 1))) last++;
+        map(last);
+        int p = HEADER_LENGTH;
+        while (p + RECORD_LENGTH <= segment.capacity() && segment.get(p) != 0) p += RECORD_LENGTH;
+        segment.position(p);
+    }
+
+    private static Journal open(Path dir, long segmentBytes) {
+        try {
+            Journal j = new Journal(dir, segmentBytes);
+            System.out.println("Journal - recording events to " + dir.toAbsolutePath());
+            return j;
+        } catch (IOException e) {
+            System.out.println("Journal - could not open " + dir + ", journal disabled: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Gets the journal configured for this process
+     * @return journal, or null if journaling is off
+     */
+    public static Journal getInstance() {
+        return instance;
+    }
+
+    /**
+     * Records an event in the process's journal, if journaling is on
+     * @param type Record type
+     * @param request Request the event is about
+     * @param epoch Fencing epoch, 0 if none
+     * @param queueLength Queue length of the resource, or -1
+     */
+    public static void event(int type, Request request, long epoch, int queueLength) {
+        if (instance != null) {
+            instance.append(type, request.getPort(), request.getResource().hashCode(), request.getRequestId(), epoch, queueLength);
+        }
+    }
+
+    /**
+     * Gets the path of a segment file
+     * @param dir Journal directory
+     * @param index Segment number
+     * @return path of the segment
+     */
+    public static Path segmentPath(Path dir, int index) {
+        return dir.resolve(String.format("journal-%06d.dmj", index));
+    }
+
+    /**
+     * Appends one record
+     * @param type Record type
+     * @param nodeId Node id (port)
+     * @param resource Hash of the resource name
+     * @param requestId Request id given by the node, 0 if none
+     * @param epoch Fencing epoch, 0 if none
+     * @param queueLength Queue length, or -1
+     */
+    public void append(int type, int nodeId, int resource, long requestId, long epoch, int queueLength) {
+        long timestamp = baseEpochNanos + (System.nanoTime() - baseNanoTime);
+        lock.lock();
+        try {
+            if (segment.remaining() < RECORD_LENGTH) {
+                try {
+                    map(segmentIndex + 1);
+                } catch (IOException e) {
+                    System.out.println("Journal - could not start a new segment: " + e);
+                    return;
+                }
+            }
+            int p = segment.position();
+            segment.putInt(p + 4, nodeId);
+            segment.putInt(p + 8, queueLength);
+            segment.putInt(p + 12, resource);
+            segment.putLong(p + 16, requestId);
+            segment.putLong(p + 24, epoch);
+            segment.putLong(p + 32, timestamp);
+            segment.put(p, (byte) type); // Type last, a record is complete once its type is set
+            segment.position(p + RECORD_LENGTH);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the mapped pages to disk
+     */
+    public void force() {
+        lock.lock();
+        try {
+            segment.force();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Maps a segment, creating it with its header if it doesn't exist yet
+     */
+    private void map(int index) throws IOException {
+        Path path = segmentPath(dir, index);
+        boolean created = !Files.exists(path);
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = created ? segmentBytes : ch.size();
+            segment = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        if (created) {
+            segment.putInt(0, MAGIC);
+            segment.putShort(4, (short) VERSION);
+            segment.putShort(6, (short) RECORD_LENGTH);
+        } else if (segment.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not a journal segment");
+        }
+        segment.position(HEADER_LENGTH);
+        segmentIndex = index;
+    }
+}
@@ -0,0 +1,222 @@
+package dme;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * JournalTool is the offline reader of the binary Journal.
+ *
+ * Usage:
+ *   java dme.JournalTool stats [dir]           per-node counts, wait, hold and handoff statistics
+ *   java dme.JournalTool replay [dir] [node]   prints every record in order, optionally for one node only
+ *
+ * Segments are memory-mapped read-only and scanned record by record, without parsing text,
+ * so even large journals are read at close to disk speed.
+ * Wait is the time from a request being queued to its grant, hold the time from grant to return or revocation,
+ * and handoff the time from a resource becoming free (or the request arriving, if later) to the next grant.
+ *
+ */
+public class JournalTool {
+
+    /**
+     * Visitor called for every record in a journal
+     */
+    public interface RecordVisitor {
+        void visit(int type, int nodeId, int queueLength, int resource, long requestId, long epoch, long timestamp);
+    }
+
+    /**
+     * Wait, hold and handoff statistics of one node
+     */
+    public static class NodeStats {
+        public long requests, grants, returns, revocations, cancels, expired, rejected;
+        public final Stat wait = new Stat(), hold = new Stat(), handoff = new Stat();
+    }
+
+    /**
+     * Count, mean and maximum of a duration
+     */
+    public static class Stat {
+        public long count, totalNanos, maxNanos;
+
+        void add(long nanos) {
+            count++;
+            totalNanos += nanos;
+            if (nanos > maxNanos) maxNanos = nanos;
+        }
+
+        public double meanMillis() {
+            return count == 0 ? 0 : totalNanos / 1e6 / count;
+        }
+
+        public double maxMillis() {
+            return maxNanos / 1e6;
+        }
+    }
+
+    /**
+     * Main method of the tool
+     * @param args Command line arguments: command, journal directory and options
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || !("stats".equals(args[0]) || "replay".equals(args[0]))) {
+            System.out.println("Usage: JournalTool stats [dir] | replay [dir] [node]");
+            return;
+        }
+        Path dir = Paths.get(args.length > 1 ? args[1] : "journal");
+        long start = System.nanoTime();
+        long records;
+        if ("stats".equals(args[0])) {
+            Map<Integer, NodeStats> stats = new TreeMap<>();
+            records = stats(dir, stats);
+            System.out.printf("%-8s %8s %8s %8s %8s %8s %12s %12s %12s %12s %12s %12s%n", "node", "requests", "grants", "revoked",
+                    "expired", "rejected", "wait mean", "wait max", "hold mean", "hold max", "handoff mean", "handoff max");
+            for (Map.Entry<Integer, NodeStats> e : stats.entrySet()) {
+                NodeStats s = e.getValue();
+                System.out.printf("%-8d %8d %8d %8d %8d %8d %10.2fms %10.2fms %10.2fms %10.2fms %10.3fms %10.3fms%n", e.getKey(),
+                        s.requests, s.grants, s.revocations, s.expired, s.rejected, s.wait.meanMillis(), s.wait.maxMillis(),
+                        s.hold.meanMillis(), s.hold.maxMillis(), s.handoff.meanMillis(), s.handoff.maxMillis());
+            }
+        } else {
+            int only = args.length > 2 ? Integer.parseInt(args[2]) : -1;
+            records = scan(dir, (type, nodeId, queueLength, resource, requestId, epoch, timestamp) -> {
+                if (only >= 0 && nodeId != only) return;
+                Instant t = Instant.ofEpochSecond(timestamp / 1_000_000_000L, timestamp % 1_000_000_000L);
+                System.out.println(t + " " + typeName(type) + " node=" + nodeId + " resource=" + Integer.toHexString(resource)
+                        + " request=" + requestId + " epoch=" + epoch + (queueLength >= 0 ? " queue=" + queueLength : ""));
+            });
+        }
+        System.out.printf("(%d records in %.1f ms)%n", records, (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Computes per-node statistics of a journal
+     * @param dir Journal directory
+     * @param stats Map the statistics are added to, by node id
+     * @return number of records read
+     * @throws IOException If a segment cannot be read
+     */
+    public static long stats(Path dir, Map<Integer, NodeStats> stats) throws IOException {
+        Map<Long, Long> queued = new HashMap<>(); // (node, request id) to time queued
+        Map<Long, long[]> held = new HashMap<>(); // Epoch to {node, resource, grant time}
+        Map<Integer, Integer> holders = new HashMap<>(); // Resource to number of holders
+        Map<Integer, Long> freeSince = new HashMap<>(); // Resource to time it became free
+        return scan(dir, (type, nodeId, queueLength, resource, requestId, epoch, timestamp) -> {
+            switch (type) {
+                case Journal.REQUEST: {
+                    stats.computeIfAbsent(nodeId, n -> new NodeStats()).requests++;
+                    queued.put(key(nodeId, requestId), timestamp);
+                    break;
+                }
+                case Journal.GRANT: {
+                    NodeStats s = stats.computeIfAbsent(nodeId, n -> new NodeStats());
+                    s.grants++;
+                    Long since = queued.remove(key(nodeId, requestId));
+                    if (since != null) s.wait.add(timestamp - since);
+                    Long free = freeSince.remove(resource);
+                    if (free != null) s.handoff.add(timestamp - (since != null ? Math.max(free, since) : free));
+                    held.put(epoch, new long[] {nodeId, resource, timestamp});
+                    holders.merge(resource, 1, Integer::sum);
+                    break;
+                }
+                case Journal.CANCEL:
+                case Journal.EXPIRE: {
+                    NodeStats s = stats.computeIfAbsent(nodeId, n -> new NodeStats());
+                    if (type == Journal.CANCEL) s.cancels++; else s.expired++;
+                    queued.remove(key(nodeId, requestId));
+                    break;
+                }
+                case Journal.REJECT: {
+                    stats.computeIfAbsent(nodeId, n -> new NodeStats()).rejected++;
+                    break;
+                }
+                case Journal.HANDOVER: { // Carries on in the new shard's journal
+                    queued.remove(key(nodeId, requestId));
+                    long[] h = held.remove(epoch);
+                    if (h != null && holders.merge((int) h[1], -1, Integer::sum) == 0) holders.remove((int) h[1]);
+                    break;
+                }
+                case Journal.RETURN:
+                case Journal.REVOKE: {
+                    long[] h = held.remove(epoch);
+                    if (h == null) break;
+                    NodeStats s = stats.computeIfAbsent((int) h[0], n -> new NodeStats());
+                    if (type == Journal.RETURN) s.returns++; else s.revocations++;
+                    s.hold.add(timestamp - h[2]);
+                    if (holders.merge((int) h[1], -1, Integer::sum) == 0) {
+                        holders.remove((int) h[1]);
+                        freeSince.put((int) h[1], timestamp); // Last holder gone, resource free
+                    }
+                    break;
+                }
+                default:
+                    break;
+            }
+        });
+    }
+
+    /**
+     * Reads every record of a journal in order
+     * @param dir Journal directory
+     * @param visitor Called for each record
+     * @return number of records read
+     * @throws IOException If a segment cannot be read
+     */
+    public static long scan(Path dir, RecordVisitor visitor) throws IOException {
+        long records = 0;
+        for (int i = 0; Files.exists(Journal.segmentPath(dir, i)); i++) {
+            MappedByteBuffer seg;
+            try (FileChannel ch = FileChannel.open(Journal.segmentPath(dir, i), StandardOpenOption.READ)) {
+                seg = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            }
+            if (seg.capacity() < Journal.HEADER_LENGTH || seg.getInt(0) != Journal.MAGIC) {
+                throw new IOException(Journal.segmentPath(dir, i) + " is not a journal segment");
+            }
+            int length = seg.getShort(6);
+            for (int p = Journal.HEADER_LENGTH; p + length <= seg.capacity(); p += length) {
+                int type = seg.get(p);
+                if (type == 0) break;
+                visitor.visit(type, seg.getInt(p + 4), seg.getInt(p + 8), seg.getInt(p + 12),
+                        seg.getLong(p + 16), seg.getLong(p + 24), seg.getLong(p + 32));
+                records++;
+            }
+        }
+        return records;
+    }
+
+    private static long key(int nodeId, long requestId) {
+        return ((long) nodeId << 40) ^ requestId;
+    }
+
+    /**
+     * Gets a readable name for a record type
+     * @param type Record type
+     * @return name
+     */
+    public static String typeName(int type) {
+        switch (type) {
+            case Journal.REQUEST: return "REQUEST";
+            case Journal.GRANT: return "GRANT";
+            case Journal.RETURN: return "RETURN";
+            case Journal.REVOKE: return "REVOKE";
+            case Journal.RENEW: return "RENEW";
+            case Journal.STANDBY: return "STANDBY";
+            case Journal.CANCEL: return "CANCEL";
+            case Journal.PRIORITY: return "PRIORITY";
+            case Journal.HANDOVER: return "HANDOVER";
+            case Journal.EXPIRE: return "EXPIRE";
+            case Journal.REJECT: return "REJECT";
+            case Journal.RECALL: return "RECALL";
+            default: return "UNKNOWN(" + type + ")";
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package dme;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram records durations in log-linear buckets, in the style of an HDR histogram.
+ * Values below 128 ns have a bucket each; above that every power of two is split into 64 buckets,
+ * so any recorded value is reported within about 1.6% of its true value, from nanoseconds to hours,
+ * in a fixed 30 KB of counters.
+ * Recording is one atomic increment and never locks, so it can stay on the hot path;
+ * percentiles are computed on demand by walking the buckets.
+ *
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 64; // Buckets per power of two
+    private static final int LINEAR = 2 * SUB_BUCKETS; // Values below this have their own bucket
+    private static final int BUCKETS = (63 - 6) * SUB_BUCKETS + LINEAR;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong(); // Sum of recorded values, for the mean
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one duration
+     * @param nanos Duration in nanoseconds, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucket(nanos));
+        total.addAndGet(nanos);
+        long m = max.get();
+        while (nanos > m && !max.compareAndSet(m, nanos)) m = max.get();
+    }
+
+    /**
+     * Gets the number of values recorded
+     * @return count
+     */
+    public long getCount() {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) n += counts.get(i);
+        return n;
+    }
+
+    /**
+     * Gets the value at a percentile
+     * @param percentile Percentile between 0 and 100, e.g. 99.9
+     * @return value in nanoseconds, 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long n = getCount();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(value(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Gets the mean of the recorded values
+     * @return mean in nanoseconds, 0 if nothing was recorded
+     */
+    public double getMean() {
+        long n = getCount();
+        return n == 0 ? 0 : (double) total.get() / n;
+    }
+
+    /**
+     * Gets the largest value recorded
+     * @return maximum in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Describes the histogram as count, mean and p50/p99/p99.9/max in microseconds
+     * @return summary
+     */
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1fus p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus",
+                getCount(), getMean() / 1000, getPercentile(50) / 1000.0, getPercentile(99) / 1000.0,
+                getPercentile(99.9) / 1000.0, getMax() / 1000.0);
+    }
+
+    /**
+     * Gets the bucket of a value
+     */
+    static int bucket(long v) {
+        if (v < LINEAR) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - 6; // v >>> shift is in [64, 128)
+        return shift * SUB_BUCKETS + (int) (v >>> shift);
+    }
+
+    /**
+     * Gets the value a bucket stands for, the middle of its range
+     */
+    static long value(int bucket) {
+        if (bucket < LINEAR) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lower + (1L << shift) / 2;
+    }
+}
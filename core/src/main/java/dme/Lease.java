@@ -0,0 +1,109 @@
+package dme;
+
+/**
+ * Lease represents one time-bounded grant of the token.
+ * Every grant gets a new fencing epoch, higher than any epoch granted before it,
+ * so returns and renewals from an earlier holder can be recognised and rejected.
+ *
+ */
+public class Lease {
+    private final Request request; // Request the token was granted to
+    private final long epoch; // Fencing epoch of this grant
+    private final long durationNanos; // Length of the lease, also the extension given by a renewal
+    private final long grantedNanos; // System.nanoTime() when the lease was granted
+    private long deadlineNanos; // System.nanoTime() after which the lease is expired
+    private long recalledNanos; // System.nanoTime() when a sticky holder was asked to give the token back, 0 if not
+    private boolean sent; // The grant has gone out, so a recall cannot overtake it
+
+    /**
+     * Constructs a new lease starting now
+     * @param request Request the token is granted to
+     * @param epoch Fencing epoch of the grant
+     * @param durationMillis Length of the lease in milliseconds
+     */
+    public Lease(Request request, long epoch, long durationMillis) {
+        this.request = request;
+        this.epoch = epoch;
+        this.durationNanos = durationMillis * 1_000_000L;
+        this.grantedNanos = System.nanoTime();
+        this.deadlineNanos = grantedNanos + durationNanos;
+    }
+
+    /**
+     * Gets the request holding this lease
+     * @return request
+     */
+    public Request getRequest() {
+        return request;
+    }
+
+    /**
+     * Gets the fencing epoch of this lease
+     * @return epoch
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Gets the lease duration
+     * @return duration in milliseconds
+     */
+    public long getDurationMillis() {
+        return durationNanos / 1_000_000L;
+    }
+
+    /**
+     * Gets the time the lease was granted
+     * @return System.nanoTime() value at grant
+     */
+    public long getGrantedNanos() {
+        return grantedNanos;
+    }
+
+    /**
+     * Gets the time left before the lease expires
+     * @return remaining time in nanoseconds, zero or less if expired
+     */
+    public synchronized long remainingNanos() {
+        return deadlineNanos - System.nanoTime();
+    }
+
+    /**
+     * Extends the lease by its duration, counted from now
+     */
+    public synchronized void renew() {
+        deadlineNanos = System.nanoTime() + durationNanos;
+    }
+
+    /**
+     * Marks the grant sent to the holder, called with the resource entry's lock held
+     */
+    void markSent() {
+        sent = true;
+    }
+
+    /**
+     * Marks the lease recalled, once its grant is sent and only once, called with the resource entry's lock held
+     * @param nowNanos Current System.nanoTime()
+     * @return true if the holder should be sent a recall now
+     */
+    boolean recall(long nowNanos) {
+        if (!sent || recalledNanos != 0) return false;
+        recalledNanos = nowNanos | 1; // 0 means not recalled
+        return true;
+    }
+
+    /**
+     * Gets the time the holder was asked to give the token back
+     * @return System.nanoTime() value of the recall, 0 if the lease was not recalled
+     */
+    long getRecalledNanos() {
+        return recalledNanos;
+    }
+
+    @Override
+    public String toString() {
+        return request.getNode() + ":" + request.getPort() + " (epoch " + epoch + ")";
+    }
+}
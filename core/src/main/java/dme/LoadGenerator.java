@@ -0,0 +1,726 @@
+package dme;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LoadGenerator starts a Coordinator and many simulated nodes in one JVM, drives them over loopback and
+ * reports what the coordinator sustained: grant throughput, wait percentiles per priority, fairness and coordinator CPU.
+ * Fairness is reported both as grants per node and as token time per node (grant to return, measured at the
+ * node), the share the scheduling policy ("dme.scheduling", see SchedulingPolicy) is meant to even out.
+ *
+ * Each simulated node is a binary session (see WireCodec) to the coordinator's session port. Nodes are
+ * driven by a few "LoadGen" selector threads rather than a thread each, so 10,000 nodes cost the generator
+ * little; critical sections can be as short as a few microseconds (below ~100us they are timed by spinning).
+ *
+ * Closed loop: every node thinks (exponential, mean "think.us"), requests, holds the token for the critical
+ * section and returns it, then thinks again. Open loop: requests arrive as a Poisson process at "rate" per
+ * second on random nodes, whether or not earlier ones were served; a node that is still waiting or holding
+ * keeps the arrival until it is free, and its wait is counted from the arrival, so a saturated coordinator
+ * shows up as growing waits rather than a lower arrival rate.
+ *
+ * Options (system properties, see Config):
+ *   -Ddme.load.nodes=1000              simulated nodes
+ *   -Ddme.load.mode=closed|open        loop model
+ *   -Ddme.load.rate=10000              open loop: requests per second over all nodes
+ *   -Ddme.load.think.us=1000           closed loop: mean think time between requests
+ *   -Ddme.load.cs.us=100               mean critical section length
+ *   -Ddme.load.cs.dist=fixed|exp       critical section length distribution
+ *   -Ddme.load.maxwait.ms=0            nodes give up on requests not granted within this time of arriving, and
+ *                                      tell the coordinator, which drops them itself, unless
+ *                                      -Ddme.load.maxwait.send=false; they CANCEL them unless
+ *                                      -Ddme.load.maxwait.cancel=false (0 for no limit)
+ *   -Ddme.load.sticky.ms=0             nodes keep the token between critical sections, up to this long idle, and
+ *                                      give it back when the coordinator recalls it (0 for none)
+ *   -Ddme.load.hogs=0                  every Nth node is a hog, holding the token -Ddme.load.hog.factor=10 times
+ *                                      as long as the others (0 for none)
+ *   -Ddme.load.priorities=1:60,3:30,5:10   priority mix, priority:weight
+ *   -Ddme.load.resources=1             resources the nodes are spread over
+ *   -Ddme.load.seconds=10              measured run length, after -Ddme.load.warmup.seconds=3
+ *   -Ddme.load.threads=2               generator selector threads
+ *   -Ddme.load.shards=1                coordinators started as shards of one keyspace (see C_shard), on request
+ *                                      ports 7003, 7013, ...; each node's session goes to the shard owning its
+ *                                      resource, so use at least as many resources as shards
+ * plus the coordinator's own options, e.g. -Ddme.mode=nio. With -Ddme.admission.capacity set, refused requests
+ * are asked again after their retry-after hint and the report counts the rejections. Coordinator console output is discarded during
+ * the run (-Ddme.load.quiet=false keeps it). Both ends of every session are in this JVM, so each node takes
+ * two file descriptors: 10,000 nodes need "ulimit -n" above 20,000.
+ *
+ */
+public class LoadGenerator {
+
+    private static final int ARRIVE = 0, RELEASE = 1, GIVE_UP = 2, RETRY = 3, GIVE_BACK = 4; // Timer events
+    private static final int IDLE = 0, WAITING = 1, HOLDING = 2, LOST = 3, KEPT = 4; // Node states
+
+    // Settings
+    private final int nodes = Config.getInt("load.nodes", 1000);
+    private final boolean open = "open".equalsIgnoreCase(Config.getString("load.mode", "closed"));
+    private final double rate = Config.getDouble("load.rate", 10000);
+    private final long thinkNanos = Config.getLong("load.think.us", 1000) * 1000;
+    private final long csNanos = Config.getLong("load.cs.us", 100) * 1000;
+    private final boolean csExp = "exp".equalsIgnoreCase(Config.getString("load.cs.dist", "fixed"));
+    private final int resources = Math.max(1, Config.getInt("load.resources", 1));
+    private final int seconds = Config.getInt("load.seconds", 10);
+    private final int warmupSeconds = Config.getInt("load.warmup.seconds", 3);
+    private final int threads = Math.max(1, Config.getInt("load.threads", 2));
+    private final int shards = Math.max(1, Config.getInt("load.shards", 1));
+    private final long maxWaitNanos = Math.max(0, Config.getLong("load.maxwait.ms", 0)) * 1_000_000;
+    private final boolean sendMaxWait = Config.getBoolean("load.maxwait.send", true);
+    private final boolean cancelMaxWait = Config.getBoolean("load.maxwait.cancel", true);
+    private final long stickyNanos = Math.max(0, Config.getLong("load.sticky.ms", 0)) * 1_000_000;
+    private final int hogs = Math.max(0, Config.getInt("load.hogs", 0));
+    private final long hogFactor = Math.max(1, Config.getLong("load.hog.factor", 10));
+    private final long heartbeatNanos = Config.getLong("session.heartbeat.ms", 1000) * 1_000_000;
+    private final int[] mix = parseMix(Config.getString("load.priorities", "1:60,3:30,5:10"));
+    private final AdmissionControl admission = AdmissionControl.fromConfig(); // As the coordinators read it, for the report
+
+    // Results, recorded once the warmup is over
+    private volatile boolean measuring;
+    private final ConcurrentSkipListMap<Integer, LatencyHistogram> waits = new ConcurrentSkipListMap<>();
+    private final List<SimNode> all = new ArrayList<>();
+    private final java.util.concurrent.atomic.AtomicInteger lostSessions = new java.util.concurrent.atomic.AtomicInteger();
+
+    /**
+     * One simulated node, owned by a single ClientLoop
+     */
+    private static final class SimNode {
+        final int id;
+        final int priority;
+        final String resource; // Resource requested, null for the default resource
+        final boolean hog; // Holds the token hogFactor times as long
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(WireCodec.FRAME_LENGTH * 16);
+        final ByteBuffer out = ByteBuffer.allocate(WireCodec.FRAME_LENGTH * 16);
+        final ArrayDeque<Long> backlog = new ArrayDeque<>(); // Open loop: arrivals while busy
+        SelectionKey key;
+        int state = IDLE;
+        long requestedNanos; // Arrival time of the request being served
+        long epoch; // Epoch of the token held
+        long requestId;
+        long grants; // Grants received while measuring
+        long grantedNanos; // When the token held was granted
+        long heldNanos; // Token time while measuring
+        long gaveUp; // Requests given up on while measuring
+        long staleGrants; // Grants that arrived after the node gave up on the request, while measuring
+        long requests; // Requests sent while measuring, first tries and retries
+        long rejected; // Requests refused by admission control while measuring
+        long retryMillis; // Sum of their retry-after hints
+        boolean recalled; // The coordinator recalled the token held (sticky)
+        long keeps; // Times the node kept the token after its critical section (sticky)
+        long localGrants; // Grants of a kept token, without asking the coordinator, while measuring
+
+        SimNode(int id, int priority, String resource, boolean hog, SocketChannel channel) {
+            this.id = id;
+            this.priority = priority;
+            this.resource = resource;
+            this.hog = hog;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * Timer event of a ClientLoop
+     */
+    private static final class Event implements Comparable<Event> {
+        final long at;
+        final int kind;
+        final SimNode node;
+        final long requestId; // Request given up on (GIVE_UP) or sent again (RETRY), keep ended (GIVE_BACK)
+
+        Event(long at, int kind, SimNode node) {
+            this(at, kind, node, 0);
+        }
+
+        Event(long at, int kind, SimNode node, long requestId) {
+            this.at = at;
+            this.kind = kind;
+            this.node = node;
+            this.requestId = requestId;
+        }
+
+        public int compareTo(Event other) {
+            return Long.compare(at, other.at);
+        }
+    }
+
+    /**
+     * Selector thread driving a share of the simulated nodes
+     */
+    private final class ClientLoop implements Runnable {
+        private final Selector selector;
+        private final List<SimNode> mine = new ArrayList<>();
+        private final PriorityQueue<Event> timers = new PriorityQueue<>();
+        private final Random random;
+        private final WireMessage m = new WireMessage();
+        private final double loopRate; // Open loop arrivals per nanosecond on this loop
+        private long nextArrival;
+        private long nextHeartbeat;
+
+        ClientLoop(int index) throws IOException {
+            selector = Selector.open();
+            random = new Random(index);
+            loopRate = rate / threads / 1e9;
+        }
+
+        void add(SimNode node) throws IOException {
+            node.channel.configureBlocking(false);
+            node.key = node.channel.register(selector, SelectionKey.OP_READ, node);
+            mine.add(node);
+        }
+
+        public void run() {
+            long now = System.nanoTime();
+            if (open) {
+                nextArrival = now + exponential(1 / loopRate);
+            } else {
+                for (SimNode node : mine) timers.add(new Event(now + exponential(thinkNanos), ARRIVE, node));
+            }
+            nextHeartbeat = now;
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    now = System.nanoTime();
+                    while (open && nextArrival <= now) {
+                        arrive(mine.get(random.nextInt(mine.size())), nextArrival);
+                        nextArrival += exponential(1 / loopRate);
+                    }
+                    while (!timers.isEmpty() && timers.peek().at <= now) {
+                        Event e = timers.poll();
+                        if (e.kind == ARRIVE) {
+                            arrive(e.node, e.at);
+                        } else if (e.kind == RELEASE) {
+                            release(e.node);
+                        } else if (e.kind == RETRY) {
+                            retry(e.node, e.requestId);
+                        } else if (e.kind == GIVE_BACK) {
+                            giveBack(e.node, e.requestId);
+                        } else {
+                            giveUp(e.node, e.requestId, e.at);
+                        }
+                    }
+                    if (nextHeartbeat <= now) {
+                        for (SimNode node : mine) send(node, WireCodec.HEARTBEAT, 0);
+                        nextHeartbeat = now + heartbeatNanos;
+                    }
+                    long next = nextHeartbeat;
+                    if (open) next = Math.min(next, nextArrival);
+                    if (!timers.isEmpty()) next = Math.min(next, timers.peek().at);
+                    long delay = next - System.nanoTime();
+                    if (delay > 1_000_000) {
+                        selector.select(delay / 1_000_000);
+                    } else {
+                        selector.selectNow();
+                        if (selector.selectedKeys().isEmpty() && delay > 100_000) LockSupport.parkNanos(delay - 60_000);
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        SimNode node = (SimNode) key.attachment();
+                        try {
+                            if (key.isWritable()) flush(node);
+                            if (key.isReadable()) read(node);
+                        } catch (IOException e) {
+                            lost(node, e);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("LoadGenerator - selector failed: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Drops a node whose session has gone, the rest carry on
+         */
+        private void lost(SimNode node, IOException e) {
+            System.err.println("LoadGenerator - session of node " + node.id + " lost: " + e.getMessage());
+            node.key.cancel();
+            try {
+                node.channel.close();
+            } catch (IOException ignored) {
+                // Already gone
+            }
+            node.state = LOST;
+            lostSessions.incrementAndGet();
+        }
+
+        /**
+         * A request arrives at a node: sent now if the node is free, kept for later otherwise
+         */
+        private void arrive(SimNode node, long at) {
+            if (node.state == LOST) return;
+            if (node.state == KEPT) { // Sticky, takes the token again without asking
+                if (measuring) node.localGrants++;
+                hold(node, at, System.nanoTime());
+                return;
+            }
+            if (node.state != IDLE) {
+                node.backlog.addLast(at);
+                return;
+            }
+            if (maxWaitNanos > 0 && at + maxWaitNanos - System.nanoTime() <= 0) { // Waited its whole time in the backlog
+                if (measuring) node.gaveUp++;
+                next(node, System.nanoTime());
+                return;
+            }
+            node.state = WAITING;
+            node.requestedNanos = at;
+            node.requestId++;
+            sendRequest(node);
+            if (maxWaitNanos > 0) timers.add(new Event(at + maxWaitNanos, GIVE_UP, node, node.requestId));
+        }
+
+        /**
+         * Sends the node's request, with the time it has left to wait if it gives up
+         */
+        private void sendRequest(SimNode node) {
+            long maxWait = 0;
+            if (maxWaitNanos > 0 && sendMaxWait) {
+                maxWait = Math.max(1, (node.requestedNanos + maxWaitNanos - System.nanoTime() + 999_999) / 1_000_000);
+            }
+            if (measuring) node.requests++;
+            send(node, WireCodec.REQUEST, 0, maxWait);
+        }
+
+        /**
+         * The retry-after of a refused request is over, ask again
+         */
+        private void retry(SimNode node, long requestId) {
+            if (node.state == WAITING && node.requestId == requestId) sendRequest(node); // Not given up meanwhile
+        }
+
+        /**
+         * The node's request was not granted in time, withdraw it
+         */
+        private void giveUp(SimNode node, long requestId, long now) {
+            if (node.state != WAITING || node.requestId != requestId) return; // Granted meanwhile
+            if (cancelMaxWait) send(node, WireCodec.CANCEL, 0);
+            if (measuring) node.gaveUp++;
+            next(node, now);
+        }
+
+        /**
+         * The node is free again: serves its backlog, or thinks before its next request (closed loop)
+         */
+        private void next(SimNode node, long now) {
+            if (node.state != KEPT) node.state = IDLE;
+            if (!node.backlog.isEmpty()) {
+                arrive(node, node.backlog.pollFirst());
+            } else if (!open) {
+                timers.add(new Event(now + exponential(thinkNanos), ARRIVE, node));
+            }
+        }
+
+        /**
+         * The node's critical section is over, return the token
+         */
+        private void release(SimNode node) {
+            long now = System.nanoTime();
+            if (measuring) node.heldNanos += now - node.grantedNanos;
+            if (stickyNanos == 0 || node.recalled) {
+                send(node, WireCodec.RELEASE, node.epoch);
+                return;
+            }
+            node.state = KEPT; // Until recalled, or idle for stickyNanos
+            timers.add(new Event(now + stickyNanos, GIVE_BACK, node, ++node.keeps));
+            next(node, now);
+        }
+
+        /**
+         * The node has kept the token idle for stickyNanos, give it back
+         */
+        private void giveBack(SimNode node, long keep) {
+            if (node.state != KEPT || node.keeps != keep) return; // Taken again meanwhile
+            send(node, WireCodec.RELEASE, node.epoch);
+            node.state = IDLE;
+        }
+
+        /**
+         * The node starts its critical section
+         */
+        private void hold(SimNode node, long requestedNanos, long now) {
+            node.state = HOLDING;
+            node.grantedNanos = now;
+            if (measuring) {
+                node.grants++;
+                waits.computeIfAbsent(node.priority, p -> new LatencyHistogram()).record(now - requestedNanos);
+            }
+            long cs = (csExp ? exponential(csNanos) : csNanos) * (node.hog ? hogFactor : 1);
+            timers.add(new Event(now + cs, RELEASE, node));
+        }
+
+        private void read(SimNode node) throws IOException {
+            if (node.channel.read(node.in) < 0) throw new IOException("coordinator closed session of node " + node.id);
+            node.in.flip();
+            int result;
+            while ((result = WireCodec.decode(node.in, m)) == WireCodec.OK) {
+                handle(node);
+            }
+            if (result == WireCodec.MALFORMED) throw new IOException("malformed frame for node " + node.id);
+            node.in.compact();
+        }
+
+        private void handle(SimNode node) {
+            long now = System.nanoTime();
+            switch (m.type) {
+                case WireCodec.GRANT:
+                    if (node.state != WAITING || m.requestId != node.requestId) { // Given up on, a wasted handoff
+                        if (measuring) node.staleGrants++;
+                        send(node, WireCodec.RELEASE, m.epoch);
+                        break;
+                    }
+                    node.epoch = m.epoch;
+                    node.recalled = false;
+                    hold(node, node.requestedNanos, now);
+                    break;
+                case WireCodec.RECALL:
+                    if (m.epoch != node.epoch) break;
+                    if (node.state == KEPT) {
+                        send(node, WireCodec.RELEASE, node.epoch);
+                        node.state = IDLE;
+                    } else if (node.state == HOLDING) {
+                        node.recalled = true; // Given back at the end of the critical section
+                    }
+                    break;
+                case WireCodec.REJECT:
+                    if (node.state != WAITING || m.requestId != node.requestId) break;
+                    if (measuring) {
+                        node.rejected++;
+                        node.retryMillis += m.arg;
+                    }
+                    // Spread by up to a quarter, as DmeClient does, so nodes refused together come back apart
+                    long retryAfter = m.arg * 1_000_000;
+                    timers.add(new Event(now + retryAfter + (long) (random.nextDouble() * retryAfter / 4), RETRY, node, node.requestId));
+                    break;
+                case WireCodec.RELEASED:
+                case WireCodec.REJECTED:
+                    if (node.state != HOLDING || m.epoch != node.epoch) break; // Or the reply to a stale grant's release
+                    next(node, now);
+                    break;
+                default:
+                    break; // STANDBY, RENEWED
+            }
+        }
+
+        private void send(SimNode node, int type, long epoch) {
+            send(node, type, epoch, 0);
+        }
+
+        /**
+         * Sends one frame for a node, REQUEST and CANCEL frames naming its resource
+         * @param maxWait Longest wait for the grant of a REQUEST in milliseconds, 0 for no limit
+         */
+        private void send(SimNode node, int type, long epoch, long maxWait) {
+            if (node.state == LOST) return;
+            try {
+                int flags = type == WireCodec.REQUEST && stickyNanos > 0 ? WireCodec.FLAG_STICKY : 0;
+                String resource = type == WireCodec.REQUEST || type == WireCodec.CANCEL ? node.resource : null;
+                if (!WireCodec.encode(node.out, type, flags, node.id, node.priority, node.requestId, epoch, 0, maxWait, resource)) {
+                    throw new IOException("send buffer full");
+                }
+                flush(node);
+            } catch (IOException e) {
+                lost(node, e);
+            }
+        }
+
+        private void flush(SimNode node) throws IOException {
+            node.out.flip();
+            node.channel.write(node.out);
+            boolean pending = node.out.hasRemaining();
+            node.out.compact();
+            node.key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        private long exponential(double mean) {
+            return mean <= 0 ? 0 : (long) (-mean * Math.log(1 - random.nextDouble()));
+        }
+    }
+
+    /**
+     * Connects the nodes, runs the load and prints the report
+     * @param report Stream the report is printed on
+     */
+    public void run(PrintStream report) throws Exception {
+        int sessionPort = Config.getInt("session.port", 7005);
+        HashRing ring = shards > 1 ? HashRing.parse(Config.getString("shards", "")) : null;
+        report.println("LoadGenerator - " + nodes + " nodes, " + (open ? "open loop, " + rate + " requests/s"
+                : "closed loop, think " + thinkNanos / 1000 + "us") + ", critical section " + csNanos / 1000 + "us "
+                + (csExp ? "(exp)" : "(fixed)") + ", " + resources + " resource(s), coordinator mode "
+                + Config.getString("mode", "blocking") + (ring != null ? ", " + shards + " shards" : "")
+                + ", scheduling " + SchedulingPolicy.fromConfig().get()
+                + (hogs > 0 ? ", every " + hogs + "th node holding " + hogFactor + "x as long" : "")
+                + (admission.isBounded() ? ", admission " + admission : "")
+                + (stickyNanos > 0 ? ", sticky " + stickyNanos / 1_000_000 + "ms" : "")
+                + (maxWaitNanos > 0 ? ", max wait " + maxWaitNanos / 1_000_000 + "ms" + (sendMaxWait ? "" : ", not sent")
+                        + (cancelMaxWait ? "" : ", not cancelled") : ""));
+
+        // Connecting thousands of sessions takes a while, keep the first ones alive meanwhile
+        long nextHeartbeat = System.nanoTime() + heartbeatNanos / 2;
+        ByteBuffer heartbeat = ByteBuffer.allocate(WireCodec.FRAME_LENGTH);
+        for (int i = 0; i < nodes; i++) {
+            String resource = i % resources == 0 ? null : Integer.toString(i % resources); // Resource 0 is the default resource
+            int port = sessionPort;
+            if (ring != null) {
+                String owner = ring.owner(resource == null ? Request.DEFAULT_RESOURCE : resource);
+                port = Integer.parseInt(owner.substring(owner.lastIndexOf(':') + 1));
+            }
+            all.add(new SimNode(10_000 + i, mix[i % mix.length], resource, hogs > 0 && i % hogs == 0, connect(port)));
+            if (System.nanoTime() >= nextHeartbeat) {
+                for (SimNode node : all) {
+                    heartbeat.clear();
+                    WireCodec.encode(heartbeat, WireCodec.HEARTBEAT, node.id, 0, 0, 0, 0);
+                    heartbeat.flip();
+                    node.channel.write(heartbeat);
+                }
+                nextHeartbeat = System.nanoTime() + heartbeatNanos / 2;
+            }
+        }
+        ClientLoop[] loops = new ClientLoop[threads];
+        for (int i = 0; i < threads; i++) loops[i] = new ClientLoop(i);
+        for (int i = 0; i < nodes; i++) loops[i % threads].add(all.get(i));
+        ThreadMXBean cpu = ManagementFactory.getThreadMXBean();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(loops[i], "LoadGen-" + i);
+            t.setDaemon(true);
+            t.start();
+            workers.add(t);
+        }
+
+        Thread.sleep(warmupSeconds * 1000L);
+        Map<Long, Long> cpuBefore = coordinatorCpu(cpu);
+        long missesBefore = Metrics.getInstance().getDeadlineMisses();
+        long recallsBefore = Metrics.getInstance().getRecalls();
+        long start = System.nanoTime();
+        measuring = true;
+        Thread.sleep(seconds * 1000L);
+        measuring = false;
+        long misses = Metrics.getInstance().getDeadlineMisses() - missesBefore;
+        long recalls = Metrics.getInstance().getRecalls() - recallsBefore;
+        long elapsed = System.nanoTime() - start;
+        Map<Long, Long> cpuAfter = coordinatorCpu(cpu);
+        for (Thread t : workers) t.interrupt();
+
+        long cpuNanos = 0;
+        for (Map.Entry<Long, Long> e : cpuAfter.entrySet()) {
+            cpuNanos += e.getValue() - cpuBefore.getOrDefault(e.getKey(), 0L);
+        }
+        long grants = 0, held = 0, gaveUp = 0, staleGrants = 0;
+        for (SimNode node : all) {
+            grants += node.grants;
+            held += node.heldNanos;
+            gaveUp += node.gaveUp;
+            staleGrants += node.staleGrants;
+        }
+        double secs = elapsed / 1e9;
+
+        long requests = 0, rejected = 0, retryMillis = 0, localGrants = 0;
+        for (SimNode node : all) {
+            localGrants += node.localGrants;
+            requests += node.requests;
+            rejected += node.rejected;
+            retryMillis += node.retryMillis;
+        }
+        report.printf("grants: %d in %.1fs = %.0f grants/s%s%n", grants, secs, grants / secs,
+                lostSessions.get() > 0 ? " (" + lostSessions.get() + " sessions lost)" : "");
+        report.printf("%-9s %8s %12s %12s %12s %12s %8s %8s%n", "priority", "nodes", "grants", "wait p50", "wait p99",
+                "wait p99.9", "fairness", "token %");
+        Map<Integer, List<SimNode>> byPriority = new TreeMap<>();
+        for (SimNode node : all) byPriority.computeIfAbsent(node.priority, p -> new ArrayList<>()).add(node);
+        for (Map.Entry<Integer, List<SimNode>> e : byPriority.entrySet()) {
+            LatencyHistogram h = waits.getOrDefault(e.getKey(), new LatencyHistogram());
+            report.printf("%-9d %8d %12d %10.1fus %10.1fus %10.1fus %8.3f %7.1f%%%n", e.getKey(), e.getValue().size(),
+                    h.getCount(), h.getPercentile(50) / 1000.0, h.getPercentile(99) / 1000.0,
+                    h.getPercentile(99.9) / 1000.0, jain(grantsOf(e.getValue())), share(e.getValue(), held));
+        }
+        report.printf("fairness (Jain's index of grants per node): %.3f overall%n", jain(grantsOf(all)));
+        report.printf("token time (Jain's index of hold time per node): %.3f overall, %.3f per unit of priority%n",
+                jain(heldOf(all, false)), jain(heldOf(all, true)));
+        if (hogs > 0) {
+            List<SimNode> hogNodes = new ArrayList<>();
+            for (SimNode node : all) {
+                if (node.hog) hogNodes.add(node);
+            }
+            report.printf("hogs: %d nodes (%.1f%%) had %.1f%% of the token time%n", hogNodes.size(),
+                    100.0 * hogNodes.size() / all.size(), share(hogNodes, held));
+        }
+        if (admission.isBounded()) {
+            report.printf("admission: %d of %d requests rejected (%.1f%%), mean retry-after %.1fms%n", rejected, requests,
+                    requests == 0 ? 0 : 100.0 * rejected / requests, rejected == 0 ? 0 : (double) retryMillis / rejected);
+        }
+        if (stickyNanos > 0) {
+            report.printf("sticky: %d of %d grants (%.1f%%) taken again without asking, %d recalls, recall to return "
+                    + "%.1fus p50, %.1fus p99 (whole run)%n", localGrants, grants, grants == 0 ? 0 : 100.0 * localGrants / grants,
+                    recalls, Metrics.getInstance().getRecallP50Micros(), Metrics.getInstance().getRecallP99Micros());
+        }
+        if (maxWaitNanos > 0) {
+            report.printf("deadlines: %d requests given up by their node, %d granted after (wasted handoffs), "
+                    + "%d dropped by the coordinator (deadline misses)%n", gaveUp, staleGrants, misses);
+        }
+        report.printf("coordinator CPU: %.2f cores, %.1fus per grant%n", cpuNanos / (double) elapsed,
+                grants == 0 ? 0 : cpuNanos / 1000.0 / grants);
+        report.println("coordinator handoff: " + Metrics.getInstance().getHandoffP50Micros() + "us p50, "
+                + Metrics.getInstance().getHandoffP99Micros() + "us p99 (whole run)");
+    }
+
+    /**
+     * Opens one session, retrying while the coordinator is still starting
+     */
+    private static SocketChannel connect(int port) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+                channel.socket().setTcpNoDelay(true);
+                return channel;
+            } catch (ConnectException e) {
+                if (attempt == 50) throw e;
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    /**
+     * CPU time used so far by every coordinator thread (all threads but the generator's), by thread id
+     */
+    private static Map<Long, Long> coordinatorCpu(ThreadMXBean cpu) {
+        Map<Long, Long> times = new HashMap<>();
+        if (!cpu.isThreadCpuTimeSupported()) return times;
+        for (long id : cpu.getAllThreadIds()) {
+            java.lang.management.ThreadInfo info = cpu.getThreadInfo(id);
+            if (info == null || info.getThreadName().startsWith("LoadGen") || "main".equals(info.getThreadName())) continue;
+            long t = cpu.getThreadCpuTime(id);
+            if (t >= 0) times.put(id, t);
+        }
+        return times;
+    }
+
+    private static long[] grantsOf(List<SimNode> nodes) {
+        long[] grants = new long[nodes.size()];
+        for (int i = 0; i < grants.length; i++) grants[i] = nodes.get(i).grants;
+        return grants;
+    }
+
+    /**
+     * Token time of each node
+     * @param weighted true to divide each node's time by its priority (at least 1), the weight fair queueing uses
+     */
+    private static long[] heldOf(List<SimNode> nodes, boolean weighted) {
+        long[] held = new long[nodes.size()];
+        for (int i = 0; i < held.length; i++) {
+            SimNode node = nodes.get(i);
+            held[i] = weighted ? node.heldNanos / Math.max(1, node.priority) : node.heldNanos;
+        }
+        return held;
+    }
+
+    /**
+     * Percentage of all token time held by some nodes
+     */
+    private static double share(List<SimNode> nodes, long total) {
+        long held = 0;
+        for (SimNode node : nodes) held += node.heldNanos;
+        return total == 0 ? 0 : 100.0 * held / total;
+    }
+
+    /**
+     * Jain's fairness index, 1 when every value is equal and 1/n when one takes everything
+     * @param x Values, e.g. grants per node
+     * @return index between 1/n and 1, 1 for no values
+     */
+    static double jain(long[] x) {
+        double sum = 0, squares = 0;
+        for (long v : x) {
+            sum += v;
+            squares += (double) v * v;
+        }
+        return squares == 0 ? 1 : sum * sum / (x.length * squares);
+    }
+
+    /**
+     * Expands a priority mix "p1:w1,p2:w2,..." into a table of priorities in proportion to their weights
+     * @param spec Priority mix
+     * @return one priority per slot, nodes take slot (index mod length)
+     */
+    static int[] parseMix(String spec) {
+        Map<Integer, Integer> weights = new java.util.LinkedHashMap<>();
+        int total = 0;
+        for (String part : spec.split(",")) {
+            String[] pw = part.trim().split(":");
+            int weight = pw.length > 1 ? Integer.parseInt(pw[1]) : 1;
+            weights.merge(Integer.parseInt(pw[0]), weight, Integer::sum);
+            total += weight;
+        }
+        // Smooth weighted round robin, so any run of consecutive nodes follows the mix
+        int[] mix = new int[total];
+        Map<Integer, Integer> current = new HashMap<>();
+        for (int i = 0; i < total; i++) {
+            int best = 0, bestCurrent = Integer.MIN_VALUE;
+            for (Map.Entry<Integer, Integer> e : weights.entrySet()) {
+                int c = current.merge(e.getKey(), e.getValue(), Integer::sum);
+                if (c > bestCurrent) {
+                    bestCurrent = c;
+                    best = e.getKey();
+                }
+            }
+            current.merge(best, -total, Integer::sum);
+            mix[i] = best;
+        }
+        return mix;
+    }
+
+    /**
+     * Main method, starts the coordinator (or "dme.load.shards" coordinators) in this JVM and runs the load
+     * @param args Command line arguments (not used, see the class comment for options)
+     */
+    public static void main(String[] args) throws Exception {
+        PrintStream console = System.out;
+        if (Config.getBoolean("load.quiet", true)) {
+            System.setOut(new PrintStream(new OutputStream() {
+                public void write(int b) {}
+                public void write(byte[] b, int off, int len) {}
+            }));
+        }
+        int shards = Math.max(1, Config.getInt("load.shards", 1));
+        if (shards > 1) {
+            StringBuilder list = new StringBuilder();
+            for (int i = 0; i < shards; i++) list.append(i > 0 ? "," : "").append("127.0.0.1:").append(7005 + 10 * i);
+            System.setProperty("dme.shards", list.toString());
+            for (int i = 0; i < shards; i++) Coordinator.main(new String[] {Integer.toString(7003 + 10 * i)});
+        } else {
+            Coordinator.main(new String[0]);
+        }
+        int status = 0;
+        try {
+            new LoadGenerator().run(console);
+        } catch (IOException e) {
+            // Most often "Too many open files": both ends of every session live in this JVM
+            console.println("LoadGenerator - run failed: " + e);
+            status = 1;
+        }
+        console.flush();
+        TimeUnit.MILLISECONDS.sleep(100);
+        System.exit(status);
+    }
+}
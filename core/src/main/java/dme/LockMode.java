@@ -0,0 +1,22 @@
+package dme;
+
+/**
+ * LockMode is the way a request holds its resource.
+ * Any number of SHARED holders may hold a resource together, an EXCLUSIVE holder holds it alone.
+ *
+ */
+public enum LockMode {
+    SHARED,
+    EXCLUSIVE;
+
+    /**
+     * Parses a mode name, case insensitive
+     * @param name Mode name ("shared" or "exclusive")
+     * @return the mode, or null if the name is not a mode
+     */
+    public static LockMode parse(String name) {
+        if ("shared".equalsIgnoreCase(name)) return SHARED;
+        if ("exclusive".equalsIgnoreCase(name)) return EXCLUSIVE;
+        return null;
+    }
+}
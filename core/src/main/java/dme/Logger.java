@@ -0,0 +1,360 @@
+package dme;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 	Logger class is a singleton, providing logging capabilities (advanced features).
+ *  Allows for logging messages/structured event logs to a filed named "system_log.txt".
+ *  This class also clears the log file content at the beginning of the application run.
+ *
+ *  The log file is opened once as a FileChannel and kept open.
+ *  In async mode (default, "dme.log.mode=async") callers only copy the event fields into a preallocated slot
+ *  of a bounded lock-free ring buffer; a background writer thread formats the events in batches and writes them
+ *  to the channel. Nothing on the caller's path touches the file or blocks: when the ring is full the event
+ *  is dropped and counted. An idle writer yields briefly, then parks until a caller publishes an event and
+ *  unparks it, so it costs nothing while nothing is logged.
+ *  In sync mode ("dme.log.mode=sync") events are written on the caller's thread.
+ *
+ *  The writer flushes according to "dme.log.flush": "os" leaves flushing to the operating system (default),
+ *  "batch" forces every batch to disk, "interval" forces at most every "dme.log.flush.ms" milliseconds.
+ *  Callers only read System.nanoTime(); the writer turns it into wall clock time from a pair of wall clock and
+ *  nanoTime readings, taken again every minute so the log follows clock adjustments. Timestamps are formatted
+ *  once per second and reused.
+ *
+ */
+public class Logger {
+    private static final String LOG_FILE = "system_log.txt"; // name of log file
+    private static final Logger instance = new Logger();	// singleton instance of Logger
+    private static final int BATCH = 256; // Most events formatted per write
+    private static final int IDLE_SPINS = 100; // Writer's yields on an empty ring before it parks
+    private static final long REBASE_NANOS = 60_000_000_000L; // Age of the wall clock base before it is taken again
+
+    // Ring buffer: slot i is free for the producer claiming position p when sequences[i] == p,
+    // and holds an event for the writer reading position p when sequences[i] == p + 1
+    private final int capacity; // Power of two
+    private final int mask;
+    private final Slot[] slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong(); // Next position to claim
+    private long head; // Next position to read, writer thread only
+    private final AtomicLong dropped = new AtomicLong(); // Events dropped because the ring was full
+    private Thread writer; // Background writer, null in sync mode
+    private volatile boolean parked; // The writer is parked, or about to, and must be unparked for new events
+
+    private final boolean async;
+    private final String flushPolicy; // "os", "batch" or "interval"
+    private final long flushIntervalNanos;
+    private final ReentrantLock lock = new ReentrantLock(); // serialises writes to the channel and clearing
+    private FileChannel channel;
+    private final StringBuilder line = new StringBuilder(256); // Reused while formatting, guarded by lock
+    private ByteBuffer out = ByteBuffer.allocateDirect(64 * 1024); // Reused write buffer, guarded by lock
+    private long cachedSecond = -1; // Second of the cached timestamp
+    private String cachedTimestamp; // Formatted timestamp of cachedSecond
+    private final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss 'BST'");
+    private long baseNanos = System.nanoTime(); // nanoTime reading of the wall clock base, guarded by lock
+    private long baseMillis = System.currentTimeMillis(); // Wall clock time at baseNanos, guarded by lock
+    private long lastForceNanos = System.nanoTime();
+
+    /**
+     * One preallocated event in the ring
+     */
+    private static final class Slot {
+        String action; // Event action, or null for a plain message
+        String text; // Node information, or the message itself
+        int queueLength;
+        long nanos; // System.nanoTime() when the event was recorded
+    }
+
+    /**
+     * Clears content of the log file. This method is called within the main method
+     * of the 'Coordinator' class at the beginning of systems lifecycle.
+     * This ensures only the most recent run is logged
+     */
+    public void clearLogFile() {
+        lock.lock();
+        try {
+            if (channel != null) channel.truncate(0);
+        } catch (IOException e) {
+            System.err.println("Error clearing the log file: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Constructor made private to prevent instantiation of the Logger class.
+     * Logger follows the singleton pattern, ensuring a single instance throughout the application.
+     */
+    private Logger() {
+        async = !"sync".equalsIgnoreCase(Config.getString("log.mode", "async"));
+        flushPolicy = Config.getString("log.flush", "os").toLowerCase();
+        flushIntervalNanos = Config.getLong("log.flush.ms", 1000) * 1_000_000L;
+        int requested = Math.max(2, Config.getInt("log.ring", 8192));
+        capacity = Integer.highestOneBit(requested - 1) << 1;
+        mask = capacity - 1;
+        slots = new Slot[capacity];
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+            sequences.set(i, i);
+        }
+        try {
+            channel = FileChannel.open(Paths.get(LOG_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("Error opening the log file: " + e.getMessage());
+        }
+        if (async) {
+            writer = new Thread(this::drainLoop, "Logger-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "Logger-shutdown"));
+    }
+
+
+    /**
+     * Returns the singleton instance of the Logger class.
+     * The instance is created when the class is loaded, so no locking is needed here.
+     *
+     * @return The single instance of Logger.
+     */
+    public static Logger getInstance() {
+        return instance;
+    }
+
+
+    /**
+     * Logs messages to the 'system_log.txt' file with timestamps.
+     *
+     * @param message The message to be logged.
+     */
+    public void log(String message) {
+        record(null, message, -1);
+    }
+
+
+    /**
+     * Logs events with a structured format to "system_log.txt". This includes a timestamp,
+     * description, node information, and the current queue length if applicable.
+     *
+     * @param action The action being logged (e.g., "Token Issued", "Token Request").
+     * @param nodeInfo The node information involved in the action.
+     * @param queueLength The current length of the queue, or a negative value if not applicable.
+     */
+    public void logEvent(String action, String nodeInfo, int queueLength) {
+        record(action, nodeInfo, queueLength);
+    }
+
+    /**
+     * Gets the number of events dropped because the ring buffer was full
+     * @return dropped event count
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Hands an event to the writer, or writes it straight away in sync mode
+     */
+    private void record(String action, String text, int queueLength) {
+        long nanos = System.nanoTime();
+        if (!async) {
+            lock.lock();
+            try {
+                append(action, text, queueLength, nanos);
+                write();
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+        long pos = tail.get();
+        while (true) {
+            int i = (int) pos & mask;
+            long seq = sequences.get(i);
+            if (seq == pos) {
+                if (tail.compareAndSet(pos, pos + 1)) break;
+                pos = tail.get();
+            } else if (seq < pos) {
+                dropped.incrementAndGet(); // Ring is full, never wait on the writer
+                return;
+            } else {
+                pos = tail.get(); // Another producer claimed it
+            }
+        }
+        int i = (int) pos & mask;
+        Slot slot = slots[i];
+        slot.action = action;
+        slot.text = text;
+        slot.queueLength = queueLength;
+        slot.nanos = nanos;
+        sequences.set(i, pos + 1); // Publish to the writer
+        if (parked) LockSupport.unpark(writer);
+    }
+
+    /**
+     * Background writer: drains the ring in batches until the JVM exits, parking while it is empty
+     */
+    private void drainLoop() {
+        int idle = 0;
+        while (true) {
+            if (drain() > 0) {
+                idle = 0;
+            } else if (++idle < IDLE_SPINS) {
+                Thread.yield();
+            } else {
+                parked = true;
+                // Checked after setting parked, so an event published meanwhile either is seen here or unparks us
+                if (!published()) LockSupport.park(this);
+                parked = false;
+                idle = 0;
+            }
+        }
+    }
+
+    /**
+     * Checks whether the next event for the writer has been published, writer thread only
+     */
+    private boolean published() {
+        return sequences.get((int) head & mask) == head + 1;
+    }
+
+    /**
+     * Formats and writes every event published so far, in batches
+     * @return number of events written
+     */
+    private int drain() {
+        int total = 0;
+        lock.lock();
+        try {
+            int n;
+            do {
+                n = 0;
+                while (n < BATCH) {
+                    int i = (int) head & mask;
+                    if (sequences.get(i) != head + 1) break;
+                    Slot slot = slots[i];
+                    append(slot.action, slot.text, slot.queueLength, slot.nanos);
+                    slot.action = null;
+                    slot.text = null;
+                    sequences.set(i, head + capacity); // Free the slot for the producer one lap ahead
+                    head++;
+                    n++;
+                }
+                if (n > 0) write();
+                total += n;
+            } while (n == BATCH);
+        } finally {
+            lock.unlock();
+        }
+        return total;
+    }
+
+    /**
+     * Formats one event into the write buffer, called with the lock held
+     */
+    private void append(String action, String text, int queueLength, long nanos) {
+        String timestamp = timestamp(wallMillis(nanos));
+        line.setLength(0);
+        line.append(timestamp).append(" - ");
+        if (action == null) {
+            line.append(text);
+        } else {
+            line.append('[');
+            pad(timestamp, 19);
+            line.append("] | ");
+            pad(action, 30);
+            line.append(" | Node: ");
+            pad(text, 20);
+            if (queueLength >= 0) line.append("| Queue Length: ").append(queueLength);
+        }
+        line.append('\n');
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > out.remaining()) {
+            write();
+            if (bytes.length > out.capacity()) out = ByteBuffer.allocateDirect(bytes.length);
+        }
+        out.put(bytes);
+    }
+
+    private void pad(String s, int width) {
+        line.append(s);
+        for (int i = s == null ? 4 : s.length(); i < width; i++) line.append(' ');
+    }
+
+    /**
+     * Converts the System.nanoTime() an event was recorded at to wall clock time, called with the lock held
+     */
+    private long wallMillis(long nanos) {
+        long now = System.nanoTime();
+        if (now - baseNanos > REBASE_NANOS) {
+            baseNanos = now;
+            baseMillis = System.currentTimeMillis();
+        }
+        return baseMillis + Math.floorDiv(nanos - baseNanos, 1_000_000L);
+    }
+
+    /**
+     * Gets the formatted timestamp of a wall clock time, reformatting only when the second changes
+     */
+    private String timestamp(long wallMillis) {
+        long second = wallMillis / 1000;
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedTimestamp = format.format(new Date(wallMillis));
+        }
+        return cachedTimestamp;
+    }
+
+    /**
+     * Writes the buffered bytes to the channel and applies the flush policy, called with the lock held
+     */
+    private void write() {
+        out.flip();
+        try {
+            while (out.hasRemaining() && channel != null) channel.write(out);
+            long now = System.nanoTime();
+            if ("batch".equals(flushPolicy)
+                    || ("interval".equals(flushPolicy) && now - lastForceNanos >= flushIntervalNanos)) {
+                if (channel != null) channel.force(false);
+                lastForceNanos = now;
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing to log file: " + e.getMessage());
+        } finally {
+            out.clear();
+        }
+    }
+
+    /**
+     * Writes any events still in the ring and closes the log file, run when the JVM exits
+     */
+    private void close() {
+        if (async) drain();
+        lock.lock();
+        try {
+            if (channel != null) {
+                channel.force(false);
+                channel.close();
+                channel = null;
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing the log file: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+        if (dropped.get() > 0) System.err.println("Logger - " + dropped.get() + " events dropped (ring buffer full)");
+    }
+}
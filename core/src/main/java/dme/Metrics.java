@@ -0,0 +1,352 @@
+package dme;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import javax.management.ObjectName;
+
+/**
+ * Metrics is the coordinator's metrics registry, cheap enough to stay on in production.
+ *
+ * Counts are LongAdders (striped, so concurrent handlers don't contend) and durations are LatencyHistograms
+ * (one atomic increment per value). They are recorded by the C_scheduler at the points that matter:
+ * request queued, grant (queue wait, overall and per priority level, and handoff gap), release (hold time) and
+ * the recall of sticky tokens (time from recall to return).
+ * A sampler thread computes request and grant rates and records the queue depth once a second.
+ *
+ * The metrics are exposed through JMX as "dme:type=Metrics" and, when "dme.metrics.port" is set,
+ * as plain text on http://127.0.0.1:port/metrics.
+ *
+ */
+public class Metrics implements MetricsMBean {
+
+    private static final Metrics instance = new Metrics();
+
+    // Counters
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder grants = new LongAdder();
+    private final LongAdder returns = new LongAdder();
+    private final LongAdder revocations = new LongAdder();
+    private final LongAdder cancels = new LongAdder();
+    private final LongAdder resubmits = new LongAdder(); // Requests made again while queued or held, not queued again
+    private final LongAdder deadlineMisses = new LongAdder(); // Requests dropped without a grant, their deadline passed
+    private final LongAdder rejections = new LongAdder(); // Requests refused by admission control
+    private final LongAdder recalls = new LongAdder(); // Sticky tokens recalled for a waiting request
+
+    // Durations, in nanoseconds
+    private final LatencyHistogram wait = new LatencyHistogram(); // Request queued to granted
+    private final LatencyHistogram hold = new LatencyHistogram(); // Granted to returned or revoked
+    private final LatencyHistogram handoff = new LatencyHistogram(); // Resource free (or request queued) to granted
+    private final LatencyHistogram recall = new LatencyHistogram(); // Sticky token recalled to returned
+    private final ConcurrentSkipListMap<Integer, LatencyHistogram> waitByPriority = new ConcurrentSkipListMap<>();
+    private final LatencyHistogram queueDepth = new LatencyHistogram(); // Sampled every second
+
+    // Updated by the sampler
+    private volatile double requestRate;
+    private volatile double grantRate;
+    private volatile IntSupplier depth = () -> 0;
+    private boolean started;
+
+    /**
+     * Constructor made private, Metrics is a singleton
+     */
+    private Metrics() {}
+
+    /**
+     * Gets the metrics registry
+     * @return the single instance
+     */
+    public static Metrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * Starts the sampler, registers the JMX bean and opens the HTTP endpoint if "dme.metrics.port" is set
+     * @param scheduler Scheduler whose queue depth is sampled
+     */
+    public synchronized void start(C_scheduler scheduler) {
+        if (started) return;
+        started = true;
+        depth = scheduler::getQueuedCount;
+        Thread sampler = new Thread(this::sample, "Metrics-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("dme:type=Metrics"));
+        } catch (Exception e) {
+            System.out.println("Metrics - could not register JMX bean: " + e);
+        }
+        int port = Config.getInt("metrics.port", 0);
+        if (port > 0) {
+            try {
+                HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+                http.createContext("/metrics", exchange -> {
+                    byte[] body = toText().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                http.setExecutor(null);
+                http.start();
+                System.out.println("Metrics - serving http://127.0.0.1:" + port + "/metrics");
+            } catch (IOException e) {
+                System.out.println("Metrics - could not open HTTP endpoint on port " + port + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Once a second: computes rates and records the queue depth
+     */
+    private void sample() {
+        long lastRequests = 0, lastGrants = 0, last = System.nanoTime();
+        while (true) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime(), r = requests.sum(), g = grants.sum();
+            double seconds = (now - last) / 1e9;
+            requestRate = (r - lastRequests) / seconds;
+            grantRate = (g - lastGrants) / seconds;
+            lastRequests = r;
+            lastGrants = g;
+            last = now;
+            queueDepth.record(depth.getAsInt());
+        }
+    }
+
+    /**
+     * Records a request being queued
+     */
+    public void requestQueued() {
+        requests.increment();
+    }
+
+    /**
+     * Records a queued request being cancelled by its node
+     */
+    public void requestCancelled() {
+        cancels.increment();
+    }
+
+    /**
+     * Records a queued request being dropped because its deadline passed before it could be granted
+     */
+    public void deadlineMissed() {
+        deadlineMisses.increment();
+    }
+
+    /**
+     * Records a request being refused by admission control, the queues being full
+     */
+    public void requestRejected() {
+        rejections.increment();
+    }
+
+    /**
+     * Records a sticky holder being asked to give its token back
+     */
+    public void recallSent() {
+        recalls.increment();
+    }
+
+    /**
+     * Records a recalled token coming back
+     * @param latencyNanos Time from the recall to the return
+     */
+    public void recallAnswered(long latencyNanos) {
+        recall.record(latencyNanos);
+    }
+
+    /**
+     * Records a node asking again for a request already queued or held
+     */
+    public void requestResubmitted() {
+        resubmits.increment();
+    }
+
+    /**
+     * Records a grant
+     * @param priority Base priority of the request granted
+     * @param waitNanos Time the request spent queued
+     * @param handoffNanos Handoff gap before the grant
+     */
+    public void granted(int priority, long waitNanos, long handoffNanos) {
+        grants.increment();
+        wait.record(waitNanos);
+        handoff.record(handoffNanos);
+        LatencyHistogram h = waitByPriority.get(priority);
+        if (h == null) h = waitByPriority.computeIfAbsent(priority, p -> new LatencyHistogram());
+        h.record(waitNanos);
+    }
+
+    /**
+     * Records a lease ending
+     * @param holdNanos Time the lease was held
+     * @param revoked true if the lease was revoked rather than returned
+     */
+    public void released(long holdNanos, boolean revoked) {
+        (revoked ? revocations : returns).increment();
+        hold.record(holdNanos);
+    }
+
+    /**
+     * Formats every metric as "name value" lines, times in microseconds
+     * @return metrics text
+     */
+    public String toText() {
+        StringBuilder sb = new StringBuilder();
+        line(sb, "dme_requests_total", getRequests());
+        line(sb, "dme_grants_total", getGrants());
+        line(sb, "dme_returns_total", getReturns());
+        line(sb, "dme_revocations_total", getRevocations());
+        line(sb, "dme_cancels_total", getCancels());
+        line(sb, "dme_resubmits_total", getResubmits());
+        line(sb, "dme_deadline_misses_total", getDeadlineMisses());
+        line(sb, "dme_rejections_total", getRejections());
+        line(sb, "dme_recalls_total", getRecalls());
+        line(sb, "dme_requests_per_second", getRequestsPerSecond());
+        line(sb, "dme_grants_per_second", getGrantsPerSecond());
+        line(sb, "dme_queue_depth", getQueueDepth());
+        line(sb, "dme_queue_depth_p99", queueDepth.getPercentile(99));
+        histogram(sb, "dme_wait_us", "", wait);
+        histogram(sb, "dme_hold_us", "", hold);
+        histogram(sb, "dme_handoff_us", "", handoff);
+        histogram(sb, "dme_recall_us", "", recall);
+        for (Map.Entry<Integer, LatencyHistogram> e : waitByPriority.entrySet()) {
+            histogram(sb, "dme_wait_us", "{priority=\"" + e.getKey() + "\"}", e.getValue());
+        }
+        return sb.toString();
+    }
+
+    private static void line(StringBuilder sb, String name, Object value) {
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void histogram(StringBuilder sb, String name, String labels, LatencyHistogram h) {
+        String prefix = labels.isEmpty() ? "{" : labels.substring(0, labels.length() - 1) + ",";
+        sb.append(name).append("_count").append(labels).append(' ').append(h.getCount()).append('\n');
+        String[] quantiles = {"0.5", "0.99", "0.999"};
+        for (String q : quantiles) {
+            sb.append(name).append(prefix).append("quantile=\"").append(q).append("\"} ")
+                    .append(micros(h.getPercentile(Double.parseDouble(q) * 100))).append('\n');
+        }
+        sb.append(name).append("_max").append(labels).append(' ').append(micros(h.getMax())).append('\n');
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getGrants() {
+        return grants.sum();
+    }
+
+    public long getReturns() {
+        return returns.sum();
+    }
+
+    public long getRevocations() {
+        return revocations.sum();
+    }
+
+    public long getCancels() {
+        return cancels.sum();
+    }
+
+    public long getResubmits() {
+        return resubmits.sum();
+    }
+
+    public long getDeadlineMisses() {
+        return deadlineMisses.sum();
+    }
+
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    public long getRecalls() {
+        return recalls.sum();
+    }
+
+    public double getRequestsPerSecond() {
+        return requestRate;
+    }
+
+    public double getGrantsPerSecond() {
+        return grantRate;
+    }
+
+    public int getQueueDepth() {
+        return depth.getAsInt();
+    }
+
+    public double getWaitP50Micros() {
+        return micros(wait.getPercentile(50));
+    }
+
+    public double getWaitP99Micros() {
+        return micros(wait.getPercentile(99));
+    }
+
+    public double getWaitP999Micros() {
+        return micros(wait.getPercentile(99.9));
+    }
+
+    public double getHoldP50Micros() {
+        return micros(hold.getPercentile(50));
+    }
+
+    public double getHoldP99Micros() {
+        return micros(hold.getPercentile(99));
+    }
+
+    public double getHandoffP50Micros() {
+        return micros(handoff.getPercentile(50));
+    }
+
+    public double getHandoffP99Micros() {
+        return micros(handoff.getPercentile(99));
+    }
+
+    public double getRecallP50Micros() {
+        return micros(recall.getPercentile(50));
+    }
+
+    public double getRecallP99Micros() {
+        return micros(recall.getPercentile(99));
+    }
+
+    public String[] getWaitByPriority() {
+        return waitByPriority.entrySet().stream()
+                .map(e -> e.getKey() + " " + e.getValue().getCount() + " " + micros(e.getValue().getPercentile(50))
+                        + " " + micros(e.getValue().getPercentile(99)) + " " + micros(e.getValue().getPercentile(99.9)))
+                .toArray(String[]::new);
+    }
+
+    /**
+     * Gets the queue wait histogram of a priority level
+     * @param priority Base priority
+     * @return histogram, or null if no request of that priority has been granted
+     */
+    public LatencyHistogram getWaitHistogram(int priority) {
+        return waitByPriority.get(priority);
+    }
+}
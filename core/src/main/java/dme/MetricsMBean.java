@@ -0,0 +1,57 @@
+package dme;
+
+/**
+ * MetricsMBean is the JMX view of the coordinator's Metrics, registered as "dme:type=Metrics".
+ * Times are in microseconds.
+ *
+ */
+public interface MetricsMBean {
+
+    long getRequests();
+
+    long getGrants();
+
+    long getReturns();
+
+    long getRevocations();
+
+    long getCancels();
+
+    long getResubmits();
+
+    long getDeadlineMisses();
+
+    long getRejections();
+
+    long getRecalls();
+
+    double getRequestsPerSecond();
+
+    double getGrantsPerSecond();
+
+    int getQueueDepth();
+
+    double getWaitP50Micros();
+
+    double getWaitP99Micros();
+
+    double getWaitP999Micros();
+
+    double getHoldP50Micros();
+
+    double getHoldP99Micros();
+
+    double getHandoffP50Micros();
+
+    double getHandoffP99Micros();
+
+    double getRecallP50Micros();
+
+    double getRecallP99Micros();
+
+    /**
+     * Gets the queue wait percentiles of each priority level
+     * @return one line per priority: "priority count p50 p99 p999" (microseconds)
+     */
+    String[] getWaitByPriority();
+}
@@ -0,0 +1,435 @@
+package dme;
+
+import java.net.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Represents a Node in the DME system.
+ * Each Node sends token requests to the Coordinator, waits for the token, enters critical section,
+ * and returns the token after exiting critical section and execution. Handles coordinator downtime gracefully.
+ * Node is a Runnable so many nodes can share one JVM, e.g. on virtual threads (see DmeThreads).
+ * With -Ddme.peer=true the nodes pass the token between themselves instead, without a coordinator (see PeerMutex).
+ * 
+ */
+public class Node implements Runnable{
+
+	// Instance Variables
+    private Random ra; // Sleep intervals
+    private Socket	s; // Socket for communicating with coordinator
+    private PrintWriter pout = null; // PrintWriter for sending data to coordinator
+    private ServerSocket n_ss; // Server socket for reciveing token
+    private Socket	n_token; // Socket connection for token
+    private String	c_host = "127.0.0.1"; // Coordinator host address
+    private int 	c_request_port = 7003; // Port for sending request to coordinator
+    private int 	c_return_port = 7004; // Port for sending token return messsages to coordinator
+    private String	n_host = "127.0.0.1"; // Node's host address
+    private String 	n_host_name; // Node's host name
+    private int     n_port; // Node's port
+    private int priority; // store the node's priority
+    private int sec; // Average waiting time between token requests, in seconds
+    private String resource = Config.getString("resource", Request.DEFAULT_RESOURCE); // Resource the node locks
+    private boolean shared = LockMode.parse(Config.getString("lock.mode", "exclusive")) == LockMode.SHARED; // Read-only access
+    
+    
+    // Constants for handling coordinator downtime
+    private static final int MAX_RETRIES = 3; // Maximum number of retry attempts
+    private static final long RETRY_INTERVAL = Config.getLong("node.retry.ms", 5000); // First wait between retries in milliseconds, lower it with a standby coordinator
+    private static final long MAX_RETRY_INTERVAL = 60000; // Maximum retry interval to avoid excessive waiting
+    
+    
+    /**
+     * Constructs a Node object with the specified parameters.
+     * The node starts requesting the token when run() is called.
+     * 
+     * @param nam The name of the node.
+     * @param port The port number of the node.
+     * @param sec Average waiting time for token request.
+     * @param priority Priority of the node.
+     */
+    public Node(String nam, int port, int sec, int priority){	
+		ra = new Random();
+		n_host_name = nam;
+		n_port = port;
+		this.priority = priority; // Store the priority
+		this.sec = sec;
+    }
+
+    /**
+     * Executes the node's loop: sleep, request the token, execute the critical section, return the token.
+     */
+    public void run() {
+		System.out.println("Node " + n_host_name + ":" + n_port + " with priority " + priority + " is active ....");
+
+		// Peer-to-peer mode, no coordinator
+		if (Config.getBoolean("peer", false)) {
+			runPeer(sec);
+			return;
+		}
+
+		// Session mode, a single persistent connection to the coordinator for all frames
+		if (Config.getBoolean("session", false)) {
+			runSession(sec);
+			return;
+		}
+        
+		try {
+            n_ss = new ServerSocket(n_port); // Initalising server socket to listen for token only once
+            while (true) {
+                // Sleep a random number of seconds linked to the initialization sec value
+                try {
+                    Thread.sleep((ra.nextInt(sec) + 1) * 1000);
+                } catch (InterruptedException ie) {
+                    System.out.println(n_host_name + " ---> Error Sleeping.");
+                    ie.printStackTrace();
+                }
+
+                try {
+                    /*
+                     *  Request the token, send to the coordinator a token request.
+                     */
+                	try {
+                        long retryAfter;
+                        while ((retryAfter = requestToken()) > 0) {
+                            // Coordinator busy, ask again when it expects to have room rather than backing off blindly
+                            System.out.println("Token request rejected, coordinator queue full. Asking again in " + retryAfter + "ms.");
+                            Thread.sleep(retryAfter);
+                        }
+                        System.out.println("\n[---------- Token Request Made ----------]");
+                        System.out.println("Token request made to port: " + c_request_port + ".");
+                    } catch (IOException e) {
+                    	/*
+                    	 *  Dealing with Coorinatior being closed down/crashing
+                    	 *  Node continues to loop, atempting to request token again,
+                    	 *  Node remains active + ready to connect to Coordinator when back online.
+                    	 */
+                        handleCoordinatorDown();
+                        continue; // Continue trying in the next iteration
+                    }
+                    /*
+                     *  Wait for the token
+                     */
+                    System.out.println("\n[---------- Waiting for Token ----------]");
+                    n_token = n_ss.accept();
+                    BufferedReader grantIn = new BufferedReader(new InputStreamReader(n_token.getInputStream()));
+                    String line = grantIn.readLine();
+                    while (Protocol.STANDBY.equals(line)) {
+                        // Pipelined handoff: the coordinator connected early, the grant follows on this connection
+                        System.out.println("Next in line for the token, standing by ...");
+                        line = grantIn.readLine();
+                    }
+                    String[] grant = String.valueOf(line).trim().split(" ");
+                    long epoch = Protocol.parseEpoch(grant);
+                    long leaseMillis = Protocol.parseLong(grant, 2);
+                    System.out.println("Token received successfully! (epoch " + epoch + ", lease " + leaseMillis + "ms)");
+
+                    /*
+                     *  Execute Critical Section
+                     *  Randomize the critical section execution time between 3 and 5 seconds
+ 				     */ 
+                    Random random = new Random();
+                    int sleepTime = random.nextInt(3) + 3;
+                    System.out.println("\n[---------- Entering Critical Section ----------]");
+                    Logger.getInstance().logEvent("Node Start Critical Section", n_host_name + ":" + n_port, -1);
+                    System.out.println("Node " + n_host_name + " has entered the critical section.");
+                    boolean kept = executeCriticalSection(sleepTime * 1000L, epoch, leaseMillis); // Simulating critical section execution
+                    System.out.println("Node " + n_host_name + " has exited the critical section.");
+                    Logger.getInstance().logEvent("Node End Critical Section", n_host_name + ":" + n_port, -1);
+                    System.out.println("[---------- Critical Section Exited ------------]");
+                    if (!kept) {
+                        System.out.println("Token revoked during the critical section, nothing to return. \n \n");
+                        continue;
+                    }
+
+                    /*  
+                     * Return the token
+                     */
+                    try (Socket returnSocket = new Socket(c_host, c_return_port);
+                         PrintWriter returnPout = new PrintWriter(returnSocket.getOutputStream(), true)) {
+                        // Send a message when returning the token, fenced with the epoch of the grant
+                    	returnPout.println(Protocol.TOKEN_RETURNED + " " + epoch + " " + n_port);
+                    	System.out.println("\n[---------- Returning token ----------]");
+                    	System.out.println("Token returned by " + n_host_name + ":" + n_port);
+                    	String reply = new BufferedReader(new InputStreamReader(returnSocket.getInputStream())).readLine();
+                    	if (Protocol.REJECTED.equals(reply)) {
+                    		System.out.println("Token return rejected, lease had already been revoked. \n \n");
+                    	} else {
+                    		System.out.println("Token returned to coordinator. \n \n");
+                    	}
+
+                    }
+                    
+                } catch (IOException | InterruptedException e) {
+                    System.out.println("Exception: " + e.getMessage());
+                    e.printStackTrace();
+                } finally {
+                    try {
+                        if (s != null) s.close();
+                        if (n_token != null) n_token.close();
+                        // Note: Do not close n_ss here as reusing it
+                    } catch (IOException ex) {
+                        System.out.println("Error closing resources: " + ex.getMessage());
+                        ex.printStackTrace();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("ServerSocket Initialization Error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    } 	
+    
+    /**
+     * Session mode loop: the node is a DmeClient application locking its resource around the critical section.
+     * The client keeps one connection to the coordinator's session port, sends heartbeats, renews the lease
+     * and reconnects if the coordinator goes away. Frames are text lines, or binary WireCodec frames with -Ddme.wire=binary.
+     * @param sec Average waiting time for token request
+     */
+    private void runSession(int sec) {
+        String coordinators = Config.getString("client.coordinators", c_host + ":" + Config.getInt("session.port", 7005));
+        try (DmeClient client = new DmeClient(coordinators, n_port, priority)) {
+            DmeLock lock = client.getLock(resource, shared ? LockMode.SHARED : LockMode.EXCLUSIVE);
+            while (true) {
+                Thread.sleep((ra.nextInt(sec) + 1) * 1000);
+
+                // Request the token and wait for it
+                System.out.println("\n[---------- Token Request Made (session) ----------]");
+                lock.lock();
+                System.out.println("Token received successfully! (epoch " + lock.getEpoch() + ")");
+
+                // Execute critical section, the client renews the lease meanwhile
+                int sleepTime = ra.nextInt(3) + 3;
+                System.out.println("\n[---------- Entering Critical Section ----------]");
+                Logger.getInstance().logEvent("Node Start Critical Section", n_host_name + ":" + n_port, -1);
+                Thread.sleep(sleepTime * 1000L);
+                Logger.getInstance().logEvent("Node End Critical Section", n_host_name + ":" + n_port, -1);
+                System.out.println("[---------- Critical Section Exited ------------]");
+
+                // Return the token
+                boolean held = lock.isHeld();
+                lock.unlock();
+                System.out.println(held ? "Token returned to coordinator. \n \n"
+                        : "Token lost during the critical section, the lease had been revoked. \n \n");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Peer-to-peer mode loop: the node takes the token from the other nodes in "dme.peer.nodes"
+     * (host:port list, the same on every node and including this node's port), the first of which starts with it.
+     * Requests are ordered by priority with the "dme.aging.*" policy, which every node should share.
+     * @param sec Average waiting time for token request
+     */
+    private void runPeer(int sec) {
+        List<InetSocketAddress> peers = new ArrayList<>();
+        int self = -1;
+        for (String p : Config.getString("peer.nodes", n_host + ":" + n_port).split(",")) {
+            String[] hp = p.trim().split(":");
+            if (Integer.parseInt(hp[1]) == n_port) self = peers.size();
+            peers.add(new InetSocketAddress(hp[0], Integer.parseInt(hp[1])));
+        }
+        if (self < 0) {
+            System.out.println("Port " + n_port + " is not in dme.peer.nodes, not joining the peers.");
+            return;
+        }
+        try (PeerMutex mutex = new PeerMutex(n_port, priority, AgingPolicy.fromConfig())) {
+            mutex.start(peers, self);
+            while (true) {
+                Thread.sleep((ra.nextInt(sec) + 1) * 1000);
+
+                // Request the token from the other peers and wait for it
+                System.out.println("\n[---------- Token Request Made (peer) ----------]");
+                mutex.lock();
+                System.out.println("Token received successfully!");
+
+                int sleepTime = ra.nextInt(3) + 3;
+                System.out.println("\n[---------- Entering Critical Section ----------]");
+                Logger.getInstance().logEvent("Node Start Critical Section", n_host_name + ":" + n_port, -1);
+                Thread.sleep(sleepTime * 1000L);
+                Logger.getInstance().logEvent("Node End Critical Section", n_host_name + ":" + n_port, -1);
+                System.out.println("[---------- Critical Section Exited ------------]");
+
+                // Pass the token to the next waiting peer
+                mutex.unlock();
+                System.out.println("Token released to the peers. \n \n");
+            }
+        } catch (IOException e) {
+            System.out.println("Cannot listen for peers on port " + n_port + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sends a token request to the coordinator and waits for it to be queued or refused
+     * @return 0 if the request was queued, otherwise the milliseconds to wait before asking again (REJECT)
+     * @throws IOException If the coordinator cannot be reached
+     */
+    private long requestToken() throws IOException {
+        s = new Socket(c_host, c_request_port);
+        pout = new PrintWriter(s.getOutputStream(), true);
+        pout.println(n_host + " " + n_port + " " + priority + resourceSuffix()); // Include the priority in the request
+        s.shutdownOutput();
+        // The coordinator closes the connection once the request is queued, or answers REJECT first
+        String[] reply = String.valueOf(new BufferedReader(new InputStreamReader(s.getInputStream())).readLine()).trim().split(" ");
+        s.close();
+        return Protocol.REJECT.equals(reply[0]) ? Math.max(1, Protocol.parseLong(reply, 1)) : 0;
+    }
+
+    /**
+     * Gets the resource and mode fields appended to text requests, empty for an exclusive lock on the default resource
+     * @return " resource [SHARED]", or an empty string
+     */
+    private String resourceSuffix() {
+        if (shared) return " " + resource + " " + LockMode.SHARED;
+        return Request.DEFAULT_RESOURCE.equals(resource) ? "" : " " + resource;
+    }
+
+    /**
+     * Simulates the critical section, renewing the lease with the coordinator
+     * whenever less than half of it is left and the work is not finished.
+     * The critical section is left at once if a renewal is rejected, the lease is gone.
+     * @param millis Length of the critical section in milliseconds
+     * @param epoch Fencing epoch of the grant
+     * @param leaseMillis Lease duration granted by the coordinator, negative if the grant carried no lease
+     * @return false if the lease was revoked before the work was finished
+     */
+    private boolean executeCriticalSection(long millis, long epoch, long leaseMillis) throws InterruptedException {
+        if (leaseMillis <= 0) {
+            Thread.sleep(millis);
+            return true;
+        }
+        long end = System.currentTimeMillis() + millis;
+        long leaseEnd = System.currentTimeMillis() + leaseMillis;
+        long remaining;
+        while ((remaining = end - System.currentTimeMillis()) > 0) {
+            long renewAt = leaseEnd - leaseMillis / 2;
+            long now = System.currentTimeMillis();
+            if (now < renewAt) {
+                Thread.sleep(Math.min(remaining, renewAt - now));
+                continue;
+            }
+            long renewed = renewLease(epoch);
+            if (renewed < 0) {
+                System.out.println("Lease renewal rejected, token has been revoked. Leaving the critical section.");
+                return false;
+            }
+            leaseEnd = System.currentTimeMillis() + renewed;
+        }
+        return true;
+    }
+
+    /**
+     * Asks the coordinator to extend the lease of the current grant
+     * @param epoch Fencing epoch of the grant
+     * @return new lease duration in milliseconds, or -1 if the renewal was rejected
+     */
+    private long renewLease(long epoch) {
+        try (Socket renewSocket = new Socket(c_host, c_return_port);
+             PrintWriter renewPout = new PrintWriter(renewSocket.getOutputStream(), true)) {
+            renewPout.println(Protocol.RENEW + " " + epoch + " " + n_port);
+            String[] reply = String.valueOf(new BufferedReader(new InputStreamReader(renewSocket.getInputStream())).readLine()).split(" ");
+            if (Protocol.RENEWED.equals(reply[0])) {
+                System.out.println("Lease renewed (epoch " + epoch + ").");
+                return Long.parseLong(reply[1]);
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Error renewing lease: " + e.getMessage());
+        }
+        return -1;
+    }
+
+    /**
+     * Method to deal with the coordinator being closed down (or crashing).
+     * Retries connecting to coordinator multiple times with exponential backoff strategy.
+     * If reconnection attempts fail after specified number of retries, logs failure,
+     * but doesn't terminate the node. Allows node to continue and attempt to request token again in the next cycle.
+     */
+    private void handleCoordinatorDown() {
+        long currentRetryInterval = RETRY_INTERVAL;
+        for (int attempt = 1; attempt <= MAX_RETRIES; attempt++) {
+            try {
+                System.out.println("Attempt " + attempt + " to reconnect...");
+                Thread.sleep(currentRetryInterval);
+                s = new Socket(c_host, c_request_port); // Attempt to reconnect
+                // If connection is successful, exit the loop
+                System.out.println("Reconnected to coordinator.");
+                return;
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt(); // Restore the interrupted status
+                return;
+            } catch (IOException e) {
+                System.out.println("Reconnect attempt " + attempt + " failed.");
+                // Exponential backoff logic
+                currentRetryInterval = Math.min(currentRetryInterval * 2, MAX_RETRY_INTERVAL);
+            }
+        }
+        System.out.println("Unable to reconnect to coordinator after " + MAX_RETRIES + " attempts.");
+    }
+    
+    /**
+     * Runs several nodes in this JVM on the DmeThreads executor (virtual threads with -Ddme.threads=virtual).
+     * Nodes use ports basePort, basePort + 1, ... as their identity.
+     * @param count Number of nodes
+     * @param basePort Port of the first node
+     * @param sec Average waiting time for token request
+     * @param priority Priority of every node
+     */
+    private static void runMany(int count, int basePort, int sec, int priority) {
+        java.util.concurrent.ExecutorService nodes = DmeThreads.newExecutor("Node");
+        for (int i = 0; i < count; i++) {
+            nodes.execute(new Node("127.0.0.1", basePort + i, sec, priority));
+        }
+        try {
+            nodes.awaitTermination(Long.MAX_VALUE, java.util.concurrent.TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sendShutdownSignal() {
+        try (Socket socket = new Socket("127.0.0.1", 7003);
+             PrintWriter pout = new PrintWriter(socket.getOutputStream(), true)) {
+            // Send a special shutdown message to the coordinator
+            pout.println(Protocol.SHUTDOWN_REQUEST);
+            System.out.println("Shutdown signal sent to coordinator.");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Main method to start a Node.
+     * 
+     * @param args Command line arguments: <port number> <average waiting time> <priority>,
+     * 				or -many <count> <base port> <average waiting time> <priority> to run several nodes in this JVM.
+     */
+    public static void main (String args[]){
+    	if (args.length > 0 && "-shutdown".equals(args[0])) {
+            sendShutdownSignal();
+            return;
+        }
+    	if (args.length == 5 && "-many".equals(args[0])) {
+            runMany(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+            return;
+        }
+    	if (args.length != 3) {
+            System.out.print("Usage: Node <port number> <average waiting time> <priority>");
+            System.exit(1);
+        }
+        
+        int n_port = Integer.parseInt(args[0]);
+        int sec = Integer.parseInt(args[1]);
+        int priority = Integer.parseInt(args[2]);
+        try {
+            InetAddress n_inet_address = InetAddress.getLocalHost();
+            String n_host_name = n_inet_address.getHostName();
+            new Node(n_host_name, n_port, sec, priority).run();
+        } catch (java.net.UnknownHostException e) {
+            System.out.println(e);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package dme;
+
+/**
+ * NodeSession represents a long-lived connection between a node and the coordinator.
+ * Requests made over a session are granted over the same session instead of a new connection to the node.
+ *
+ */
+public interface NodeSession {
+
+    /**
+     * Sends a grant frame to the node
+     * @param lease Lease being granted
+     * @return true if the frame was sent, false if the session is closed or broken
+     */
+    boolean sendGrant(Lease lease);
+
+    /**
+     * Sends a standby notice to the node, telling it that its request is next in line
+     * @param request Request that is next in line
+     * @return true if the frame was sent, false if the session is closed or broken
+     */
+    boolean sendStandby(Request request);
+
+    /**
+     * Tells the node that the resource of its request has moved to another shard (see C_shard)
+     * @param request Request, or the request of a lease, that was handed over
+     * @param owner Session address of the shard that owns the resource now, "host:port"
+     * @return true if the frame was sent, false if the session is closed, broken or cannot tell the node
+     */
+    default boolean sendMoved(Request request, String owner) {
+        return false;
+    }
+
+    /**
+     * Asks the node to give back a token it keeps between critical sections (Request.isSticky()), another
+     * request waiting for it
+     * @param lease Lease recalled
+     * @return true if the frame was sent, false if the session is closed, broken or cannot tell the node
+     */
+    default boolean sendRecall(Lease lease) {
+        return false;
+    }
+
+    /**
+     * Checks whether the session is still usable
+     * @return true if open
+     */
+    boolean isOpen();
+
+    /**
+     * Gets the address of the node at the remote end. Requests made over the session are identified by it,
+     * not by whatever host the node names in its frames.
+     * @return host address of the node
+     */
+    String getHost();
+
+    /**
+     * Describes the remote end of the session, for logging
+     * @return description of the session
+     */
+    String describe();
+}
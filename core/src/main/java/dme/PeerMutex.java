@@ -0,0 +1,403 @@
+package dme;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * PeerMutex is the lock of the peer-to-peer mode, where nodes pass one token between themselves and no
+ * coordinator is involved (the Suzuki-Kasami broadcast algorithm).
+ *
+ * Each peer listens on one port, UDP for requests and TCP for the token. A peer that wants the token sends
+ * "PEER_REQUEST peer number priority" to every other peer, numbering its requests 1, 2, ..., and every peer
+ * remembers the highest number it heard from each. The token (PeerToken) records the number of each peer's
+ * last request it served and carries the queue of waiting peers: when its holder leaves the critical section
+ * it queues every peer with a newer request, and sends the token straight to the first. Entering costs N - 1
+ * datagrams and one token transfer, and nothing while the holder keeps re-entering with nobody waiting.
+ *
+ * The queue is ordered like C_buffer, by priority aged with the group's AgingPolicy (arrivals counted on the
+ * token for ARRIVAL aging, wall clock seconds for TIME aging, so the peers' clocks should agree), then by age.
+ *
+ * Requests are sent again every "dme.peer.retry.ms" (default 1000) while waiting, in case a datagram was lost,
+ * and repeats are harmless. There is no single process to fail, but a peer that crashes holding the token
+ * takes it with it (the token is not regenerated); a peer that cannot be reached when the token is passed
+ * is skipped. Every peer must be given the same list of peers, the first of which starts with the token.
+ *
+ */
+public class PeerMutex implements AutoCloseable {
+
+    private final int priority;
+    private final AgingPolicy aging;
+    private final long retryMillis = Config.getLong("peer.retry.ms", 1000);
+    private final ServerSocketChannel server;
+    private final DatagramChannel udp;
+    private final Selector selector;
+    private final AtomicLong messages = new AtomicLong(); // Requests and tokens sent
+    private final Thread receiver;
+    private List<InetSocketAddress> peers;
+    private int self;
+    private SocketChannel[] links; // Connections the token is sent over, used only by the thread passing the token
+
+    // Guarded by lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition arrived = lock.newCondition(); // Signalled when the token arrives
+    private long[] requested; // Highest request number heard from each peer
+    private int[] priorities; // Priority of each peer's latest request
+    private PeerToken token; // The token, while this peer has it
+    private boolean wanted; // Waiting for or inside the critical section
+
+    /**
+     * Constructor for creating a new peer, listening on a port until closed
+     * @param port Port of the peer (UDP and TCP), 0 for any free port
+     * @param priority Priority of every request this peer makes
+     * @param aging Aging policy of the group, the same for every peer
+     * @throws IOException If the port cannot be bound
+     */
+    public PeerMutex(int port, int priority, AgingPolicy aging) throws IOException {
+        this.priority = priority;
+        this.aging = aging;
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        udp = DatagramChannel.open(StandardProtocolFamily.INET);
+        udp.bind(new InetSocketAddress(server.socket().getLocalPort())); // Same port number as the token's
+        selector = Selector.open();
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        udp.configureBlocking(false);
+        udp.register(selector, SelectionKey.OP_READ);
+        receiver = new Thread(this::receive, "PeerMutex-" + getPort());
+        receiver.setDaemon(true);
+    }
+
+    /**
+     * Gets the port the peer listens on
+     * @return port number
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Joins the group and starts receiving requests and the token
+     * @param peers Address of every peer, in the same order for every peer, this one included
+     * @param self Index of this peer in the list; peer 0 starts with the token
+     */
+    public void start(List<InetSocketAddress> peers, int self) {
+        this.peers = new ArrayList<>(peers);
+        this.self = self;
+        links = new SocketChannel[peers.size()];
+        requested = new long[peers.size()];
+        priorities = new int[peers.size()];
+        if (self == 0) token = new PeerToken(peers.size());
+        receiver.start();
+        System.out.println("PeerMutex - peer " + self + " of " + peers.size() + " listening on port " + getPort()
+                + (token != null ? ", holding the token." : "."));
+    }
+
+    /**
+     * Acquires the lock, waiting for the token
+     * @throws InterruptedException If interrupted while waiting, the token is passed on if it arrives later
+     * @throws IllegalStateException If this peer already holds or waits for the lock
+     */
+    public void lock() throws InterruptedException {
+        long number;
+        lock.lock();
+        try {
+            if (wanted) throw new IllegalStateException("PeerMutex is not reentrant");
+            wanted = true;
+            if (token != null) return; // Kept since the last entry, nobody asked for it
+            number = ++requested[self];
+            priorities[self] = priority;
+        } finally {
+            lock.unlock();
+        }
+        broadcast(number);
+        lock.lock();
+        try {
+            while (token == null) {
+                if (arrived.await(retryMillis, TimeUnit.MILLISECONDS) || token != null) continue;
+                lock.unlock(); // Not sent while holding the lock, the receiver needs it
+                try {
+                    broadcast(number);
+                } finally {
+                    lock.lock();
+                }
+            }
+        } catch (InterruptedException e) {
+            wanted = false;
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases the lock, passing the token to the next waiting peer, or keeping it if none is waiting
+     * @throws IllegalMonitorStateException If the lock is not held
+     */
+    public void unlock() {
+        lock.lock();
+        try {
+            if (!wanted || token == null) throw new IllegalMonitorStateException("PeerMutex not held");
+            wanted = false;
+        } finally {
+            lock.unlock();
+        }
+        passOn();
+    }
+
+    /**
+     * Checks whether this peer holds the lock
+     * @return true between lock() and unlock()
+     */
+    public boolean isHeld() {
+        lock.lock();
+        try {
+            return wanted && token != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of requests and token transfers sent by this peer
+     * @return messages sent
+     */
+    public long getMessagesSent() {
+        return messages.get();
+    }
+
+    /**
+     * Queues the peers with newer requests than the token served, and sends the token to the first of them.
+     * Does nothing unless this peer has the token and does not want it.
+     */
+    private void passOn() {
+        while (true) {
+            PeerToken t;
+            int next;
+            lock.lock();
+            try {
+                if (token == null || wanted) return;
+                token.served[self] = requested[self]; // Including a request given up while waiting
+                for (int p = 0; p < requested.length; p++) {
+                    if (requested[p] > token.served[p] && !token.isQueued(p)) token.enqueue(p, priorities[p], aging);
+                }
+                next = token.next(aging);
+                if (next < 0) return; // Nobody waiting, keep the token
+                t = token;
+                token = null;
+            } finally {
+                lock.unlock();
+            }
+            if (send(t, next)) return;
+            lock.lock();
+            try {
+                token = t;
+                t.served[next] = requested[next]; // Skip the peer's request
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Sends the token to a peer, over the connection kept to it (opened again once if it broke)
+     * @return false if the peer could not be reached
+     */
+    private boolean send(PeerToken t, int peer) {
+        ByteBuffer line = ByteBuffer.wrap((t.encode() + "\n").getBytes(StandardCharsets.US_ASCII));
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                if (links[peer] == null) {
+                    links[peer] = SocketChannel.open(peers.get(peer));
+                    links[peer].socket().setTcpNoDelay(true);
+                }
+                while (line.hasRemaining()) links[peer].write(line);
+                messages.incrementAndGet();
+                return true;
+            } catch (IOException e) {
+                close(links[peer]);
+                links[peer] = null;
+                if (attempt == 1) System.out.println("PeerMutex - peer " + peer + " unreachable, passing the token on: " + e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sends a request to every other peer
+     */
+    private void broadcast(long number) {
+        byte[] message = (Protocol.PEER_REQUEST + " " + self + " " + number + " " + priority).getBytes(StandardCharsets.US_ASCII);
+        for (int p = 0; p < peers.size(); p++) {
+            if (p == self) continue;
+            try {
+                udp.send(ByteBuffer.wrap(message), peers.get(p));
+                messages.incrementAndGet();
+            } catch (IOException e) {
+                System.out.println("PeerMutex - request to peer " + p + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Receiver thread: reads requests and token lines until closed
+     */
+    private void receive() {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try {
+            while (selector.isOpen()) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        SocketChannel c = server.accept();
+                        if (c == null) continue;
+                        c.configureBlocking(false);
+                        c.register(selector, SelectionKey.OP_READ, new StringBuilder());
+                    } else if (key.channel() == udp) {
+                        buffer.clear();
+                        while (udp.receive(buffer) != null) {
+                            buffer.flip();
+                            requestReceived(new String(buffer.array(), 0, buffer.limit(), StandardCharsets.US_ASCII));
+                            buffer.clear();
+                        }
+                    } else {
+                        read((SocketChannel) key.channel(), (StringBuilder) key.attachment(), buffer);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (selector.isOpen()) System.out.println("PeerMutex - receiver stopped: " + e);
+        }
+    }
+
+    /**
+     * Reads what arrived on a token connection, handling every complete line
+     */
+    private void read(SocketChannel c, StringBuilder partial, ByteBuffer buffer) {
+        buffer.clear();
+        int n;
+        try {
+            n = c.read(buffer);
+        } catch (IOException e) {
+            n = -1;
+        }
+        if (n < 0) {
+            close(c);
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            char ch = (char) buffer.get(i);
+            if (ch != '\n') {
+                partial.append(ch);
+                continue;
+            }
+            try {
+                tokenReceived(PeerToken.decode(partial.toString(), peers.size()));
+            } catch (IllegalArgumentException e) {
+                System.out.println("PeerMutex - ignoring " + e.getMessage());
+            }
+            partial.setLength(0);
+        }
+    }
+
+    private void requestReceived(String message) {
+        String[] f = message.trim().split(" ");
+        int peer;
+        long number;
+        int p;
+        try {
+            if (!Protocol.PEER_REQUEST.equals(f[0])) throw new NumberFormatException(f[0]);
+            peer = Integer.parseInt(f[1]);
+            number = Long.parseLong(f[2]);
+            p = Integer.parseInt(f[3]);
+            if (peer < 0 || peer >= requested.length) throw new NumberFormatException("peer " + peer);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.out.println("PeerMutex - ignoring malformed request: " + message);
+            return;
+        }
+        boolean idle;
+        lock.lock();
+        try {
+            if (number > requested[peer]) {
+                requested[peer] = number;
+                priorities[peer] = p;
+            }
+            idle = token != null && !wanted;
+        } finally {
+            lock.unlock();
+        }
+        if (idle) passOn();
+    }
+
+    private void tokenReceived(PeerToken t) {
+        lock.lock();
+        try {
+            token = t;
+            if (wanted) {
+                arrived.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        passOn(); // Gave up waiting meanwhile
+    }
+
+    private static void close(SocketChannel c) {
+        try {
+            if (c != null) c.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    /**
+     * Stops receiving and closes the peer's connections. A token kept with nobody waiting is handed to the
+     * next peer that can be reached first, one held inside the critical section is lost.
+     */
+    public void close() {
+        PeerToken t = null;
+        lock.lock();
+        try {
+            if (token != null && !wanted) {
+                t = token;
+                token = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (int i = 1; t != null && i < peers.size(); i++) {
+            if (send(t, (self + i) % peers.size())) break;
+        }
+        try {
+            selector.close();
+            server.close();
+            udp.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+        if (links != null) {
+            for (SocketChannel c : links) close(c);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package dme;
+
+import java.util.ArrayList;
+
+/**
+ * PeerToken is the token of the peer-to-peer mode (see PeerMutex), passed from peer to peer as one text line.
+ * It records the number of each peer's last request it served, and the queue of peers waiting for it,
+ * ordered like C_buffer: highest effective (aged) priority first, then longest waiting, then first queued.
+ * Not thread safe, only the peer holding the token uses it.
+ *
+ */
+final class PeerToken {
+
+    /**
+     * A peer waiting for the token
+     */
+    private static final class Waiter {
+        final int peer;
+        final int priority;
+        final long since; // Token clock (ARRIVAL aging) or wall clock milliseconds (TIME aging) when queued
+
+        Waiter(int peer, int priority, long since) {
+            this.peer = peer;
+            this.priority = priority;
+            this.since = since;
+        }
+    }
+
+    final long[] served; // Number of each peer's last request served
+    private final boolean[] queued; // Peers in the queue
+    private final ArrayList<Waiter> queue = new ArrayList<>();
+    private long clock; // Requests queued on the token so far, clock for ARRIVAL aging
+
+    /**
+     * Constructs the token of a group of peers, with nobody served yet
+     * @param peers Number of peers
+     */
+    PeerToken(int peers) {
+        served = new long[peers];
+        queued = new boolean[peers];
+    }
+
+    boolean isQueued(int peer) {
+        return queued[peer];
+    }
+
+    int size() {
+        return queue.size();
+    }
+
+    /**
+     * Queues a peer, which ages from now
+     * @param peer Peer index
+     * @param priority Priority of its request
+     * @param aging Aging policy of the group
+     */
+    void enqueue(int peer, int priority, AgingPolicy aging) {
+        clock++; // Every arrival ages the peers already waiting (ARRIVAL aging)
+        long since = aging.getMode() == AgingPolicy.Mode.TIME ? System.currentTimeMillis() : clock;
+        queue.add(new Waiter(peer, priority, since));
+        queued[peer] = true;
+    }
+
+    /**
+     * Removes the peer that gets the token next
+     * @param aging Aging policy of the group
+     * @return peer index, or -1 if no peer is waiting
+     */
+    int next(AgingPolicy aging) {
+        if (queue.isEmpty()) return -1;
+        long now = aging.getMode() == AgingPolicy.Mode.TIME ? System.currentTimeMillis() : clock;
+        double ticksPerUnit = aging.getMode() == AgingPolicy.Mode.TIME ? 1e-3 : 1; // Waiting in seconds or arrivals
+        int best = 0;
+        double bestPriority = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < queue.size(); i++) {
+            Waiter w = queue.get(i);
+            double p = aging.effectivePriority(w.priority, (now - w.since) * ticksPerUnit);
+            if (p > bestPriority || (p == bestPriority && w.since < queue.get(best).since)) {
+                best = i;
+                bestPriority = p;
+            }
+        }
+        Waiter w = queue.remove(best);
+        queued[w.peer] = false;
+        return w.peer;
+    }
+
+    /**
+     * Encodes the token as "TOKEN clock peers served... waiting [peer priority since]..."
+     * @return token line, without a line terminator
+     */
+    String encode() {
+        StringBuilder sb = new StringBuilder(16 + served.length * 4 + queue.size() * 24);
+        sb.append(Protocol.TOKEN).append(' ').append(clock).append(' ').append(served.length);
+        for (long n : served) sb.append(' ').append(n);
+        sb.append(' ').append(queue.size());
+        for (Waiter w : queue) sb.append(' ').append(w.peer).append(' ').append(w.priority).append(' ').append(w.since);
+        return sb.toString();
+    }
+
+    /**
+     * Decodes a token line
+     * @param line Token line, as encoded by encode()
+     * @param peers Number of peers in the group
+     * @return the token
+     * @throws IllegalArgumentException If the line is not a token of a group of this size
+     */
+    static PeerToken decode(String line, int peers) {
+        String[] f = line.trim().split(" ");
+        try {
+            if (!Protocol.TOKEN.equals(f[0]) || Integer.parseInt(f[2]) != peers) {
+                throw new IllegalArgumentException("not a token of " + peers + " peers: " + f[0]);
+            }
+            PeerToken t = new PeerToken(peers);
+            t.clock = Long.parseLong(f[1]);
+            int i = 3;
+            for (int p = 0; p < peers; p++) t.served[p] = Long.parseLong(f[i++]);
+            int waiting = Integer.parseInt(f[i++]);
+            for (int w = 0; w < waiting; w++) {
+                Waiter waiter = new Waiter(Integer.parseInt(f[i]), Integer.parseInt(f[i + 1]), Long.parseLong(f[i + 2]));
+                i += 3;
+                t.queue.add(waiter);
+                t.queued[waiter.peer] = true;
+            }
+            return t;
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("malformed token: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package dme;
+
+/**
+ * Protocol holds the text messages exchanged between nodes and the coordinator.
+ *
+ * Token request (port 7003):  "host port priority [resource [mode [requestId [maxWaitMs]]]]", the resource defaults to
+ *                             Request.DEFAULT_RESOURCE, the mode (SHARED or EXCLUSIVE) to EXCLUSIVE, and a request
+ *                             with a maxWaitMs above 0 is dropped without a grant if not granted within that time;
+ *                             the connection is closed once the request is queued, or answered first with
+ *                             "REJECT retryAfterMs" if admission control refused it; the host field is not
+ *                             trusted, the request is keyed by the address of the connection, the port and the request
+ *                             id, and its grant is sent to that address
+ * Grant (coordinator to node): "GRANT epoch leaseMillis"
+ * Standby notice (coordinator to node, on the connection later used for the grant): "STANDBY"
+ * Return (port 7004):          "TOKEN_RETURNED epoch port"
+ * Renewal (port 7004):         "RENEW epoch port", answered with "RENEWED leaseMillis" or "REJECTED"
+ *                              (returns and renewals are only accepted from the holder: a request made on port 7003,
+ *                              from the address it was made from and with its port)
+ *
+ * Session frames (port 7005), one line each over a single long-lived connection:
+ *   node to coordinator:  "REQUEST host port priority [resource [mode [requestId [maxWaitMs [STICKY]]]]]",
+ *                         "RELEASE epoch [port]", "RENEW epoch [port]", "HEARTBEAT", "CANCEL host port resource requestId"
+ *   coordinator to node:  "STANDBY [requestId]", "GRANT epoch leaseMillis [requestId]", "RELEASED epoch",
+ *                         "RENEWED leaseMillis", "REJECTED", "REJECT retryAfterMs [requestId]",
+ *                         "RECALL epoch [requestId]"
+ * A node with several requests outstanding on one session gives each a request id, which the coordinator
+ * echoes on its STANDBY and GRANT frames. The host field of REQUEST and CANCEL is not trusted, requests are keyed by
+ * the host the session comes from, the port (node id) and the request id; the key cannot be used over two open
+ * sessions at once, a REQUEST reusing it is answered with REJECT and a CANCEL is ignored. RELEASE and RENEW are
+ * answered REJECTED unless the epoch was granted over the same session; a node reattaching to a lease taken over
+ * from the previous primary sends RENEW from its new session with its port (node id), checked with its host. Replies to RELEASE and RENEW come back in the order they were sent.
+ * A REQUEST sent again with the same request id is not queued twice: a waiting request takes the new priority,
+ * a granted one has its GRANT sent again. CANCEL withdraws a waiting request and has no reply, a node that
+ * cancels after being granted releases the grant when it arrives. A request not granted within its maxWaitMs is
+ * dropped without a reply, its node has given up on it; asking again with the same request id before then
+ * replaces the wait.
+ * A REQUEST the coordinator has no room for (see AdmissionControl) is answered with REJECT and not queued: the node
+ * should ask again after retryAfterMs, the time the coordinator expects its queue to take to drain. REJECT refuses
+ * a request, REJECTED answers a RELEASE or RENEW of an epoch that is no longer held.
+ * A STICKY request's node keeps the token after its critical section, taking it again without asking, until
+ * the coordinator sends RECALL for its epoch because another request is waiting; it then RELEASEs the token
+ * as soon as it is not in its critical section.
+ *
+ * Epochs are unique across resources, so returns and renewals identify their resource by epoch alone.
+ *
+ * Sharded coordinators (C_shard), on the session port:
+ *   coordinator to node:  "MOVED resource host:port", the resource belongs to the shard at host:port, and a
+ *                         request or lease the node had for it here was handed over there
+ *   shard to shard:       "HANDOVER line"... (C_replica change lines), then "HANDOVER_END host:port shards" naming
+ *                         the sender and its new list of shards, answered with "HANDOVER_DONE count"
+ *   admin to shard:       "SHARDS host:port,...", the new list of shards, answered with "SHARDS count" once the
+ *                         count resources that moved away have been handed over
+ *
+ * Peer-to-peer mode (PeerMutex), between nodes on their own port, without a coordinator:
+ *   request (UDP datagram to every other peer): "PEER_REQUEST peer number priority"
+ *   token (TCP, one line each over a connection kept between two peers):
+ *                         "TOKEN clock peers served... waiting [peer priority since]..." (see PeerToken)
+ *
+ */
+public final class Protocol {
+
+    public static final String GRANT = "GRANT";
+    public static final String TOKEN_RETURNED = "TOKEN_RETURNED";
+    public static final String RENEW = "RENEW";
+    public static final String RENEWED = "RENEWED";
+    public static final String REJECTED = "REJECTED";
+    public static final String REJECT = "REJECT";
+    public static final String REQUEST = "REQUEST";
+    public static final String RELEASE = "RELEASE";
+    public static final String RELEASED = "RELEASED";
+    public static final String HEARTBEAT = "HEARTBEAT";
+    public static final String CANCEL = "CANCEL";
+    public static final String PEER_REQUEST = "PEER_REQUEST";
+    public static final String TOKEN = "TOKEN";
+    public static final String SHUTDOWN_REQUEST = "SHUTDOWN_REQUEST";
+    public static final String STANDBY = "STANDBY";
+    public static final String MOVED = "MOVED";
+    public static final String RECALL = "RECALL";
+    public static final String STICKY = "STICKY";
+    public static final String HANDOVER = "HANDOVER";
+    public static final String HANDOVER_END = "HANDOVER_END";
+    public static final String HANDOVER_DONE = "HANDOVER_DONE";
+    public static final String SHARDS = "SHARDS";
+
+    /**
+     * Constructor made private, Protocol only holds constants.
+     */
+    private Protocol() {}
+
+    /**
+     * Formats the grant frame of a lease, with the request id if the node gave one
+     * @param lease Lease granted
+     * @return "GRANT epoch leaseMillis [requestId]"
+     */
+    public static String grant(Lease lease) {
+        long requestId = lease.getRequest().getRequestId();
+        return GRANT + " " + lease.getEpoch() + " " + lease.getDurationMillis() + (requestId != 0 ? " " + requestId : "");
+    }
+
+    /**
+     * Formats the standby notice of a request, with the request id if the node gave one
+     * @param request Request next in line
+     * @return "STANDBY [requestId]"
+     */
+    public static String standby(Request request) {
+        return request.getRequestId() != 0 ? STANDBY + " " + request.getRequestId() : STANDBY;
+    }
+
+    /**
+     * Formats the refusal of a request, with the request id if the node gave one
+     * @param request Request refused
+     * @param retryAfterMillis Time the node should wait before asking again
+     * @return "REJECT retryAfterMs [requestId]"
+     */
+    public static String reject(Request request, long retryAfterMillis) {
+        long requestId = request.getRequestId();
+        return REJECT + " " + retryAfterMillis + (requestId != 0 ? " " + requestId : "");
+    }
+
+    /**
+     * Formats the recall of a sticky token, with the request id if the node gave one
+     * @param lease Lease recalled
+     * @return "RECALL epoch [requestId]"
+     */
+    public static String recall(Lease lease) {
+        long requestId = lease.getRequest().getRequestId();
+        return RECALL + " " + lease.getEpoch() + (requestId != 0 ? " " + requestId : "");
+    }
+
+    /**
+     * Parses the epoch argument of a "TYPE epoch ..." message
+     * @param parts Message split on spaces
+     * @return epoch, or -1 if the message carries no valid epoch
+     */
+    public static long parseEpoch(String[] parts) {
+        return parseLong(parts, 1);
+    }
+
+    /**
+     * Parses a numeric argument of a message
+     * @param parts Message split on spaces
+     * @param index Position of the argument
+     * @return value, or -1 if the argument is missing or not a valid number
+     */
+    public static long parseLong(String[] parts, int index) {
+        if (parts.length <= index) return -1;
+        try {
+            return Long.parseLong(parts[index]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
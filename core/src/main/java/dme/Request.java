@@ -0,0 +1,325 @@
+package dme;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request class represnts a request within the system, including its priority.
+ * Higher priority numbers indicate that they are a higher priority, critical processes recieve highest priority numbers.
+ * 
+ * Starvation of low priority nodes is addressed by implementing aging,
+ * ensuring that fairness mechanism for low-priority requests.
+ * (Increasing priority of waiting requests overtime, reducing chance of starvation).
+ * 
+ */
+public class Request implements Comparable<Request> {
+    private String node; // Node making the request
+    private int port; // Port associated with request
+    private int priority; // Priority of request (higher = higher priority)
+    private String resource = DEFAULT_RESOURCE; // Name of the shared resource requested
+    private LockMode mode = LockMode.EXCLUSIVE; // Whether the resource may be held together with other readers
+    private long timestamp; // The creation time of request
+    private final long sequence; // Creation order of request, breaks ties between equal timestamps
+
+    // Queue state, maintained by the C_buffer holding the request and its SchedulingPolicy
+    private double agingClock; // Policy's clock when the request was queued (aging clock, arrival number, virtual start)
+    private double agingKey; // Heap key, e.g. priority - rate * agingClock for AgedPriorityPolicy
+    private int queueState = NOT_QUEUED; // Whether, and in which heap of the policy, the request is waiting
+    private int heapIndex = -1; // Slot of the request in that heap (RequestHeap), -1 if none
+    private long enqueuedNanos; // System.nanoTime() when the request was queued
+    private long deadlineNanos; // System.nanoTime() after which the node no longer wants the grant, 0 if none
+    private long requestId; // Id given to the request by the node (binary protocol), 0 if none
+    private NodeSession session; // Session the request arrived on, null if the node is granted by connecting to its port
+    private boolean sticky; // The node keeps the token between critical sections until it is recalled
+    private String key; // Cached getKey()
+
+    public static final String DEFAULT_RESOURCE = "default"; // Resource of requests that don't name one
+
+    static final int NOT_QUEUED = 0; // Request is not waiting in a buffer
+    static final int AGING = 1; // Request is waiting and still gaining priority
+    static final int CAPPED = 2; // Request is waiting and has reached the aging cap
+
+    private static final AtomicLong NEXT_SEQUENCE = new AtomicLong(); // Source of creation order
+    
+    /**
+     * Constructs a new Request object with the given node, port an priority.
+     * @param node Node making request
+     * @param port Priority of request
+     * @param priority Creation time of request
+     */
+    public Request(String node, int port, int priority) {
+        this.node = node;
+        this.port = port;
+        this.priority = priority;
+        this.timestamp = Instant.now().getEpochSecond(); // Timestamp set to the current time
+        this.sequence = NEXT_SEQUENCE.getAndIncrement();
+    } 
+    
+
+    /**
+     * Gets node associated with this request
+     * @return node assoicated with this request
+     */
+    public String getNode() {
+        return node;
+    }
+
+    /**
+     * Gets port associated with this request
+     * @return port assoicated with this request
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Gets priority of this request
+     * @return priority of this request
+     */
+    public int getPriority() {
+        return priority;
+    }
+    
+    /**
+     * Gets the name of the shared resource requested
+     * @return resource name
+     */
+    public String getResource() {
+        return resource;
+    }
+
+    /**
+     * Sets the name of the shared resource requested
+     * @param resource Resource name, null or empty for the default resource
+     */
+    public void setResource(String resource) {
+        this.resource = (resource == null || resource.isEmpty()) ? DEFAULT_RESOURCE : resource;
+    }
+
+    /**
+     * Gets the lock mode requested
+     * @return SHARED or EXCLUSIVE
+     */
+    public LockMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Sets the lock mode requested
+     * @param mode Lock mode, null for EXCLUSIVE
+     */
+    public void setMode(LockMode mode) {
+        this.mode = mode == null ? LockMode.EXCLUSIVE : mode;
+    }
+
+    /**
+     * Checks whether the request may share its resource with other shared holders
+     * @return true for SHARED requests
+     */
+    public boolean isShared() {
+        return mode == LockMode.SHARED;
+    }
+
+    /**
+     * Gets timestamp of request
+     * @return timestamp of request
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Gets creation order of request
+     * @return sequence number, lower numbers were created earlier
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    double getAgingClock() {
+        return agingClock;
+    }
+
+    double getAgingKey() {
+        return agingKey;
+    }
+
+    /**
+     * Gets the time the request was queued in the buffer
+     * @return System.nanoTime() value at enqueue
+     */
+    public long getEnqueuedNanos() {
+        return enqueuedNanos;
+    }
+
+    /**
+     * Sets how long the node is prepared to wait for the grant, counted from now.
+     * The coordinator drops the request without granting it once this has passed, and orders requests with a
+     * deadline earliest deadline first within their priority (see StrictPriorityPolicy, AgedPriorityPolicy).
+     * @param maxWaitMillis Longest wait in milliseconds, 0 or less for no limit
+     */
+    public void setMaxWait(long maxWaitMillis) {
+        setDeadlineNanos(maxWaitMillis > 0 ? System.nanoTime() + maxWaitMillis * 1_000_000L : 0);
+    }
+
+    /**
+     * Gets the deadline of the request
+     * @return System.nanoTime() value after which the request is dropped, 0 if it has none
+     */
+    public long getDeadlineNanos() {
+        return deadlineNanos;
+    }
+
+    void setDeadlineNanos(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos == 0 ? 0 : deadlineNanos | 1; // 0 means none, keep real deadlines apart
+    }
+
+    /**
+     * Checks whether the request's deadline has passed
+     * @param nowNanos Current System.nanoTime()
+     * @return true if the request has a deadline and it has passed
+     */
+    public boolean isExpired(long nowNanos) {
+        return deadlineNanos != 0 && deadlineNanos - nowNanos <= 0;
+    }
+
+    /**
+     * Orders two requests earliest deadline first, requests without a deadline after those with one
+     * @return negative if a is due first, 0 if neither has a deadline or both are due at once
+     */
+    static int compareDeadlines(Request a, Request b) {
+        if (a.deadlineNanos == b.deadlineNanos) return 0;
+        if (a.deadlineNanos == 0) return 1;
+        if (b.deadlineNanos == 0) return -1;
+        return Long.signum(a.deadlineNanos - b.deadlineNanos);
+    }
+
+    /**
+     * Gets the id the node gave this request
+     * @return request id, 0 if the node did not give one
+     */
+    public long getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * Sets the id the node gave this request
+     * @param requestId Request id
+     */
+    public void setRequestId(long requestId) {
+        this.requestId = requestId;
+        this.key = null;
+    }
+
+    /**
+     * Checks whether the node keeps the token after its critical section, to take it again without asking,
+     * until the coordinator recalls it for another request (see C_scheduler)
+     * @return true for sticky requests
+     */
+    public boolean isSticky() {
+        return sticky;
+    }
+
+    /**
+     * Sets whether the node keeps the token after its critical section until it is recalled
+     * @param sticky true for a sticky request
+     */
+    public void setSticky(boolean sticky) {
+        this.sticky = sticky;
+    }
+
+    /**
+     * Gets the key identifying the request across retries: the node (host and port) and the request id
+     * @return "host:port:requestId"
+     */
+    public String getKey() {
+        if (key == null) key = key(node, port, requestId);
+        return key;
+    }
+
+    /**
+     * Gets the key of a request
+     * @param node Host of the node
+     * @param port Port (node id) of the node
+     * @param requestId Id the node gave the request
+     * @return "host:port:requestId"
+     */
+    public static String key(String node, int port, long requestId) {
+        return node + ":" + port + ":" + requestId;
+    }
+
+    /**
+     * Gets the session the request arrived on
+     * @return session, or null if the request was made over a one-off connection
+     */
+    public NodeSession getSession() {
+        return session;
+    }
+
+    /**
+     * Sets the session the request arrived on, the grant is sent back over it
+     * @param session Session of the requesting node
+     */
+    public void setSession(NodeSession session) {
+        this.session = session;
+    }
+
+    int getQueueState() {
+        return queueState;
+    }
+
+    /**
+     * Records the queue state of the request when it is queued (used by the SchedulingPolicy of a C_buffer)
+     * @param clock Policy's clock value at enqueue
+     * @param key Heap key
+     */
+    void markQueued(double clock, double key) {
+        this.agingClock = clock;
+        this.agingKey = key;
+        this.queueState = AGING;
+        this.enqueuedNanos = System.nanoTime();
+    }
+
+    void setQueueState(int state) {
+        this.queueState = state;
+    }
+
+    int getHeapIndex() {
+        return heapIndex;
+    }
+
+    void setHeapIndex(int heapIndex) {
+        this.heapIndex = heapIndex;
+    }
+
+    /**
+     * Changes the priority of a waiting request (used by the SchedulingPolicy of a C_buffer, which moves it in its heap)
+     * @param priority New priority
+     * @param key Heap key derived from the new priority
+     */
+    void reprioritise(int priority, double key) {
+        this.priority = priority;
+        this.agingKey = key;
+    }
+
+    /**
+     * Compares this request with another request based on priority and timestamp
+     * Requests with a higher priority take precedence.
+     * If priorities are equal, older requests get precedence.
+     * 
+     * @param other The request to compare to
+     * @return A negative integer, zero, or positive integer if this request is less than, equal to,
+     * 			or greater than the other request.
+     */
+    @Override
+    public int compareTo(Request other) {
+    	// First compare based on priority
+        int priorityComparison = Integer.compare(other.priority, this.priority); // Higher priority
+        if (priorityComparison == 0) {
+            // If priorities are equal, older requests get precedence
+            int timeComparison = Long.compare(this.timestamp, other.timestamp);
+            return timeComparison != 0 ? timeComparison : Long.compare(this.sequence, other.sequence);
+        }
+        return priorityComparison;
+    }
+}
@@ -0,0 +1,126 @@
+package dme;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * RequestHeap is a binary heap of requests that keeps each request's slot in the request itself,
+ * so a request anywhere in the heap can be removed, or moved after its key changed, in O(log n)
+ * (java.util.PriorityQueue searches for it in O(n)). A request is in at most one heap at a time.
+ * Not thread safe, C_buffer guards it with its lock.
+ *
+ */
+final class RequestHeap {
+
+    private final Comparator<Request> order; // Head of the heap first
+    private Request[] heap = new Request[16];
+    private int size;
+
+    /**
+     * Constructs an empty heap
+     * @param order Order of the requests, the first is at the head
+     */
+    RequestHeap(Comparator<Request> order) {
+        this.order = order;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets the request in a slot, for iterating over the heap in no particular order
+     * @param i Slot, from 0 to size() - 1
+     * @return request
+     */
+    Request get(int i) {
+        return heap[i];
+    }
+
+    Request peek() {
+        return size == 0 ? null : heap[0];
+    }
+
+    void add(Request r) {
+        if (size == heap.length) heap = Arrays.copyOf(heap, size * 2);
+        heap[size] = r;
+        r.setHeapIndex(size);
+        siftUp(size++);
+    }
+
+    Request poll() {
+        if (size == 0) return null;
+        Request head = heap[0];
+        removeAt(0);
+        return head;
+    }
+
+    /**
+     * Removes a request from the heap
+     * @param r Request
+     * @return false if the request is not in this heap
+     */
+    boolean remove(Request r) {
+        int i = r.getHeapIndex();
+        if (i < 0 || i >= size || heap[i] != r) return false;
+        removeAt(i);
+        return true;
+    }
+
+    /**
+     * Moves a request to its place after its key changed
+     * @param r Request in this heap
+     */
+    void update(Request r) {
+        int i = r.getHeapIndex();
+        if (i < 0 || i >= size || heap[i] != r) return;
+        siftUp(i);
+        siftDown(r.getHeapIndex());
+    }
+
+    private void removeAt(int i) {
+        Request removed = heap[i];
+        Request last = heap[--size];
+        heap[size] = null;
+        removed.setHeapIndex(-1);
+        if (i == size) return;
+        heap[i] = last;
+        last.setHeapIndex(i);
+        siftDown(i);
+        if (heap[i] == last) siftUp(i);
+    }
+
+    private void siftUp(int i) {
+        Request r = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            Request p = heap[parent];
+            if (order.compare(r, p) >= 0) break;
+            heap[i] = p;
+            p.setHeapIndex(i);
+            i = parent;
+        }
+        heap[i] = r;
+        r.setHeapIndex(i);
+    }
+
+    private void siftDown(int i) {
+        Request r = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && order.compare(heap[right], heap[child]) < 0) child = right;
+            if (order.compare(r, heap[child]) <= 0) break;
+            heap[i] = heap[child];
+            heap[i].setHeapIndex(i);
+            i = child;
+        }
+        heap[i] = r;
+        r.setHeapIndex(i);
+    }
+}
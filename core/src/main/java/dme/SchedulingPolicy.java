@@ -0,0 +1,110 @@
+package dme;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * SchedulingPolicy decides the order in which the requests waiting for one resource are granted.
+ * Each C_buffer has its own policy instance and calls it with the buffer's lock held, so implementations
+ * need not be thread safe. The buffer keeps the index of requests by key and the count; the policy only
+ * keeps the order, and is told of every request added, removed (granted or cancelled) and re-prioritised,
+ * and of how long each granted request held the resource.
+ *
+ * Policies may keep their state in the request's queue fields (Request.markQueued(), reprioritise() and the
+ * heap slot used by RequestHeap), a request being in one buffer at a time. Every policy shipped keeps add,
+ * poll and remove O(log n):
+ * 		strict	highest priority first, earliest deadline then arrival within a priority (StrictPriorityPolicy)
+ * 		fifo	arrival order, priorities ignored (FifoPolicy)
+ * 		aged	priority plus the priority gained by waiting, see AgingPolicy (AgedPriorityPolicy, the default)
+ * 		wfq		weighted fair queueing of token time between nodes (FairQueuePolicy)
+ *
+ */
+public interface SchedulingPolicy {
+
+    /**
+     * Adds a request to the order
+     * @param r Request, not already queued
+     */
+    void add(Request r);
+
+    /**
+     * Gets the request to grant next, without removing it
+     * @return request, or null if none is queued
+     */
+    Request peek();
+
+    /**
+     * Removes the request to grant next
+     * @return request, or null if none is queued
+     */
+    Request poll();
+
+    /**
+     * Removes a queued request (cancelled, or its deadline passed)
+     * @param r Request
+     * @return false if the request is not queued in this policy
+     */
+    boolean remove(Request r);
+
+    /**
+     * Changes the base priority of a queued request and moves it to its new place
+     * @param r Request queued in this policy
+     * @param priority New priority
+     */
+    void reprioritise(Request r, int priority);
+
+    /**
+     * Tells the policy how long a request it gave out held the resource. Does nothing by default.
+     * @param r Request that was granted
+     * @param heldNanos Time from the grant to the return (or revocation) of its lease
+     */
+    default void released(Request r, long heldNanos) {}
+
+    /**
+     * Gets the priority the policy currently gives a queued request, for display
+     * @param r Request queued in this policy
+     * @return effective priority
+     */
+    double effectivePriority(Request r);
+
+    /**
+     * Adds every queued request to a list, in no particular order
+     * @param into List to add to
+     */
+    void collect(List<Request> into);
+
+    /**
+     * Gets a source of policies by name, one new policy for each resource
+     * @param name "strict", "fifo", "aged" or "wfq"
+     * @param aging Aging policy of the "aged" policy
+     * @return policy source
+     * @throws IllegalArgumentException If the name is unknown
+     */
+    static Supplier<SchedulingPolicy> named(String name, AgingPolicy aging) {
+        switch (name.toLowerCase()) {
+            case "strict":
+                return StrictPriorityPolicy::new;
+            case "fifo":
+                return FifoPolicy::new;
+            case "aged":
+                return () -> new AgedPriorityPolicy(aging);
+            case "wfq":
+                return FairQueuePolicy::new;
+            default:
+                throw new IllegalArgumentException("Unknown scheduling policy " + name);
+        }
+    }
+
+    /**
+     * Gets the source of policies named by "dme.scheduling" (default aged, with the "dme.aging.*" settings)
+     * @return policy source
+     */
+    static Supplier<SchedulingPolicy> fromConfig() {
+        try {
+            return named(Config.getString("scheduling", "aged"), AgingPolicy.fromConfig());
+        } catch (IllegalArgumentException e) {
+            System.out.println("SchedulingPolicy - unknown scheduling policy, using aged");
+            return named("aged", AgingPolicy.fromConfig());
+        }
+    }
+}
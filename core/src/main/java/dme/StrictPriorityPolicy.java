@@ -0,0 +1,64 @@
+package dme;
+
+import java.util.List;
+
+/**
+ * StrictPriorityPolicy grants the request with the highest priority. Within a priority requests with a deadline
+ * go first, earliest deadline first (EDF), then the others in arrival order.
+ * Waiting requests never gain priority, so a steady stream of high priority requests starves the rest;
+ * use AgedPriorityPolicy or FairQueuePolicy where that matters. O(log n) add, poll and remove.
+ *
+ */
+public class StrictPriorityPolicy implements SchedulingPolicy {
+
+    private final RequestHeap heap = new RequestHeap(StrictPriorityPolicy::compare);
+    private long arrivals; // Requests added so far, orders requests of equal priority
+
+    @Override
+    public void add(Request r) {
+        r.markQueued(++arrivals, r.getPriority());
+        heap.add(r);
+    }
+
+    @Override
+    public Request peek() {
+        return heap.peek();
+    }
+
+    @Override
+    public Request poll() {
+        return heap.poll();
+    }
+
+    @Override
+    public boolean remove(Request r) {
+        return heap.remove(r);
+    }
+
+    @Override
+    public void reprioritise(Request r, int priority) {
+        r.reprioritise(priority, priority);
+        heap.update(r);
+    }
+
+    @Override
+    public double effectivePriority(Request r) {
+        return r.getPriority();
+    }
+
+    @Override
+    public void collect(List<Request> into) {
+        for (int i = 0; i < heap.size(); i++) into.add(heap.get(i));
+    }
+
+    private static int compare(Request a, Request b) {
+        int c = Integer.compare(b.getPriority(), a.getPriority());
+        if (c == 0) c = Request.compareDeadlines(a, b);
+        return c != 0 ? c : Double.compare(a.getAgingClock(), b.getAgingClock());
+    }
+
+    @Override
+    public String toString() {
+        return "strict";
+    }
+}
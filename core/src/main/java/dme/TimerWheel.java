@@ -0,0 +1,98 @@
+package dme;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TimerWheel is a hashed timing wheel: items due at a System.nanoTime() deadline are put in the slot of the
+ * tick they fall due in, so adding one is O(1) and expiring them costs one slot per tick elapsed, however many
+ * items are waiting. Items further away than one turn of the wheel stay in their slot for later turns.
+ * Deadlines are only checked once per tick, so an item expires up to one tick late. Items that no longer
+ * need to expire are not removed, whoever receives them checks whether they still apply.
+ * Not thread safe, C_scheduler guards it with its lock.
+ *
+ */
+final class TimerWheel<T> {
+
+    private final long tickNanos;
+    private final List<Entry<T>>[] slots;
+    private long tick; // Next tick to expire, in ticks of System.nanoTime()
+    private int size;
+
+    private static final class Entry<T> {
+        final T item;
+        final long deadlineNanos;
+
+        Entry(T item, long deadlineNanos) {
+            this.item = item;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+
+    /**
+     * Constructs an empty wheel
+     * @param tickNanos Length of a tick
+     * @param slots Number of slots, one turn of the wheel is slots * tickNanos
+     */
+    TimerWheel(long tickNanos, int slots) {
+        this.tickNanos = tickNanos;
+        @SuppressWarnings("unchecked") // Arrays of a generic type can only be made unchecked, every slot is set below
+        List<Entry<T>>[] table = (List<Entry<T>>[]) new List<?>[slots];
+        for (int i = 0; i < slots; i++) table[i] = new ArrayList<>();
+        this.slots = table;
+        this.tick = Math.floorDiv(System.nanoTime(), tickNanos);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds an item, expired on the first tick at or after its deadline
+     * @param item Item
+     * @param deadlineNanos System.nanoTime() value the item is due at
+     */
+    void add(T item, long deadlineNanos) {
+        long due = Math.max(tick, Math.floorDiv(deadlineNanos, tickNanos) + 1); // Tick after the deadline's
+        slots[(int) Math.floorMod(due, (long) slots.length)].add(new Entry<>(item, deadlineNanos));
+        size++;
+    }
+
+    /**
+     * Expires the items due up to a time
+     * @param nowNanos Current System.nanoTime()
+     * @param expired List the items due are added to
+     */
+    void advance(long nowNanos, List<T> expired) {
+        long last = Math.floorDiv(nowNanos, tickNanos);
+        if (size == 0) {
+            tick = Math.max(tick, last + 1);
+            return;
+        }
+        // Past one turn every slot has been visited, the remaining ones just find their deadlines passed
+        long from = Math.max(tick, last - slots.length + 1);
+        for (long t = from; t <= last && size > 0; t++) {
+            List<Entry<T>> slot = slots[(int) Math.floorMod(t, (long) slots.length)];
+            int kept = 0;
+            for (int i = 0; i < slot.size(); i++) {
+                Entry<T> e = slot.get(i);
+                if (e.deadlineNanos - nowNanos <= 0) {
+                    expired.add(e.item);
+                    size--;
+                } else {
+                    slot.set(kept++, e); // Due on a later turn
+                }
+            }
+            slot.subList(kept, slot.size()).clear();
+        }
+        tick = Math.max(tick, last + 1);
+    }
+
+    /**
+     * Gets when the next tick is due, the time to advance the wheel again
+     * @return System.nanoTime() value of the next tick, or Long.MAX_VALUE if the wheel is empty
+     */
+    long nextTickNanos() {
+        return size == 0 ? Long.MAX_VALUE : tick * tickNanos;
+    }
+}
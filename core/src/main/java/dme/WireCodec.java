@@ -0,0 +1,276 @@
+package dme;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * WireCodec encodes and decodes the versioned binary session protocol.
+ *
+ * Every frame is length-prefixed and has a fixed layout (big endian), followed by the name of the resource it is
+ * about, if any:
+ *   u16 length (bytes after this field, BODY_LENGTH plus the length of the resource name)
+ *   u16 magic (0xD3E5), u8 version, u8 type, u16 flags,
+ *   i32 nodeId, i32 priority, i64 requestId, i64 epoch, i64 arg, i64 maxWait,
+ *   u8 resource name length, resource name (ASCII, at most MAX_RESOURCE_LENGTH, empty for the default resource)
+ *
+ * Encoding and decoding work directly on a ByteBuffer. Frames without a resource name allocate nothing, and a
+ * decoded name is only allocated when it differs from the one the message already holds.
+ * A binary session is recognised by its first byte, which is 0 (high byte of the length, the name being short
+ * enough to keep the length below 256) and can never start a text frame, so both protocols share the session port.
+ *
+ */
+public final class WireCodec {
+
+    public static final int MAGIC = 0xD3E5;
+    public static final int VERSION = 2;
+    public static final int BODY_LENGTH = 47; // magic to the resource name length
+    public static final int FRAME_LENGTH = BODY_LENGTH + 2; // including the length prefix, without a resource name
+    public static final int MAX_RESOURCE_LENGTH = 255 - BODY_LENGTH; // Longest resource name, the length stays one byte
+    public static final int MAX_FRAME_LENGTH = FRAME_LENGTH + MAX_RESOURCE_LENGTH;
+
+    // Message types
+    public static final int REQUEST = 1;   // node to coordinator, resource = resource name (empty for the default
+                                           // resource), maxWait = longest wait for the grant in milliseconds (0 for no limit)
+    public static final int GRANT = 2;     // coordinator to node, arg = lease duration in milliseconds
+    public static final int RELEASE = 3;   // node to coordinator
+    public static final int RENEW = 4;     // node to coordinator
+    public static final int HEARTBEAT = 5; // node to coordinator
+    public static final int RELEASED = 6;  // coordinator to node
+    public static final int RENEWED = 7;   // coordinator to node, arg = lease duration in milliseconds
+    public static final int REJECTED = 8;  // coordinator to node
+    public static final int STANDBY = 9;   // coordinator to node, the request is next in line
+    public static final int CANCEL = 10;   // node to coordinator, withdraws a waiting request, resource = resource name
+    public static final int MOVED = 11;    // coordinator to node, resource = resource name, arg = IPv4 address << 16 | port
+                                           // of the shard that owns it now
+    public static final int REJECT = 12;   // coordinator to node, the request was refused (queues full) and not queued,
+                                           // arg = milliseconds to wait before asking again
+    public static final int RECALL = 13;   // coordinator to node, a request waits for the sticky token held in epoch
+
+    // Flags
+    public static final int FLAG_SHARED = 1; // REQUEST for a shared (read) lock, exclusive if clear
+    public static final int FLAG_STICKY = 2; // REQUEST for a token kept until recalled (Request.setSticky())
+
+    // Results of decode()
+    public static final int OK = 1;         // a frame was decoded
+    public static final int NEED_MORE = 0;  // not enough bytes yet, buffer position unchanged
+    public static final int MALFORMED = -1; // bad length, magic or version, the stream cannot be trusted
+
+    /**
+     * Constructor made private, WireCodec only exposes static helpers.
+     */
+    private WireCodec() {}
+
+    /**
+     * Writes one frame without flags, maximum wait or resource at the buffer's position
+     * @param buf Buffer with at least FRAME_LENGTH bytes remaining
+     * @return false if the buffer has no room for the frame (nothing is written)
+     */
+    public static boolean encode(ByteBuffer buf, int type, int nodeId, int priority, long requestId, long epoch, long arg) {
+        return encode(buf, type, 0, nodeId, priority, requestId, epoch, arg, 0, null);
+    }
+
+    /**
+     * Writes one frame without maximum wait or resource at the buffer's position
+     * @param buf Buffer with at least FRAME_LENGTH bytes remaining
+     * @return false if the buffer has no room for the frame (nothing is written)
+     */
+    public static boolean encode(ByteBuffer buf, int type, int flags, int nodeId, int priority, long requestId, long epoch, long arg) {
+        return encode(buf, type, flags, nodeId, priority, requestId, epoch, arg, 0, null);
+    }
+
+    /**
+     * Writes one frame at the buffer's position
+     * @param buf Buffer with at least frameLength(resource) bytes remaining
+     * @param maxWait Longest wait for the grant of a REQUEST in milliseconds, 0 for no limit
+     * @param resource Resource name, null or Request.DEFAULT_RESOURCE for the default resource
+     * @return false if the buffer has no room for the frame (nothing is written)
+     * @throws IllegalArgumentException If the resource name is not valid on the wire (see checkResource())
+     */
+    public static boolean encode(ByteBuffer buf, int type, int flags, int nodeId, int priority, long requestId, long epoch,
+                                 long arg, long maxWait, String resource) {
+        int nameLength = nameLength(resource);
+        if (buf.remaining() < FRAME_LENGTH + nameLength) return false;
+        buf.putShort((short) (BODY_LENGTH + nameLength));
+        buf.putShort((short) MAGIC);
+        buf.put((byte) VERSION);
+        buf.put((byte) type);
+        buf.putShort((short) flags);
+        buf.putInt(nodeId);
+        buf.putInt(priority);
+        buf.putLong(requestId);
+        buf.putLong(epoch);
+        buf.putLong(arg);
+        buf.putLong(maxWait);
+        buf.put((byte) nameLength);
+        for (int i = 0; i < nameLength; i++) buf.put((byte) resource.charAt(i));
+        return true;
+    }
+
+    /**
+     * Writes one frame from a message
+     * @param buf Buffer with at least frameLength(m.resource) bytes remaining
+     * @param m Message to encode
+     * @return false if the buffer has no room for the frame
+     */
+    public static boolean encode(ByteBuffer buf, WireMessage m) {
+        return encode(buf, m.type, m.flags, m.nodeId, m.priority, m.requestId, m.epoch, m.arg, m.maxWait, m.resource);
+    }
+
+    /**
+     * Gets the length of a frame naming a resource
+     * @param resource Resource name, null or Request.DEFAULT_RESOURCE for the default resource
+     * @return bytes, including the length prefix
+     */
+    public static int frameLength(String resource) {
+        return FRAME_LENGTH + nameLength(resource);
+    }
+
+    /**
+     * Checks that a resource can be named in a frame: ASCII without spaces, at most MAX_RESOURCE_LENGTH characters
+     * @param resource Resource name
+     * @throws IllegalArgumentException If it cannot
+     */
+    public static void checkResource(String resource) {
+        if (resource.length() > MAX_RESOURCE_LENGTH) {
+            throw new IllegalArgumentException("resource name longer than " + MAX_RESOURCE_LENGTH + " characters: " + resource);
+        }
+        for (int i = 0; i < resource.length(); i++) {
+            char c = resource.charAt(i);
+            if (c <= ' ' || c > '~') throw new IllegalArgumentException("resource name not printable ASCII: " + resource);
+        }
+    }
+
+    private static int nameLength(String resource) {
+        if (resource == null || Request.DEFAULT_RESOURCE.equals(resource)) return 0;
+        checkResource(resource);
+        return resource.length();
+    }
+
+    /**
+     * Reads one frame at the buffer's position into a reusable message.
+     * On OK the position moves past the frame, otherwise it is left unchanged.
+     * @param buf Buffer in read mode
+     * @param into Message the frame is decoded into
+     * @return OK, NEED_MORE or MALFORMED
+     */
+    public static int decode(ByteBuffer buf, WireMessage into) {
+        if (buf.remaining() < 2) return NEED_MORE;
+        int p = buf.position();
+        int length = buf.getShort(p) & 0xffff;
+        if (length < BODY_LENGTH || length > BODY_LENGTH + MAX_RESOURCE_LENGTH) return MALFORMED;
+        if (buf.remaining() < 2 + length) return NEED_MORE;
+        int nameLength = buf.get(p + 48) & 0xff;
+        if ((buf.getShort(p + 2) & 0xffff) != MAGIC
+                || buf.get(p + 4) != VERSION
+                || nameLength != length - BODY_LENGTH) {
+            return MALFORMED;
+        }
+        String resource = nameLength == 0 ? null : name(buf, p + FRAME_LENGTH, nameLength, into.resource);
+        if (nameLength > 0 && resource == null) return MALFORMED;
+        into.type = buf.get(p + 5);
+        into.flags = buf.getShort(p + 6) & 0xffff;
+        into.nodeId = buf.getInt(p + 8);
+        into.priority = buf.getInt(p + 12);
+        into.requestId = buf.getLong(p + 16);
+        into.epoch = buf.getLong(p + 24);
+        into.arg = buf.getLong(p + 32);
+        into.maxWait = buf.getLong(p + 40);
+        into.resource = resource;
+        buf.position(p + 2 + length);
+        return OK;
+    }
+
+    /**
+     * Reads the resource name of a frame, reusing the previous name if it is the same
+     * @return the name, or null if it is not printable ASCII without spaces
+     */
+    private static String name(ByteBuffer buf, int from, int length, String previous) {
+        if (previous != null && previous.length() == length) {
+            int i = 0;
+            while (i < length && buf.get(from + i) == previous.charAt(i)) i++;
+            if (i == length) return previous;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            int c = buf.get(from + i);
+            if (c <= ' ' || c > '~') return null;
+            chars[i] = (char) c;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Reads one frame from a blocking stream
+     * @param in Stream positioned at the start of a frame
+     * @param frame Array of at least MAX_FRAME_LENGTH bytes the frame is read into
+     * @return length of the frame, including the length prefix
+     * @throws IOException If the stream fails or ends, or the length prefix is not a valid one
+     */
+    public static int read(DataInputStream in, byte[] frame) throws IOException {
+        int length = in.readUnsignedShort();
+        if (length < BODY_LENGTH || length > BODY_LENGTH + MAX_RESOURCE_LENGTH) throw new IOException("malformed frame length " + length);
+        frame[0] = (byte) (length >>> 8);
+        frame[1] = (byte) length;
+        in.readFully(frame, 2, length);
+        return 2 + length;
+    }
+
+    /**
+     * Packs a shard address into the arg of a MOVED frame
+     * @param address "a.b.c.d:port", the host an IPv4 address
+     * @return IPv4 address << 16 | port
+     * @throws IllegalArgumentException If the host is not an IPv4 address
+     */
+    public static long packAddress(String address) {
+        int colon = address.lastIndexOf(':');
+        String[] octets = address.substring(0, colon).split("\\.");
+        if (octets.length != 4) throw new IllegalArgumentException("not an IPv4 address: " + address);
+        long ip = 0;
+        for (String o : octets) ip = ip << 8 | Integer.parseInt(o);
+        return ip << 16 | Integer.parseInt(address.substring(colon + 1));
+    }
+
+    /**
+     * Unpacks the shard address of a MOVED frame
+     * @param arg IPv4 address << 16 | port
+     * @return "a.b.c.d:port"
+     */
+    public static String unpackAddress(long arg) {
+        long ip = arg >>> 16;
+        return (ip >>> 24 & 0xff) + "." + (ip >>> 16 & 0xff) + "." + (ip >>> 8 & 0xff) + "." + (ip & 0xff) + ":" + (arg & 0xffff);
+    }
+
+    /**
+     * Checks whether the first byte of a session starts a binary frame
+     * @param firstByte First byte received on the session
+     * @return true for the binary protocol, false for text
+     */
+    public static boolean isBinary(int firstByte) {
+        return firstByte == 0;
+    }
+
+    /**
+     * Gets a readable name for a message type
+     * @param type Message type
+     * @return name, as used by the text protocol where one exists
+     */
+    public static String typeName(int type) {
+        switch (type) {
+            case REQUEST: return Protocol.REQUEST;
+            case GRANT: return Protocol.GRANT;
+            case RELEASE: return Protocol.RELEASE;
+            case RENEW: return Protocol.RENEW;
+            case HEARTBEAT: return Protocol.HEARTBEAT;
+            case RELEASED: return Protocol.RELEASED;
+            case RENEWED: return Protocol.RENEWED;
+            case REJECTED: return Protocol.REJECTED;
+            case STANDBY: return Protocol.STANDBY;
+            case CANCEL: return Protocol.CANCEL;
+            case MOVED: return Protocol.MOVED;
+            case REJECT: return Protocol.REJECT;
+            case RECALL: return Protocol.RECALL;
+            default: return "UNKNOWN(" + type + ")";
+        }
+    }
+}
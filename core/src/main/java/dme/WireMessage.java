@@ -0,0 +1,42 @@
+package dme;
+
+/**
+ * WireMessage holds one decoded binary frame (see WireCodec).
+ * Instances are mutable and meant to be reused, so decoding a frame allocates nothing.
+ *
+ */
+public class WireMessage {
+    public int type; // Message type, one of the WireCodec type constants
+    public int flags; // Reserved for message specific options
+    public int nodeId; // Node the message is from or for
+    public int priority; // Priority of a request
+    public long requestId; // Request the message refers to
+    public long epoch; // Fencing epoch of a grant
+    public long arg; // Type specific argument (e.g. lease duration in milliseconds)
+    public long maxWait; // Longest wait for the grant of a request in milliseconds, 0 for no limit
+    public String resource; // Resource the message is about, null for the default resource or none
+
+    /**
+     * Sets every field of the message
+     * @return this message
+     */
+    public WireMessage set(int type, int flags, int nodeId, int priority, long requestId, long epoch, long arg) {
+        this.type = type;
+        this.flags = flags;
+        this.nodeId = nodeId;
+        this.priority = priority;
+        this.requestId = requestId;
+        this.epoch = epoch;
+        this.arg = arg;
+        this.maxWait = 0;
+        this.resource = null;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return WireCodec.typeName(type) + " node=" + nodeId + " priority=" + priority
+                + " request=" + requestId + " epoch=" + epoch + " arg=" + arg
+                + (maxWait != 0 ? " maxWait=" + maxWait : "") + (resource != null ? " resource=" + resource : "");
+    }
+}
@@ -0,0 +1,130 @@
+package dme;
+
+/**
+ * C_bufferTest class tests the aging behaviour of the C_buffer.
+ * Checks that arrival aging lets long waiting requests overtake newer higher priority ones,
+ * that the aging cap is respected, and that equal priorities are served in FIFO order.
+ * Then checks cancelling, re-submitting and re-prioritising requests by key, including across 100k requests,
+ * and the other scheduling policies: FIFO ignores priority, and weighted fair queueing shares token time
+ * evenly between a node holding the token ten times as long as another, and by weight between priorities.
+ *
+ */
+public class C_bufferTest {
+
+	/**
+	 * Main method to execute C_buffer tests
+	 * @param args Command line arguments (not used)
+	 */
+    public static void main(String[] args) {
+        boolean passed = true;
+
+        // Arrival aging, +1 per arrival: Node1 (1) gains 3 from the later arrivals, beating Node4 (3)
+        C_buffer buffer = new C_buffer(new AgingPolicy(AgingPolicy.Mode.ARRIVAL, 1, Double.POSITIVE_INFINITY));
+        buffer.saveRequest(new Request("Node1", 1000, 1));
+        buffer.saveRequest(new Request("Node2", 1001, 2));
+        buffer.saveRequest(new Request("Node3", 1002, 2));
+        buffer.saveRequest(new Request("Node4", 1003, 3));
+        passed &= check("aged request first", "Node1", buffer.get().getNode());
+        passed &= check("older of equal effective priority", "Node2", buffer.get().getNode());
+        passed &= check("remaining order", "Node3", buffer.get().getNode());
+        passed &= check("last request", "Node4", buffer.get().getNode());
+        passed &= check("buffer empty", "0", String.valueOf(buffer.size()));
+
+        // Capped aging: Node1 can gain at most 1, so Node3 (priority 5) still wins
+        buffer = new C_buffer(new AgingPolicy(AgingPolicy.Mode.ARRIVAL, 1, 1));
+        buffer.saveRequest(new Request("Node1", 1000, 1));
+        for (int i = 0; i < 10; i++) {
+            buffer.saveRequest(new Request("Filler" + i, 2000 + i, 0));
+        }
+        buffer.saveRequest(new Request("Node3", 1002, 5));
+        passed &= check("cap respected", "Node3", buffer.get().getNode());
+        passed &= check("capped request next", "Node1", buffer.get().getNode());
+        passed &= check("fillers in FIFO order", "Filler0", buffer.get().getNode());
+
+        // No aging: strict priority, FIFO among equals
+        buffer = new C_buffer(new AgingPolicy(AgingPolicy.Mode.NONE, 0, 0));
+        buffer.saveRequest(new Request("Node1", 1000, 1));
+        buffer.saveRequest(new Request("Node2", 1001, 4));
+        buffer.saveRequest(new Request("Node3", 1002, 4));
+        passed &= check("strict priority", "Node2", buffer.get().getNode());
+        passed &= check("FIFO among equals", "Node3", buffer.get().getNode());
+
+        // Requests by key: a re-submit is not queued twice, cancel and re-prioritise anywhere in the queue
+        buffer = new C_buffer(new AgingPolicy(AgingPolicy.Mode.NONE, 0, 0));
+        buffer.saveRequest(request("Node1", 1000, 1, 1));
+        buffer.saveRequest(request("Node2", 1001, 2, 1));
+        buffer.saveRequest(request("Node3", 1002, 3, 1));
+        Request again = request("Node2", 1001, 2, 1);
+        passed &= check("re-submit finds the waiting request", "Node2", buffer.saveRequest(again).getNode());
+        passed &= check("re-submit not queued", "3", String.valueOf(buffer.size()));
+        passed &= check("cancel", "Node3", buffer.cancel(Request.key("Node3", 1002, 1)).getNode());
+        passed &= check("cancel twice", "null", String.valueOf(buffer.cancel(Request.key("Node3", 1002, 1))));
+        passed &= check("re-prioritise", "true", String.valueOf(buffer.updatePriority(Request.key("Node1", 1000, 1), 9)));
+        passed &= check("re-prioritised request first", "Node1", buffer.get().getNode());
+        passed &= check("key freed once served", "null", String.valueOf(buffer.find(Request.key("Node1", 1000, 1))));
+
+        // Cancelling every other request of 100k, from the back of the queue
+        buffer = new C_buffer(new AgingPolicy(AgingPolicy.Mode.NONE, 0, 0));
+        for (int i = 0; i < 100_000; i++) {
+            buffer.saveRequest(request("Node", 3000 + i % 1000, i % 10, i + 1));
+        }
+        long start = System.nanoTime();
+        for (int i = 99_999; i >= 0; i -= 2) {
+            buffer.cancel(Request.key("Node", 3000 + i % 1000, i + 1));
+        }
+        System.out.println("Cancelled 50k of 100k queued requests in " + (System.nanoTime() - start) / 1_000_000L + "ms");
+        passed &= check("half cancelled", "50000", String.valueOf(buffer.size()));
+        passed &= check("order kept after cancels", "8", String.valueOf(buffer.get().getPriority()));
+
+        // Scheduling policies: FIFO serves in arrival order, strict priority ignores how long requests waited
+        buffer = new C_buffer(SchedulingPolicy.named("fifo", null).get());
+        buffer.saveRequest(new Request("Node1", 1000, 1));
+        buffer.saveRequest(new Request("Node2", 1001, 5));
+        passed &= check("FIFO ignores priority", "Node1", buffer.get().getNode());
+        buffer = new C_buffer(SchedulingPolicy.named("strict", null).get());
+        buffer.saveRequest(new Request("Node1", 1000, 1));
+        buffer.saveRequest(new Request("Node2", 1001, 5));
+        passed &= check("strict policy", "Node2", buffer.get().getNode());
+
+        // Weighted fair queueing: a node holding for 10ms gets as much token time as one holding for 1ms,
+        // and a node of priority 3 three times as much as one of priority 1
+        long[] held = share(new int[] {1, 1}, new long[] {10_000_000, 1_000_000});
+        System.out.println("WFQ token time, 10ms and 1ms holders: " + held[0] / 1_000_000 + "ms, " + held[1] / 1_000_000 + "ms");
+        passed &= check("token time shared evenly", "true", String.valueOf(Math.abs(held[0] - held[1]) < held[1] / 10));
+        held = share(new int[] {3, 1}, new long[] {1_000_000, 1_000_000});
+        System.out.println("WFQ token time, priorities 3 and 1: " + held[0] / 1_000_000 + "ms, " + held[1] / 1_000_000 + "ms");
+        passed &= check("token time shared by weight", "true", String.valueOf(Math.abs(held[0] - 3 * held[1]) < held[1] / 3));
+
+        System.out.println(passed ? "Test passed successfully. \n" : "Test failed. \n");
+    }
+
+    /**
+     * Grants 2,000 requests of nodes that always have one waiting under weighted fair queueing
+     * @return token time of each node
+     */
+    private static long[] share(int[] priorities, long[] holdNanos) {
+        C_buffer buffer = new C_buffer(SchedulingPolicy.named("wfq", null).get());
+        for (int i = 0; i < priorities.length; i++) buffer.saveRequest(new Request("Node" + i, 4000 + i, priorities[i]));
+        long[] held = new long[priorities.length];
+        for (int n = 0; n < 2000; n++) {
+            Request r = buffer.get();
+            int i = r.getPort() - 4000;
+            held[i] += holdNanos[i];
+            buffer.released(r, holdNanos[i]);
+            buffer.saveRequest(new Request(r.getNode(), r.getPort(), r.getPriority()));
+        }
+        return held;
+    }
+
+    private static Request request(String node, int port, int priority, long requestId) {
+        Request r = new Request(node, port, priority);
+        r.setRequestId(requestId);
+        return r;
+    }
+
+    private static boolean check(String name, String expected, String actual) {
+        boolean ok = expected.equals(actual);
+        System.out.println((ok ? "OK   " : "FAIL ") + name + ": expected " + expected + ", got " + actual);
+        return ok;
+    }
+}
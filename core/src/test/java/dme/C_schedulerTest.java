@@ -0,0 +1,234 @@
+package dme;
+
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * C_schedulerTest class tests the per-resource lock table of the scheduler.
+ * Grants are collected by a strategy that records them instead of contacting nodes.
+ * Checks that returns are only accepted for a held epoch and from the node holding it.
+ * Checks that different resources are held at the same time, that a resource is granted to one holder
+ * at a time, that idle resources are evicted, and that shared requests are granted together
+ * without starving a waiting exclusive request. With pipelined handoff, checks that the next request
+ * in line is put on standby before it is granted. Then checks that a request whose deadline passes is dropped
+ * without a grant and counted as a deadline miss, and that requests with deadlines go earliest deadline first.
+ * Last, that admission control refuses requests over the capacity of their priority band or overall, with a
+ * retry-after hint, but not a request the node already made, and admits again once the queue drains.
+ * Then that two nodes giving the same node id and request id over sessions are told apart by the session's
+ * host, and over two sessions from one host the second is refused and cannot cancel the first one's request,
+ * nor release or renew its lease.
+ *
+ */
+public class C_schedulerTest {
+
+    private static final LinkedBlockingQueue<Lease> grants = new LinkedBlockingQueue<>();
+    private static final LinkedBlockingQueue<Request> standbys = new LinkedBlockingQueue<>();
+
+	/**
+	 * Main method to execute C_scheduler tests
+	 * @param args Command line arguments (not used)
+	 */
+    public static void main(String[] args) throws Exception {
+        boolean passed = true;
+        C_scheduler scheduler = new C_scheduler(new AgingPolicy(AgingPolicy.Mode.NONE, 0, 0), new GrantStrategy() {
+            public void open(C_scheduler s) {}
+            public boolean grant(Lease lease) { return grants.add(lease); }
+            public void standby(Request next) { standbys.add(next); }
+            public void close() {}
+        }, 60000);
+        scheduler.start();
+
+        scheduler.submit(request(1000, 1, "a"));
+        scheduler.submit(request(1001, 1, "b"));
+        scheduler.submit(request(1002, 5, "a"));
+        Lease first = grants.poll(1, TimeUnit.SECONDS);
+        Lease second = grants.poll(1, TimeUnit.SECONDS);
+        passed &= check("two resources held at once", 1, first != null && second != null ? 1 : 0);
+        passed &= check("one holder per resource", 0, grants.poll(100, TimeUnit.MILLISECONDS) == null ? 0 : 1);
+
+        Lease a = "a".equals(first.getRequest().getResource()) ? first : second;
+        Lease b = a == first ? second : first;
+        passed &= check("stale return rejected", 0, scheduler.tokenReturned(a.getEpoch() + 100, a.getRequest().getNode(), a.getRequest().getPort()) ? 1 : 0);
+        Request ra = a.getRequest();
+        passed &= check("return from another node rejected", 0, scheduler.tokenReturned(a.getEpoch(), ra.getNode(), ra.getPort() + 1) ? 1 : 0);
+        passed &= check("return accepted", 1, scheduler.tokenReturned(a.getEpoch(), ra.getNode(), ra.getPort()) ? 1 : 0);
+        Lease next = grants.poll(1, TimeUnit.SECONDS);
+        int waiting = a.getRequest().getPort() == 1000 ? 1002 : 1000; // The request on a not granted first
+        passed &= check("next request on a", waiting, next != null ? next.getRequest().getPort() : -1);
+
+        returnToken(scheduler, b);
+        returnToken(scheduler, next);
+
+        // A one-off request is keyed and returned by the address of its connection, whatever host it names
+        Request named = C_frameHandler.parseRequest("10.9.9.9 1003 1 c exclusive 7", "10.0.0.7");
+        Request other = C_frameHandler.parseRequest("10.9.9.9 1003 1 c exclusive 7", "10.0.0.8");
+        passed &= check("one-off requests keyed by connection address", 1, !named.getKey().equals(other.getKey()) ? 1 : 0);
+        scheduler.submit(named);
+        Lease c = grants.poll(1, TimeUnit.SECONDS);
+        passed &= check("return from the named host rejected", 0, scheduler.tokenReturned(c.getEpoch(), "10.9.9.9", 1003) ? 1 : 0);
+        passed &= check("return from the request's address accepted", 1, scheduler.tokenReturned(c.getEpoch(), "10.0.0.7", 1003) ? 1 : 0);
+        passed &= check("idle resources evicted", 0, scheduler.getResourceCount());
+
+        // Writer holds r, two readers then a writer queue behind it
+        scheduler.submit(request(2000, 1, "r"));
+        Lease writer = grants.poll(1, TimeUnit.SECONDS);
+        scheduler.submit(shared(request(2001, 5, "r")));
+        scheduler.submit(shared(request(2002, 4, "r")));
+        scheduler.submit(request(2003, 3, "r"));
+        returnToken(scheduler, writer);
+        Lease reader1 = grants.poll(1, TimeUnit.SECONDS);
+        Lease reader2 = grants.poll(1, TimeUnit.SECONDS);
+        passed &= check("shared requests granted together", 2, scheduler.getHolders("r").size());
+        scheduler.submit(shared(request(2004, 9, "r")));
+        passed &= check("reader waits behind queued writer", 0, grants.poll(100, TimeUnit.MILLISECONDS) == null ? 0 : 1);
+        returnToken(scheduler, reader1);
+        passed &= check("writer waits for last reader", 0, grants.poll(100, TimeUnit.MILLISECONDS) == null ? 0 : 1);
+        returnToken(scheduler, reader2);
+        Lease next2 = grants.poll(1, TimeUnit.SECONDS);
+        passed &= check("priority order once free", 2004, next2 != null ? next2.getRequest().getPort() : -1);
+        passed &= check("writer not joined to readers", 0, grants.poll(100, TimeUnit.MILLISECONDS) == null ? 0 : 1);
+        returnToken(scheduler, next2);
+        Lease next3 = grants.poll(1, TimeUnit.SECONDS);
+        passed &= check("writer granted after readers", 2003, next3 != null ? next3.getRequest().getPort() : -1);
+
+        // Pipelined handoff
+        returnToken(scheduler, next3);
+        scheduler.setPipelined(true);
+        scheduler.submit(request(3000, 1, "p"));
+        Lease holder = grants.poll(1, TimeUnit.SECONDS);
+        scheduler.submit(request(3001, 1, "p"));
+        Request standby = standbys.poll(1, TimeUnit.SECONDS);
+        passed &= check("next in line on standby", 3001, standby != null ? standby.getPort() : -1);
+        returnToken(scheduler, holder);
+        Lease warm = grants.poll(1, TimeUnit.SECONDS);
+        passed &= check("standby request granted", 3001, warm != null ? warm.getRequest().getPort() : -1);
+        // Counted just after the strategy takes the grant
+        for (int i = 0; i < 100 && scheduler.getStandbyHandoffStats().getCount() == 0; i++) Thread.sleep(10);
+        passed &= check("standby handoff counted", 1, scheduler.getStandbyHandoffStats().getCount());
+
+        // Deadlines: behind a holder, one request gives up after 100ms, the others are granted by deadline
+        scheduler.setPipelined(false);
+        returnToken(scheduler, warm);
+        long missed = Metrics.getInstance().getDeadlineMisses();
+        scheduler.submit(request(4000, 1, "d"));
+        Lease busy = grants.poll(1, TimeUnit.SECONDS);
+        scheduler.submit(maxWait(request(4001, 1, "d"), 100));
+        scheduler.submit(maxWait(request(4002, 1, "d"), 5000));
+        scheduler.submit(request(4003, 1, "d"));
+        scheduler.submit(maxWait(request(4004, 1, "d"), 2000));
+        Thread.sleep(300);
+        passed &= check("expired request dropped", 3, scheduler.getQueuedCount());
+        passed &= check("deadline miss counted", 1, Metrics.getInstance().getDeadlineMisses() - missed);
+        int order = 0;
+        for (Lease l = busy; l != null; l = grants.poll(1, TimeUnit.SECONDS)) {
+            if (l != busy) order = order * 10 + l.getRequest().getPort() - 4000;
+            returnToken(scheduler, l);
+            if (order >= 100) break;
+        }
+        passed &= check("earliest deadline first, then no deadline", 423, order);
+
+        // Admission control: behind a holder at most 3 requests queued, at most 2 of priority 1 to 4
+        TreeMap<Integer, Integer> bands = new TreeMap<>();
+        bands.put(1, 2);
+        scheduler.setAdmission(new AdmissionControl(3, bands, 10, 5000));
+        long rejections = Metrics.getInstance().getRejections();
+        scheduler.offer(request(5000, 1, "q"));
+        Lease gate = grants.poll(1, TimeUnit.SECONDS);
+        Request retried = request(5002, 1, "q");
+        retried.setRequestId(7);
+        passed &= check("admitted under capacity", 0, scheduler.offer(request(5001, 1, "q")) + scheduler.offer(retried));
+        long hint = scheduler.offer(request(5003, 1, "q"));
+        passed &= check("band full, refused with a retry-after", 1, hint >= 10 && hint <= 5000 ? 1 : 0);
+        passed &= check("room kept for higher priorities", 0, scheduler.offer(request(5004, 5, "q")));
+        passed &= check("overall capacity", 1, scheduler.offer(request(5005, 5, "q")) > 0 ? 1 : 0);
+        Request again = request(5002, 1, "q");
+        again.setRequestId(7);
+        passed &= check("request made again not refused", 0, scheduler.offer(again));
+        passed &= check("refused requests not queued", 3, scheduler.getQueuedCount());
+        passed &= check("rejections counted", 2, Metrics.getInstance().getRejections() - rejections);
+        returnToken(scheduler, gate);
+        Lease high = grants.poll(1, TimeUnit.SECONDS);
+        passed &= check("admitted once granted", 0, scheduler.offer(request(5006, 5, "q")));
+        for (Lease l = high; l != null; l = grants.poll(200, TimeUnit.MILLISECONDS)) {
+            returnToken(scheduler, l);
+        }
+        passed &= check("count back to 0 once drained", 0, scheduler.getAdmission().getQueued());
+
+        // Same node id and request id over three sessions, two of them from one host
+        scheduler.setAdmission(new AdmissionControl());
+        scheduler.submit(request(6000, 1, "k"));
+        Lease keyHolder = grants.poll(1, TimeUnit.SECONDS);
+        TestSession s1 = new TestSession("10.0.0.1"), s2 = new TestSession("10.0.0.2"), s3 = new TestSession("10.0.0.1");
+        String[] frame = "REQUEST 127.0.0.1 7 1 k EXCLUSIVE 1".split(" ");
+        C_frameHandler.handleSessionFrame(frame, s1, scheduler);
+        C_frameHandler.handleSessionFrame(frame, s2, scheduler);
+        passed &= check("same ids from two hosts queued apart", 2, scheduler.getQueuedCount());
+        String reply = C_frameHandler.handleSessionFrame(frame, s3, scheduler);
+        passed &= check("same key over another session refused", 1, reply != null && reply.startsWith(Protocol.REJECT + " ") ? 1 : 0);
+        C_frameHandler.handleSessionFrame("CANCEL 127.0.0.1 7 k 1".split(" "), s3, scheduler);
+        passed &= check("other session cannot cancel", 2, scheduler.getQueuedCount());
+        returnToken(scheduler, keyHolder);
+        Lease keyed = grants.poll(1, TimeUnit.SECONDS);
+        passed &= check("request kept its session", 1, keyed != null && keyed.getRequest().getSession() == s1 ? 1 : 0);
+        String epoch = keyed != null ? Long.toString(keyed.getEpoch()) : "-1";
+        passed &= check("release from another session rejected", 1,
+                Protocol.REJECTED.equals(C_frameHandler.handleSessionFrame(("RELEASE " + epoch + " 7").split(" "), s3, scheduler)) ? 1 : 0);
+        passed &= check("renewal from another session rejected", 1,
+                Protocol.REJECTED.equals(C_frameHandler.handleSessionFrame(("RENEW " + epoch + " 7").split(" "), s2, scheduler)) ? 1 : 0);
+        passed &= check("renewal from the holder's session", 1,
+                String.valueOf(C_frameHandler.handleSessionFrame(("RENEW " + epoch + " 7").split(" "), s1, scheduler)).startsWith(Protocol.RENEWED) ? 1 : 0);
+        C_frameHandler.handleSessionFrame("CANCEL 127.0.0.1 7 k 1".split(" "), s2, scheduler);
+        passed &= check("own session cancels", 0, scheduler.getQueuedCount());
+        if (keyed != null) scheduler.tokenReturned(keyed.getEpoch(), s1, 7);
+
+        scheduler.shutdown();
+        System.out.println(passed ? "Test passed successfully. \n" : "Test failed. \n");
+    }
+
+    /**
+     * Returns a lease as its node would over the return port
+     */
+    private static boolean returnToken(C_scheduler scheduler, Lease l) {
+        return scheduler.tokenReturned(l.getEpoch(), l.getRequest().getNode(), l.getRequest().getPort());
+    }
+
+    private static Request request(int port, int priority, String resource) {
+        Request r = new Request("Node" + port, port, priority);
+        r.setResource(resource);
+        return r;
+    }
+
+    private static Request maxWait(Request r, long millis) {
+        r.setMaxWait(millis);
+        return r;
+    }
+
+    private static Request shared(Request r) {
+        r.setMode(LockMode.SHARED);
+        return r;
+    }
+
+    /**
+     * Session of a node on a host, its grants are collected by the strategy
+     */
+    private static class TestSession implements NodeSession {
+        final String host;
+
+        TestSession(String host) {
+            this.host = host;
+        }
+
+        public boolean sendGrant(Lease lease) { return true; }
+        public boolean sendStandby(Request request) { return true; }
+        public boolean isOpen() { return true; }
+        public String getHost() { return host; }
+        public String describe() { return "session " + host; }
+    }
+
+    private static boolean check(String name, long expected, long actual) {
+        boolean ok = expected == actual;
+        System.out.println((ok ? "OK   " : "FAIL ") + name + ": expected " + expected + ", got " + actual);
+        return ok;
+    }
+}
@@ -0,0 +1,122 @@
+package dme;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * C_shardTest class tests consistent-hash sharding, three NIO coordinators in this JVM each owning part of the
+ * resources, then a fourth added. Checks that the ring spreads resources evenly and that adding a shard only moves
+ * resources to it, that clients send each lock to its owner (directly, or after MOVED from another shard), and
+ * that a lock held and a request queued on a resource that moves are handed over intact: the holder keeps its
+ * lease on the new shard, and the waiting node is granted there once it is returned, with a higher epoch.
+ *
+ */
+public class C_shardTest {
+
+    private static final int[] PORTS = {17403, 17413, 17423, 17433}; // Request ports, sessions on the port + 2
+
+	/**
+	 * Main method to execute C_shard tests
+	 * @param args Command line arguments (not used)
+	 */
+    public static void main(String[] args) throws Exception {
+        boolean passed = true;
+        List<String> names = new ArrayList<>();
+        for (int port : PORTS) names.add("127.0.0.1:" + (port + 2));
+        HashRing ring = new HashRing(names.subList(0, 3), 160);
+        HashRing grown = new HashRing(names, 160);
+
+        // 30,000 resources spread over the ring, a fourth shard takes about a quarter, all from the others
+        int[] owned = new int[4];
+        int moved = 0, movedElsewhere = 0;
+        for (int i = 0; i < 30000; i++) {
+            String r = "resource-" + i;
+            owned[names.indexOf(ring.owner(r))]++;
+            if (!ring.owner(r).equals(grown.owner(r))) {
+                moved++;
+                if (!grown.owner(r).equals(names.get(3))) movedElsewhere++;
+            }
+        }
+        System.out.println("Resources per shard: " + Arrays.toString(owned) + ", moved to a fourth: " + moved);
+        passed &= check("shares within 25% of even", 1, Math.min(owned[0], Math.min(owned[1], owned[2])) > 7500
+                && Math.max(owned[0], Math.max(owned[1], owned[2])) < 12500 ? 1 : 0);
+        passed &= check("about a quarter moved", 1, moved > 5000 && moved < 10000 ? 1 : 0);
+        passed &= check("moved only to the new shard", 0, movedElsewhere);
+
+        C_scheduler[] schedulers = new C_scheduler[4];
+        C_shard[] shards = new C_shard[4];
+        for (int i = 0; i < 4; i++) {
+            schedulers[i] = new C_scheduler(new AgingPolicy(AgingPolicy.Mode.NONE, 0, 0),
+                    new C_nioLoop(PORTS[i], PORTS[i] + 1, PORTS[i] + 2), 60000);
+            shards[i] = new C_shard(schedulers[i], ring, names.get(i), i); // The fourth starts owning nothing
+            schedulers[i].start();
+        }
+        try (DmeClient a = new DmeClient(ring, 0, 1);
+             DmeClient b = new DmeClient(ring, 0, 1);
+             DmeClient stray = new DmeClient(names.get(0), 0, 1)) {
+            // Every lock is granted by the shard owning it
+            List<DmeLock> locks = new ArrayList<>();
+            int[] expected = new int[3];
+            for (int i = 0; i < 30; i++) {
+                DmeLock l = a.getLock("held-" + i);
+                l.lock();
+                locks.add(l);
+                expected[names.indexOf(ring.owner("held-" + i))]++;
+            }
+            passed &= check("each lock granted by its owner", 1, schedulers[0].getResourceCount() == expected[0]
+                    && schedulers[1].getResourceCount() == expected[1] && schedulers[2].getResourceCount() == expected[2] ? 1 : 0);
+            for (DmeLock l : locks) l.unlock();
+
+            // A client knowing only the first shard is sent on with MOVED
+            String elsewhere = resourceOwnedBy(ring, names.get(1), "stray-");
+            DmeLock s = stray.getLock(elsewhere);
+            passed &= check("lock granted after MOVED", 1, s.tryLock(java.time.Duration.ofSeconds(3)) ? 1 : 0);
+            passed &= check("granted by the owner", 1, schedulers[1].getHolders(elsewhere).size());
+            passed &= check("nothing queued on the first shard", 0, schedulers[0].getQueuedCount() + schedulers[0].getHolders(elsewhere).size());
+            s.unlock();
+
+            // a holds a resource moving to the fourth shard and b waits for it, then the fourth shard is added
+            String moving = resourceOwnedBy(grown, names.get(3), "moving-");
+            int from = names.indexOf(ring.owner(moving));
+            DmeLock la = a.getLock(moving);
+            la.lock();
+            long heldEpoch = la.getEpoch();
+            CompletableFuture<DmeLock> waiting = b.getLock(moving).acquireAsync();
+            Thread.sleep(200);
+            passed &= check("b queued on the old owner", 1, schedulers[from].getQueuedCount());
+            int handedOver = 0;
+            for (C_shard shard : shards) handedOver += shard.reshard(grown);
+            passed &= check("only the moving resource handed over", 1, handedOver);
+            passed &= check("lease moved with its epoch", heldEpoch, schedulers[3].getHolders(moving).isEmpty() ? -1
+                    : schedulers[3].getHolders(moving).get(0).getEpoch());
+            passed &= check("waiting request moved", 1, schedulers[3].getQueuedCount());
+            passed &= check("old owner let go", 0, schedulers[from].getQueuedCount() + schedulers[from].getHolders(moving).size());
+            Thread.sleep(500); // a reclaims its lease and b reattaches to its request on the new shard
+            passed &= check("holder still holds", 1, la.isHeld() ? 1 : 0);
+            passed &= check("waiting node not granted while held", 0, waiting.isDone() ? 1 : 0);
+            la.unlock();
+            DmeLock lb = waiting.get(3, TimeUnit.SECONDS);
+            passed &= check("waiting node granted by the new shard", 1, schedulers[3].getHolders(moving).size());
+            passed &= check("epoch above the old owner's", 1, lb.getEpoch() > heldEpoch ? 1 : 0);
+            lb.unlock();
+        } finally {
+            for (C_scheduler scheduler : schedulers) scheduler.shutdown();
+        }
+        System.out.println(passed ? "Test passed successfully. \n" : "Test failed. \n");
+    }
+
+    private static String resourceOwnedBy(HashRing ring, String shard, String prefix) {
+        for (int i = 0; ; i++) {
+            if (ring.owner(prefix + i).equals(shard)) return prefix + i;
+        }
+    }
+
+    private static boolean check(String name, long expected, long actual) {
+        boolean ok = expected == actual;
+        System.out.println((ok ? "OK   " : "FAIL ") + name + ": expected " + expected + ", got " + actual);
+        return ok;
+    }
+}
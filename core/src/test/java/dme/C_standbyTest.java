@@ -0,0 +1,145 @@
+package dme;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * C_standbyTest class tests hot standby replication between two schedulers in this JVM.
+ * A primary streams its state to a C_standby over loopback, part as a snapshot and part as live changes,
+ * then stops. Checks that the standby takes over within its timeout with the leases and queue of the primary,
+ * that fencing epochs continue above the primary's, and that nodes reattach to their lease (with RENEW)
+ * and to their queued request (with REQUEST and the same request id), receiving the grant made while detached.
+ *
+ */
+public class C_standbyTest {
+
+    private static final int PORT = 17306;
+
+	/**
+	 * Main method to execute C_standby tests
+	 * @param args Command line arguments (not used)
+	 */
+    public static void main(String[] args) throws Exception {
+        boolean passed = true;
+        LinkedBlockingQueue<Lease> grants = new LinkedBlockingQueue<>();
+        C_scheduler primary = new C_scheduler(new AgingPolicy(AgingPolicy.Mode.NONE, 0, 0), strategy(grants), 60000);
+        C_replicator replicator = new C_replicator(primary, PORT);
+        replicator.start();
+        primary.start();
+
+        // Sent in the snapshot: a holds x, b and c wait
+        FakeSession sa = new FakeSession("a");
+        primary.submit(request(1, 1, "x", 11, sa));
+        Lease a = grants.poll(1, TimeUnit.SECONDS);
+        primary.submit(request(2, 5, "x", 12, new FakeSession("b")));
+        primary.submit(request(3, 1, "x", 13, new FakeSession("c")));
+
+        C_standby standby = new C_standby("127.0.0.1:" + PORT);
+        Thread follower = new Thread(() -> {
+            try {
+                standby.follow();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        follower.start();
+        Thread.sleep(300);
+
+        // Streamed live: d waits (no session), y is granted and returned
+        primary.submit(request(4, 3, "x", 0, null));
+        primary.submit(request(5, 1, "y", 15, new FakeSession("e")));
+        Lease e = grants.poll(1, TimeUnit.SECONDS);
+        primary.tokenReturned(e.getEpoch(), e.getRequest().getSession(), 5);
+        Thread.sleep(300);
+
+        // Primary stops, the standby takes over after its timeout
+        long stopped = System.nanoTime();
+        replicator.close();
+        primary.shutdown();
+        follower.join(5000);
+        long takeoverMillis = (System.nanoTime() - stopped) / 1_000_000L;
+        passed &= check("standby took over", 0, follower.isAlive() ? 1 : 0);
+        passed &= check("takeover within a second", 1, takeoverMillis < 1000 ? 1 : 0);
+        passed &= check("lease copied", 1, standby.getLeaseCount());
+        List<Request> queued = standby.getQueued();
+        passed &= check("queue copied", 3, queued.size());
+        passed &= check("queue in original order", 234,
+                queued.size() == 3 ? queued.get(0).getPort() * 100 + queued.get(1).getPort() * 10 + queued.get(2).getPort() : -1);
+        passed &= check("last epoch copied", e.getEpoch(), standby.getLastEpoch());
+
+        LinkedBlockingQueue<Lease> grants2 = new LinkedBlockingQueue<>();
+        C_scheduler taken = new C_scheduler(new AgingPolicy(AgingPolicy.Mode.NONE, 0, 0), strategy(grants2), 60000);
+        standby.restore(taken);
+        taken.start();
+        passed &= check("restored lease still holds x", 0, grants2.poll(200, TimeUnit.MILLISECONDS) == null ? 0 : 1);
+        passed &= check("restored lease kept its epoch", a.getEpoch(), taken.getHolders("x").get(0).getEpoch());
+
+        // a reattaches with RENEW and returns the token; b (highest priority) is granted while detached
+        FakeSession sa2 = new FakeSession("a2");
+        passed &= check("renew from another node rejected", 0, taken.renew(a.getEpoch(), sa2, 9) ? 1 : 0);
+        passed &= check("holder reattached with renew", 1, taken.renew(a.getEpoch(), sa2, 1) ? 1 : 0);
+        passed &= check("holder moved to its new session", 1, taken.getHolders("x").get(0).getRequest().getSession() == sa2 ? 1 : 0);
+        taken.tokenReturned(a.getEpoch(), sa2, 1);
+        Lease b = grants2.poll(1, TimeUnit.SECONDS);
+        passed &= check("queued request granted by new primary", 2, b != null ? b.getRequest().getPort() : -1);
+        passed &= check("epochs continue above the primary's", 1, b != null && b.getEpoch() > e.getEpoch() + 1000 ? 1 : 0);
+
+        // b reconnects and asks again with the same request id: reattached, not queued again, grant delivered
+        FakeSession sb2 = new FakeSession("b2");
+        taken.submit(request(2, 5, "x", 12, sb2));
+        passed &= check("reattached request not queued again", 2, taken.getQueuedCount());
+        Lease delivered = sb2.grants.poll(1, TimeUnit.SECONDS);
+        passed &= check("grant made while detached delivered", b != null ? b.getEpoch() : -1, delivered != null ? delivered.getEpoch() : -2);
+
+        taken.shutdown();
+        System.out.println(passed ? "Test passed successfully. \n" : "Test failed. \n");
+    }
+
+    /**
+     * Strategy delivering grants over the request's session, like the coordinator's, and recording them
+     */
+    private static GrantStrategy strategy(LinkedBlockingQueue<Lease> grants) {
+        return new GrantStrategy() {
+            public void open(C_scheduler s) {}
+            public boolean grant(Lease lease) {
+                NodeSession session = lease.getRequest().getSession();
+                grants.add(lease);
+                return session == null || (session.isOpen() && session.sendGrant(lease));
+            }
+            public void close() {}
+        };
+    }
+
+    private static Request request(int port, int priority, String resource, long requestId, NodeSession session) {
+        Request r = new Request("127.0.0.1", port, priority);
+        r.setResource(resource);
+        r.setRequestId(requestId);
+        r.setSession(session);
+        return r;
+    }
+
+    /**
+     * Session recording the grants sent over it
+     */
+    private static class FakeSession implements NodeSession {
+        final String name;
+        final LinkedBlockingQueue<Lease> grants = new LinkedBlockingQueue<>();
+
+        FakeSession(String name) {
+            this.name = name;
+        }
+
+        public boolean sendGrant(Lease lease) { return grants.add(lease); }
+        public boolean sendStandby(Request request) { return true; }
+        public boolean isOpen() { return true; }
+        public String getHost() { return "127.0.0.1"; }
+        public String describe() { return "session " + name; }
+    }
+
+    private static boolean check(String name, long expected, long actual) {
+        boolean ok = expected == actual;
+        System.out.println((ok ? "OK   " : "FAIL ") + name + ": expected " + expected + ", got " + actual);
+        return ok;
+    }
+}
@@ -0,0 +1,148 @@
+package dme;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * C_walTest class tests recovering a coordinator's state from its write-ahead log (C_wal).
+ * A scheduler logs with the "always" policy and small files, so the log rotates, and is abandoned without
+ * closing its log, as in a crash, with a torn line at the end. Checks that a new scheduler recovers the leases
+ * and queue in their original order, continues epochs above the old ones, and that old files were deleted.
+ * Then checks that a queue of 100k requests is recovered in under a second.
+ *
+ */
+public class C_walTest {
+
+	/**
+	 * Main method to execute C_wal tests
+	 * @param args Command line arguments (not used)
+	 */
+    public static void main(String[] args) throws Exception {
+        boolean passed = true;
+        Path dir = Files.createTempDirectory("dme-wal");
+        try {
+            passed &= crash(dir);
+            passed &= large(Files.createDirectories(dir.resolve("large")));
+        } finally {
+            delete(dir);
+        }
+        System.out.println(passed ? "Test passed successfully. \n" : "Test failed. \n");
+    }
+
+    private static boolean crash(Path dir) throws Exception {
+        boolean passed = true;
+        LinkedBlockingQueue<Lease> grants = new LinkedBlockingQueue<>();
+        C_scheduler s = new C_scheduler(new AgingPolicy(AgingPolicy.Mode.NONE, 0, 0), strategy(grants), 60000);
+        C_wal wal = new C_wal(s, dir, C_wal.Fsync.ALWAYS, 5, 20);
+        wal.open();
+        s.start();
+
+        // a holds x, b c d wait; y is granted and returned many times, rotating the log
+        s.submit(request(1, 1, "x", 11));
+        Lease a = grants.poll(1, TimeUnit.SECONDS);
+        s.submit(request(2, 5, "x", 12));
+        s.submit(request(3, 1, "x", 13));
+        s.submit(request(4, 3, "x", 0));
+        Lease y = null;
+        for (int i = 0; i < 30; i++) {
+            s.submit(request(5, 1, "y", 100 + i));
+            y = grants.poll(1, TimeUnit.SECONDS);
+            s.tokenReturned(y.getEpoch(), "127.0.0.1", 5);
+        }
+        Thread.sleep(100);
+        passed &= check("log rotated", 1, wal.getGeneration() > 1 ? 1 : 0);
+        passed &= check("older files deleted", 1, C_wal.generations(dir).size());
+
+        // Crash: the scheduler stops and the log is left as it is, with a torn last line
+        s.shutdown();
+        Files.write(dir.resolve(C_wal.name(C_wal.generations(dir).get(0))), "Q 99 127.0.0.1".getBytes(StandardCharsets.US_ASCII),
+                StandardOpenOption.APPEND);
+
+        LinkedBlockingQueue<Lease> grants2 = new LinkedBlockingQueue<>();
+        C_scheduler restarted = new C_scheduler(new AgingPolicy(AgingPolicy.Mode.NONE, 0, 0), strategy(grants2), 60000);
+        C_replica replica = C_wal.recover(dir, restarted);
+        passed &= check("lease recovered", 1, replica.getLeaseCount());
+        List<Request> queued = replica.getQueued();
+        passed &= check("queue recovered", 3, queued.size());
+        passed &= check("queue in original order", 234,
+                queued.size() == 3 ? queued.get(0).getPort() * 100 + queued.get(1).getPort() * 10 + queued.get(2).getPort() : -1);
+        passed &= check("last epoch recovered", y.getEpoch(), replica.getLastEpoch());
+        passed &= check("recovered lease kept its epoch", a.getEpoch(), restarted.getHolders("x").get(0).getEpoch());
+
+        restarted.start();
+        restarted.tokenReturned(a.getEpoch(), "127.0.0.1", 1);
+        Lease b = grants2.poll(1, TimeUnit.SECONDS);
+        passed &= check("queued request granted after restart", 2, b != null ? b.getRequest().getPort() : -1);
+        passed &= check("epochs continue above the old ones", 1, b != null && b.getEpoch() > y.getEpoch() + 1000 ? 1 : 0);
+        restarted.shutdown();
+        wal.close();
+        return passed;
+    }
+
+    /**
+     * Recovers a queue of 100k requests twice. The first recovery runs while the JIT compiles the replay,
+     * which is slow on a single CPU, so the time limit applies to the second.
+     */
+    private static boolean large(Path dir) throws Exception {
+        boolean passed = true;
+        writeQueue(dir, 100_000);
+        for (int run = 1; run <= 2; run++) {
+            C_scheduler restarted = new C_scheduler(new AgingPolicy(AgingPolicy.Mode.NONE, 0, 0), strategy(new LinkedBlockingQueue<>()), 60000);
+            long start = System.nanoTime();
+            C_wal.recover(dir, restarted);
+            long millis = (System.nanoTime() - start) / 1_000_000L;
+            System.out.println("Recovered 100k queued requests in " + millis + "ms" + (run == 1 ? " (cold)" : ""));
+            passed &= check("100k queue recovered", 100_000, restarted.getQueuedCount());
+            if (run == 2) passed &= check("100k queue recovered within a second", 1, millis < 1000 ? 1 : 0);
+        }
+        return passed;
+    }
+
+    private static void writeQueue(Path dir, int size) throws Exception {
+        C_scheduler s = new C_scheduler(new AgingPolicy(AgingPolicy.Mode.NONE, 0, 0), strategy(new LinkedBlockingQueue<>()), 60000);
+        C_wal wal = new C_wal(s, dir, C_wal.Fsync.BATCH, 5, 1_000_000);
+        wal.open();
+        for (int i = 0; i < size; i++) {
+            s.submit(request(9000 + i % 1000, i % 10, "q", 0));
+        }
+        wal.close();
+    }
+
+    /**
+     * Strategy recording grants
+     */
+    private static GrantStrategy strategy(LinkedBlockingQueue<Lease> grants) {
+        return new GrantStrategy() {
+            public void open(C_scheduler s) {}
+            public boolean grant(Lease lease) { return grants.add(lease); }
+            public void close() {}
+        };
+    }
+
+    private static Request request(int port, int priority, String resource, long requestId) {
+        Request r = new Request("127.0.0.1", port, priority);
+        r.setResource(resource);
+        r.setRequestId(requestId);
+        return r;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private static boolean check(String name, long expected, long actual) {
+        boolean ok = expected == actual;
+        System.out.println((ok ? "OK   " : "FAIL ") + name + ": expected " + expected + ", got " + actual);
+        return ok;
+    }
+}
@@ -0,0 +1,166 @@
+package dme;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DmeClientTest class tests the client library against an NIO coordinator running in this JVM.
+ * Checks that the threads of one client share a single request to the coordinator and never hold an
+ * exclusive lock together, that two clients exclude each other, that tryLock times out (cancelling its request) and acquireAsync
+ * completes once the lock is free, that the lease is renewed while held, and that a client fails over to
+ * the next coordinator in its list. In sticky mode, checks that the token is taken again without a grant, is
+ * recalled when another client asks for it, and goes back by itself once idle. With binary frames, checks that a
+ * named resource is locked, and that tryLock's wait reaches the coordinator.
+ *
+ */
+public class DmeClientTest {
+
+    private static final String COORDINATOR = "127.0.0.1:17205";
+
+	/**
+	 * Main method to execute DmeClient tests
+	 * @param args Command line arguments (not used)
+	 */
+    public static void main(String[] args) throws Exception {
+        boolean passed = true;
+        C_nioLoop loop = new C_nioLoop(17203, 17204, 17205);
+        C_scheduler scheduler = new C_scheduler(new AgingPolicy(AgingPolicy.Mode.NONE, 0, 0), loop, 2000);
+        scheduler.start();
+
+        // The unused address first: the clients fail over to the coordinator
+        try (DmeClient a = new DmeClient("127.0.0.1:17299," + COORDINATOR, 0, 1);
+             DmeClient b = new DmeClient(COORDINATOR, 0, 1)) {
+            DmeLock la = a.getLock("test");
+            DmeLock lb = b.getLock("test");
+            passed &= check("same lock instance per resource", 1, la == a.getLock("test") ? 1 : 0);
+
+            // b holds the lock while 20 threads of a queue behind it
+            lb.lock();
+            passed &= check("failed over to second coordinator", 1, waitConnected(a) ? 1 : 0);
+            AtomicInteger inside = new AtomicInteger();
+            AtomicInteger overlaps = new AtomicInteger();
+            AtomicInteger done = new AtomicInteger();
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                Thread t = new Thread(() -> {
+                    la.lock();
+                    try {
+                        if (inside.incrementAndGet() > 1) overlaps.incrementAndGet();
+                        Thread.sleep(5);
+                        inside.decrementAndGet();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        la.unlock();
+                        done.incrementAndGet();
+                    }
+                });
+                threads.add(t);
+                t.start();
+            }
+            Thread.sleep(300);
+            passed &= check("20 waiting threads send one request", 1, scheduler.getQueuedCount());
+            passed &= check("tryLock times out while held", 0, la.tryLock(Duration.ofMillis(100)) ? 1 : 0);
+
+            // Held past the 2 s lease: only renewals keep it
+            Thread.sleep(3000);
+            passed &= check("lease renewed while held", 1, lb.isHeld() ? 1 : 0);
+            lb.unlock();
+            for (Thread t : threads) t.join(10000);
+            passed &= check("every local thread got the lock", 20, done.get());
+            passed &= check("no overlapping holders", 0, overlaps.get());
+
+            // acquireAsync completes once the other client gives the lock back
+            la.lock();
+            CompletableFuture<DmeLock> f = lb.acquireAsync();
+            Thread.sleep(100);
+            passed &= check("async acquire waits", 0, f.isDone() ? 1 : 0);
+            la.unlock();
+            DmeLock got = f.get(5, TimeUnit.SECONDS);
+            passed &= check("async acquire completes", 1, got == lb && lb.isHeld() ? 1 : 0);
+            passed &= check("hold carries an epoch", 1, lb.getEpoch() > 0 ? 1 : 0);
+            lb.unlock();
+            passed &= check("unlock gives the epoch up", -1, lb.getEpoch());
+
+            // A tryLock that times out withdraws its request from the coordinator's queue
+            la.lock();
+            passed &= check("tryLock times out", 0, lb.tryLock(Duration.ofMillis(200)) ? 1 : 0);
+            Thread.sleep(100);
+            passed &= check("timed out request cancelled", 0, scheduler.getQueuedCount());
+            la.unlock();
+
+            // Shared locks are held by two clients at once
+            DmeLock ra = a.getLock("shared", LockMode.SHARED);
+            DmeLock rb = b.getLock("shared", LockMode.SHARED);
+            ra.lock();
+            passed &= check("shared lock held by both clients", 1, rb.tryLock(Duration.ofSeconds(2)) ? 1 : 0);
+            ra.unlock();
+            rb.unlock();
+
+            // Sticky mode: a keeps the token between critical sections until b asks for it
+            a.setStickyMillis(5000);
+            DmeLock sa = a.getLock("sticky");
+            DmeLock sb = b.getLock("sticky");
+            sa.lock();
+            long kept = sa.getEpoch();
+            sa.unlock();
+            long grants = Metrics.getInstance().getGrants();
+            sa.lock();
+            passed &= check("sticky token taken again without a grant", 1,
+                    sa.getEpoch() == kept && Metrics.getInstance().getGrants() == grants ? 1 : 0);
+            sa.unlock();
+            long recalls = Metrics.getInstance().getRecalls();
+            passed &= check("sticky token recalled for another client", 1, sb.tryLock(Duration.ofSeconds(2)) ? 1 : 0);
+            passed &= check("recall counted", 1, Metrics.getInstance().getRecalls() - recalls);
+            sb.unlock();
+            a.setStickyMillis(200);
+            sa.lock();
+            sa.unlock();
+            Thread.sleep(600);
+            passed &= check("idle sticky token given back", 0, scheduler.getResourceCount());
+            a.setStickyMillis(0);
+
+            boolean threw = false;
+            try {
+                la.unlock();
+            } catch (IllegalMonitorStateException e) {
+                threw = true;
+            }
+            passed &= check("unlock without holding rejected", 1, threw ? 1 : 0);
+        }
+
+        // Binary frames carry the resource name and the maximum wait in fields of their own
+        System.setProperty("dme.wire", "binary");
+        try (DmeClient c = new DmeClient(COORDINATOR, 0, 1);
+             DmeClient d = new DmeClient(COORDINATOR, 0, 1)) {
+            DmeLock lc = c.getLock("accounts");
+            DmeLock ld = d.getLock("accounts");
+            lc.lock();
+            passed &= check("binary client holds a named resource", 1, scheduler.getHolders("accounts").size());
+            passed &= check("binary tryLock times out while held", 0, ld.tryLock(Duration.ofMillis(200)) ? 1 : 0);
+            lc.unlock();
+            passed &= check("binary lock passed on", 1, ld.tryLock(Duration.ofSeconds(2)) ? 1 : 0);
+            ld.unlock();
+        } finally {
+            System.clearProperty("dme.wire");
+        }
+        scheduler.shutdown();
+
+        if (passed) System.out.println("Test passed successfully. \n");
+    }
+
+    private static boolean waitConnected(DmeClient client) throws InterruptedException {
+        for (int i = 0; i < 50 && !client.isConnected(); i++) Thread.sleep(100);
+        return client.isConnected();
+    }
+
+    private static boolean check(String name, long expected, long actual) {
+        boolean ok = expected == actual;
+        System.out.println((ok ? "OK   " : "FAIL ") + name + ": expected " + expected + ", got " + actual);
+        return ok;
+    }
+}
@@ -0,0 +1,76 @@
+package dme;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DmeThreadsTest class tests the choice of threads for handlers.
+ * Checks that platform threads are used by default, and that with -Ddme.threads=virtual the mode reported matches
+ * what this JDK supports: virtual threads on Java 21 or later, otherwise platform threads, the fallback being
+ * printed once however many executors are created.
+ *
+ */
+public class DmeThreadsTest {
+
+	/**
+	 * Main method to execute DmeThreads tests
+	 * @param args Command line arguments (not used)
+	 */
+    public static void main(String[] args) throws Exception {
+        boolean passed = true;
+        boolean jdkHasVirtual;
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            jdkHasVirtual = true;
+        } catch (NoSuchMethodException e) {
+            jdkHasVirtual = false;
+        }
+        passed &= check("virtual threads available on this JDK", jdkHasVirtual ? 1 : 0, DmeThreads.virtualAvailable() ? 1 : 0);
+
+        passed &= check("platform mode by default", 1, "platform".equals(DmeThreads.mode()) ? 1 : 0);
+        passed &= check("platform threads by default", 1, threadName(DmeThreads.newExecutor("dme-test")).startsWith("dme-test-") ? 1 : 0);
+
+        System.setProperty("dme.threads", "virtual");
+        PrintStream out = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        try {
+            String mode = DmeThreads.mode();
+            System.out.println("DmeThreadsTest - mode with virtual threads requested: " + mode);
+            passed &= check("requested mode reported", 1,
+                    (jdkHasVirtual ? "virtual".equals(mode) : mode.startsWith("platform (virtual threads requested")) ? 1 : 0);
+            System.setOut(new PrintStream(captured, true));
+            String first = threadName(DmeThreads.newExecutor("dme-virtual"));
+            threadName(DmeThreads.newExecutor("dme-virtual"));
+            System.setOut(out);
+            passed &= check("fallback to platform threads", jdkHasVirtual ? 0 : 1, first.startsWith("dme-virtual-") ? 1 : 0);
+            int warnings = captured.toString().split("virtual threads need Java 21", -1).length - 1;
+            passed &= check("fallback printed at most once", 1, warnings <= 1 ? 1 : 0);
+        } finally {
+            System.setOut(out);
+            System.clearProperty("dme.threads");
+        }
+
+        if (passed) System.out.println("Test passed successfully. \n");
+    }
+
+    /**
+     * Runs one task on an executor and shuts it down
+     * @return name of the thread the task ran on
+     */
+    private static String threadName(ExecutorService executor) throws Exception {
+        try {
+            return executor.submit(() -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static boolean check(String name, long expected, long actual) {
+        boolean ok = expected == actual;
+        System.out.println((ok ? "OK   " : "FAIL ") + name + ": expected " + expected + ", got " + actual);
+        return ok;
+    }
+}
@@ -0,0 +1,68 @@
+package dme;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * JournalTest class tests the binary event journal and its reader.
+ * Checks that records are read back in order across segments, that a reopened journal continues
+ * after its last record, and that wait and hold statistics are attributed to the right node.
+ *
+ */
+public class JournalTest {
+
+	/**
+	 * Main method to execute Journal tests
+	 * @param args Command line arguments (not used)
+	 */
+    public static void main(String[] args) throws Exception {
+        boolean passed = true;
+        Path dir = Files.createTempDirectory("journal-test");
+        int resource = "default".hashCode();
+
+        // Segments of two records each, so the run below spans several segments
+        Journal journal = new Journal(dir, Journal.HEADER_LENGTH + 2 * Journal.RECORD_LENGTH);
+        journal.append(Journal.REQUEST, 9101, resource, 1, 0, 1);
+        journal.append(Journal.REQUEST, 9102, resource, 1, 0, 2);
+        journal.append(Journal.GRANT, 9101, resource, 1, 1, 1);
+        Thread.sleep(5);
+        journal.append(Journal.RETURN, 9101, resource, 1, 1, 1);
+
+        // Reopen and continue
+        journal = new Journal(dir, Journal.HEADER_LENGTH + 2 * Journal.RECORD_LENGTH);
+        journal.append(Journal.GRANT, 9102, resource, 1, 2, 0);
+        journal.append(Journal.REVOKE, 9102, resource, 1, 2, 0);
+        journal.append(Journal.REQUEST, 9101, resource, 2, 0, 0);
+
+        passed &= check("segments written", 1, Files.exists(Journal.segmentPath(dir, 3)) ? 1 : 0);
+        long[] seen = {0, Long.MIN_VALUE, 0}; // Timestamps going backwards, previous timestamp, last type
+        long records = JournalTool.scan(dir, (type, nodeId, queueLength, res, requestId, epoch, timestamp) -> {
+            if (timestamp < seen[1]) seen[0]++;
+            seen[1] = timestamp;
+            seen[2] = type;
+        });
+        passed &= check("records read", 7, records);
+        passed &= check("records in order", 0, seen[0]);
+        passed &= check("last record", Journal.REQUEST, seen[2]);
+
+        Map<Integer, JournalTool.NodeStats> stats = new TreeMap<>();
+        JournalTool.stats(dir, stats);
+        JournalTool.NodeStats n1 = stats.get(9101), n2 = stats.get(9102);
+        passed &= check("node 9101 requests", 2, n1.requests);
+        passed &= check("node 9101 hold recorded", 1, n1.hold.count);
+        passed &= check("node 9101 held at least 5ms", 1, n1.hold.maxNanos >= 5_000_000 ? 1 : 0);
+        passed &= check("node 9102 waited for 9101", 1, n2.wait.maxNanos >= 5_000_000 ? 1 : 0);
+        passed &= check("node 9102 handoff recorded", 1, n2.handoff.count);
+        passed &= check("node 9102 revoked", 1, n2.revocations);
+
+        System.out.println(passed ? "Test passed successfully. \n" : "Test failed. \n");
+    }
+
+    private static boolean check(String name, long expected, long actual) {
+        boolean ok = expected == actual;
+        System.out.println((ok ? "OK   " : "FAIL ") + name + ": expected " + expected + ", got " + actual);
+        return ok;
+    }
+}
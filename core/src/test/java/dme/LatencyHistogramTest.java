@@ -0,0 +1,62 @@
+package dme;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * LatencyHistogramTest class tests the log-linear latency histogram.
+ * Records random durations from nanoseconds to seconds and checks that every percentile reported
+ * is within the histogram's precision of the exact percentile, and that recording from several threads loses nothing.
+ *
+ */
+public class LatencyHistogramTest {
+
+	/**
+	 * Main method to execute LatencyHistogram tests
+	 * @param args Command line arguments (not used)
+	 */
+    public static void main(String[] args) throws Exception {
+        boolean passed = true;
+
+        LatencyHistogram h = new LatencyHistogram();
+        passed &= check("empty p99", 0, h.getPercentile(99));
+
+        Random random = new Random(42);
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * Math.log(5e9)); // 1 ns to 5 s, spread over every scale
+            h.record(values[i]);
+        }
+        Arrays.sort(values);
+        passed &= check("count", values.length, h.getCount());
+        passed &= check("max", values[values.length - 1], h.getMax());
+        int outside = 0;
+        for (double p : new double[] {1, 10, 50, 90, 99, 99.9, 99.99}) {
+            long exact = values[(int) Math.ceil(p / 100 * values.length) - 1];
+            if (Math.abs(h.getPercentile(p) - exact) > Math.max(1, exact / 64)) {
+                System.out.println("     p" + p + ": expected " + exact + ", got " + h.getPercentile(p));
+                outside++;
+            }
+        }
+        passed &= check("percentiles within 1/64", 0, outside);
+
+        LatencyHistogram shared = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) shared.record(1000 + i);
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+        passed &= check("concurrent count", 200_000, shared.getCount());
+
+        System.out.println(passed ? "Test passed successfully. \n" : "Test failed. \n");
+    }
+
+    private static boolean check(String name, long expected, long actual) {
+        boolean ok = expected == actual;
+        System.out.println((ok ? "OK   " : "FAIL ") + name + ": expected " + expected + ", got " + actual);
+        return ok;
+    }
+}
@@ -0,0 +1,59 @@
+package dme;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * MainTests runs the main-style tests under the build.
+ * Each test prints "OK"/"FAIL" per check and "Test passed successfully." when every check held;
+ * their output is captured (and still shown) and a test fails the build unless it reports success.
+ *
+ */
+public class MainTests {
+
+    @ParameterizedTest
+    @ValueSource(strings = {"PriorityQueueTest", "C_bufferTest", "C_schedulerTest", "WireCodecTest",
+            "JournalTest", "LatencyHistogramTest", "DmeClientTest", "C_standbyTest", "C_walTest", "PeerMutexTest", "DmeThreadsTest",
+            "C_shardTest"})
+    void passes(String test) throws Exception {
+        PrintStream out = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(new TeeStream(out, captured), true));
+        try {
+            Class.forName("dme." + test).getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+        } finally {
+            System.setOut(out);
+        }
+        String output = captured.toString();
+        assertTrue(output.contains("Test passed successfully.") && !output.contains("FAIL "), test + " failed");
+    }
+
+    /**
+     * Writes to the original stream and the capture buffer
+     */
+    private static class TeeStream extends java.io.OutputStream {
+        private final PrintStream out;
+        private final ByteArrayOutputStream copy;
+
+        TeeStream(PrintStream out, ByteArrayOutputStream copy) {
+            this.out = out;
+            this.copy = copy;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            out.write(b);
+            copy.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            out.write(b, off, len);
+            copy.write(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package dme;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PeerMutexTest class tests the peer-to-peer mode, five peers in this JVM passing the token over loopback.
+ * Checks that the holder re-enters without sending anything, that waiting peers get the token in priority
+ * order, and that peers entering concurrently never overlap and all get through.
+ *
+ */
+public class PeerMutexTest {
+
+	/**
+	 * Main method to execute PeerMutex tests
+	 * @param args Command line arguments (not used)
+	 */
+    public static void main(String[] args) throws Exception {
+        boolean passed = true;
+        int[] priorities = {1, 1, 5, 3, 1};
+        List<PeerMutex> peers = new ArrayList<>();
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (int p : priorities) {
+            PeerMutex m = new PeerMutex(0, p, new AgingPolicy(AgingPolicy.Mode.NONE, 0, 0));
+            peers.add(m);
+            addresses.add(new InetSocketAddress("127.0.0.1", m.getPort()));
+        }
+        for (int i = 0; i < peers.size(); i++) peers.get(i).start(addresses, i);
+        try {
+            // Peer 0 starts with the token and keeps it while nobody asks
+            peers.get(0).lock();
+            peers.get(0).unlock();
+            peers.get(0).lock();
+            passed &= check("holder re-enters without messages", 0, peers.get(0).getMessagesSent());
+
+            // Peers 1, 2 and 3 wait while 0 holds the token, then get it by priority (5, 3, 1)
+            List<Integer> order = new CopyOnWriteArrayList<>();
+            List<Thread> waiting = new ArrayList<>();
+            for (int i = 1; i <= 3; i++) {
+                int peer = i;
+                waiting.add(start(() -> {
+                    peers.get(peer).lock();
+                    order.add(peer);
+                    peers.get(peer).unlock();
+                }));
+            }
+            Thread.sleep(300);
+            passed &= check("nobody enters while held", 0, order.size());
+            peers.get(0).unlock();
+            for (Thread t : waiting) t.join(5000);
+            passed &= check("waiting peers served by priority", 231,
+                    order.size() == 3 ? order.get(0) * 100 + order.get(1) * 10 + order.get(2) : -1);
+
+            // Every peer enters 50 times at once
+            AtomicInteger inside = new AtomicInteger();
+            AtomicInteger overlaps = new AtomicInteger();
+            AtomicInteger entries = new AtomicInteger();
+            List<Thread> workers = new ArrayList<>();
+            for (PeerMutex m : peers) {
+                workers.add(start(() -> {
+                    for (int i = 0; i < 50; i++) {
+                        m.lock();
+                        if (inside.incrementAndGet() > 1) overlaps.incrementAndGet();
+                        entries.incrementAndGet();
+                        inside.decrementAndGet();
+                        m.unlock();
+                    }
+                }));
+            }
+            for (Thread t : workers) t.join(30000);
+            passed &= check("every entry made", 250, entries.get());
+            passed &= check("no overlapping holders", 0, overlaps.get());
+            long sent = 0;
+            for (PeerMutex m : peers) sent += m.getMessagesSent();
+            System.out.println("Messages sent for " + entries.get() + " contended entries: " + sent);
+        } finally {
+            for (PeerMutex m : peers) m.close();
+        }
+        System.out.println(passed ? "Test passed successfully. \n" : "Test failed. \n");
+    }
+
+    private interface Body {
+        void run() throws Exception;
+    }
+
+    private static Thread start(Body body) {
+        Thread t = new Thread(() -> {
+            try {
+                body.run();
+            } catch (Exception e) {
+                System.out.println("FAIL " + e);
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    private static boolean check(String name, long expected, long actual) {
+        boolean ok = expected == actual;
+        System.out.println((ok ? "OK   " : "FAIL ") + name + ": expected " + expected + ", got " + actual);
+        return ok;
+    }
+}
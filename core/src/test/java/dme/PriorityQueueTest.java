@@ -1,3 +1,5 @@
+package dme;
+
 import java.util.PriorityQueue;
 
 /**
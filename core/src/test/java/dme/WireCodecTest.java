@@ -0,0 +1,98 @@
+package dme;
+
+import java.nio.ByteBuffer;
+
+/**
+ * WireCodecTest class tests the binary wire protocol.
+ * Checks that frames survive an encode/decode round trip, with and without a resource name, that partial frames
+ * wait for more bytes, and that corrupted frames and resource names are reported as malformed.
+ *
+ */
+public class WireCodecTest {
+
+	/**
+	 * Main method to execute WireCodec tests
+	 * @param args Command line arguments (not used)
+	 */
+    public static void main(String[] args) {
+        boolean passed = true;
+        ByteBuffer buf = ByteBuffer.allocate(3 * WireCodec.MAX_FRAME_LENGTH);
+        WireMessage m = new WireMessage();
+
+        // Round trip
+        WireCodec.encode(buf, WireCodec.GRANT, 9101, 4, 77L, 12L, 10000L);
+        buf.flip();
+        passed &= check("decode ok", WireCodec.OK, WireCodec.decode(buf, m));
+        passed &= check("type", WireCodec.GRANT, m.type);
+        passed &= check("node id", 9101, m.nodeId);
+        passed &= check("priority", 4, m.priority);
+        passed &= check("request id", 77, m.requestId);
+        passed &= check("epoch", 12, m.epoch);
+        passed &= check("lease", 10000, m.arg);
+        passed &= check("buffer consumed", 0, buf.remaining());
+        passed &= check("no resource", 1, m.resource == null ? 1 : 0);
+
+        // Request naming its resource, with its own maximum wait field
+        buf.clear();
+        WireCodec.encode(buf, WireCodec.REQUEST, WireCodec.FLAG_SHARED, 9101, 4, 78L, 0, 0, 250, "accounts");
+        WireCodec.encode(buf, WireCodec.REQUEST, 0, 9101, 4, 79L, 0, 0, 0, "accounts");
+        passed &= check("frame length with name", 2 * WireCodec.frameLength("accounts"), buf.position());
+        buf.flip();
+        passed &= check("decode request ok", WireCodec.OK, WireCodec.decode(buf, m));
+        passed &= check("resource name", 1, "accounts".equals(m.resource) ? 1 : 0);
+        passed &= check("max wait", 250, m.maxWait);
+        passed &= check("epoch not used for max wait", 0, m.epoch);
+        passed &= check("flags", WireCodec.FLAG_SHARED, m.flags);
+        String first = m.resource;
+        WireCodec.decode(buf, m);
+        passed &= check("same name reused", 1, m.resource == first ? 1 : 0);
+        passed &= check("no max wait", 0, m.maxWait);
+
+        // Resource names that do not fit a frame
+        int refused = 0;
+        try {
+            WireCodec.checkResource("two words");
+        } catch (IllegalArgumentException e) {
+            refused++;
+        }
+        try {
+            WireCodec.checkResource(new String(new char[WireCodec.MAX_RESOURCE_LENGTH + 1]).replace('\0', 'x'));
+        } catch (IllegalArgumentException e) {
+            refused++;
+        }
+        passed &= check("bad resource names refused", 2, refused);
+        buf.clear();
+        WireCodec.encode(buf, WireCodec.CANCEL, 0, 9101, 4, 78L, 0, 0, 0, "ab");
+        buf.put(WireCodec.FRAME_LENGTH, (byte) ' ');
+        buf.flip();
+        passed &= check("space in name", WireCodec.MALFORMED, WireCodec.decode(buf, m));
+        buf.put(1, (byte) (WireCodec.BODY_LENGTH + 1));
+        passed &= check("name length mismatch", WireCodec.MALFORMED, WireCodec.decode(buf, m));
+
+        // Partial frame
+        buf.clear();
+        WireCodec.encode(buf, WireCodec.REQUEST, 1, 1, 1, 0, 0);
+        buf.flip();
+        buf.limit(WireCodec.FRAME_LENGTH - 1);
+        passed &= check("partial frame", WireCodec.NEED_MORE, WireCodec.decode(buf, m));
+        passed &= check("position unchanged", 0, buf.position());
+
+        // Corrupted magic
+        buf.limit(WireCodec.FRAME_LENGTH);
+        buf.put(2, (byte) 0);
+        passed &= check("bad magic", WireCodec.MALFORMED, WireCodec.decode(buf, m));
+
+        // No room to encode
+        buf.clear();
+        buf.position(buf.capacity() - 1);
+        passed &= check("encode without room", 0, WireCodec.encode(buf, m) ? 1 : 0);
+
+        System.out.println(passed ? "Test passed successfully. \n" : "Test failed. \n");
+    }
+
+    private static boolean check(String name, long expected, long actual) {
+        boolean ok = expected == actual;
+        System.out.println((ok ? "OK   " : "FAIL ") + name + ": expected " + expected + ", got " + actual);
+        return ok;
+    }
+}